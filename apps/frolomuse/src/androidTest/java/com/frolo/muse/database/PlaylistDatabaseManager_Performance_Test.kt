@@ -4,6 +4,8 @@ package com.frolo.muse.database
 
 import androidx.test.InstrumentationRegistry
 import androidx.test.runner.AndroidJUnit4
+import com.frolo.muse.database.entity.PlaylistMemberEntity
+import com.frolo.muse.database.entity.orderPlaylistMembers
 import com.frolo.muse.di.impl.local.PlaylistDatabaseManager
 import com.frolo.music.model.Song
 import com.frolo.music.model.test.stubSongList
@@ -54,12 +56,70 @@ class PlaylistDatabaseManager_Performance_Test {
         test_Performance_addPlaylistMembers(1_000, 5_000L)
     }
 
+    @Test
+    fun test_Performance_addPlaylistMembers_LargeCount() {
+        // 50_000 ms for 10_000 new members
+        test_Performance_addPlaylistMembers(10_000, 50_000L)
+    }
+
     @Test
     fun test_Performance_addPlaylistMembers_HugeCount() {
         // 150_000 ms for 3_0000 new members
         test_Performance_addPlaylistMembers(3_0000, 150_000L)
     }
 
+    /**
+     * Queries a playlist of [count] members, whose songs are not on the device.
+     * So this measures ordering of the members and removing all of them in one batch.
+     */
+    private fun test_Performance_queryPlaylistMembers(count: Int, criticalTime: Long) {
+        val manager = obtainClearedPlaylistDatabaseManager()
+        val songs: List<Song> = stubSongList(size = count)
+        val playlist = manager.createPlaylist("TestPlaylist").blockingGet()
+        manager.addPlaylistMembers(playlist.id, songs).blockingAwait()
+        val startTime = currentTimestamp()
+        manager.queryPlaylistMembers(playlist.id).blockingFirst()
+        val elapsedTime = currentTimestamp() - startTime
+        val message = "Database took $elapsedTime millis to query and clean up $count playlist members"
+        if (elapsedTime >= criticalTime) {
+            throw BadDatabasePerformanceException(message)
+        } else {
+            println(message)
+        }
+    }
+
+    @Test
+    fun test_Performance_queryPlaylistMembers_LargeCount() {
+        // 10_000 ms for 10_000 members
+        test_Performance_queryPlaylistMembers(10_000, 10_000L)
+    }
+
+    @Test
+    fun test_Performance_orderPlaylistMembers_LargeCount() {
+        // 500 ms to order 10_000 shuffled members
+        val count = 10_000
+        val entities = List(count) { index ->
+            val id = index + 1L
+            PlaylistMemberEntity(
+                id = id,
+                prevId = if (index > 0) id - 1 else null,
+                nextId = if (index < count - 1) id + 1 else null,
+                audioId = id,
+                playlistId = 1L,
+                source = null
+            )
+        }.shuffled()
+        val startTime = currentTimestamp()
+        val orderedEntities = orderPlaylistMembers(entities)
+        val elapsedTime = currentTimestamp() - startTime
+        val message = "Took $elapsedTime millis to order $count playlist members"
+        if (orderedEntities.size != count || elapsedTime >= 500L) {
+            throw BadDatabasePerformanceException(message)
+        } else {
+            println(message)
+        }
+    }
+
 //    @Test
 //    fun test_Performance_addPlaylistMembers_InsaneCount() {
 //        // 5_000_000 ms for 10_0000 new members
@@ -0,0 +1,127 @@
+@file:Suppress("ClassName")
+
+package com.frolo.muse.di.impl.local
+
+import android.content.ContentProvider
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.content.pm.ProviderInfo
+import android.database.Cursor
+import android.net.Uri
+import android.provider.MediaStore
+import android.test.mock.MockContentResolver
+import androidx.test.InstrumentationRegistry
+import androidx.test.runner.AndroidJUnit4
+import com.frolo.music.model.Album
+import com.frolo.music.model.SongFilter
+import com.frolo.music.model.SongType
+import io.reactivex.Flowable
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * Compares the single-query aggregate filtering of albums with the per-album filtering
+ * on the media library of the device. The per-album filtering issues one query per album,
+ * while the aggregate filtering issues one query per emitted list.
+ * The queries are counted by a provider that forwards them to the media provider.
+ */
+@RunWith(AndroidJUnit4::class)
+class SongQueryHelper_Performance_Test {
+
+    /**
+     * Forwards queries to [delegate] and counts them.
+     */
+    private class CountingProvider(private val delegate: ContentResolver) : ContentProvider() {
+        val queryCount = AtomicInteger(0)
+
+        override fun onCreate(): Boolean = true
+
+        override fun query(
+            uri: Uri,
+            projection: Array<out String>?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+            sortOrder: String?
+        ): Cursor? {
+            queryCount.incrementAndGet()
+            return delegate.query(uri, projection, selection, selectionArgs, sortOrder)
+        }
+
+        override fun getType(uri: Uri): String? = delegate.getType(uri)
+
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = throw UnsupportedOperationException()
+
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int =
+            throw UnsupportedOperationException()
+
+        override fun update(
+            uri: Uri,
+            values: ContentValues?,
+            selection: String?,
+            selectionArgs: Array<out String>?
+        ): Int = throw UnsupportedOperationException()
+    }
+
+    private fun currentTimestamp(): Long = System.currentTimeMillis()
+
+    private val filter: SongFilter = SongFilter.Builder()
+        .setOnlyType(SongType.MUSIC)
+        .setMinDuration(30_000L)
+        .build()
+
+    private fun <T> measure(block: () -> T): Pair<T, Long> {
+        val startTime = currentTimestamp()
+        val result = block()
+        return result to (currentTimestamp() - startTime)
+    }
+
+    /**
+     * The per-album filtering that [SongQueryHelper.filterAlbums] replaces: one query for each album.
+     */
+    private fun filterAlbumsPerItem(resolver: ContentResolver, albums: List<Album>): List<Album> {
+        return albums.filter { album ->
+            val albumFilter = filter.newBuilder().setAlbumId(album.id).build()
+            val selectionWithArgs = SongQueryHelper.getSelectionWithArgs(albumFilter)
+            val cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                arrayOf(MediaStore.Audio.Media._ID), selectionWithArgs.selection, selectionWithArgs.args, null)
+                ?: throw NullPointerException("Query returned null cursor")
+            cursor.use { it.count > 0 }
+        }
+    }
+
+    @Test
+    fun test_Performance_filterAlbums() {
+        val context = InstrumentationRegistry.getTargetContext()
+        val albums: List<Album> = AlbumQuery.queryAll(context.contentResolver,
+                SongFilter.allEnabled(), AlbumQuery.Sort.BY_ALBUM)
+            .blockingFirst()
+        val source = Flowable.just(albums)
+
+        val provider = CountingProvider(context.contentResolver)
+        provider.attachInfo(context, ProviderInfo().apply { authority = MediaStore.AUTHORITY })
+        val resolver = MockContentResolver(context)
+        resolver.addProvider(MediaStore.AUTHORITY, provider)
+
+        val (perItemResult, perItemTime) = measure { filterAlbumsPerItem(resolver, albums) }
+        val perItemQueryCount = provider.queryCount.getAndSet(0)
+
+        val (aggregateResult, aggregateTime) = measure {
+            SongQueryHelper.filterAlbums(resolver, source, filter).blockingFirst()
+        }
+        val aggregateQueryCount = provider.queryCount.getAndSet(0)
+
+        assertEquals(perItemResult.map { it.id }.sorted(), aggregateResult.map { it.id }.sorted())
+        assertEquals(albums.size, perItemQueryCount)
+        if (albums.isNotEmpty()) {
+            // One query no matter how many albums there are
+            assertEquals(1, aggregateQueryCount)
+        }
+        println("Filtering ${albums.size} albums: " +
+                "per-album filtering took $perItemTime millis and $perItemQueryCount queries, " +
+                "aggregate filtering took $aggregateTime millis and $aggregateQueryCount queries")
+    }
+
+}
@@ -30,6 +30,18 @@ fun SendTextFileIntent(context: Context, file: File): Intent {
     return intent
 }
 
+fun SendFilesIntent(context: Context, files: List<File>): Intent {
+    val intent = Intent(Intent.ACTION_SEND_MULTIPLE)
+    if (OS.isAtLeastN()) {
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+    }
+    val uris = files.mapTo(ArrayList<Uri>(files.size)) { context.resolveUri(it) }
+    intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris)
+    intent.type = "*/*"
+    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+    return intent
+}
+
 fun getLinkToAppPageInPlayStore(packageName: String): String {
     return "http://play.google.com/store/apps/details?id=$packageName"
 }
@@ -7,7 +7,7 @@ import com.frolo.muse.database.entity.PlaylistMemberEntity
 
 
 @Database(
-    version = 1,
+    version = 2,
     entities = [
         PlaylistEntity::class,
         PlaylistMemberEntity::class
@@ -0,0 +1,52 @@
+package com.frolo.muse.database
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.frolo.muse.database.entity.PlaylistMemberEntity
+import com.frolo.muse.database.entity.orderPlaylistMembers
+import com.frolo.muse.database.entity.rebalancedPosition
+
+
+/**
+ * Replaces the doubly linked list of playlist members with sortable positions.
+ * Each playlist is chained by its legacy links (tolerating broken links, if any),
+ * then the members get positions in that order and their links are cleared.
+ */
+val MIGRATION_1_2: Migration = object : Migration(1, 2) {
+    override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("ALTER TABLE playlist_members ADD COLUMN position INTEGER NOT NULL DEFAULT 0")
+        database.execSQL("CREATE INDEX IF NOT EXISTS index_playlist_members_playlist_id_position " +
+                "ON playlist_members (playlist_id, position)")
+
+        // Legacy links of all members, grouped by playlist
+        val entitiesByPlaylistId = HashMap<Long, MutableList<PlaylistMemberEntity>>()
+        database.query("SELECT id, prev_id, next_id, playlist_id FROM playlist_members ORDER BY id").use { cursor ->
+            while (cursor.moveToNext()) {
+                val entity = PlaylistMemberEntity(
+                    id = cursor.getLong(0),
+                    prevId = if (cursor.isNull(1)) null else cursor.getLong(1),
+                    nextId = if (cursor.isNull(2)) null else cursor.getLong(2),
+                    audioId = null,
+                    playlistId = cursor.getLong(3),
+                    source = null
+                )
+                entitiesByPlaylistId.getOrPut(entity.playlistId) { ArrayList() }.add(entity)
+            }
+        }
+
+        val statement = database.compileStatement(
+            "UPDATE playlist_members SET position = ?, prev_id = NULL, next_id = NULL WHERE id = ?")
+        for (entities in entitiesByPlaylistId.values) {
+            val orderedEntities = orderPlaylistMembers(entities)
+            orderedEntities.forEachIndexed { index, entity ->
+                statement.bindLong(1, rebalancedPosition(index))
+                statement.bindLong(2, entity.id)
+                statement.executeUpdateDelete()
+                statement.clearBindings()
+            }
+        }
+        statement.close()
+    }
+}
+
+val ALL_MIGRATIONS: Array<Migration> = arrayOf(MIGRATION_1_2)
@@ -2,7 +2,10 @@ package com.frolo.muse.database
 
 import androidx.annotation.WorkerThread
 import androidx.room.*
+import com.frolo.muse.database.entity.POSITION_GAP
 import com.frolo.muse.database.entity.PlaylistMemberEntity
+import com.frolo.muse.database.entity.positionBetween
+import com.frolo.muse.database.entity.rebalancePositions
 import io.reactivex.Completable
 import io.reactivex.Flowable
 import org.jetbrains.annotations.TestOnly
@@ -11,9 +14,13 @@ import org.jetbrains.annotations.TestOnly
 @Dao
 abstract class PlaylistMemberEntityDao {
 
-    @Query("SELECT * FROM playlist_members WHERE playlist_id = :playlistId")
+    @Query("SELECT * FROM playlist_members WHERE playlist_id = :playlistId ORDER BY position, id")
     abstract fun getAllPlaylistMemberEntities(playlistId: Long): Flowable<List<PlaylistMemberEntity>>
 
+    @WorkerThread
+    @Query("SELECT * FROM playlist_members WHERE playlist_id = :playlistId ORDER BY position, id")
+    abstract fun blockingGetAllPlaylistMemberEntities(playlistId: Long): List<PlaylistMemberEntity>
+
     @WorkerThread
     @Insert
     abstract fun blockingInsertPlaylistMemberEntity(entity: PlaylistMemberEntity): Long
@@ -29,20 +36,30 @@ abstract class PlaylistMemberEntityDao {
     @WorkerThread
     @Query("""
         UPDATE playlist_members 
-        SET prev_id = :newPrevId 
+        SET position = :newPosition 
         WHERE id = :entityId 
         AND playlist_id = :playlistId
         """)
-    abstract fun blockingUpdatePrevId(entityId: Long, playlistId: Long, newPrevId: Long?)
+    abstract fun blockingUpdatePosition(entityId: Long, playlistId: Long, newPosition: Long)
+
+    @WorkerThread
+    @Query("SELECT MAX(position) FROM playlist_members WHERE playlist_id = :playlistId")
+    abstract fun blockingGetLastPosition(playlistId: Long): Long?
 
     @WorkerThread
     @Query("""
-        UPDATE playlist_members 
-        SET next_id = :newNextId 
-        WHERE id = :entityId 
-        AND playlist_id = :playlistId
+        SELECT COUNT(*) FROM playlist_members 
+        WHERE playlist_id = :playlistId 
+        AND position > :fromPosition 
+        AND position < :toPosition 
+        AND id != :excludedId
         """)
-    abstract fun blockingUpdateNextId(entityId: Long, playlistId: Long, newNextId: Long?)
+    abstract fun blockingCountPlaylistMembersBetween(
+        playlistId: Long,
+        fromPosition: Long,
+        toPosition: Long,
+        excludedId: Long
+    ): Int
 
     @Query("SELECT * FROM playlist_members WHERE playlist_id = :playlistId AND audio_id = :audioId")
     abstract fun blockingGetPlaylistMemberEntityByAudioId(playlistId: Long, audioId: Long): PlaylistMemberEntity?
@@ -62,15 +79,14 @@ abstract class PlaylistMemberEntityDao {
     @Query("SELECT * FROM playlist_members WHERE id = :entityId")
     abstract fun blockingFindPlaylistMemberEntityById(entityId: Long): PlaylistMemberEntity?
 
-    @Query("SELECT * FROM playlist_members WHERE playlist_id = :playlistId AND next_id is NULL")
-    abstract fun blockingFindLastPlaylistMemberEntity(playlistId: Long): PlaylistMemberEntity?
-
     @WorkerThread
     @Transaction
     open fun blockingAddPlaylistMemberEntities(
         entities: List<PlaylistMemberEntity>,
         allowDuplicateAudio: Boolean
     ) {
+        // Lazily queried, then advanced locally
+        val lastPositions = HashMap<Long, Long?>()
         entities.forEach { entity ->
             val playlistId = entity.playlistId
             if (!allowDuplicateAudio && entity.audioId != null) {
@@ -83,29 +99,50 @@ abstract class PlaylistMemberEntityDao {
                     return@forEach
                 }
             }
-            val currLastMemberEntity = blockingFindLastPlaylistMemberEntity(playlistId)
-            val newLastMemberEntity = entity.copy(prevId = currLastMemberEntity?.id)
-            val id = blockingInsertPlaylistMemberEntity(newLastMemberEntity)
-            currLastMemberEntity?.copy(nextId = id)?.also(::blockingUpdatePlaylistMemberEntity)
+            val lastPosition = if (lastPositions.containsKey(playlistId)) {
+                lastPositions[playlistId]
+            } else {
+                blockingGetLastPosition(playlistId)
+            }
+            val position = requireNotNull(positionBetween(lastPosition, null))
+            blockingInsertPlaylistMemberEntity(entity.copy(prevId = null, nextId = null, position = position))
+            lastPositions[playlistId] = position
         }
     }
 
+    /**
+     * Removes [entities] from their playlists. As the play order is determined by positions,
+     * the remaining members are not affected.
+     */
+    @WorkerThread
+    fun blockingRemoveMembersFromPlaylist(entities: List<PlaylistMemberEntity>) {
+        if (entities.isNotEmpty()) blockingDeletePlaylistMemberEntities(entities)
+    }
+
+    @WorkerThread
+    @Delete
+    abstract fun blockingDeletePlaylistMemberEntities(entities: List<PlaylistMemberEntity>)
+
+    @WorkerThread
+    @Update
+    abstract fun blockingUpdatePlaylistMemberEntities(entities: List<PlaylistMemberEntity>)
+
+    /**
+     * Rewrites positions of all members of the playlist with [playlistId], so that they are spaced by [POSITION_GAP].
+     * The play order is kept.
+     */
     @WorkerThread
     @Transaction
-    open fun blockingRemoveMembersFromPlaylist(entities: List<PlaylistMemberEntity>) {
-        entities.forEach { entity ->
-            val prevEntity = entity.prevId?.let(::blockingFindPlaylistMemberEntityById)
-            val nextEntity = entity.nextId?.let(::blockingFindPlaylistMemberEntityById)
-            prevEntity?.copy(nextId = nextEntity?.id)?.also {
-                blockingUpdatePlaylistMemberEntity(it)
-            }
-            nextEntity?.copy(prevId = prevEntity?.id)?.also {
-                blockingUpdatePlaylistMemberEntity(it)
-            }
-            blockingDeletePlaylistMemberEntity(entity)
-        }
+    open fun blockingRebalancePositions(playlistId: Long) {
+        val updatedEntities = rebalancePositions(blockingGetAllPlaylistMemberEntities(playlistId))
+        if (updatedEntities.isNotEmpty()) blockingUpdatePlaylistMemberEntities(updatedEntities)
     }
 
+    /**
+     * Moves [target] between [previous] and [next], that must be adjacent in play order.
+     * Null [previous] means that [target] becomes the first member, null [next] means that it becomes the last one.
+     * Only the position of [target] is updated, unless the playlist needs to be rebalanced.
+     */
     @WorkerThread
     @Transaction
     open fun blockingMovePlaylistMemberEntity(
@@ -123,41 +160,51 @@ abstract class PlaylistMemberEntityDao {
             throw IllegalArgumentException("The next entity is not from the same playlist")
         }
 
-        if (previous?.nextId != null && previous.nextId != next?.id) {
-            throw IllegalArgumentException("The order {previous -> next} is messed")
-        }
+        val playlistId = target.playlistId
 
-        if (next?.prevId != null && next.prevId != previous?.id) {
-            throw IllegalArgumentException("The order {next <- previous} is messed")
+        // The given entities may be stale, so their actual positions are re-read
+        fun findActualPositions(): Pair<Long?, Long?> {
+            val prevPosition = previous?.let { entity ->
+                blockingFindPlaylistMemberEntityById(entity.id)?.position
+                    ?: throw IllegalArgumentException("The previous entity does not exist")
+            }
+            val nextPosition = next?.let { entity ->
+                blockingFindPlaylistMemberEntityById(entity.id)?.position
+                    ?: throw IllegalArgumentException("The next entity does not exist")
+            }
+            return prevPosition to nextPosition
         }
 
-        // Detach the target from the old place
+        val actualPositions = findActualPositions()
+        val prevPosition = actualPositions.first
+        val nextPosition = actualPositions.second
 
-        val oldPrevious = target.prevId?.let { id ->
-            blockingFindPlaylistMemberEntityById(id)!!
-        }
-        val oldNext = target.nextId?.let { id ->
-            blockingFindPlaylistMemberEntityById(id)!!
-        }
-        oldPrevious?.also { entity ->
-            blockingUpdateNextId(entityId = entity.id, playlistId = entity.playlistId, newNextId = oldNext?.id)
-        }
-        oldNext?.copy(prevId = oldPrevious?.id)?.also { entity ->
-            blockingUpdatePrevId(entityId = entity.id, playlistId = entity.playlistId, newPrevId = oldPrevious?.id)
+        if (prevPosition != null && nextPosition != null) {
+            if (prevPosition > nextPosition || (prevPosition == nextPosition && previous!!.id > next!!.id)) {
+                throw IllegalArgumentException("The order {previous -> next} is messed")
+            }
+            val countBetween = blockingCountPlaylistMembersBetween(
+                playlistId = playlistId,
+                fromPosition = prevPosition,
+                toPosition = nextPosition,
+                excludedId = target.id
+            )
+            if (countBetween > 0) {
+                throw IllegalArgumentException("The previous and the next entities are not adjacent")
+            }
         }
 
-        // Attach the target to the new place
-
-        previous?.also { entity ->
-            blockingUpdateNextId(entityId = entity.id, playlistId = entity.playlistId, newNextId = target.id)
-        }
-        next?.also { entity ->
-            blockingUpdatePrevId(entityId = entity.id, playlistId = entity.playlistId, newPrevId = target.id)
-        }
-        target.copy(prevId = previous?.id, nextId = next?.id).also { entity ->
-            blockingUpdatePlaylistMemberEntity(entity)
+        var position = positionBetween(prevPosition, nextPosition)
+        if (position == null) {
+            // No room left between the neighbours
+            blockingRebalancePositions(playlistId)
+            val rebalancedPositions = findActualPositions()
+            position = positionBetween(rebalancedPositions.first, rebalancedPositions.second)
+                ?: throw IllegalStateException("No room between the neighbours after rebalancing")
         }
+
+        blockingUpdatePosition(entityId = target.id, playlistId = playlistId, newPosition = position)
     }
 
     //region
-}
\ No newline at end of file
+}
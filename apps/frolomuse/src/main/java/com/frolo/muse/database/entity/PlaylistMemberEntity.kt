@@ -7,18 +7,20 @@ import java.io.Serializable
 /**
  * Database entity that represents a member of a playlist (see [PlaylistEntity]).
  *
- * The play order of playlist members is determined by their [prevId] and [nextId].
+ * The play order of playlist members is determined by their [position]: members are sorted
+ * by [position] and then by [id]. Positions are spaced by [POSITION_GAP], so a member can be moved
+ * between two others by updating only its own [position] (see [positionBetween]).
+ * When there is no room left between two positions, the playlist is rebalanced.
  *
- * [prevId] is [id] of the previous member. At the same time, [nextId] of the previous member is
- * [id] of this one. If [prevId] is null, then this is the first member in play order.
- *
- * [nextId] is [id] of the next member. At the same time, [prevId] of the next member is
- * [id] of this one. If [nextId] is null, then this is the last member in play order.
+ * [prevId] and [nextId] are legacy links of the doubly linked list, that determined the play order
+ * in the first version of the database. They are only read by the migration to [position]s,
+ * and they are null for all members after it.
  */
 @Entity(
     tableName = "playlist_members",
     indices = [
-        Index(value = ["id", "playlist_id"], unique = true)
+        Index(value = ["id", "playlist_id"], unique = true),
+        Index(value = ["playlist_id", "position"])
     ],
     foreignKeys = [
         ForeignKey(
@@ -47,7 +49,9 @@ data class PlaylistMemberEntity(
     @ColumnInfo(name = "date_added")
     val dateAdded: Long? = null,
     @ColumnInfo(name = "date_modified")
-    val dateModified: Long? = null
+    val dateModified: Long? = null,
+    @ColumnInfo(name = "position", defaultValue = "0")
+    val position: Long = 0L
 ): Serializable {
     companion object {
         const val NO_ID = 0L
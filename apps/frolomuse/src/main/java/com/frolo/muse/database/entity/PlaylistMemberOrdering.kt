@@ -0,0 +1,48 @@
+package com.frolo.muse.database.entity
+
+
+/**
+ * Arranges [entities] in play order by following their legacy links (see [PlaylistMemberEntity.prevId]
+ * and [PlaylistMemberEntity.nextId]), using ID-keyed hash maps, so this takes linear time.
+ * The links may be broken: if there is no first item, the best candidate is taken,
+ * a cycle ends the chain, and orphans that are not reachable from the first item
+ * are appended to the end of the play order in their original order, so they are not lost.
+ *
+ * This is only used to migrate the legacy links to positions, see [com.frolo.muse.database.MIGRATION_1_2].
+ */
+fun orderPlaylistMembers(entities: List<PlaylistMemberEntity>): List<PlaylistMemberEntity> {
+    if (entities.isEmpty()) {
+        return emptyList()
+    }
+
+    val entityById = HashMap<Long, PlaylistMemberEntity>(entities.size * 2)
+    for (entity in entities) {
+        entityById[entity.id] = entity
+    }
+
+    // Step 1: find the first item in play order.
+    // If there is none, the best candidate is an item that points to a missing previous item.
+    val firstItem: PlaylistMemberEntity = entities.firstOrNull { it.prevId == null }
+        ?: entities.firstOrNull { !entityById.containsKey(it.prevId) }
+        ?: entities.first()
+
+    // Step 2: follow the links, until the end of the chain, a broken link or a cycle
+    val orderedEntities = ArrayList<PlaylistMemberEntity>(entities.size)
+    val visitedIds = HashSet<Long>(entities.size * 2)
+    var currItem: PlaylistMemberEntity? = firstItem
+    while (currItem != null && visitedIds.add(currItem.id)) {
+        orderedEntities.add(currItem)
+        currItem = currItem.nextId?.let { nextId -> entityById[nextId] }
+    }
+
+    // Step 3: append orphans
+    if (visitedIds.size < entityById.size) {
+        for (entity in entities) {
+            if (visitedIds.add(entity.id)) {
+                orderedEntities.add(entity)
+            }
+        }
+    }
+
+    return orderedEntities
+}
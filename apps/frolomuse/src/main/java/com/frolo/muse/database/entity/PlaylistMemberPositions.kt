@@ -0,0 +1,43 @@
+package com.frolo.muse.database.entity
+
+
+/**
+ * The distance between positions of adjacent playlist members after they are appended or rebalanced.
+ * A member can be moved to the same place about 16 times before the playlist needs to be rebalanced.
+ */
+const val POSITION_GAP: Long = 1L shl 16
+
+/**
+ * Returns the position for a member that is placed between members at [prevPosition] and [nextPosition].
+ * Null [prevPosition] means the member becomes the first one, null [nextPosition] means it becomes the last one.
+ * Returns null if there is no room left between the positions, and the playlist must be rebalanced first.
+ */
+fun positionBetween(prevPosition: Long?, nextPosition: Long?): Long? {
+    return when {
+        prevPosition == null && nextPosition == null -> POSITION_GAP
+        prevPosition == null -> nextPosition!! - POSITION_GAP
+        nextPosition == null -> prevPosition + POSITION_GAP
+        nextPosition - prevPosition < 2 -> null
+        else -> prevPosition + (nextPosition - prevPosition) / 2
+    }
+}
+
+/**
+ * Returns the position of the member at [index] in play order, after the playlist is rebalanced.
+ */
+fun rebalancedPosition(index: Int): Long = (index + 1L) * POSITION_GAP
+
+/**
+ * Returns [entities], that are in play order, with their positions rebalanced.
+ * Entities whose positions do not change are not returned.
+ */
+fun rebalancePositions(entities: List<PlaylistMemberEntity>): List<PlaylistMemberEntity> {
+    val updatedEntities = ArrayList<PlaylistMemberEntity>()
+    entities.forEachIndexed { index, entity ->
+        val position = rebalancedPosition(index)
+        if (entity.position != position) {
+            updatedEntities.add(entity.copy(position = position))
+        }
+    }
+    return updatedEntities
+}
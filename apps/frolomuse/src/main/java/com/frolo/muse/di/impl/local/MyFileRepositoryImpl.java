@@ -110,6 +110,12 @@ public final class MyFileRepositoryImpl extends BaseMediaRepository<MyFile> impl
     @Override
     public Single<List<Song>> collectSongs(MyFile item) {
         // TODO: apply the actual song filter
+        final File javaFile = item.getJavaFile();
+        if (javaFile.isDirectory()) {
+            return SongCatalog.get(getContext())
+                    .queryForFolder(javaFile.getAbsolutePath(), SongFilter.allEnabled(), SongQuery.Sort.BY_TITLE)
+                    .firstOrError();
+        }
         return SongQuery.query(getContentResolver(), SongFilter.allEnabled(), SongQuery.Sort.BY_TITLE, item)
                 .firstOrError();
     }
@@ -0,0 +1,644 @@
+package com.frolo.muse.di.impl.local;
+
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.muse.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+
+/**
+ * Persistent store for IDs of the items in the play queue.
+ *
+ * The state is stored as a binary snapshot plus an append-only journal of operations
+ * (insert, remove, move) applied to it. A new list of IDs is compared with the current state,
+ * and only the operations that turn one into another are appended, so a drag-reorder of a large queue
+ * costs a few bytes instead of rewriting the whole queue. When the journal gets larger than the snapshot,
+ * it is compacted into a new snapshot on <code>compactionExecutor</code>.
+ *
+ * IDs in the snapshot and in inserts are written in the delta-varint format
+ * (see {@link PreferencesSerialization#writeItemIds}). Files are read whole and decoded
+ * into a primitive array, so restoring a large queue does not box any IDs.
+ *
+ * The snapshot and the journal share a generation number: a journal that is left from
+ * an interrupted compaction has an older generation and is ignored. Each journal record has a checksum,
+ * so a torn record at the end of the journal is dropped on load.
+ *
+ * All methods are blocking and must be called on a worker thread.
+ */
+final class PlayQueueStore {
+
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String LOG_TAG = "PlayQueueStore";
+
+    private static final int SNAPSHOT_MAGIC = 0x46505153; // FPQS
+    private static final int JOURNAL_MAGIC = 0x4650514A; // FPQJ
+    private static final int VERSION = 2;
+
+    // magic, version, generation
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int CHECKSUM_SIZE = 4;
+
+    static final byte OP_INSERT = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_MOVE = 3;
+
+    /**
+     * The journal is not compacted until it gets larger than this.
+     */
+    static final long MIN_COMPACTION_JOURNAL_SIZE = 16 * 1024;
+
+    private static final String SNAPSHOT_FILE_NAME = "queue.snapshot";
+    private static final String JOURNAL_FILE_NAME = "queue.journal";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+
+    /**
+     * Growable list of IDs, backed by a primitive array.
+     */
+    static final class IdList {
+        private long[] mItems;
+        private int mSize;
+
+        IdList(@NonNull long[] items) {
+            mItems = items;
+            mSize = items.length;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size=" + mSize);
+            }
+            return mItems[index];
+        }
+
+        @NonNull
+        long[] toArray() {
+            return Arrays.copyOf(mItems, mSize);
+        }
+
+        void insert(int position, @NonNull long[] ids) {
+            if (position < 0 || position > mSize) {
+                throw new IndexOutOfBoundsException("Insert at " + position + ", size=" + mSize);
+            }
+            if (mSize + ids.length > mItems.length) {
+                mItems = Arrays.copyOf(mItems, Math.max(mSize + ids.length, mItems.length * 3 / 2 + 1));
+            }
+            System.arraycopy(mItems, position, mItems, position + ids.length, mSize - position);
+            System.arraycopy(ids, 0, mItems, position, ids.length);
+            mSize += ids.length;
+        }
+
+        void remove(int position, int count) {
+            if (position < 0 || count < 0 || position + count > mSize) {
+                throw new IndexOutOfBoundsException("Remove " + count + " at " + position + ", size=" + mSize);
+            }
+            System.arraycopy(mItems, position + count, mItems, position, mSize - position - count);
+            mSize -= count;
+        }
+
+        void move(int fromPosition, int toPosition) {
+            final long id = get(fromPosition);
+            if (toPosition < 0 || toPosition >= mSize) {
+                throw new IndexOutOfBoundsException("Move to " + toPosition + ", size=" + mSize);
+            }
+            if (fromPosition < toPosition) {
+                System.arraycopy(mItems, fromPosition + 1, mItems, fromPosition, toPosition - fromPosition);
+            } else {
+                System.arraycopy(mItems, toPosition, mItems, toPosition + 1, fromPosition - toPosition);
+            }
+            mItems[toPosition] = id;
+        }
+    }
+
+    /**
+     * Operation on the list of IDs.
+     */
+    static final class Op {
+        final byte type;
+        final int position;
+        // The number of removed items or the target position of the move
+        final int arg;
+        // Inserted IDs
+        final long[] ids;
+
+        Op(byte type, int position, int arg, @Nullable long[] ids) {
+            this.type = type;
+            this.position = position;
+            this.arg = arg;
+            this.ids = ids;
+        }
+
+        static Op insert(int position, @NonNull long[] ids) {
+            return new Op(OP_INSERT, position, ids.length, ids);
+        }
+
+        static Op remove(int position, int count) {
+            return new Op(OP_REMOVE, position, count, null);
+        }
+
+        static Op move(int fromPosition, int toPosition) {
+            return new Op(OP_MOVE, fromPosition, toPosition, null);
+        }
+
+        /**
+         * Returns the size of a list of <code>size</code> items after this operation,
+         * or -1 if the operation does not fit such a list. This does not touch any list.
+         */
+        int applyToSize(int size) {
+            switch (type) {
+                case OP_INSERT:
+                    return position >= 0 && position <= size ? size + ids.length : -1;
+                case OP_REMOVE:
+                    return position >= 0 && arg >= 0 && arg <= size - position ? size - arg : -1;
+                case OP_MOVE:
+                    return position >= 0 && position < size && arg >= 0 && arg < size ? size : -1;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Applies this operation to <code>ids</code>.
+         * Throws {@link IndexOutOfBoundsException} if the operation does not fit the list.
+         */
+        void applyTo(@NonNull IdList ids) {
+            switch (type) {
+                case OP_INSERT:
+                    ids.insert(position, this.ids);
+                    break;
+                case OP_REMOVE:
+                    ids.remove(position, arg);
+                    break;
+                case OP_MOVE:
+                    ids.move(position, arg);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation: " + type);
+            }
+        }
+
+        void writeTo(@NonNull ByteArrayOutputStream out) throws IOException {
+            final DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeByte(type);
+            dataOut.writeInt(position);
+            if (type == OP_INSERT) {
+                PreferencesSerialization.writeItemIds(out, ids, 0, ids.length);
+            } else {
+                dataOut.writeInt(arg);
+            }
+        }
+
+        /**
+         * Reads an operation from <code>in</code>.
+         * Throws {@link IOException}, {@link BufferUnderflowException} or {@link IllegalArgumentException}
+         * if the data is malformed.
+         */
+        @NonNull
+        static Op readFrom(@NonNull ByteBuffer in) throws IOException {
+            final byte type = in.get();
+            final int position = in.getInt();
+            switch (type) {
+                case OP_INSERT:
+                    return insert(position, PreferencesSerialization.readItemIds(in));
+                case OP_REMOVE:
+                case OP_MOVE:
+                    return new Op(type, position, in.getInt(), null);
+                default:
+                    throw new IOException("Unknown operation: " + type);
+            }
+        }
+    }
+
+    private final File mSnapshotFile;
+    private final File mJournalFile;
+    private final Executor mCompactionExecutor;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private boolean mLoaded;
+    // Null if nothing has been stored yet
+    @GuardedBy("mLock")
+    private IdList mIds;
+    @GuardedBy("mLock")
+    private long mGeneration;
+    @GuardedBy("mLock")
+    private long mSnapshotSize;
+    @GuardedBy("mLock")
+    private long mJournalSize;
+    @GuardedBy("mLock")
+    private boolean mCompactionScheduled;
+
+    private final Runnable mCompaction = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mCompactionScheduled = false;
+                if (mIds == null || !isCompactionNeeded()) {
+                    return;
+                }
+                try {
+                    writeSnapshot(mIds.toArray());
+                } catch (IOException e) {
+                    if (DEBUG) Log.e(LOG_TAG, "Failed to compact the journal", e);
+                }
+            }
+        }
+    };
+
+    PlayQueueStore(@NonNull File directory, @NonNull Executor compactionExecutor) {
+        mSnapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        mJournalFile = new File(directory, JOURNAL_FILE_NAME);
+        mCompactionExecutor = compactionExecutor;
+    }
+
+    /**
+     * Returns the stored IDs, or null if nothing has been stored yet.
+     */
+    @WorkerThread
+    @Nullable
+    List<Long> load() {
+        synchronized (mLock) {
+            ensureLoaded();
+            return mIds != null ? PreferencesSerialization.asList(mIds.toArray()) : null;
+        }
+    }
+
+    /**
+     * Stores <code>ids</code>, appending only the operations that turn the current state into them.
+     */
+    @WorkerThread
+    void save(@NonNull List<Long> ids) {
+        final long[] newIds = new long[ids.size()];
+        for (int i = 0; i < newIds.length; i++) {
+            newIds[i] = ids.get(i);
+        }
+        synchronized (mLock) {
+            ensureLoaded();
+            try {
+                if (mIds == null) {
+                    writeSnapshot(newIds);
+                } else {
+                    final List<Op> ops = diff(mIds, newIds);
+                    if (ops.isEmpty()) {
+                        return;
+                    }
+                    final byte[] record = encodeRecord(ops);
+                    if (record.length >= mSnapshotSize) {
+                        // The change is about as large as the queue itself
+                        writeSnapshot(newIds);
+                    } else {
+                        appendToJournal(record);
+                    }
+                }
+                mIds = new IdList(newIds);
+            } catch (IOException e) {
+                if (DEBUG) Log.e(LOG_TAG, "Failed to save the queue", e);
+                // The state on disk is unknown, so it is reloaded next time
+                mLoaded = false;
+                mIds = null;
+                return;
+            }
+            if (isCompactionNeeded() && !mCompactionScheduled) {
+                mCompactionScheduled = true;
+                mCompactionExecutor.execute(mCompaction);
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the journal in bytes, for testing.
+     */
+    long getJournalSize() {
+        synchronized (mLock) {
+            ensureLoaded();
+            return mJournalSize;
+        }
+    }
+
+    /**
+     * Returns the size of the snapshot in bytes, for testing.
+     */
+    long getSnapshotSize() {
+        synchronized (mLock) {
+            ensureLoaded();
+            return mSnapshotSize;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean isCompactionNeeded() {
+        return mJournalSize > Math.max(MIN_COMPACTION_JOURNAL_SIZE, mSnapshotSize);
+    }
+
+    @GuardedBy("mLock")
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mIds = null;
+        mGeneration = 0;
+        mSnapshotSize = 0;
+        mJournalSize = 0;
+        if (!mSnapshotFile.exists()) {
+            return;
+        }
+        try {
+            readSnapshot();
+        } catch (IOException | RuntimeException e) {
+            if (DEBUG) Log.e(LOG_TAG, "Failed to read the snapshot", e);
+            mIds = null;
+            return;
+        }
+        replayJournal();
+    }
+
+    @GuardedBy("mLock")
+    private void readSnapshot() throws IOException {
+        final byte[] bytes = readFully(mSnapshotFile);
+        if (bytes.length < HEADER_SIZE + CHECKSUM_SIZE) {
+            throw new IOException("Snapshot is too short: " + bytes.length);
+        }
+        final int checksumOffset = bytes.length - CHECKSUM_SIZE;
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, checksumOffset);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt(checksumOffset) != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        buffer.limit(checksumOffset);
+        if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Unknown snapshot format");
+        }
+        final long generation = buffer.getLong();
+        final long[] ids = PreferencesSerialization.readItemIds(buffer);
+        mGeneration = generation;
+        mSnapshotSize = bytes.length;
+        mIds = new IdList(ids);
+    }
+
+    /**
+     * Applies the journal records of the current generation to the state loaded from the snapshot.
+     * The journal is truncated after the last valid record, or reset if it is from another generation.
+     */
+    @GuardedBy("mLock")
+    private void replayJournal() {
+        long validSize = 0;
+        boolean isCurrentGeneration = false;
+        if (mJournalFile.exists()) {
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(readFully(mJournalFile));
+                if (buffer.remaining() >= HEADER_SIZE && buffer.getInt() == JOURNAL_MAGIC
+                        && buffer.getInt() == VERSION && buffer.getLong() == mGeneration) {
+                    isCurrentGeneration = true;
+                    validSize = HEADER_SIZE;
+                    int recordSize;
+                    while ((recordSize = readRecord(buffer, mIds)) > 0) {
+                        validSize += recordSize;
+                    }
+                }
+            } catch (IOException e) {
+                if (DEBUG) Log.e(LOG_TAG, "Failed to read the journal", e);
+            }
+        }
+        try {
+            if (isCurrentGeneration) {
+                final RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+                try {
+                    file.setLength(validSize);
+                } finally {
+                    file.close();
+                }
+                mJournalSize = validSize;
+            } else {
+                resetJournal();
+            }
+        } catch (IOException e) {
+            if (DEBUG) Log.e(LOG_TAG, "Failed to repair the journal", e);
+        }
+    }
+
+    /**
+     * Reads the next record from <code>in</code> and applies it to <code>ids</code>, all or nothing.
+     * Returns the size of the record, or -1 if there are no more valid records.
+     */
+    private static int readRecord(@NonNull ByteBuffer in, @NonNull IdList ids) {
+        if (in.remaining() < 4) {
+            return -1;
+        }
+        final int length = in.getInt();
+        if (length <= 0 || length > in.remaining() - CHECKSUM_SIZE) {
+            return -1;
+        }
+        final int payloadOffset = in.position();
+        final CRC32 crc = new CRC32();
+        crc.update(in.array(), in.arrayOffset() + payloadOffset, length);
+        if (in.getInt(payloadOffset + length) != (int) crc.getValue()) {
+            return -1;
+        }
+        final List<Op> ops = new ArrayList<>(2);
+        try {
+            final ByteBuffer payload = ByteBuffer.wrap(in.array(), in.arrayOffset() + payloadOffset, length);
+            // Check that the whole record fits the state before applying it,
+            // tracking only the size of the list, so there is no need to copy it
+            int size = ids.size();
+            while (payload.hasRemaining()) {
+                final Op op = Op.readFrom(payload);
+                size = op.applyToSize(size);
+                if (size < 0) {
+                    return -1;
+                }
+                ops.add(op);
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            return -1;
+        }
+        for (Op op : ops) {
+            op.applyTo(ids);
+        }
+        in.position(payloadOffset + length + CHECKSUM_SIZE);
+        return 4 + length + CHECKSUM_SIZE;
+    }
+
+    /**
+     * Encodes <code>ops</code> as one journal record, so they are applied all or nothing.
+     */
+    @NonNull
+    private static byte[] encodeRecord(@NonNull List<Op> ops) throws IOException {
+        final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        for (Op op : ops) {
+            op.writeTo(payloadBytes);
+        }
+        final byte[] payload = payloadBytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(4 + payload.length + CHECKSUM_SIZE);
+        final DataOutputStream out = new DataOutputStream(recordBytes);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        return recordBytes.toByteArray();
+    }
+
+    @GuardedBy("mLock")
+    private void appendToJournal(@NonNull byte[] record) throws IOException {
+        if (mJournalSize < HEADER_SIZE) {
+            resetJournal();
+        }
+        final FileOutputStream out = new FileOutputStream(mJournalFile, true);
+        try {
+            out.write(record);
+        } finally {
+            out.close();
+        }
+        mJournalSize += record.length;
+    }
+
+    @GuardedBy("mLock")
+    private void resetJournal() throws IOException {
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(mJournalFile, false));
+        try {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mGeneration);
+        } finally {
+            out.close();
+        }
+        mJournalSize = HEADER_SIZE;
+    }
+
+    /**
+     * Writes <code>ids</code> as the snapshot of the next generation and resets the journal.
+     */
+    @GuardedBy("mLock")
+    private void writeSnapshot(@NonNull long[] ids) throws IOException {
+        final File directory = mSnapshotFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        final long generation = mGeneration + 1;
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + ids.length * 2 + CHECKSUM_SIZE);
+        final DataOutputStream dataOut = new DataOutputStream(bytes);
+        dataOut.writeInt(SNAPSHOT_MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeLong(generation);
+        PreferencesSerialization.writeItemIds(bytes, ids, 0, ids.length);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        dataOut.writeInt((int) crc.getValue());
+
+        final File tmpFile = new File(mSnapshotFile.getPath() + TMP_FILE_EXTENSION);
+        final FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(mSnapshotFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            throw new IOException("Failed to rename " + tmpFile + " to " + mSnapshotFile);
+        }
+        mGeneration = generation;
+        mSnapshotSize = bytes.size();
+        // The old journal has an older generation now, so it is ignored even if this fails
+        resetJournal();
+    }
+
+    @NonNull
+    private static byte[] readFully(@NonNull File file) throws IOException {
+        final long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + length);
+        }
+        final byte[] bytes = new byte[(int) length];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Computes operations that turn <code>oldIds</code> into <code>newIds</code>.
+     * The common prefix and suffix are kept. A single moved item is a move operation,
+     * anything else between the prefix and the suffix is replaced with a removal and an insertion.
+     * This takes linear time.
+     */
+    @NonNull
+    static List<Op> diff(@NonNull IdList oldIds, @NonNull long[] newIds) {
+        final int oldSize = oldIds.size();
+        final int newSize = newIds.length;
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && oldIds.get(prefix) == newIds[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && oldIds.get(oldSize - 1 - suffix) == newIds[newSize - 1 - suffix]) {
+            suffix++;
+        }
+        final int oldCount = oldSize - prefix - suffix;
+        final int newCount = newSize - prefix - suffix;
+        if (oldCount == 0 && newCount == 0) {
+            return Collections.emptyList();
+        }
+        if (oldCount == newCount && oldCount >= 2) {
+            final int last = prefix + oldCount - 1;
+            if (oldIds.get(prefix) == newIds[last]
+                    && rangeEquals(oldIds, prefix + 1, newIds, prefix, oldCount - 1)) {
+                return Collections.singletonList(Op.move(prefix, last));
+            }
+            if (oldIds.get(last) == newIds[prefix]
+                    && rangeEquals(oldIds, prefix, newIds, prefix + 1, oldCount - 1)) {
+                return Collections.singletonList(Op.move(last, prefix));
+            }
+        }
+        final List<Op> ops = new ArrayList<>(2);
+        if (oldCount > 0) {
+            ops.add(Op.remove(prefix, oldCount));
+        }
+        if (newCount > 0) {
+            ops.add(Op.insert(prefix, Arrays.copyOfRange(newIds, prefix, prefix + newCount)));
+        }
+        return ops;
+    }
+
+    private static boolean rangeEquals(
+            @NonNull IdList list1, int from1, @NonNull long[] list2, int from2, int count) {
+        for (int i = 0; i < count; i++) {
+            if (list1.get(from1 + i) != list2[from2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -12,9 +12,9 @@ import com.frolo.muse.BuildConfig
 import com.frolo.muse.LocalizedMessageException
 import com.frolo.muse.R
 import com.frolo.threads.ThreadStrictMode
+import com.frolo.muse.database.ALL_MIGRATIONS
 import com.frolo.muse.database.FrolomuseDatabase
 import com.frolo.muse.database.entity.*
-import com.frolo.muse.kotlin.contains
 import com.frolo.muse.model.media.*
 import com.frolo.music.model.Playlist
 import com.frolo.music.model.Song
@@ -24,7 +24,6 @@ import io.reactivex.Completable
 import io.reactivex.Flowable
 import io.reactivex.Scheduler
 import io.reactivex.Single
-import io.reactivex.functions.Function
 import io.reactivex.schedulers.Schedulers
 import org.jetbrains.annotations.TestOnly
 import java.io.Serializable
@@ -47,6 +46,7 @@ internal class PlaylistDatabaseManager private constructor(private val context:
     private val database: FrolomuseDatabase by lazy {
         Room.databaseBuilder(context, FrolomuseDatabase::class.java, DATABASE_NAME)
             .setQueryExecutor(queryExecutor)
+            .addMigrations(*ALL_MIGRATIONS)
             .build()
     }
 
@@ -254,7 +254,7 @@ internal class PlaylistDatabaseManager private constructor(private val context:
             .switchMap { entities ->
                 querySongs(entities)
                     .observeOn(workerScheduler)
-                    .map { songs -> transformAndCleanUp(entities, songs) }
+                    .map { songByPath -> transformAndCleanUp(entities, songByPath) }
             }
             .observeOn(computationScheduler)
             .map { songs ->
@@ -313,169 +313,54 @@ internal class PlaylistDatabaseManager private constructor(private val context:
     }
 
     /**
-     * Queries songs for [entities]. It is possible that for some entities songs are not found.
+     * Queries songs for [entities], mapped by their paths. It is possible that for some entities songs are not found.
      * This is probably because they were deleted from the device.
+     * The paths are resolved in chunks of IN queries, that run on [queryExecutor] with bounded parallelism,
+     * and the whole result is re-queried on any change to the media store, so there is only one content observer.
      */
     @WorkerThread
-    private fun querySongs(entities: List<PlaylistMemberEntity>): Flowable<List<Song>> {
+    private fun querySongs(entities: List<PlaylistMemberEntity>): Flowable<Map<String, Song>> {
         ThreadStrictMode.assertBackground()
 
-        val filteredEntities = entities.filter { entity ->
-            !entity.source.isNullOrBlank()
+        val paths = entities.mapNotNull { entity ->
+            entity.source?.takeUnless { it.isBlank() }
         }
 
-        if (filteredEntities.size <= IN_OP_LIMIT) {
-            // For count <= IN_OP_LIMIT, we can make one request to the content provider and use IN function in the where clause
-            val uri: Uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
-            val selectionBuilder = StringBuilder(MediaStore.Audio.Media.DATA + " IN (")
-            val selectionArgsBuilder = ArrayList<String>(filteredEntities.size)
-            var firstItemsLooped = false
-            for (entity in filteredEntities) {
-                val path = requireNotNull(entity.source)
-                if (firstItemsLooped) {
-                    selectionBuilder.append(',')
-                }
-                selectionBuilder.append('?')
-                selectionArgsBuilder.add(path)
-                firstItemsLooped = true
-            }
-            if (!firstItemsLooped) {
-                // No params
-                return Flowable.just(emptyList())
-            }
-            selectionBuilder.append(')')
-            val selection: String = selectionBuilder.toString()
-            val selectionArgs: Array<String>? = selectionArgsBuilder.toTypedArray()
-            val sortOrder: String? = null
-            return RxContent.query(context.contentResolver, uri, SongQueryHelper.getSongProjection(), selection,
-                    selectionArgs, sortOrder, queryExecutor, SongQueryHelper.getSongCursorMapper())
-        } else {
-            // For count > IN_OP_LIMIT, we query each song separately and then combine them
-            val uri: Uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
-            val selection: String = MediaStore.Audio.Media.DATA + " = ?"
-            val sources = filteredEntities.mapNotNull { entity ->
-                val source = entity.source
-                if (source.isNullOrEmpty()) return@mapNotNull null
-                val selectionArgs = arrayOf<String>(source)
-                RxContent.query(context.contentResolver, uri, SongQueryHelper.getSongProjection(), selection,
-                        selectionArgs, null, queryExecutor, SongQueryHelper.getSongCursorMapper())
-            }
-
-            return if (sources.isNotEmpty()) {
-                val combiner = Function<Array<Any?>, List<Song>> { array ->
-                    array.mapNotNull { any ->
-                        (any as? List<*>)?.firstOrNull() as? Song
-                    }
-                }
-                Flowable.combineLatestDelayError(sources, combiner)
-            } else {
-                Flowable.just(emptyList())
-            }
+        if (paths.isEmpty()) {
+            return Flowable.just(emptyMap())
+        }
 
-//            val sources = filteredEntities.mapNotNull { entity ->
-//                val safeAudioId = entity.audioId ?: return@mapNotNull null
-//                RxContent.queryItem(context.contentResolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-//                        SONG_PROJECTION, safeAudioId, queryExecutor, SONG_CURSOR_MAPPER)
-//            }
-//
-//            return if (sources.isNotEmpty()) {
-//                val combiner = Function<Array<Any?>, List<Song>> { array ->
-//                    array.mapNotNull { any -> any as? Song }
-//                }
-//                Flowable.combineLatestDelayError(sources, combiner)
-//            } else {
-//                Flowable.just(emptyList())
-//            }
+        val uri: Uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
+        return RxContent.createFlowable(context.contentResolver, uri, queryExecutor) {
+            SongPathLookup.blockingQueryByPaths(context.contentResolver, paths, queryExecutor, MAX_PARALLEL_CHUNK_QUERIES)
         }
     }
 
     @WorkerThread
-    private fun transformAndCleanUp(entities: List<PlaylistMemberEntity>, songs: Collection<Song>): List<Song> {
+    private fun transformAndCleanUp(entities: List<PlaylistMemberEntity>, songByPath: Map<String, Song>): List<Song> {
         ThreadStrictMode.assertBackground()
 
         if (entities.isEmpty()) return emptyList()
 
-        // Detect anomalies
-        if (DEBUG) detectPlaylistAnomalies(entities)
-
-        // Step 1: arrange entities in natural order
-        val firstItem = entities.find { entity -> entity.prevId == null }
-                ?: throw IllegalStateException("Could not find the first item in play order")
-        val orderedEntities = ArrayList<PlaylistMemberEntity>(entities.size)
-        var currItem: PlaylistMemberEntity? = firstItem
-        while (currItem != null) {
-            if (DEBUG) {
-                // This could be a cycled queue; too expensive operation to check it on a release version
-                if (orderedEntities.contains { it.id == currItem?.id }) {
-                    throw PlaylistAnomaly("Found duplicates!!1")
-                }
-            }
-
-            if (orderedEntities.size == entities.size) {
-                // This could be a cycled queue, gotta break here to avoid OOM
-                if (DEBUG) {
-                    throw PlaylistAnomaly("The length of the list of ordered entities is greater " +
-                            "than the length of the list of raw entities, but must be the same")
-                }
-                break
-            }
-
-            orderedEntities.add(currItem)
-
-            val nextItem = entities.find { entity -> entity.id == currItem!!.nextId }
-            if (nextItem == currItem) {
-                if (DEBUG) {
-                    throw PlaylistAnomaly("Inconsistency detected: " +
-                            "the next item in play order == the current item in play order")
-                }
-                break
-            }
-            currItem = nextItem
-        }
-
-        // Step 2: find invalid entities and delete them from the dao
-        val invalidEntities = orderedEntities.filter { entity ->
-            // If it is null, then the desired audio may have been probably deleted from the device
-            songs.find { song -> song.id == entity.audioId } == null
-        }
-        playlistMemberEntityDao.blockingRemoveMembersFromPlaylist(invalidEntities)
-
-        // Step 3: rearrange entities again according to the invalid ones
-        val finalOrderedEntities = ArrayList(orderedEntities)
-        for (invalid in invalidEntities) {
-            val index = finalOrderedEntities.indexOfFirst { it.id == invalid.id }
-            if (index >= 0) {
-                // here, we remove the invalid entity and bind its previous and next entities
-                val prevIndex = index - 1
-                val nextIndex = index + 1
-                val prev = finalOrderedEntities.getOrNull(prevIndex)
-                val next = finalOrderedEntities.getOrNull(nextIndex)
-                prev?.copy(nextId = next?.id)?.also { updatedPrev ->
-                    finalOrderedEntities[prevIndex] = updatedPrev
-                }
-                next?.copy(prevId = prev?.id)?.also { updatedNext ->
-                    finalOrderedEntities[nextIndex] = updatedNext
-                }
-                finalOrderedEntities.removeAt(index)
+        // Step 1: split entities, that are already in play order, into valid and invalid ones.
+        // If the song is not found, then it may have been probably deleted from the device.
+        val orderedSongs = ArrayList<Song>(entities.size)
+        val deletedEntities = ArrayList<PlaylistMemberEntity>(0)
+        for (entity in entities) {
+            val song: Song? = entity.source?.let(songByPath::get)
+            if (song != null) {
+                orderedSongs.add(PlaylistMemberSong(song, entity.playlistId, entity))
+            } else {
+                deletedEntities.add(entity)
             }
         }
 
-        // Detect anomalies again
-        if (DEBUG) detectPlaylistAnomalies(finalOrderedEntities)
-
-        // Step 4: transform entities to songs
-        val orderedSongs = ArrayList<Song>(orderedEntities.size)
-        finalOrderedEntities.mapTo(orderedSongs) { entity ->
-            val song: Song? = songs.find { song -> song.id == entity.audioId }
-            if (song == null && DEBUG) {
-                // Actually, this should not happen. If so,
-                // then something is wrong in steps 2 or 3
-                throw IllegalStateException("No song found for playlist member")
-            }
-            PlaylistMemberSong(song ?: songs.last(), entity.playlistId, entity)
+        // Step 2: delete invalid entities in one batch. The positions of the others are not affected
+        if (deletedEntities.isNotEmpty()) {
+            playlistMemberEntityDao.blockingDeletePlaylistMemberEntities(deletedEntities)
         }
 
-        // Step 5: enjoy the result
+        // Step 3: enjoy the result
         return orderedSongs
     }
 
@@ -525,9 +410,9 @@ internal class PlaylistDatabaseManager private constructor(private val context:
         const val DATABASE_NAME = "com.frolo.muse.MediaDatabase.sql"
 
         /**
-         * Max number of elements that we can use in an 'IN' operation in a 'WHERE' clause.
+         * Max number of chunked 'IN' queries to the content provider that may run at the same time.
          */
-        private const val IN_OP_LIMIT = 1000
+        private const val MAX_PARALLEL_CHUNK_QUERIES = 4
 
         @SuppressLint("StaticFieldLeak")
         @Volatile
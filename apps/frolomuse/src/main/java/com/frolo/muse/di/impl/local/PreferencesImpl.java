@@ -16,6 +16,7 @@ import com.frolo.muse.repository.Preferences;
 import com.frolo.rxpreference.RxOptional;
 import com.frolo.rxpreference.RxPreference;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -23,10 +24,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
-import io.reactivex.Single;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
@@ -52,7 +53,9 @@ public class PreferencesImpl implements Preferences {
     private static final String KEY_LAST_MEDIA_COLLECTION_ID = "last_media_collection_id";
     private static final String KEY_LAST_SONG_ID = "last_song_id";
     private static final String KEY_LAST_PLAYBACK_POSITION = "last_playback_position";
+    // Legacy storage of the queue, see QUEUE_STORE_DIR_NAME
     private static final String KEY_LAST_MEDIA_COLLECTION_ITEM_IDS = "last_media_collection_item_ids";
+    private static final String QUEUE_STORE_DIR_NAME = "play_queue";
 
     // player and playback
     private static final String KEY_PLAYBACK_REPEAT_MODE = "playback_repeat_mode";
@@ -135,9 +138,16 @@ public class PreferencesImpl implements Preferences {
     private static final String KEY_RECENTLY_ADDED_PERIOD = "recently_added_period";
 
     private final SharedPreferences preferences;
+    private final PlayQueueStore queueStore;
 
-    public PreferencesImpl(Context context) {
+    /**
+     * @param context context
+     * @param backgroundExecutor executor for background work, such as compaction of the play queue journal
+     */
+    public PreferencesImpl(Context context, Executor backgroundExecutor) {
         this.preferences = context.getSharedPreferences(STORAGE_NAME, Context.MODE_PRIVATE);
+        this.queueStore = new PlayQueueStore(new File(context.getFilesDir(), QUEUE_STORE_DIR_NAME),
+                backgroundExecutor);
     }
 
     @Override
@@ -250,10 +260,13 @@ public class PreferencesImpl implements Preferences {
 
     @Override
     public Completable saveLastMediaCollectionItemIds(final List<Long> ids) {
-        Single<String> serializationSource =
-                Single.fromCallable(() -> PreferencesSerialization.trySerializeItemIds(ids));
-        return serializationSource.subscribeOn(Schedulers.computation())
-                .flatMapCompletable(value -> RxPreference.ofString(preferences, KEY_LAST_MEDIA_COLLECTION_ITEM_IDS).set(value));
+        return Completable.fromAction(() -> {
+            queueStore.save(ids);
+            if (preferences.contains(KEY_LAST_MEDIA_COLLECTION_ITEM_IDS)) {
+                // The queue has been migrated to the store
+                preferences.edit().remove(KEY_LAST_MEDIA_COLLECTION_ITEM_IDS).apply();
+            }
+        }).subscribeOn(Schedulers.io());
     }
 
     @Deprecated
@@ -280,16 +293,16 @@ public class PreferencesImpl implements Preferences {
 
     @Override
     public Flowable<List<Long>> getLastMediaCollectionItemIds() {
-        return RxPreference.ofString(preferences, KEY_LAST_MEDIA_COLLECTION_ITEM_IDS)
-            .get()
-            .observeOn(Schedulers.computation())
-            .map(optional -> {
-                if (optional.isPresent()) {
-                    return PreferencesSerialization.tryDeserializeItemIds(optional.get());
-                } else {
-                    return Collections.emptyList();
-                }
-            });
+        return Flowable.fromCallable(() -> {
+            final List<Long> storedIds = queueStore.load();
+            if (storedIds != null) {
+                return storedIds;
+            }
+            // Not migrated to the store yet
+            final String legacyValue = preferences.getString(KEY_LAST_MEDIA_COLLECTION_ITEM_IDS, null);
+            final List<Long> legacyIds = PreferencesSerialization.tryDeserializeItemIds(legacyValue);
+            return legacyIds != null ? legacyIds : Collections.<Long>emptyList();
+        }).subscribeOn(Schedulers.io());
     }
 
     public boolean shouldResumeOnPluggedIn() {
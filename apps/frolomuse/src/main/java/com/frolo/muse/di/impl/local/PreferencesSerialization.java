@@ -2,12 +2,17 @@ package com.frolo.muse.di.impl.local;
 
 import com.frolo.muse.model.playback.PlaybackFadingParams;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 
 final class PreferencesSerialization {
@@ -83,6 +88,94 @@ final class PreferencesSerialization {
         }
     }
 
+    /**
+     * Writes <code>count</code> IDs of <code>ids</code>, starting at <code>offset</code>, in the delta-varint format:
+     * the count, followed by the difference of each ID from the previous one (of the first one from zero).
+     * All numbers are ZigZag-encoded varints. The items of a queue are often added in batches of close IDs,
+     * so most of the IDs take one or two bytes instead of eight.
+     */
+    static void writeItemIds(@NotNull ByteArrayOutputStream out, @NotNull long[] ids, int offset, int count) {
+        writeVarLong(out, count);
+        long prevId = 0L;
+        for (int i = offset; i < offset + count; i++) {
+            final long id = ids[i];
+            writeVarLong(out, id - prevId);
+            prevId = id;
+        }
+    }
+
+    /**
+     * Reads IDs in the delta-varint format (see {@link #writeItemIds}) from <code>in</code>.
+     * The IDs are decoded directly into a primitive array.
+     * Throws {@link IllegalArgumentException} if the data is malformed.
+     */
+    @NotNull
+    static long[] readItemIds(@NotNull ByteBuffer in) {
+        final long count = readVarLong(in);
+        // Each ID takes at least one byte
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid count: " + count);
+        }
+        final long[] ids = new long[(int) count];
+        long prevId = 0L;
+        for (int i = 0; i < ids.length; i++) {
+            prevId += readVarLong(in);
+            ids[i] = prevId;
+        }
+        return ids;
+    }
+
+    private static void writeVarLong(@NotNull ByteArrayOutputStream out, long value) {
+        // ZigZag, so that small negative values take few bytes too
+        long bits = (value << 1) ^ (value >> 63);
+        while ((bits & ~0x7FL) != 0L) {
+            out.write((int) ((bits & 0x7F) | 0x80));
+            bits >>>= 7;
+        }
+        out.write((int) bits);
+    }
+
+    private static long readVarLong(@NotNull ByteBuffer in) {
+        long bits = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            final byte b = in.get();
+            bits |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (bits >>> 1) ^ -(bits & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Returns a read-only list view of <code>ids</code>. IDs are boxed only when they are accessed.
+     */
+    @NotNull
+    static List<Long> asList(@NotNull final long[] ids) {
+        return new ItemIdList(ids);
+    }
+
+    private static final class ItemIdList extends AbstractList<Long> implements RandomAccess {
+        final long[] ids;
+
+        ItemIdList(long[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Long get(int index) {
+            return ids[index];
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
     private PreferencesSerialization() {
     }
 
@@ -0,0 +1,813 @@
+package com.frolo.muse.di.impl.local;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.muse.BuildConfig;
+import com.frolo.muse.OS;
+import com.frolo.music.model.Album;
+import com.frolo.music.model.Artist;
+import com.frolo.music.model.Song;
+import com.frolo.music.model.SongFilter;
+import com.frolo.music.model.SongTable;
+import com.frolo.music.model.SongType;
+import com.frolo.threads.ThreadStrictMode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Flowable;
+import io.reactivex.processors.BehaviorProcessor;
+
+
+/**
+ * Process-wide in-memory catalog of all songs in the MediaStore.
+ * The songs are indexed by ID, and there are secondary indexes by album, artist and folder.
+ *
+ * The catalog is invalidated by MediaStore content-change notifications.
+ * If a notification points to a specific song, then only that song is re-queried on the next access,
+ * otherwise the whole catalog is rebuilt.
+ *
+ * Song filters and sort orders are applied in memory, see {@link #canServe(SongFilter, String)}.
+ * Those that cannot be applied in memory must be served by regular MediaStore queries.
+ */
+/* package-private */ final class SongCatalog {
+
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String LOG_TAG = "SongCatalog";
+
+    private static final int FLAG_MUSIC = 1;
+    private static final int FLAG_PODCAST = 1 << 1;
+    private static final int FLAG_RINGTONE = 1 << 2;
+    private static final int FLAG_ALARM = 1 << 3;
+    private static final int FLAG_NOTIFICATION = 1 << 4;
+    private static final int FLAG_AUDIOBOOK = 1 << 5;
+
+    /**
+     * If more songs than this are pending to be refreshed, then the whole catalog is rebuilt.
+     */
+    private static final int MAX_PARTIAL_REFRESH_COUNT = SongIdLookup.MAX_BIND_ARGS;
+
+    private static volatile SongCatalog sInstance;
+
+    @NonNull
+    static SongCatalog get(@NonNull Context context) {
+        SongCatalog instance = sInstance;
+        if (instance == null) {
+            synchronized (SongCatalog.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new SongCatalog(context.getApplicationContext().getContentResolver());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Song with the columns that are needed to apply song filters and sort orders in memory.
+     */
+    static final class Entry {
+        @NonNull
+        final Song song;
+        final int typeFlags;
+        final long dateAdded;
+
+        Entry(@NonNull Song song, int typeFlags, long dateAdded) {
+            this.song = song;
+            this.typeFlags = typeFlags;
+            this.dateAdded = dateAdded;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the catalog.
+     */
+    static final class Snapshot {
+        /**
+         * All entries in the MediaStore order.
+         */
+        @NonNull
+        final List<Entry> entries;
+        @NonNull
+        final Map<Long, Entry> byId;
+        @NonNull
+        final Map<Long, List<Entry>> byAlbumId;
+        @NonNull
+        final Map<Long, List<Entry>> byArtistId;
+        /**
+         * Entries by their parent folder, sorted by the folder path.
+         */
+        @NonNull
+        final SortedMap<String, List<Entry>> byFolder;
+
+        Snapshot(@NonNull List<Entry> entries) {
+            this.entries = entries;
+            this.byId = new HashMap<>(entries.size() * 2);
+            this.byAlbumId = new HashMap<>();
+            this.byArtistId = new HashMap<>();
+            this.byFolder = new TreeMap<>();
+            for (Entry entry : entries) {
+                final Song song = entry.song;
+                byId.put(song.getId(), entry);
+                addTo(byAlbumId, song.getAlbumId(), entry);
+                addTo(byArtistId, song.getArtistId(), entry);
+                addTo(byFolder, getParentFolder(song.getSource()), entry);
+            }
+        }
+
+        private static <K> void addTo(Map<K, List<Entry>> index, K key, Entry entry) {
+            List<Entry> list = index.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                index.put(key, list);
+            }
+            list.add(entry);
+        }
+
+        @Nullable
+        Song getSong(long id) {
+            Entry entry = byId.get(id);
+            return entry != null ? entry.song : null;
+        }
+
+        @NonNull
+        List<Entry> getAlbumEntries(long albumId) {
+            List<Entry> list = byAlbumId.get(albumId);
+            return list != null ? list : Collections.emptyList();
+        }
+
+        @NonNull
+        List<Entry> getArtistEntries(long artistId) {
+            List<Entry> list = byArtistId.get(artistId);
+            return list != null ? list : Collections.emptyList();
+        }
+
+        /**
+         * Returns the entries in <code>folderPath</code> and all its nested folders.
+         */
+        @NonNull
+        List<Entry> getFolderEntries(@NonNull String folderPath) {
+            final List<Entry> result = new ArrayList<>();
+            final List<Entry> direct = byFolder.get(folderPath);
+            if (direct != null) {
+                result.addAll(direct);
+            }
+            final String prefix = folderPath + "/";
+            // All the nested folders are sorted right after the prefix
+            for (List<Entry> nested : byFolder.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                result.addAll(nested);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Cache metrics.
+     */
+    static final class Stats {
+        final long hitCount;
+        final long missCount;
+        final long rebuildCount;
+        final long partialRefreshCount;
+        final long lastRebuildTimeMillis;
+
+        Stats(long hitCount, long missCount, long rebuildCount,
+              long partialRefreshCount, long lastRebuildTimeMillis) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.rebuildCount = rebuildCount;
+            this.partialRefreshCount = partialRefreshCount;
+            this.lastRebuildTimeMillis = lastRebuildTimeMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hitCount + ", misses=" + missCount + ", rebuilds=" + rebuildCount
+                    + ", partialRefreshes=" + partialRefreshCount
+                    + ", lastRebuildTime=" + lastRebuildTimeMillis + "ms}";
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    @Nullable
+    private Snapshot mSnapshot;
+    @GuardedBy("mLock")
+    private boolean mFullRebuildPending = true;
+    @GuardedBy("mLock")
+    private final Set<Long> mPendingIds = new HashSet<>();
+    // The build that is in progress, if any. It runs outside the lock, so invalidations are not blocked by it
+    @GuardedBy("mLock")
+    @Nullable
+    private FutureTask<Snapshot> mBuild;
+
+    // Emits a new version every time the catalog is invalidated
+    private final AtomicLong mVersion = new AtomicLong(0);
+    private final BehaviorProcessor<Long> mVersions = BehaviorProcessor.createDefault(0L);
+
+    // Metrics
+    private final AtomicLong mHitCount = new AtomicLong(0);
+    private final AtomicLong mMissCount = new AtomicLong(0);
+    private final AtomicLong mRebuildCount = new AtomicLong(0);
+    private final AtomicLong mPartialRefreshCount = new AtomicLong(0);
+    private final AtomicLong mLastRebuildTimeMillis = new AtomicLong(0);
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, @Nullable Uri uri) {
+            invalidate(uri);
+        }
+    };
+
+    private SongCatalog(@NonNull ContentResolver resolver) {
+        mResolver = resolver;
+        mUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        mResolver.registerContentObserver(mUri, true, mObserver);
+    }
+
+    /**
+     * Invalidates the catalog according to the changed <code>uri</code>.
+     * If the URI points to a specific song, only that song is invalidated.
+     */
+    private void invalidate(@Nullable Uri uri) {
+        final long changedId = parseSongId(uri);
+        synchronized (mLock) {
+            if (changedId >= 0 && !mFullRebuildPending && mPendingIds.size() < MAX_PARTIAL_REFRESH_COUNT) {
+                mPendingIds.add(changedId);
+            } else {
+                mFullRebuildPending = true;
+                mPendingIds.clear();
+            }
+        }
+        if (DEBUG) Log.d(LOG_TAG, "Invalidated: uri=" + uri);
+        mVersions.onNext(mVersion.incrementAndGet());
+    }
+
+    /**
+     * Returns the ID of the song that <code>uri</code> points to, or -1 if it's not a song URI.
+     */
+    private long parseSongId(@Nullable Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        final String uriString = uri.toString();
+        final String prefix = mUri.toString() + "/";
+        if (!uriString.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(uriString.substring(prefix.length()));
+        } catch (NumberFormatException ignored) {
+            return -1;
+        }
+    }
+
+    /**
+     * Emits the current snapshot on subscription and a new one each time the catalog is invalidated.
+     * Snapshots are built on the content worker scheduler.
+     */
+    @NonNull
+    Flowable<Snapshot> observeSnapshot() {
+        return mVersions
+                .onBackpressureLatest()
+                .observeOn(ContentExecutors.workerScheduler())
+                .map(version -> blockingGetSnapshot());
+    }
+
+    /**
+     * Returns the current snapshot, building it if the catalog has been invalidated.
+     * The build runs outside the lock and the new snapshot is swapped in when it's ready,
+     * so invalidations and concurrent readers are not blocked by MediaStore queries.
+     * Concurrent readers wait for the build in progress instead of starting another one.
+     * Invalidations that arrive during the build are applied by the next one,
+     * so a reader that finds such invalidations waits for the build in progress and then starts the next one,
+     * rather than returning a snapshot that is stale already.
+     */
+    @WorkerThread
+    @NonNull
+    Snapshot blockingGetSnapshot() {
+        ThreadStrictMode.assertBackground();
+        boolean isMissCounted = false;
+        while (true) {
+            final FutureTask<Snapshot> build;
+            final boolean isOwner;
+            final boolean isStale;
+            synchronized (mLock) {
+                if (mBuild != null) {
+                    build = mBuild;
+                    isOwner = false;
+                    // The build in progress has taken the pending invalidations before these ones
+                    isStale = mFullRebuildPending || !mPendingIds.isEmpty();
+                } else {
+                    final Snapshot snapshot = mSnapshot;
+                    if (snapshot != null && !mFullRebuildPending && mPendingIds.isEmpty()) {
+                        if (!isMissCounted) mHitCount.incrementAndGet();
+                        return snapshot;
+                    }
+                    // Take the pending invalidations, the ones that arrive from now on are left for the next build
+                    final Snapshot base = mFullRebuildPending ? null : snapshot;
+                    final Set<Long> ids = new HashSet<>(mPendingIds);
+                    mFullRebuildPending = false;
+                    mPendingIds.clear();
+                    build = new FutureTask<>(() -> buildSnapshot(base, ids));
+                    mBuild = build;
+                    isOwner = true;
+                    isStale = false;
+                }
+            }
+
+            if (!isMissCounted) {
+                mMissCount.incrementAndGet();
+                isMissCounted = true;
+            }
+            if (isOwner) {
+                build.run();
+                synchronized (mLock) {
+                    mBuild = null;
+                    try {
+                        mSnapshot = build.get();
+                    } catch (Throwable error) {
+                        // Retry on the next access
+                        mFullRebuildPending = true;
+                        mPendingIds.clear();
+                    }
+                }
+            }
+            if (!isStale) {
+                return getBuildResult(build);
+            }
+            // Wait for the build in progress, its result is not used, and check again
+            awaitBuild(build);
+        }
+    }
+
+    private static void awaitBuild(@NonNull FutureTask<Snapshot> build) {
+        try {
+            getBuildResult(build);
+        } catch (RuntimeException ignored) {
+            // The owner of the build handles its failure
+        }
+    }
+
+    @NonNull
+    private Snapshot buildSnapshot(@Nullable Snapshot base, @NonNull Set<Long> ids) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final Snapshot snapshot;
+        if (base == null) {
+            snapshot = new Snapshot(blockingQueryEntries(null, null));
+            mRebuildCount.incrementAndGet();
+        } else {
+            snapshot = refresh(base, ids);
+            mPartialRefreshCount.incrementAndGet();
+        }
+        final long elapsedTime = SystemClock.elapsedRealtime() - startTime;
+        mLastRebuildTimeMillis.set(elapsedTime);
+        if (DEBUG) Log.d(LOG_TAG, "Snapshot built: size=" + snapshot.entries.size() + ", " + getStats());
+        return snapshot;
+    }
+
+    @NonNull
+    private static Snapshot getBuildResult(@NonNull FutureTask<Snapshot> build) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return build.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queries all songs that match <code>filter</code> sorted by <code>sortOrder</code>.
+     * Falls back to the MediaStore query if they cannot be applied in memory.
+     */
+    @NonNull
+    Flowable<List<Song>> query(@NonNull SongFilter filter, @Nullable String sortOrder) {
+        if (!canServe(filter, sortOrder)) {
+            return SongQuery.query(mResolver, filter, sortOrder);
+        }
+        return observeSnapshot().map(snapshot -> filterAndSort(snapshot.entries, filter, sortOrder));
+    }
+
+    /**
+     * The same as {@link SongQuery#query(ContentResolver, SongFilter, String, Album)}.
+     */
+    @NonNull
+    Flowable<List<Song>> queryForAlbum(@NonNull Album album, @NonNull SongFilter filter, @Nullable String sortOrder) {
+        final SongFilter albumFilter = filter.newBuilder().setAlbumId(album.getId()).build();
+        // If the sort order is null or empty, the songs are sorted by track number
+        final String albumSortOrder = (sortOrder == null || sortOrder.isEmpty())
+                ? SongQuery.Sort.BY_TRACK_NUMBER : sortOrder;
+        if (!canServe(albumFilter, albumSortOrder)) {
+            return SongQuery.query(mResolver, filter, sortOrder, album);
+        }
+        return observeSnapshot().map(snapshot ->
+                filterAndSort(snapshot.getAlbumEntries(album.getId()), albumFilter, albumSortOrder));
+    }
+
+    /**
+     * The same as {@link SongQuery#query(ContentResolver, SongFilter, String, Artist)}.
+     */
+    @NonNull
+    Flowable<List<Song>> queryForArtist(@NonNull Artist artist, @NonNull SongFilter filter, @Nullable String sortOrder) {
+        final SongFilter artistFilter = filter.newBuilder().setArtistId(artist.getId()).build();
+        if (!canServe(artistFilter, sortOrder)) {
+            return SongQuery.query(mResolver, filter, sortOrder, artist);
+        }
+        return observeSnapshot().map(snapshot ->
+                filterAndSort(snapshot.getArtistEntries(artist.getId()), artistFilter, sortOrder));
+    }
+
+    /**
+     * Queries the songs of all types in <code>folderPath</code> and all its nested folders.
+     */
+    @NonNull
+    Flowable<List<Song>> queryForFolder(@NonNull String folderPath, @NonNull SongFilter filter, @Nullable String sortOrder) {
+        final SongFilter folderFilter = filter.newBuilder()
+                .allTypes()
+                .setFolderPath(folderPath)
+                .build();
+        if (!canServe(folderFilter, sortOrder)) {
+            return SongQuery.query(mResolver, folderFilter, sortOrder);
+        }
+        return observeSnapshot().map(snapshot ->
+                filterAndSort(snapshot.getFolderEntries(folderPath), folderFilter, sortOrder));
+    }
+
+    /**
+     * Queries the song with the given <code>id</code>.
+     * Falls back to the MediaStore query if the song is not in the catalog.
+     */
+    @NonNull
+    Flowable<Song> queryItem(long id) {
+        return observeSnapshot().switchMap(snapshot -> {
+            final Song song = snapshot.getSong(id);
+            if (song != null) {
+                return Flowable.just(song);
+            }
+            return SongQuery.queryItem(mResolver, id);
+        });
+    }
+
+    @NonNull
+    Stats getStats() {
+        return new Stats(mHitCount.get(), mMissCount.get(), mRebuildCount.get(),
+                mPartialRefreshCount.get(), mLastRebuildTimeMillis.get());
+    }
+
+    /**
+     * Re-queries the songs with the given <code>ids</code> and creates a new snapshot with them.
+     * Songs that are not found anymore are removed.
+     */
+    @NonNull
+    private Snapshot refresh(@NonNull Snapshot snapshot, @NonNull Collection<Long> ids) {
+        final Map<Long, Entry> refreshed = new HashMap<>(ids.size() * 2);
+        for (List<Long> chunk : SongIdLookup.chunk(ids, SongIdLookup.MAX_BIND_ARGS)) {
+            final String selection = SongIdLookup.buildInSelection(MediaStore.Audio.Media._ID, chunk.size());
+            final String[] selectionArgs = new String[chunk.size()];
+            for (int i = 0; i < selectionArgs.length; i++) {
+                selectionArgs[i] = String.valueOf(chunk.get(i));
+            }
+            for (Entry entry : blockingQueryEntries(selection, selectionArgs)) {
+                refreshed.put(entry.song.getId(), entry);
+            }
+        }
+        final List<Entry> entries = new ArrayList<>(snapshot.entries.size() + refreshed.size());
+        for (Entry entry : snapshot.entries) {
+            final long id = entry.song.getId();
+            if (ids.contains(id)) {
+                // Updated or deleted
+                Entry refreshedEntry = refreshed.remove(id);
+                if (refreshedEntry != null) {
+                    entries.add(refreshedEntry);
+                }
+            } else {
+                entries.add(entry);
+            }
+        }
+        // New songs
+        entries.addAll(refreshed.values());
+        return new Snapshot(entries);
+    }
+
+    /**
+     * Queries the songs with the columns of {@link Entry}.
+     * The songs are filled straight into a {@link SongTable}, so the strings of albums and artists
+     * are shared and the entries reference lightweight views of the table instead of separate songs.
+     */
+    @NonNull
+    private List<Entry> blockingQueryEntries(@Nullable String selection, @Nullable String[] selectionArgs) {
+        final String[] songProjection = SongQueryHelper.getSongProjection();
+        final String[] projection = new String[songProjection.length + 1];
+        System.arraycopy(songProjection, 0, projection, 0, songProjection.length);
+        projection[songProjection.length] = MediaStore.Audio.Media.DATE_ADDED;
+
+        final Cursor cursor = mResolver.query(mUri, projection, selection, selectionArgs, null);
+        if (cursor == null) {
+            throw new NullPointerException("Query to " + mUri + " returned null cursor");
+        }
+        final SongTable table;
+        final int[] typeFlags;
+        final long[] dateAdded;
+        try {
+            final int count = cursor.getCount();
+            final SongQueryHelper.SongTableFiller filler = new SongQueryHelper.SongTableFiller(cursor);
+            final SongTable.Builder builder = new SongTable.Builder(count);
+            final int dateAddedIndex = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED);
+            typeFlags = new int[count];
+            dateAdded = new long[count];
+            while (cursor.moveToNext() && builder.size() < count) {
+                final int index = builder.size();
+                filler.addCurrentRow(builder);
+                typeFlags[index] = getTypeFlags(cursor);
+                dateAdded[index] = dateAddedIndex >= 0 ? cursor.getLong(dateAddedIndex) : 0L;
+            }
+            table = builder.build();
+        } finally {
+            cursor.close();
+        }
+        final List<Entry> entries = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            entries.add(new Entry(table.get(i), typeFlags[i], dateAdded[i]));
+        }
+        return entries;
+    }
+
+    private static int getTypeFlags(@NonNull Cursor cursor) {
+        int flags = 0;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_MUSIC)) flags |= FLAG_MUSIC;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_PODCAST)) flags |= FLAG_PODCAST;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_RINGTONE)) flags |= FLAG_RINGTONE;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_ALARM)) flags |= FLAG_ALARM;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_NOTIFICATION)) flags |= FLAG_NOTIFICATION;
+        if (SongQueryHelper.getBool(cursor, MediaStore.Audio.Media.IS_AUDIOBOOK)) flags |= FLAG_AUDIOBOOK;
+        return flags;
+    }
+
+    private static int getTypeFlag(@NonNull SongType type) {
+        switch (type) {
+            case MUSIC:         return FLAG_MUSIC;
+            case PODCAST:       return FLAG_PODCAST;
+            case RINGTONE:      return FLAG_RINGTONE;
+            case ALARM:         return FLAG_ALARM;
+            case NOTIFICATION:  return FLAG_NOTIFICATION;
+            case AUDIOBOOK:     return FLAG_AUDIOBOOK;
+            default:            return 0;
+        }
+    }
+
+    @NonNull
+    private static String getParentFolder(@Nullable String path) {
+        if (path == null) {
+            return "";
+        }
+        final int separatorIndex = path.lastIndexOf('/');
+        return separatorIndex > 0 ? path.substring(0, separatorIndex) : "";
+    }
+
+    //region Filtering and sorting in memory
+
+    private static boolean hasLikeWildcards(@NonNull String value) {
+        return value.indexOf('%') >= 0 || value.indexOf('_') >= 0;
+    }
+
+    /**
+     * Checks if <code>filter</code> and <code>sortOrder</code> can be applied in memory.
+     * Genre filters and unknown sort orders cannot, as well as LIKE patterns with wildcards.
+     */
+    static boolean canServe(@NonNull SongFilter filter, @Nullable String sortOrder) {
+        if (filter.getGenreId() != SongFilter.ID_NOT_SET) {
+            return false;
+        }
+        final String namePiece = filter.getNamePiece();
+        if (namePiece != null && hasLikeWildcards(namePiece)) {
+            return false;
+        }
+        final String folderPath = filter.getFolderPath();
+        if (folderPath != null && hasLikeWildcards(folderPath)) {
+            return false;
+        }
+        final String filepath = filter.getFilepath();
+        if (filepath != null && hasLikeWildcards(filepath)) {
+            return false;
+        }
+        return getComparator(sortOrder) != null;
+    }
+
+    /**
+     * Returns the songs from <code>entries</code> that match <code>filter</code> sorted by <code>sortOrder</code>.
+     * The caller must check that they can be applied with {@link #canServe(SongFilter, String)}.
+     */
+    @NonNull
+    static List<Song> filterAndSort(
+            @NonNull Collection<Entry> entries, @NonNull SongFilter filter, @Nullable String sortOrder) {
+        if (filter.isAllDisabled()) {
+            return Collections.emptyList();
+        }
+        final List<Entry> matched = new ArrayList<>(entries.size());
+        final boolean allEnabled = filter.isAllEnabled();
+        for (Entry entry : entries) {
+            if (allEnabled || matches(filter, entry)) {
+                matched.add(entry);
+            }
+        }
+        final Comparator<Entry> comparator = getComparator(sortOrder);
+        if (comparator != null && comparator != NATURAL_ORDER) {
+            // The sort is stable, so the MediaStore order is kept for equal keys
+            Collections.sort(matched, comparator);
+        }
+        final List<Song> result = new ArrayList<>(matched.size());
+        for (Entry entry : matched) {
+            result.add(entry.song);
+        }
+        return result;
+    }
+
+    /**
+     * Matches <code>entry</code> against <code>filter</code> the same way as the selection
+     * built by {@link SongQueryHelper#getSelectionWithArgs(SongFilter)}.
+     */
+    private static boolean matches(@NonNull SongFilter filter, @NonNull Entry entry) {
+        final Song song = entry.song;
+
+        // Song type
+        final Collection<SongType> includedTypes = filter.getTypes();
+        int supportedFlags = 0;
+        int includedFlags = 0;
+        for (SongType type : SongType.values()) {
+            if (type == SongType.AUDIOBOOK && !OS.isAtLeastQ()) continue;
+            final int flag = getTypeFlag(type);
+            supportedFlags |= flag;
+            if (includedTypes.contains(type)) includedFlags |= flag;
+        }
+        if (includedFlags != supportedFlags) {
+            if (includedFlags == 0) {
+                // No types included => all type flags must be zero
+                if ((entry.typeFlags & supportedFlags) != 0) return false;
+            } else {
+                if ((entry.typeFlags & includedFlags) == 0) return false;
+            }
+        }
+
+        final String namePiece = filter.getNamePiece();
+        if (namePiece != null && !namePiece.isEmpty() && !containsIgnoreAsciiCase(song.getTitle(), namePiece)) {
+            return false;
+        }
+
+        final String folderPath = filter.getFolderPath();
+        final String filepath = filter.getFilepath();
+        if (filepath != null && !filepath.isEmpty()) {
+            if (song.getSource() == null || !equalsIgnoreAsciiCase(song.getSource(), filepath)) return false;
+        } else if (folderPath != null && !folderPath.isEmpty()) {
+            if (!containsIgnoreAsciiCase(song.getSource(), folderPath + "/")) return false;
+        }
+
+        final long albumId = filter.getAlbumId();
+        if (albumId != SongFilter.ID_NOT_SET && song.getAlbumId() != albumId) {
+            return false;
+        }
+
+        final long artistId = filter.getArtistId();
+        if (artistId != SongFilter.ID_NOT_SET && song.getArtistId() != artistId) {
+            return false;
+        }
+
+        final long minDuration = filter.getMinDuration();
+        if (minDuration != SongFilter.DURATION_NOT_SET && minDuration > 0 && song.getDuration() < minDuration) {
+            return false;
+        }
+
+        final long maxDuration = filter.getMaxDuration();
+        if (maxDuration != SongFilter.DURATION_NOT_SET && song.getDuration() > maxDuration) {
+            return false;
+        }
+
+        final long timeAdded = filter.getTimeAdded();
+        if (timeAdded != SongFilter.TIME_NOT_SET && entry.dateAdded < timeAdded) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * SQLite LIKE is case-insensitive for ASCII characters only.
+     */
+    private static boolean containsIgnoreAsciiCase(@Nullable String value, @NonNull String piece) {
+        if (value == null) {
+            return false;
+        }
+        final int max = value.length() - piece.length();
+        for (int i = 0; i <= max; i++) {
+            if (regionMatchesIgnoreAsciiCase(value, i, piece)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equalsIgnoreAsciiCase(@NonNull String value, @NonNull String other) {
+        return value.length() == other.length() && regionMatchesIgnoreAsciiCase(value, 0, other);
+    }
+
+    private static boolean regionMatchesIgnoreAsciiCase(@NonNull String value, int offset, @NonNull String piece) {
+        for (int j = 0; j < piece.length(); j++) {
+            if (toLowerAscii(value.charAt(offset + j)) != toLowerAscii(piece.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * SQLite NOCASE collation folds ASCII characters only.
+     */
+    private static int compareIgnoreAsciiCase(@Nullable String a, @Nullable String b) {
+        if (a == null) return b == null ? 0 : -1;
+        if (b == null) return 1;
+        final int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int diff = toLowerAscii(a.charAt(i)) - toLowerAscii(b.charAt(i));
+            if (diff != 0) return diff;
+        }
+        return a.length() - b.length();
+    }
+
+    private static final Comparator<Entry> NATURAL_ORDER = (e1, e2) -> 0;
+
+    @Nullable
+    private static Comparator<Entry> getComparator(@Nullable String sortOrder) {
+        if (sortOrder == null || sortOrder.isEmpty()) {
+            return NATURAL_ORDER;
+        }
+        switch (sortOrder) {
+            case SongQuery.Sort.BY_TITLE:
+                return (e1, e2) -> compareIgnoreAsciiCase(e1.song.getTitle(), e2.song.getTitle());
+            case SongQuery.Sort.BY_ALBUM:
+                return (e1, e2) -> compareIgnoreAsciiCase(e1.song.getAlbum(), e2.song.getAlbum());
+            case SongQuery.Sort.BY_ARTIST:
+                return (e1, e2) -> compareIgnoreAsciiCase(e1.song.getArtist(), e2.song.getArtist());
+            case SongQuery.Sort.BY_DURATION:
+                return (e1, e2) -> Integer.compare(e1.song.getDuration(), e2.song.getDuration());
+            case SongQuery.Sort.BY_DATE_ADDED:
+                return (e1, e2) -> Long.compare(e1.dateAdded, e2.dateAdded);
+            case SongQuery.Sort.BY_TRACK_NUMBER:
+                return (e1, e2) -> Integer.compare(e1.song.getTrackNumber(), e2.song.getTrackNumber());
+            default:
+                return null;
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,158 @@
+package com.frolo.muse.di.impl.local;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.music.model.Song;
+import com.frolo.music.model.SongFilter;
+import com.frolo.rxcontent.CursorMapper;
+import com.frolo.threads.ThreadStrictMode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Resolves songs by their IDs, keeping the requested order.
+ * Small and medium ID lists are resolved with chunked <code>_ID IN (...)</code> queries,
+ * each chunk respecting the SQLite bind-parameter limit.
+ * Large ID lists are resolved with a single full listing indexed by ID,
+ * as it is cheaper than many chunked queries.
+ * Both paths apply the selection of {@link SongFilter#allEnabled()}, like the song list does.
+ */
+/* package-private */ final class SongIdLookup {
+
+    /**
+     * SQLite versions prior to 3.32.0 limit the number of host parameters to 999.
+     */
+    static final int MAX_BIND_ARGS = 999;
+
+    /**
+     * If there are more distinct IDs than this, then the whole library is queried and indexed by ID.
+     */
+    static final int FULL_LISTING_THRESHOLD = MAX_BIND_ARGS * 4;
+
+    @WorkerThread
+    @NonNull
+    static List<Song> blockingQueryByIds(@NonNull ContentResolver resolver, @NonNull List<Long> ids) {
+        ThreadStrictMode.assertBackground();
+        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        final Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        final CursorMapper<Song> mapper = SongQueryHelper.getSongCursorMapper();
+        final String[] projection = SongQueryHelper.getSongProjection();
+        final Map<Long, Song> index = new HashMap<>(distinctIds.size() * 2);
+        // Both paths query the same songs as the unfiltered song list
+        final SongQueryHelper.SelectionWithArgs filterSelection =
+                SongQueryHelper.getSelectionWithArgs(SongFilter.allEnabled());
+        final int filterArgCount = filterSelection.args != null ? filterSelection.args.length : 0;
+        if (distinctIds.size() > FULL_LISTING_THRESHOLD) {
+            Cursor cursor = resolver.query(uri, projection, filterSelection.selection, filterSelection.args, null);
+            if (cursor == null) {
+                throw new NullPointerException("Query to " + uri + " returned null cursor");
+            }
+            try {
+                indexById(cursor, mapper, index);
+            } finally {
+                cursor.close();
+            }
+        } else {
+            for (List<Long> chunk : chunk(distinctIds, MAX_BIND_ARGS - filterArgCount)) {
+                String selection = buildInSelection(MediaStore.Audio.Media._ID, chunk.size());
+                if (filterSelection.selection != null) {
+                    selection = "(" + filterSelection.selection + ") AND " + selection;
+                }
+                final String[] selectionArgs = new String[filterArgCount + chunk.size()];
+                for (int i = 0; i < filterArgCount; i++) {
+                    selectionArgs[i] = filterSelection.args[i];
+                }
+                for (int i = 0; i < chunk.size(); i++) {
+                    selectionArgs[filterArgCount + i] = String.valueOf(chunk.get(i));
+                }
+                Cursor cursor = resolver.query(uri, projection, selection, selectionArgs, null);
+                if (cursor == null) {
+                    throw new NullPointerException("Query to " + uri + " returned null cursor");
+                }
+                try {
+                    indexById(cursor, mapper, index);
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        return orderByIds(ids, index);
+    }
+
+    /**
+     * Maps all rows of <code>cursor</code> and puts them into <code>dst</code> by ID.
+     * The cursor is not closed.
+     */
+    static void indexById(
+            @NonNull Cursor cursor, @NonNull CursorMapper<Song> mapper, @NonNull Map<Long, Song> dst) {
+        if (cursor.moveToFirst()) {
+            do {
+                Song song = mapper.map(cursor);
+                dst.put(song.getId(), song);
+            } while (cursor.moveToNext());
+        }
+    }
+
+    /**
+     * Returns songs from <code>index</code> in the order of <code>ids</code>.
+     * IDs that are not in the index are skipped.
+     */
+    @NonNull
+    static List<Song> orderByIds(@NonNull List<Long> ids, @NonNull Map<Long, Song> index) {
+        final List<Song> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Song song = index.get(id);
+            if (song != null) {
+                result.add(song);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits <code>items</code> into chunks of at most <code>chunkSize</code> items.
+     */
+    @NonNull
+    static <T> List<List<T>> chunk(@NonNull Iterable<T> items, int chunkSize) {
+        final List<List<T>> chunks = new ArrayList<>();
+        List<T> currChunk = null;
+        for (T item : items) {
+            if (currChunk == null || currChunk.size() >= chunkSize) {
+                currChunk = new ArrayList<>(chunkSize);
+                chunks.add(currChunk);
+            }
+            currChunk.add(item);
+        }
+        return chunks;
+    }
+
+    /**
+     * Builds a selection of the form <code>column IN (?,?,...)</code> with <code>argCount</code> placeholders.
+     */
+    @NonNull
+    static String buildInSelection(@NonNull String column, int argCount) {
+        final StringBuilder builder = new StringBuilder(column.length() + 6 + argCount * 2);
+        builder.append(column).append(" IN (");
+        for (int i = 0; i < argCount; i++) {
+            if (i > 0) builder.append(',');
+            builder.append('?');
+        }
+        builder.append(')');
+        return builder.toString();
+    }
+
+    private SongIdLookup() {
+    }
+}
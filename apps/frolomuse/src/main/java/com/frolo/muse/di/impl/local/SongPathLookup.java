@@ -0,0 +1,161 @@
+package com.frolo.muse.di.impl.local;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.music.model.Song;
+import com.frolo.rxcontent.CursorMapper;
+import com.frolo.threads.ThreadStrictMode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Resolves songs by their paths, see {@link MediaStore.Audio.Media#DATA}.
+ * The paths are split into chunks, each chunk respecting the SQLite bind-parameter limit,
+ * and the chunks are queried with <code>DATA IN (...)</code> on the given executor,
+ * at most <code>parallelism</code> of them at a time.
+ * The results are merged into one map from path to song.
+ */
+/* package-private */ final class SongPathLookup {
+
+    /**
+     * Queries songs for a single chunk of paths.
+     */
+    interface ChunkQuery {
+        @NonNull
+        Map<String, Song> query(@NonNull List<String> paths);
+    }
+
+    @WorkerThread
+    @NonNull
+    static Map<String, Song> blockingQueryByPaths(
+            @NonNull final ContentResolver resolver,
+            @NonNull Collection<String> paths,
+            @NonNull Executor executor,
+            int parallelism) {
+        ThreadStrictMode.assertBackground();
+        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        final CursorMapper<Song> mapper = SongQueryHelper.getSongCursorMapper();
+        final String[] projection = SongQueryHelper.getSongProjection();
+        final ChunkQuery chunkQuery = new ChunkQuery() {
+            @NonNull
+            @Override
+            public Map<String, Song> query(@NonNull List<String> chunk) {
+                final String selection = SongIdLookup.buildInSelection(MediaStore.Audio.Media.DATA, chunk.size());
+                final String[] selectionArgs = chunk.toArray(new String[0]);
+                Cursor cursor = resolver.query(uri, projection, selection, selectionArgs, null);
+                if (cursor == null) {
+                    throw new NullPointerException("Query to " + uri + " returned null cursor");
+                }
+                try {
+                    final Map<String, Song> result = new HashMap<>(chunk.size() * 2);
+                    indexByPath(cursor, mapper, result);
+                    return result;
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        final List<List<String>> chunks = SongIdLookup.chunk(new LinkedHashSet<>(paths), SongIdLookup.MAX_BIND_ARGS);
+        return queryChunks(chunks, executor, parallelism, chunkQuery);
+    }
+
+    /**
+     * Runs <code>chunkQuery</code> for each of <code>chunks</code> on <code>executor</code>,
+     * at most <code>parallelism</code> of them at a time, and merges the results.
+     * The first failed chunk cancels the remaining ones, and its error is rethrown.
+     * A single chunk is queried on the calling thread.
+     */
+    @NonNull
+    static Map<String, Song> queryChunks(
+            @NonNull List<List<String>> chunks,
+            @NonNull Executor executor,
+            int parallelism,
+            @NonNull final ChunkQuery chunkQuery) {
+        if (chunks.isEmpty()) {
+            return new HashMap<>();
+        }
+        if (chunks.size() == 1 || parallelism <= 1) {
+            final Map<String, Song> result = new HashMap<>();
+            for (List<String> chunk : chunks) {
+                result.putAll(chunkQuery.query(chunk));
+            }
+            return result;
+        }
+
+        final CompletionService<Map<String, Song>> completionService = new ExecutorCompletionService<>(executor);
+        final List<Future<Map<String, Song>>> futures = new ArrayList<>(chunks.size());
+        final Map<String, Song> result = new HashMap<>(chunks.size() * SongIdLookup.MAX_BIND_ARGS * 2);
+        int submittedCount = 0;
+        int completedCount = 0;
+        try {
+            while (completedCount < chunks.size()) {
+                // Keep at most 'parallelism' chunks in flight
+                while (submittedCount < chunks.size() && submittedCount - completedCount < parallelism) {
+                    final List<String> chunk = chunks.get(submittedCount++);
+                    futures.add(completionService.submit(new Callable<Map<String, Song>>() {
+                        @Override
+                        public Map<String, Song> call() {
+                            return chunkQuery.query(chunk);
+                        }
+                    }));
+                }
+                result.putAll(completionService.take().get());
+                completedCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying songs by paths", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to query songs by paths", cause);
+        } finally {
+            if (completedCount < chunks.size()) {
+                for (Future<Map<String, Song>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps all rows of <code>cursor</code> and puts them into <code>dst</code> by path.
+     * The cursor is not closed.
+     */
+    static void indexByPath(
+            @NonNull Cursor cursor, @NonNull CursorMapper<Song> mapper, @NonNull Map<String, Song> dst) {
+        if (cursor.moveToFirst()) {
+            do {
+                Song song = mapper.map(cursor);
+                String source = song.getSource();
+                if (source != null) {
+                    dst.put(source, song);
+                }
+            } while (cursor.moveToNext());
+        }
+    }
+
+    private SongPathLookup() {
+    }
+}
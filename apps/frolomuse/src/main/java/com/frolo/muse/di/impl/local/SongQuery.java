@@ -168,25 +168,9 @@ import io.reactivex.functions.Function;
             });
             return resultSource.subscribeOn(ContentExecutors.computationScheduler());
         } else {
-            // Default impl
-            return query(resolver, SongFilter.allEnabled(), null)
-                    .observeOn(ContentExecutors.computationScheduler())
-                    .map(songs -> {
-                        List<Song> result = new ArrayList<>(ids.size());
-                        for (Long desiredId : ids) {
-                            Song desiredSong = null;
-                            for (Song song : songs) {
-                                if (song.getId() == desiredId) {
-                                    desiredSong = song;
-                                    break;
-                                }
-                            }
-                            if (desiredSong != null) {
-                                result.add(desiredSong);
-                            }
-                        }
-                        return result;
-                    });
+            // Chunked IN queries, or a full listing indexed by ID for large ID lists
+            return RxContent.createFlowable(resolver, URI, ContentExecutors.workerExecutor(),
+                    () -> SongIdLookup.blockingQueryByIds(resolver, ids));
         }
     }
 
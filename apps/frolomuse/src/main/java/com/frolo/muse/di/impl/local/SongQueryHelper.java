@@ -4,6 +4,7 @@ import android.content.ContentResolver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
 
@@ -15,9 +16,11 @@ import com.frolo.debug.DebugUtils;
 import com.frolo.music.model.Album;
 import com.frolo.music.model.Artist;
 import com.frolo.music.model.Genre;
+import com.frolo.music.model.Media;
 import com.frolo.music.model.Song;
 import com.frolo.muse.model.media.SongFeatures;
 import com.frolo.music.model.SongFilter;
+import com.frolo.music.model.SongTable;
 import com.frolo.music.model.SongType;
 import com.frolo.music.model.Songs;
 import com.frolo.rxcontent.CursorMapper;
@@ -25,7 +28,9 @@ import com.frolo.rxcontent.CursorMapper;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.reactivex.Flowable;
 import io.reactivex.Single;
@@ -181,6 +186,60 @@ final class SongQueryHelper {
         return CURSOR_MAPPER_SONG;
     }
 
+    /**
+     * Fills a {@link SongTable} straight from a cursor of {@link #getSongProjection()},
+     * the same way as {@link #getSongCursorMapper()} maps the rows, but without creating a song per row.
+     * The column indexes are resolved once.
+     */
+    static final class SongTableFiller {
+        private final Cursor cursor;
+        private final int idIndex;
+        private final int sourceIndex;
+        private final int titleIndex;
+        private final int albumIdIndex;
+        private final int albumIndex;
+        private final int artistIdIndex;
+        private final int artistIndex;
+        private final int durationIndex;
+        private final int yearIndex;
+        private final int trackIndex;
+
+        SongTableFiller(@NonNull Cursor cursor) {
+            final String[] projection = getSongProjection();
+            this.cursor = cursor;
+            this.idIndex = cursor.getColumnIndex(projection[0]);
+            this.sourceIndex = cursor.getColumnIndex(projection[1]);
+            this.titleIndex = cursor.getColumnIndex(projection[2]);
+            this.albumIdIndex = cursor.getColumnIndex(projection[3]);
+            this.albumIndex = cursor.getColumnIndex(projection[4]);
+            this.artistIdIndex = cursor.getColumnIndex(projection[5]);
+            this.artistIndex = cursor.getColumnIndex(projection[6]);
+            this.durationIndex = cursor.getColumnIndex(projection[7]);
+            this.yearIndex = cursor.getColumnIndex(projection[8]);
+            this.trackIndex = cursor.getColumnIndex(projection[9]);
+        }
+
+        /**
+         * Appends the current row of the cursor to <code>dst</code>.
+         */
+        void addCurrentRow(@NonNull SongTable.Builder dst) {
+            dst.add(
+                cursor.getLong(idIndex),
+                getSongType(cursor),
+                cursor.getString(sourceIndex),
+                cursor.getString(titleIndex),
+                cursor.getLong(albumIdIndex),
+                cursor.getString(albumIndex),
+                cursor.getLong(artistIdIndex),
+                cursor.getString(artistIndex),
+                DEFAULT_GENRE_VALUE,
+                cursor.getInt(durationIndex),
+                cursor.getInt(yearIndex),
+                cursor.getInt(trackIndex)
+            );
+        }
+    }
+
     private static final CursorMapper<Song> CURSOR_MAPPER_PLAYLIST_MEMBER = new CursorMapper<Song>() {
         @Override
         public Song map(Cursor cursor) {
@@ -461,6 +520,86 @@ final class SongQueryHelper {
         }
     }
 
+    /**
+     * Queries distinct values of <code>idColumn</code> of all the songs matching <code>filter</code>.
+     * This runs one query over {@link MediaStore.Audio.Media}, no matter how many albums, artists or genres there are,
+     * and the rows are grouped by <code>idColumn</code> by the provider, so the cursor has one row per ID, not per song.
+     * @param resolver content resolver
+     * @param idColumn ID column to collect, e.g. {@link MediaStore.Audio.Media#ALBUM_ID}
+     * @param filter song filter
+     * @return distinct IDs
+     */
+    @NonNull
+    private static Set<Long> blockingQueryDistinctIds(
+            ContentResolver resolver, String idColumn, SongFilter filter) {
+        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        final SelectionWithArgs selectionWithArgs = getSelectionWithArgs(filter);
+        final Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Since Android 11, the media provider validates projections, but it supports grouping by query args
+            final Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selectionWithArgs.selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionWithArgs.args);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_GROUP_BY, idColumn);
+            cursor = resolver.query(uri, new String[] { idColumn }, queryArgs, null);
+        } else {
+            // Prior to Android 11, the projection is put into the SELECT clause as is
+            final String[] projection = new String[] { "DISTINCT " + idColumn };
+            cursor = resolver.query(uri, projection, selectionWithArgs.selection, selectionWithArgs.args, null);
+        }
+        if (cursor == null) {
+            throw new NullPointerException("Query to " + uri + " returned null cursor");
+        }
+        try {
+            final Set<Long> ids = new HashSet<>(cursor.getCount());
+            // There is only one column, its name depends on how the query is grouped
+            final int columnIndex = 0;
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(columnIndex));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Filters items by the set of IDs that have at least one song matching <code>filter</code>.
+     * The set is obtained with a single query for each emitted list, see {@link #blockingQueryDistinctIds}.
+     * If the query fails, then the items are emitted as is.
+     */
+    private static <T extends Media> Flowable<List<T>> aggregateFilterImpl(
+            ContentResolver resolver, Flowable<List<T>> source, String idColumn, SongFilter filter) {
+        return source.switchMap(items -> {
+            if (items.isEmpty()) {
+                return Flowable.just(items);
+            }
+
+            Single<List<T>> resultSingle = Single.fromCallable(() -> {
+                final Set<Long> ids;
+                try {
+                    ids = blockingQueryDistinctIds(resolver, idColumn, filter);
+                } catch (Throwable error) {
+                    DebugUtils.dumpOnMainThread(error);
+                    return items;
+                }
+                List<T> result = new ArrayList<>(Math.min(items.size(), ids.size()));
+                for (T item : items) {
+                    if (ids.contains(item.getId())) {
+                        result.add(item);
+                    }
+                }
+                return result;
+            });
+            resultSingle = resultSingle.subscribeOn(ContentExecutors.workerScheduler());
+            return resultSingle.toFlowable().onBackpressureLatest();
+        });
+    }
+
+    /**
+     * Filters items issuing one query per item, which is slow for large libraries.
+     * It is only used when there is no column in {@link MediaStore.Audio.Media} to aggregate by.
+     */
     private static <T> Flowable<List<T>> filterImpl(
             ContentResolver resolver, Flowable<List<T>> source,
             Function<T, Uri> uriFunc, Function<T, SongFilter> filterFunc) {
@@ -509,9 +648,7 @@ final class SongQueryHelper {
         if (filter.isAllEnabled()) {
             return source;
         }
-        return filterImpl(resolver, source,
-                album -> MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                album -> filter.newBuilder().setAlbumId(album.getId()).build());
+        return aggregateFilterImpl(resolver, source, MediaStore.Audio.Media.ALBUM_ID, filter);
     }
 
     static Flowable<List<Album>> filterAlbumsOfArtist(
@@ -528,9 +665,7 @@ final class SongQueryHelper {
         if (filter.isAllEnabled()) {
             return source;
         }
-        return filterImpl(resolver, source,
-                artist -> MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                artist -> filter.newBuilder().setArtistId(artist.getId()).build());
+        return aggregateFilterImpl(resolver, source, MediaStore.Audio.Media.ARTIST_ID, filter);
     }
 
     static Flowable<List<Genre>> filterGenres(
@@ -541,6 +676,10 @@ final class SongQueryHelper {
         if (filter.isAllEnabled()) {
             return source;
         }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // The genre ID column is only available since Android 11
+            return aggregateFilterImpl(resolver, source, MediaStore.Audio.Media.GENRE_ID, filter);
+        }
         return filterImpl(resolver, source,
                 genre -> MediaStore.Audio.Genres.Members.getContentUri("external", genre.getId()),
                 genre -> filter);
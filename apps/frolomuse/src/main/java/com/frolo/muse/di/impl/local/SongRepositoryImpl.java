@@ -52,26 +52,26 @@ public class SongRepositoryImpl extends BaseMediaRepository<Song> implements Son
     @Override
     public final Flowable<List<Song>> getAllItems() {
         return getSongFilter().switchMap(filter ->
-                SongQuery.query(getContext().getContentResolver(), filter, SongQuery.Sort.BY_TITLE));
+                SongCatalog.get(getContext()).query(filter, SongQuery.Sort.BY_TITLE));
     }
 
     @Override
     public final Flowable<List<Song>> getAllItems(final String sortOrder) {
         return getSongFilter().switchMap(filter ->
-                SongQuery.query(getContext().getContentResolver(), filter, sortOrder));
+                SongCatalog.get(getContext()).query(filter, sortOrder));
     }
 
     @Override
     public final Flowable<List<Song>> getFilteredItems(final String namePiece) {
         return getSongFilter().switchMap(filter -> {
             SongFilter namePiecedFilter = filter.newBuilder().setNamePiece(namePiece).build();
-            return SongQuery.query(getContext().getContentResolver(), namePiecedFilter, SongQuery.Sort.BY_TITLE);
+            return SongCatalog.get(getContext()).query(namePiecedFilter, SongQuery.Sort.BY_TITLE);
         });
     }
 
     @Override
     public final Flowable<Song> getItem(final long id) {
-        return SongQuery.queryItem(getContext().getContentResolver(), id);
+        return SongCatalog.get(getContext()).queryItem(id);
     }
 
     @Override
@@ -142,13 +142,13 @@ public class SongRepositoryImpl extends BaseMediaRepository<Song> implements Son
     @Override
     public final Flowable<List<Song>> getSongsFromAlbum(final Album album, final String sortOrder) {
         return getSongFilter().switchMap(filter ->
-                SongQuery.query(getContext().getContentResolver(), filter, sortOrder, album));
+                SongCatalog.get(getContext()).queryForAlbum(album, filter, sortOrder));
     }
 
     @Override
     public final Flowable<List<Song>> getSongsFromArtist(final Artist artist, final String sortOrder) {
         return getSongFilter().switchMap(filter ->
-                SongQuery.query(getContext().getContentResolver(), filter, sortOrder, artist));
+                SongCatalog.get(getContext()).queryForArtist(artist, filter, sortOrder));
     }
 
     @Override
@@ -25,6 +25,12 @@ class FirebaseRemoteConfigRepositoryImpl(
             .onErrorReturnItem(false)
     }
 
+    override fun isPlayerGaplessPlaybackEnabled(): Single<Boolean> {
+        return FirebaseRemoteConfigCache
+            .getBool(FirebaseRemoteConfigUtil.PLAYER_GAPLESS_PLAYBACK_FEATURE_ENABLED)
+            .onErrorReturnItem(false)
+    }
+
     override fun isSnowfallFeatureEnabled(): Single<Boolean> {
         return FirebaseRemoteConfigCache
             .getBool(FirebaseRemoteConfigUtil.SNOWFALL_FEATURE_ENABLED)
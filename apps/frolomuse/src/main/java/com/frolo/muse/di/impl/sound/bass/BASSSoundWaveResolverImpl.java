@@ -1,17 +1,26 @@
 package com.frolo.muse.di.impl.sound.bass;
 
+import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.frolo.muse.BuildConfig;
 import com.frolo.muse.model.sound.SoundWave;
 import com.frolo.muse.repository.SoundWaveResolver;
 import com.frolo.threads.ThreadStrictMode;
 import com.un4seen.bass.BASS;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.concurrent.Callable;
 
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
 import io.reactivex.schedulers.Schedulers;
 
 
@@ -40,6 +49,20 @@ public final class BASSSoundWaveResolverImpl implements SoundWaveResolver {
         return Math.min(maxAllowedSize, preferredCacheSize);
     }
 
+    /**
+     * The maximum total size of sound waves stored on disk.
+     */
+    private static final long MAX_DISK_CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static final String DISK_CACHE_DIR_NAME = "sound_waves";
+    private static final String STREAMING_DISK_CACHE_DIR_NAME = "sound_waves_streaming";
+
+    // The size of the buffer for decoded data in streaming mode
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    // Partial sound waves are emitted at most once per this interval in streaming mode
+    private static final long PROGRESS_INTERVAL_MILLIS = 100L;
+
     private static String getBASSErrorMessage(int errCode) {
         switch (errCode) {
             case BASS.BASS_OK: return "OK";
@@ -86,40 +109,157 @@ public final class BASSSoundWaveResolverImpl implements SoundWaveResolver {
     }
 
     private final int levelCount;
+    private final boolean streaming;
 
     private final SoundWaveLruCache cache;
+    private final SoundWaveDiskCache diskCache;
 
-    public BASSSoundWaveResolverImpl(int levelCount) {
+    public BASSSoundWaveResolverImpl(Context context, int levelCount) {
+        this(context, levelCount, false);
+    }
+
+    /**
+     * @param streaming if true, then sound waves are computed by decoding files sequentially in one pass,
+     *                  and partial sound waves are emitted while decoding.
+     *                  Otherwise, levels are sampled by seeking the stream once per level.
+     */
+    public BASSSoundWaveResolverImpl(Context context, int levelCount, boolean streaming) {
         this.levelCount = levelCount;
+        this.streaming = streaming;
         this.cache = new SoundWaveLruCache(calcSoundWaveCacheSize(levelCount));
+        // Sound waves computed in different modes are not interchangeable
+        final String diskCacheDirName = streaming ? STREAMING_DISK_CACHE_DIR_NAME : DISK_CACHE_DIR_NAME;
+        this.diskCache = new SoundWaveDiskCache(
+                new File(context.getCacheDir(), diskCacheDirName), MAX_DISK_CACHE_SIZE);
         initNativeLibrary();
     }
 
     @Override
     public Flowable<SoundWave> resolveSoundWave(final String filepath) {
-        Flowable<SoundWave> source = Flowable.fromCallable(new Callable<SoundWave>() {
+        Flowable<SoundWave> source = Flowable.create(new FlowableOnSubscribe<SoundWave>() {
             @Override
-            public SoundWave call() throws Exception {
+            public void subscribe(FlowableEmitter<SoundWave> emitter) throws Exception {
                 ThreadStrictMode.assertBackground();
                 // Checking the cache first
                 final SoundWave cachedValue = cache.get(filepath);
                 if (cachedValue != null) {
-                    return cachedValue;
+                    emitter.onNext(cachedValue);
+                    emitter.onComplete();
+                    return;
+                }
+
+                // Then the disk cache, that survives process restarts
+                final SoundWave storedValue = diskCache.get(filepath, levelCount);
+                if (storedValue != null) {
+                    cache.put(filepath, storedValue);
+                    emitter.onNext(storedValue);
+                    emitter.onComplete();
+                    return;
                 }
 
                 // No cached value, creating a new one
-                final SoundWave soundWave = blockingResolveImpl(filepath, levelCount);
+                final SoundWave soundWave;
+                if (streaming) {
+                    soundWave = blockingResolveStreaming(filepath, levelCount, emitter);
+                } else {
+                    soundWave = blockingResolveImpl(filepath, levelCount);
+                }
+                if (soundWave == null) {
+                    // Cancelled
+                    return;
+                }
 
-                // Putting it in the cache for further optimization
+                // Putting it in the caches for further optimization
                 cache.put(filepath, soundWave);
+                diskCache.put(filepath, soundWave);
 
-                return soundWave;
+                emitter.onNext(soundWave);
+                emitter.onComplete();
             }
-        });
+        }, BackpressureStrategy.LATEST);
 
         return source.subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Decodes the file sequentially in one pass and computes the peak level of each bucket of frames.
+     * Partial sound waves are emitted to <code>emitter</code> at most once per {@link #PROGRESS_INTERVAL_MILLIS}.
+     * @return the complete sound wave, or null if the emitter was cancelled while decoding
+     */
+    @Nullable
+    private SoundWave blockingResolveStreaming(
+            String filename, int levelCount, FlowableEmitter<SoundWave> emitter) throws Exception {
+        if (levelCount < 0) {
+            throw new IllegalArgumentException("Invalid level count: " + levelCount);
+        }
+
+        if (levelCount == 0) {
+            int[] levels = new int[0];
+            int maxLevel = 1;
+            return new SoundWaveImpl(levels, maxLevel);
+        }
+
+        // Pre-scanning gives the exact length for VBR files, that is needed to split frames into buckets
+        final int chan = BASS.BASS_StreamCreateFile(filename, 0L, 0L, BASS.BASS_STREAM_DECODE | BASS.BASS_STREAM_PRESCAN);
+
+        if (chan == 0) {
+            throw new Exception("Failed to create stream for " + filename);
+        }
+
+        try {
+            final BASS.BASS_CHANNELINFO info = new BASS.BASS_CHANNELINFO();
+            if (!BASS.BASS_ChannelGetInfo(chan, info) || info.chans <= 0) {
+                throw new Exception("Failed to get channel info for " + filename);
+            }
+
+            // The stream is decoded to 16-bit samples
+            final int bytesPerFrame = 2 * info.chans;
+            final long channelLength = BASS.BASS_ChannelGetLength(chan, BASS.BASS_POS_BYTE);
+            final SoundWaveAccumulator accumulator = new SoundWaveAccumulator(
+                    levelCount, channelLength / bytesPerFrame, info.chans, SoundWaveAccumulator.Measure.PEAK);
+
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(DECODE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+            long lastEmitTime = SystemClock.uptimeMillis();
+            while (true) {
+                if (emitter.isCancelled()) {
+                    return null;
+                }
+
+                buffer.clear();
+                final int read = BASS.BASS_ChannelGetData(chan, buffer, DECODE_BUFFER_SIZE);
+                if (read <= 0) {
+                    // The end of the stream or an error
+                    int errCode = BASS.BASS_ErrorGetCode();
+                    if (errCode != BASS.BASS_OK && errCode != BASS.BASS_ERROR_ENDED) {
+                        String errMsg = getBASSErrorMessage(errCode);
+                        if (DEBUG) Log.e(LOG_TAG, "Failed to decode " + filename + ". Err code: " + errMsg);
+                    }
+                    break;
+                }
+
+                buffer.limit(read);
+                accumulator.accept(buffer.asShortBuffer());
+
+                final long now = SystemClock.uptimeMillis();
+                if (now - lastEmitTime >= PROGRESS_INTERVAL_MILLIS) {
+                    emitter.onNext(accumulator.snapshot());
+                    lastEmitTime = now;
+                }
+            }
+
+            final SoundWave soundWave = accumulator.snapshot();
+            if (soundWave.getMaxLevel() <= 1) {
+                // Silence or nothing decoded
+                int[] newLevels = new int[levelCount];
+                Arrays.fill(newLevels, 1);
+                return new SoundWaveImpl(newLevels, 10);
+            }
+            return soundWave;
+        } finally {
+            BASS.BASS_StreamFree(chan);
+        }
+    }
+
     private SoundWave blockingResolveImpl(String filename, int levelCount) throws Exception {
         if (levelCount < 0) {
             throw new IllegalArgumentException("Invalid level count: " + levelCount);
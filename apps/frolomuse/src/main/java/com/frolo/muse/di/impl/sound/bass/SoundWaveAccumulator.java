@@ -0,0 +1,151 @@
+package com.frolo.muse.di.impl.sound.bass;
+
+import androidx.annotation.NonNull;
+
+import com.frolo.muse.model.sound.SoundWave;
+
+import java.nio.ShortBuffer;
+
+
+/**
+ * Computes sound wave levels from 16-bit interleaved PCM samples in a single pass.
+ * The frames are split into <code>levelCount</code> equal buckets, and each level is either
+ * the peak or the RMS of all the samples in its bucket, across all channels.
+ * Levels are in the range [0, 32768], the same as the levels reported by BASS for 16-bit streams.
+ *
+ * The total frame count is only an estimate: frames that go beyond it fall into the last bucket.
+ *
+ * This class is not thread-safe.
+ */
+final class SoundWaveAccumulator {
+
+    enum Measure {
+        PEAK,
+        RMS
+    }
+
+    private final int mLevelCount;
+    private final long mTotalFrames;
+    private final int mChannels;
+    private final Measure mMeasure;
+
+    private final int[] mPeaks;
+    private final double[] mSumSquares;
+    private final long[] mSampleCounts;
+
+    // Frames accepted so far
+    private long mFrameIndex;
+    // Channel of the next sample, as samples may be split between buffers in the middle of a frame
+    private int mChannelIndex;
+
+    SoundWaveAccumulator(int levelCount, long totalFrames, int channels, @NonNull Measure measure) {
+        if (levelCount < 0) {
+            throw new IllegalArgumentException("Invalid level count: " + levelCount);
+        }
+        if (channels <= 0) {
+            throw new IllegalArgumentException("Invalid channel count: " + channels);
+        }
+        mLevelCount = levelCount;
+        mTotalFrames = Math.max(totalFrames, 1L);
+        mChannels = channels;
+        mMeasure = measure;
+        mPeaks = new int[levelCount];
+        mSumSquares = new double[levelCount];
+        mSampleCounts = new long[levelCount];
+    }
+
+    private int getBucketIndex(long frameIndex) {
+        final long bucketIndex = frameIndex * mLevelCount / mTotalFrames;
+        return (int) Math.min(bucketIndex, mLevelCount - 1);
+    }
+
+    /**
+     * Accepts the remaining samples of <code>samples</code>.
+     */
+    void accept(@NonNull ShortBuffer samples) {
+        if (mLevelCount == 0) {
+            samples.position(samples.limit());
+            return;
+        }
+        int bucketIndex = getBucketIndex(mFrameIndex);
+        // The first frame of the next bucket
+        long nextBucketFrame = getNextBucketFrame(bucketIndex);
+        int peak = mPeaks[bucketIndex];
+        double sumSquares = mSumSquares[bucketIndex];
+        long sampleCount = mSampleCounts[bucketIndex];
+        while (samples.hasRemaining()) {
+            final int sample = samples.get();
+            final int amplitude = sample < 0 ? -sample : sample;
+            if (amplitude > peak) {
+                peak = amplitude;
+            }
+            sumSquares += (double) sample * sample;
+            sampleCount++;
+
+            if (++mChannelIndex == mChannels) {
+                mChannelIndex = 0;
+                mFrameIndex++;
+                if (mFrameIndex >= nextBucketFrame && bucketIndex < mLevelCount - 1) {
+                    mPeaks[bucketIndex] = peak;
+                    mSumSquares[bucketIndex] = sumSquares;
+                    mSampleCounts[bucketIndex] = sampleCount;
+                    bucketIndex = getBucketIndex(mFrameIndex);
+                    nextBucketFrame = getNextBucketFrame(bucketIndex);
+                    peak = mPeaks[bucketIndex];
+                    sumSquares = mSumSquares[bucketIndex];
+                    sampleCount = mSampleCounts[bucketIndex];
+                }
+            }
+        }
+        mPeaks[bucketIndex] = peak;
+        mSumSquares[bucketIndex] = sumSquares;
+        mSampleCounts[bucketIndex] = sampleCount;
+    }
+
+    private long getNextBucketFrame(int bucketIndex) {
+        // The smallest frame index that maps to the next bucket
+        final long numerator = (long) (bucketIndex + 1) * mTotalFrames;
+        return (numerator + mLevelCount - 1) / mLevelCount;
+    }
+
+    /**
+     * Returns the number of buckets that have been filled completely.
+     */
+    int getCompletedLevelCount() {
+        if (mLevelCount == 0 || mFrameIndex >= mTotalFrames) {
+            return mLevelCount;
+        }
+        return getBucketIndex(mFrameIndex);
+    }
+
+    private int getLevel(int index) {
+        switch (mMeasure) {
+            case PEAK:
+                return mPeaks[index];
+            case RMS: {
+                final long count = mSampleCounts[index];
+                return count > 0 ? (int) Math.round(Math.sqrt(mSumSquares[index] / count)) : 0;
+            }
+            default:
+                throw new IllegalStateException("Unknown measure: " + mMeasure);
+        }
+    }
+
+    /**
+     * Returns a sound wave with the levels accumulated so far.
+     * Buckets that have not been reached yet have zero levels.
+     */
+    @NonNull
+    SoundWave snapshot() {
+        final int[] levels = new int[mLevelCount];
+        int maxLevel = 1;
+        for (int i = 0; i < mLevelCount; i++) {
+            final int level = getLevel(i);
+            levels[i] = level;
+            if (level > maxLevel) {
+                maxLevel = level;
+            }
+        }
+        return new SoundWaveImpl(levels, maxLevel);
+    }
+}
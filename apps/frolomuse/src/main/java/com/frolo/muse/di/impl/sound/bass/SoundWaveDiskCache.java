@@ -0,0 +1,290 @@
+package com.frolo.muse.di.impl.sound.bass;
+
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.muse.BuildConfig;
+import com.frolo.muse.model.sound.SoundWave;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Disk-backed second tier for {@link SoundWaveLruCache}.
+ * Each sound wave is stored in its own file, that is named after the hash of the audio file path,
+ * its size and its last-modified time, so a sound wave is computed once per file version.
+ * Stored files are read through a memory mapping.
+ *
+ * The total size of the stored files is bounded by <code>maxSize</code>:
+ * the least recently used files are evicted first. The last-modified time of a stored file
+ * is its last access time, so the LRU order survives process restarts.
+ *
+ * All methods are blocking and must be called on a worker thread.
+ */
+final class SoundWaveDiskCache {
+
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String LOG_TAG = "SoundWaveDiskCache";
+
+    private static final int MAGIC = 0x46535756; // FSWV
+    private static final int VERSION = 1;
+    // magic, version, level count, max level
+    private static final int HEADER_SIZE = 4 * 4;
+
+    private static final String FILE_EXTENSION = ".wave";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    private final Object mLock = new Object();
+    // Stored file names to their sizes, in the access order
+    @GuardedBy("mLock")
+    private LinkedHashMap<String, Long> mEntries;
+    @GuardedBy("mLock")
+    private long mTotalSize;
+
+    SoundWaveDiskCache(@NonNull File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the sound wave stored for the current version of the audio file at <code>filepath</code>,
+     * or null if there is none.
+     */
+    @WorkerThread
+    @Nullable
+    SoundWave get(@NonNull String filepath, int levelCount) {
+        final String fileName = getFileName(filepath, levelCount);
+        if (fileName == null) {
+            return null;
+        }
+        synchronized (mLock) {
+            ensureEntriesLoaded();
+            if (!mEntries.containsKey(fileName)) {
+                return null;
+            }
+            final File file = new File(mDirectory, fileName);
+            final SoundWave soundWave = read(file, levelCount);
+            if (soundWave == null) {
+                // Malformed or deleted externally
+                remove(fileName);
+                return null;
+            }
+            // Moves the entry to the end of the access order
+            mEntries.get(fileName);
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return soundWave;
+        }
+    }
+
+    /**
+     * Stores <code>soundWave</code> for the current version of the audio file at <code>filepath</code>,
+     * evicting the least recently used sound waves if the total size exceeds the limit.
+     */
+    @WorkerThread
+    void put(@NonNull String filepath, @NonNull SoundWave soundWave) {
+        final int levelCount = soundWave.length();
+        final String fileName = getFileName(filepath, levelCount);
+        if (fileName == null) {
+            return;
+        }
+        synchronized (mLock) {
+            ensureEntriesLoaded();
+            final File file = new File(mDirectory, fileName);
+            final File tmpFile = new File(mDirectory, fileName + TMP_FILE_EXTENSION);
+            try {
+                write(tmpFile, soundWave);
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("Failed to rename " + tmpFile + " to " + file);
+                }
+            } catch (IOException e) {
+                if (DEBUG) Log.e(LOG_TAG, "Failed to store sound wave for " + filepath, e);
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+                return;
+            }
+            final Long oldSize = mEntries.put(fileName, file.length());
+            if (oldSize != null) {
+                mTotalSize -= oldSize;
+            }
+            mTotalSize += file.length();
+            trimToSize();
+        }
+    }
+
+    long getTotalSize() {
+        synchronized (mLock) {
+            ensureEntriesLoaded();
+            return mTotalSize;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void ensureEntriesLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mTotalSize = 0;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            if (DEBUG) Log.e(LOG_TAG, "Failed to create " + mDirectory);
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // The least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(FILE_EXTENSION)) {
+                final long size = file.length();
+                mEntries.put(name, size);
+                mTotalSize += size;
+            } else if (name.endsWith(TMP_FILE_EXTENSION)) {
+                // Leftover of an interrupted write
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    @GuardedBy("mLock")
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mTotalSize > mMaxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mTotalSize -= eldest.getValue();
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, eldest.getKey()).delete();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void remove(@NonNull String fileName) {
+        final Long size = mEntries.remove(fileName);
+        if (size != null) {
+            mTotalSize -= size;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        new File(mDirectory, fileName).delete();
+    }
+
+    /**
+     * Returns the name of the file for the current version of the audio file at <code>filepath</code>,
+     * or null if the audio file does not exist.
+     */
+    @Nullable
+    private static String getFileName(@NonNull String filepath, int levelCount) {
+        final File audioFile = new File(filepath);
+        final long lastModified = audioFile.lastModified();
+        if (lastModified == 0L) {
+            return null;
+        }
+        final String key = filepath + '\u0000' + audioFile.length() + '\u0000' + lastModified
+                + '\u0000' + levelCount;
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(key.getBytes(UTF_8));
+            final StringBuilder builder = new StringBuilder(hash.length * 2 + FILE_EXTENSION.length());
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.append(FILE_EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen, SHA-1 is always available
+            if (DEBUG) Log.e(LOG_TAG, "Failed to hash " + filepath, e);
+            return null;
+        }
+    }
+
+    private static void write(@NonNull File file, @NonNull SoundWave soundWave) throws IOException {
+        final int levelCount = soundWave.length();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(levelCount);
+            out.writeInt(soundWave.getMaxLevel());
+            for (int i = 0; i < levelCount; i++) {
+                out.writeInt(soundWave.getLevelAt(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Nullable
+    private static SoundWave read(@NonNull File file, int expectedLevelCount) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(buffer, expectedLevelCount);
+        } catch (IOException e) {
+            if (DEBUG) Log.e(LOG_TAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private static SoundWave decode(@NonNull ByteBuffer buffer, int expectedLevelCount) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        final int levelCount = buffer.getInt();
+        final int maxLevel = buffer.getInt();
+        if (levelCount != expectedLevelCount || buffer.remaining() != levelCount * 4) {
+            return null;
+        }
+        final int[] levels = new int[levelCount];
+        buffer.asIntBuffer().get(levels);
+        return new SoundWaveImpl(levels, maxLevel);
+    }
+}
@@ -21,8 +21,11 @@ import java.util.concurrent.Executor
 class LocalDataModule {
     @ApplicationScope
     @Provides
-    fun providePreferences(context: Context): Preferences {
-        return PreferencesImpl(context)
+    fun providePreferences(
+        context: Context,
+        @ExecutorQualifier(ExecutorQualifier.ThreadType.BACKGROUND) executor: Executor
+    ): Preferences {
+        return PreferencesImpl(context, executor)
     }
 
     @ApplicationScope
@@ -218,8 +221,8 @@ class LocalDataModule {
 
     @ApplicationScope
     @Provides
-    fun provideSoundResolver(): SoundWaveResolver {
-        return BASSSoundWaveResolverImpl(BuildConfig.SOUND_WAVEFORM_LENGTH)
+    fun provideSoundResolver(context: Context): SoundWaveResolver {
+        return BASSSoundWaveResolverImpl(context, BuildConfig.SOUND_WAVEFORM_LENGTH, true)
     }
 
     @ApplicationScope
@@ -19,12 +19,14 @@ import com.frolo.muse.network.NetworkHelper
 import com.frolo.muse.permission.PermissionChecker
 import com.frolo.muse.player.journals.AndroidLogPlayerJournal
 import com.frolo.muse.player.journals.CompositePlayerJournal
-import com.frolo.muse.player.journals.StoredInMemoryPlayerJournal
+import com.frolo.muse.player.journals.MappedFilePlayerJournal
+import com.frolo.muse.player.journals.RingBufferPlayerJournal
 import com.frolo.muse.router.AppRouter
 import com.frolo.muse.rx.SchedulerProvider
 import com.frolo.player.PlayerJournal
 import dagger.Module
 import dagger.Provides
+import java.io.File
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
 import com.frolo.muse.BuildInfo
@@ -84,16 +86,24 @@ class MiscModule {
 
     @ApplicationScope
     @Provides
-    fun providePlayerJournal(): PlayerJournal {
+    fun providePlayerJournal(
+        context: Context,
+        @ExecutorQualifier(ExecutorQualifier.ThreadType.BACKGROUND) executor: Executor
+    ): PlayerJournal {
+        // The journal file is kept in release builds too, so the logs of the field can be sent from the settings
+        val mappedFileJournal = MappedFilePlayerJournal(openExecutor = executor) {
+            File(context.filesDir, "player_journal.bin")
+        }
         if (BuildInfo.isDebug()) {
             val journals = listOf(
                 AndroidLogPlayerJournal("FrolomusePlayerJournal"),
-                StoredInMemoryPlayerJournal()
+                RingBufferPlayerJournal(),
+                mappedFileJournal
             )
             return CompositePlayerJournal(journals)
         }
 
-        return PlayerJournal.EMPTY
+        return mappedFileJournal
     }
 
     @ApplicationScope
@@ -0,0 +1,323 @@
+package com.frolo.muse.player.journals
+
+import android.util.Log
+import com.frolo.muse.player.journals.PlayerJournalDecoder.*
+import com.frolo.player.PlayerJournal
+import io.reactivex.Flowable
+import io.reactivex.Scheduler
+import io.reactivex.schedulers.Schedulers
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Journal that writes compact binary records into a rolling memory-mapped [file],
+ * which keeps the last [recordCapacity] records. The format is described in [PlayerJournalDecoder].
+ *
+ * A message is split at the first ": " into a template, which is interned into the dictionary of the file,
+ * and a detail, which is written into the record as UTF-8 truncated to [MAX_DETAIL_LENGTH] bytes.
+ * So "Seek to: 1000" is stored as the ID of "Seek to" plus "1000". For an error, the record also gets
+ * the interned class name of the error.
+ *
+ * Logging does no I/O calls: it writes to the mapped memory, and the system flushes the pages to the file.
+ * The pages belong to the system, so the records survive the death of the process.
+ * Only the first occurrence of a template or an error class takes a lock. Logging is lock-free otherwise,
+ * and it allocates nothing but the template key. Each record is written with zero sequence first
+ * and gets its sequence last, so a record that has not been written completely is skipped on decoding.
+ *
+ * The file is opened and formatted on [openExecutor] right away, so the caller never waits for the disk.
+ * Records logged before the file is ready are dropped. If it fails to open, the journal logs nothing.
+ */
+class MappedFilePlayerJournal(
+    val recordCapacity: Int = DEFAULT_RECORD_CAPACITY,
+    private val dictionarySize: Int = DEFAULT_DICTIONARY_SIZE,
+    openExecutor: Executor,
+    fileProvider: () -> File
+) : PlayerJournal {
+
+    /**
+     * The journal file. It is resolved on [openExecutor] too, as resolving app directories may touch the disk.
+     */
+    val file: File by lazy(fileProvider)
+
+    private class Storage(val buffer: MappedByteBuffer, val recordsOffset: Int, val firstSequence: Long) {
+        val nextSequence = AtomicLong(firstSequence)
+        val stringIds = ConcurrentHashMap<String, Int>()
+        val dictionaryLock = Any()
+        // Guarded by dictionaryLock
+        var dictionaryPosition: Int = HEADER_SIZE
+        var dictionaryStringCount: Int = 0
+    }
+
+    // Null until the file is ready, or forever if it fails to open
+    @Volatile
+    private var storage: Storage? = null
+
+    init {
+        require(recordCapacity > 0) { "Invalid record capacity: $recordCapacity" }
+        require(dictionarySize >= 0) { "Invalid dictionary size: $dictionarySize" }
+        openExecutor.execute { storage = openStorage() }
+    }
+
+    private fun openStorage(): Storage? {
+        return try {
+            file.parentFile?.mkdirs()
+            val fileSize = HEADER_SIZE + dictionarySize + recordCapacity * RECORD_SIZE
+            var isFormatted = true
+            val buffer = RandomAccessFile(file, "rw").use { randomAccessFile ->
+                if (randomAccessFile.length() != fileSize.toLong() || !hasValidHeader(randomAccessFile)) {
+                    // A new file, another format or a file that has not been formatted completely: start from scratch.
+                    // The file system fills the extended file with zeros, so the records are not written here.
+                    randomAccessFile.setLength(0L)
+                    randomAccessFile.setLength(fileSize.toLong())
+                    isFormatted = false
+                }
+                // The mapping stays valid after the channel is closed
+                randomAccessFile.channel.map(FileChannel.MapMode.READ_WRITE, 0L, fileSize.toLong())
+            }
+            if (!isFormatted) {
+                writeHeader(buffer)
+            }
+            loadStorage(buffer)
+        } catch (e: Throwable) {
+            Log.e(LOG_TAG, "Failed to open the player journal file", e)
+            null
+        }
+    }
+
+    private fun hasValidHeader(file: RandomAccessFile): Boolean {
+        val header = ByteArray(HEADER_SIZE)
+        file.seek(0L)
+        file.readFully(header)
+        val buffer = ByteBuffer.wrap(header)
+        return buffer.getInt(HEADER_MAGIC_OFFSET) == MAGIC
+                && buffer.getInt(HEADER_VERSION_OFFSET) == VERSION
+                && buffer.getInt(HEADER_RECORD_SIZE_OFFSET) == RECORD_SIZE
+                && buffer.getInt(HEADER_RECORD_CAPACITY_OFFSET) == recordCapacity
+                && buffer.getInt(HEADER_DICTIONARY_SIZE_OFFSET) == dictionarySize
+    }
+
+    private fun writeHeader(buffer: ByteBuffer) {
+        buffer.putInt(HEADER_VERSION_OFFSET, VERSION)
+        buffer.putInt(HEADER_RECORD_SIZE_OFFSET, RECORD_SIZE)
+        buffer.putInt(HEADER_RECORD_CAPACITY_OFFSET, recordCapacity)
+        buffer.putInt(HEADER_DICTIONARY_SIZE_OFFSET, dictionarySize)
+        // The magic goes last, so a file that has not been formatted completely is formatted again
+        buffer.putInt(HEADER_MAGIC_OFFSET, MAGIC)
+    }
+
+    private fun loadStorage(buffer: MappedByteBuffer): Storage {
+        val recordsOffset = HEADER_SIZE + dictionarySize
+        var lastSequence = -1L
+        for (slot in 0 until recordCapacity) {
+            val sequence = buffer.getLong(recordsOffset + slot * RECORD_SIZE + RECORD_SEQUENCE_OFFSET) - 1
+            lastSequence = maxOf(lastSequence, sequence)
+        }
+        val storage = Storage(buffer, recordsOffset, lastSequence + 1)
+        PlayerJournalDecoder.readDictionary(buffer, HEADER_SIZE, dictionarySize).forEach { string ->
+            storage.dictionaryStringCount++
+            storage.stringIds[string] = storage.dictionaryStringCount
+            storage.dictionaryPosition += 2 + string.toByteArray(Charsets.UTF_8).size
+        }
+        return storage
+    }
+
+    /**
+     * Returns the ID of [string] in the dictionary, adding it if needed,
+     * or [NO_STRING_ID] if the dictionary has no room for it.
+     */
+    private fun intern(storage: Storage, string: String): Int {
+        storage.stringIds[string]?.let { return it }
+        if (string.isEmpty()) {
+            return NO_STRING_ID
+        }
+        synchronized(storage.dictionaryLock) {
+            storage.stringIds[string]?.let { return it }
+            val bytes = string.toByteArray(Charsets.UTF_8)
+            val position = storage.dictionaryPosition
+            if (bytes.size > 0xFFFF || position + 2 + bytes.size > HEADER_SIZE + dictionarySize) {
+                return NO_STRING_ID
+            }
+            for (i in bytes.indices) {
+                storage.buffer.put(position + 2 + i, bytes[i])
+            }
+            // The length goes last, it makes the string visible to the decoder
+            storage.buffer.putShort(position, bytes.size.toShort())
+            storage.dictionaryPosition = position + 2 + bytes.size
+            storage.dictionaryStringCount++
+            val id = storage.dictionaryStringCount
+            storage.stringIds[string] = id
+            return id
+        }
+    }
+
+    private fun append(eventCode: Byte, message: String?, error: Throwable?) {
+        val storage = storage ?: return
+        val timestamp = System.currentTimeMillis()
+        val text = message.orEmpty()
+
+        val separatorIndex = text.indexOf(MESSAGE_SEPARATOR)
+        val template = if (separatorIndex >= 0) text.substring(0, separatorIndex) else text
+        val messageId = intern(storage, template)
+        var detail: String? = text
+        var detailStart = 0
+        if (messageId != NO_STRING_ID) {
+            // The template is in the dictionary, so only the rest of the message goes into the record
+            detailStart = if (separatorIndex >= 0) separatorIndex + MESSAGE_SEPARATOR.length else text.length
+        }
+        var flags: Byte = 0
+        val errorClassId = if (error != null) intern(storage, error.javaClass.name) else NO_STRING_ID
+        if (error != null && detailStart == text.length && error.message != null) {
+            detail = error.message
+            detailStart = 0
+            flags = FLAG_DETAIL_IS_ERROR_MESSAGE
+        }
+
+        val sequence = storage.nextSequence.getAndIncrement()
+        val offset = storage.recordsOffset + (sequence % recordCapacity).toInt() * RECORD_SIZE
+        val buffer = storage.buffer
+        buffer.putLong(offset + RECORD_SEQUENCE_OFFSET, 0L)
+        buffer.putLong(offset + RECORD_TIMESTAMP_OFFSET, timestamp)
+        buffer.put(offset + RECORD_EVENT_CODE_OFFSET, eventCode)
+        buffer.put(offset + RECORD_FLAGS_OFFSET, flags)
+        buffer.putInt(offset + RECORD_MESSAGE_ID_OFFSET, messageId)
+        buffer.putInt(offset + RECORD_ERROR_CLASS_ID_OFFSET, errorClassId)
+        val detailLength = writeUtf8(buffer, offset + RECORD_DETAIL_OFFSET, detail.orEmpty(), detailStart)
+        buffer.putShort(offset + RECORD_DETAIL_LENGTH_OFFSET, detailLength.toShort())
+        buffer.putLong(offset + RECORD_SEQUENCE_OFFSET, sequence + 1)
+    }
+
+    override fun logMessage(message: String?) {
+        append(EVENT_MESSAGE, message, null)
+    }
+
+    override fun logError(message: String?, error: Throwable?) {
+        append(EVENT_ERROR, message, error)
+    }
+
+    /**
+     * The sequence of the first record logged by this process. The records with lower sequences
+     * were logged by previous processes. This is [NO_SEQUENCE] until the file is ready.
+     */
+    val sessionStartSequence: Long
+        get() = storage?.firstSequence ?: NO_SEQUENCE
+
+    /**
+     * Decodes the records of the file with sequences starting from [fromSequence],
+     * including the ones logged by previous processes.
+     */
+    fun readRecords(fromSequence: Long = 0L): List<PlayerJournalDecoder.Record> {
+        val storage = storage ?: return emptyList()
+        return PlayerJournalDecoder.decode(storage.buffer.duplicate(), fromSequence)
+    }
+
+    /**
+     * Emits the records that have been logged since the previous emission, at most once per [periodInMs].
+     * The first emission has all the records of the file, including the ones logged by previous processes.
+     */
+    fun observeRecords(
+        periodInMs: Long = UPDATE_PERIOD_IN_MS,
+        scheduler: Scheduler = Schedulers.computation()
+    ): Flowable<List<PlayerJournalDecoder.Record>> {
+        return Flowable.defer {
+            var lastNextSequence = -1L
+            var fromSequence = 0L
+            Flowable.interval(0L, periodInMs, TimeUnit.MILLISECONDS, scheduler)
+                .onBackpressureDrop()
+                .filter { (storage?.nextSequence?.get() ?: 0L) != lastNextSequence }
+                .map {
+                    lastNextSequence = storage?.nextSequence?.get() ?: 0L
+                    val records = readRecords(fromSequence)
+                    records.lastOrNull()?.let { fromSequence = it.sequence + 1 }
+                    records
+                }
+                .filter { records -> records.isNotEmpty() }
+        }
+    }
+
+    /**
+     * Copies the journal file to [dst], so it can be sent and decoded by [PlayerJournalDecoder] elsewhere.
+     * The mapping is shared with the file, so the copy has all the records logged so far.
+     */
+    fun exportTo(dst: File) {
+        file.copyTo(dst, overwrite = true)
+    }
+
+    companion object {
+        private const val LOG_TAG = "MappedFilePlayerJournal"
+
+        const val NO_SEQUENCE = -1L
+
+        private const val DEFAULT_RECORD_CAPACITY = 8 * 1024
+        private const val DEFAULT_DICTIONARY_SIZE = 64 * 1024
+
+        private const val UPDATE_PERIOD_IN_MS = 500L
+
+        private const val MESSAGE_SEPARATOR = ": "
+
+        /**
+         * Writes [text] from [startIndex] as UTF-8 at [offset] without allocations,
+         * up to [MAX_DETAIL_LENGTH] bytes and without splitting characters.
+         * Unpaired surrogates are written as '?'. Returns the number of written bytes.
+         */
+        private fun writeUtf8(buffer: ByteBuffer, offset: Int, text: String, startIndex: Int): Int {
+            var length = 0
+            var index = startIndex
+            while (index < text.length) {
+                val char = text[index]
+                val codePoint: Int
+                val charCount: Int
+                if (Character.isHighSurrogate(char) && index + 1 < text.length
+                        && Character.isLowSurrogate(text[index + 1])) {
+                    codePoint = Character.toCodePoint(char, text[index + 1])
+                    charCount = 2
+                } else if (Character.isSurrogate(char)) {
+                    codePoint = '?'.code
+                    charCount = 1
+                } else {
+                    codePoint = char.code
+                    charCount = 1
+                }
+                val byteCount = when {
+                    codePoint < 0x80 -> 1
+                    codePoint < 0x800 -> 2
+                    codePoint < 0x10000 -> 3
+                    else -> 4
+                }
+                if (length + byteCount > MAX_DETAIL_LENGTH) {
+                    break
+                }
+                val position = offset + length
+                when (byteCount) {
+                    1 -> buffer.put(position, codePoint.toByte())
+                    2 -> {
+                        buffer.put(position, (0xC0 or (codePoint shr 6)).toByte())
+                        buffer.put(position + 1, (0x80 or (codePoint and 0x3F)).toByte())
+                    }
+                    3 -> {
+                        buffer.put(position, (0xE0 or (codePoint shr 12)).toByte())
+                        buffer.put(position + 1, (0x80 or ((codePoint shr 6) and 0x3F)).toByte())
+                        buffer.put(position + 2, (0x80 or (codePoint and 0x3F)).toByte())
+                    }
+                    else -> {
+                        buffer.put(position, (0xF0 or (codePoint shr 18)).toByte())
+                        buffer.put(position + 1, (0x80 or ((codePoint shr 12) and 0x3F)).toByte())
+                        buffer.put(position + 2, (0x80 or ((codePoint shr 6) and 0x3F)).toByte())
+                        buffer.put(position + 3, (0x80 or (codePoint and 0x3F)).toByte())
+                    }
+                }
+                length += byteCount
+                index += charCount
+            }
+            return length
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.frolo.muse.player.journals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Decodes the binary files written by {@link MappedFilePlayerJournal}.
+ *
+ * The file consists of three regions:
+ * 1) The header: magic, version, record size, record capacity and dictionary size, as ints;
+ * 2) The dictionary of interned strings: each string is an unsigned short length followed by UTF-8 bytes,
+ * and a zero length ends the dictionary. The string IDs start from 1 in the order of the strings;
+ * 3) The ring of fixed-size records (see the RECORD_ offsets). A record with zero sequence is empty.
+ *
+ * This class depends on the JDK only, so the decoder also works offline:
+ * <pre>java PlayerJournalDecoder.java player_journal.bin</pre>
+ */
+public final class PlayerJournalDecoder {
+
+    static final int MAGIC = 0x464D504A; // FMPJ
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int HEADER_MAGIC_OFFSET = 0;
+    static final int HEADER_VERSION_OFFSET = 4;
+    static final int HEADER_RECORD_SIZE_OFFSET = 8;
+    static final int HEADER_RECORD_CAPACITY_OFFSET = 12;
+    static final int HEADER_DICTIONARY_SIZE_OFFSET = 16;
+
+    static final int RECORD_SIZE = 128;
+    // Sequence number plus one, written last, so that a record that has not been written completely is empty
+    static final int RECORD_SEQUENCE_OFFSET = 0;
+    static final int RECORD_TIMESTAMP_OFFSET = 8;
+    static final int RECORD_EVENT_CODE_OFFSET = 16;
+    static final int RECORD_FLAGS_OFFSET = 17;
+    static final int RECORD_DETAIL_LENGTH_OFFSET = 18;
+    static final int RECORD_MESSAGE_ID_OFFSET = 20;
+    static final int RECORD_ERROR_CLASS_ID_OFFSET = 24;
+    static final int RECORD_DETAIL_OFFSET = 28;
+    static final int MAX_DETAIL_LENGTH = RECORD_SIZE - RECORD_DETAIL_OFFSET;
+
+    static final byte EVENT_MESSAGE = 1;
+    static final byte EVENT_ERROR = 2;
+
+    // The detail is the message of the error, not the rest of the message
+    static final byte FLAG_DETAIL_IS_ERROR_MESSAGE = 1;
+
+    static final int NO_STRING_ID = 0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final class Record {
+        private final long sequence;
+        private final long timestamp;
+        private final boolean isError;
+        private final String message;
+        private final String errorClass;
+        private final String errorMessage;
+
+        Record(long sequence, long timestamp, boolean isError,
+               String message, String errorClass, String errorMessage) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.isError = isError;
+            this.message = message;
+            this.errorClass = errorClass;
+            this.errorMessage = errorMessage;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean isError() {
+            return isError;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the class name of the logged error, or null if there was no error.
+         */
+        public String getErrorClass() {
+            return errorClass;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(message);
+            if (errorClass != null) {
+                builder.append(" (").append(errorClass);
+                if (errorMessage != null) {
+                    builder.append(": ").append(errorMessage);
+                }
+                builder.append(')');
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Decodes the records of <code>buffer</code>, ordered by sequence.
+     * @throws IllegalArgumentException if the buffer does not contain a journal
+     */
+    public static List<Record> decode(ByteBuffer buffer) {
+        return decode(buffer, 0L);
+    }
+
+    /**
+     * Decodes the records of <code>buffer</code> with sequences starting from <code>fromSequence</code>,
+     * ordered by sequence. Older records are skipped before their strings are decoded.
+     * @throws IllegalArgumentException if the buffer does not contain a journal
+     */
+    public static List<Record> decode(ByteBuffer buffer, long fromSequence) {
+        if (buffer.limit() < HEADER_SIZE
+                || buffer.getInt(HEADER_MAGIC_OFFSET) != MAGIC
+                || buffer.getInt(HEADER_VERSION_OFFSET) != VERSION) {
+            throw new IllegalArgumentException("Not a player journal");
+        }
+        final int recordSize = buffer.getInt(HEADER_RECORD_SIZE_OFFSET);
+        final int recordCapacity = buffer.getInt(HEADER_RECORD_CAPACITY_OFFSET);
+        final int dictionarySize = buffer.getInt(HEADER_DICTIONARY_SIZE_OFFSET);
+        if (recordSize != RECORD_SIZE || recordCapacity < 0 || dictionarySize < 0
+                || (long) HEADER_SIZE + dictionarySize + (long) recordSize * recordCapacity > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupted player journal header");
+        }
+
+        final List<String> dictionary = readDictionary(buffer, HEADER_SIZE, dictionarySize);
+
+        final int recordsOffset = HEADER_SIZE + dictionarySize;
+        final List<Record> records = new ArrayList<>();
+        for (int slot = 0; slot < recordCapacity; slot++) {
+            final int offset = recordsOffset + slot * recordSize;
+            final long sequence = buffer.getLong(offset + RECORD_SEQUENCE_OFFSET) - 1;
+            if (sequence < 0 || sequence < fromSequence) {
+                continue;
+            }
+            final long timestamp = buffer.getLong(offset + RECORD_TIMESTAMP_OFFSET);
+            final boolean isError = buffer.get(offset + RECORD_EVENT_CODE_OFFSET) == EVENT_ERROR;
+            final byte flags = buffer.get(offset + RECORD_FLAGS_OFFSET);
+            final int detailLength = Math.min(buffer.getShort(offset + RECORD_DETAIL_LENGTH_OFFSET) & 0xFFFF,
+                    MAX_DETAIL_LENGTH);
+            final String template = getString(dictionary, buffer.getInt(offset + RECORD_MESSAGE_ID_OFFSET));
+            final String errorClass = getString(dictionary, buffer.getInt(offset + RECORD_ERROR_CLASS_ID_OFFSET));
+            final String detail = detailLength > 0
+                    ? readUtf8(buffer, offset + RECORD_DETAIL_OFFSET, detailLength) : null;
+
+            final String message;
+            final String errorMessage;
+            if ((flags & FLAG_DETAIL_IS_ERROR_MESSAGE) != 0) {
+                message = template != null ? template : "";
+                errorMessage = detail;
+            } else {
+                message = joinMessage(template, detail);
+                errorMessage = null;
+            }
+            records.add(new Record(sequence, timestamp, isError, message, errorClass, errorMessage));
+        }
+
+        Collections.sort(records, (r1, r2) -> Long.compare(r1.sequence, r2.sequence));
+        return records;
+    }
+
+    public static List<Record> read(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final long length = randomAccessFile.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Too large file: " + length);
+            }
+            final byte[] bytes = new byte[(int) length];
+            randomAccessFile.readFully(bytes);
+            return decode(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /**
+     * Joins the interned part and the detail part of a message, the same way as {@link MappedFilePlayerJournal} splits it.
+     */
+    static String joinMessage(String template, String detail) {
+        if (template == null) {
+            return detail != null ? detail : "";
+        }
+        return detail != null ? template + ": " + detail : template;
+    }
+
+    static List<String> readDictionary(ByteBuffer buffer, int offset, int size) {
+        final List<String> strings = new ArrayList<>();
+        int position = offset;
+        final int end = offset + size;
+        while (position + 2 <= end) {
+            final int length = buffer.getShort(position) & 0xFFFF;
+            if (length == 0 || position + 2 + length > end) {
+                break;
+            }
+            strings.add(readUtf8(buffer, position + 2, length));
+            position += 2 + length;
+        }
+        return strings;
+    }
+
+    private static String getString(List<String> dictionary, int id) {
+        return id > NO_STRING_ID && id <= dictionary.size() ? dictionary.get(id - 1) : null;
+    }
+
+    private static String readUtf8(ByteBuffer buffer, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: PlayerJournalDecoder <journal file>");
+            System.exit(1);
+            return;
+        }
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        for (Record record : read(new File(args[0]))) {
+            System.out.println(dateFormat.format(new Date(record.timestamp))
+                    + (record.isError ? " E " : " I ") + record);
+        }
+    }
+
+    private PlayerJournalDecoder() {
+    }
+}
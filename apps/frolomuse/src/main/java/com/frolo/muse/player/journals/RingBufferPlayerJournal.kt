@@ -0,0 +1,168 @@
+package com.frolo.muse.player.journals
+
+import com.frolo.player.PlayerJournal
+import io.reactivex.Flowable
+import io.reactivex.Scheduler
+import io.reactivex.schedulers.Schedulers
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+
+/**
+ * Journal that keeps the last [capacity] entries in memory, in a preallocated ring buffer.
+ *
+ * Logging is lock-free and allocation-free: a producer claims the next sequence number,
+ * writes the entry into the slot of that sequence and then publishes the slot.
+ * Any number of threads may log at the same time. When the buffer is full, new entries overwrite the oldest ones.
+ *
+ * Readers copy ranges of published entries without blocking producers (see [snapshot]).
+ * A slot is read between two checks of its published sequence, so an entry that is being overwritten
+ * is skipped instead of being read torn.
+ */
+class RingBufferPlayerJournal(capacity: Int = DEFAULT_CAPACITY) : PlayerJournal {
+
+    /**
+     * The actual capacity, which is [capacity] rounded up to a power of two.
+     */
+    val capacity: Int = roundUpToPowerOfTwo(capacity)
+
+    private val mask: Long = (this.capacity - 1).toLong()
+
+    private val nextSequence = AtomicLong(0L)
+
+    // The sequence of the entry in each slot, or NOT_PUBLISHED while the slot is being written
+    private val publishedSequences = AtomicLongArray(this.capacity)
+    private val timestamps = AtomicLongArray(this.capacity)
+    private val messages = AtomicReferenceArray<String?>(this.capacity)
+    private val errors = AtomicReferenceArray<Throwable?>(this.capacity)
+
+    init {
+        for (slot in 0 until this.capacity) {
+            publishedSequences.set(slot, NOT_PUBLISHED)
+        }
+    }
+
+    /**
+     * The sequence number that the next entry will get. This is also the number of entries logged so far.
+     */
+    val endSequence: Long get() = nextSequence.get()
+
+    private fun timestamp(): Long = System.currentTimeMillis()
+
+    private fun append(timestamp: Long, message: String?, error: Throwable?) {
+        val sequence = nextSequence.getAndIncrement()
+        val slot = (sequence and mask).toInt()
+        publishedSequences.set(slot, NOT_PUBLISHED)
+        timestamps.set(slot, timestamp)
+        messages.set(slot, message)
+        errors.set(slot, error)
+        publishedSequences.set(slot, sequence)
+    }
+
+    override fun logMessage(message: String?) {
+        append(timestamp(), message, null)
+    }
+
+    override fun logError(message: String?, error: Throwable?) {
+        append(timestamp(), message, error)
+    }
+
+    /**
+     * Copies the entries from [fromSequence] to the current end of the journal.
+     * Entries that have already been overwritten are skipped. The copy stops at the first entry
+     * that is still being written, so a reader can continue from [Snapshot.endSequence] without missing entries.
+     */
+    fun snapshot(fromSequence: Long = 0L): Snapshot {
+        val endSequence = nextSequence.get()
+        val startSequence = maxOf(fromSequence, endSequence - capacity, 0L)
+        val entries = ArrayList<LogData>((endSequence - startSequence).toInt().coerceAtLeast(0))
+        var sequence = startSequence
+        while (sequence < endSequence) {
+            val slot = (sequence and mask).toInt()
+            val publishedSequence = publishedSequences.get(slot)
+            if (publishedSequence < sequence) {
+                // Not published yet
+                break
+            }
+            if (publishedSequence == sequence) {
+                val timestamp = timestamps.get(slot)
+                val message = messages.get(slot)
+                val error = errors.get(slot)
+                if (publishedSequences.get(slot) == sequence) {
+                    entries.add(createLogData(timestamp, message, error))
+                }
+            }
+            sequence++
+        }
+        return Snapshot(entries, sequence)
+    }
+
+    /**
+     * Emits the entries logged since the previous emission, at most once per [periodInMs],
+     * and only if new entries have been logged. The first emission has all the entries of the journal.
+     * Each emission copies only the new entries (see [snapshot]), so a reader keeps the entries it needs.
+     */
+    fun observeSnapshot(
+        periodInMs: Long = UPDATE_PERIOD_IN_MS,
+        scheduler: Scheduler = Schedulers.computation()
+    ): Flowable<Snapshot> {
+        return Flowable.defer {
+            var lastSnapshotEndSequence = -1L
+            Flowable.interval(0L, periodInMs, TimeUnit.MILLISECONDS, scheduler)
+                .onBackpressureDrop()
+                .filter { endSequence != lastSnapshotEndSequence }
+                .map {
+                    val snapshot = snapshot(lastSnapshotEndSequence.coerceAtLeast(0L))
+                    lastSnapshotEndSequence = snapshot.endSequence
+                    snapshot
+                }
+        }
+    }
+
+    class Snapshot(
+        val entries: List<LogData>,
+        /**
+         * The sequence to continue reading from.
+         */
+        val endSequence: Long
+    )
+
+    sealed class LogData {
+        abstract val timestamp: Long
+
+        data class Message(
+            override val timestamp: Long,
+            val value: String?
+        ): LogData()
+
+        data class Error(
+            override val timestamp: Long,
+            val message: String?,
+            val value: Throwable?
+        ): LogData()
+    }
+
+    companion object {
+        private const val DEFAULT_CAPACITY = 128 * 1024
+
+        private const val UPDATE_PERIOD_IN_MS = 500L
+
+        private const val NOT_PUBLISHED = -1L
+
+        private fun roundUpToPowerOfTwo(value: Int): Int {
+            require(value in 1..(1 shl 30)) { "Invalid capacity: $value" }
+            return Integer.highestOneBit(value - 1).shl(1).coerceAtLeast(1)
+        }
+
+        private fun createLogData(timestamp: Long, message: String?, error: Throwable?): LogData {
+            return if (error != null) {
+                LogData.Error(timestamp, message, error)
+            } else {
+                LogData.Message(timestamp, message)
+            }
+        }
+    }
+
+}
@@ -55,6 +55,7 @@ class PlayerBuilder @Inject constructor(
             .setMediaPlayerHook(MediaPlayerHookImpl(audioFx2Impl))
             .setPlayerJournal(playerJournal)
             .setUseWakeLocks(preParams.wakeLockEnabled)
+            .setUseGaplessPlayback(preParams.gaplessPlaybackEnabled)
             .setRepeatMode(preParams.repeatMode)
             .setShuffleMode(preParams.shuffleMode)
             .setPlaybackFadingStrategy(preParams.playbackFadingStrategy)
@@ -81,9 +82,10 @@ class PlayerBuilder @Inject constructor(
     }
 
     private fun loadPreParams(timeoutMillis: Long): PreParams {
-        val countDownLatch = CountDownLatch(2)
+        val countDownLatch = CountDownLatch(3)
 
         val wakeLockEnabledRef = AtomicBoolean(false)
+        val gaplessPlaybackEnabledRef = AtomicBoolean(false)
         val playbackFadingParamsRef = AtomicReference<PlaybackFadingParams>(null)
 
         val disposables = CompositeDisposable()
@@ -95,6 +97,14 @@ class PlayerBuilder @Inject constructor(
                 { err -> logOrFail(err) }
             )
             .let(disposables::add)
+        remoteConfigRepository.isPlayerGaplessPlaybackEnabled()
+            .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .doFinally { countDownLatch.countDown() }
+            .subscribe(
+                { enabled -> gaplessPlaybackEnabledRef.set(enabled) },
+                { err -> logOrFail(err) }
+            )
+            .let(disposables::add)
         preferences.playbackFadingParams
             .first(PlaybackFadingParams.none())
             .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
@@ -116,6 +126,7 @@ class PlayerBuilder @Inject constructor(
 
         return PreParams(
             wakeLockEnabled = wakeLockEnabledRef.get(),
+            gaplessPlaybackEnabled = gaplessPlaybackEnabledRef.get(),
             playbackFadingStrategy = PlaybackFadingStrategy
                 .withSmartStaticInterval(playbackFadingParams.interval),
             repeatMode = preferences.loadRepeatMode(),
@@ -130,6 +141,7 @@ class PlayerBuilder @Inject constructor(
 
     private class PreParams(
         val wakeLockEnabled: Boolean,
+        val gaplessPlaybackEnabled: Boolean,
         val playbackFadingStrategy: PlaybackFadingStrategy,
         val repeatMode: Int,
         val shuffleMode: Int
@@ -148,6 +160,10 @@ class PlayerBuilder @Inject constructor(
         override fun releaseAudioEffects() {
             audioFx2Impl.release()
         }
+
+        override fun onPlaybackTransition(mediaPlayer: MediaPlayer, isGapless: Boolean, timeToFirstAudio: Long) {
+            Logger.d(LOG_TAG, "Playback transition: gapless=$isGapless, time_to_first_audio=$timeToFirstAudio ms")
+        }
     }
 
     private companion object {
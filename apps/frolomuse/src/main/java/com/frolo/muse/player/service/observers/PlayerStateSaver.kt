@@ -8,9 +8,9 @@ import com.frolo.player.AudioSourceQueue
 import com.frolo.muse.repository.Preferences
 import com.frolo.muse.rx.newSingleThreadExecutor
 import io.reactivex.Completable
+import io.reactivex.Maybe
 import io.reactivex.Observable
 import io.reactivex.Scheduler
-import io.reactivex.Single
 import io.reactivex.disposables.CompositeDisposable
 import io.reactivex.disposables.Disposable
 import io.reactivex.schedulers.Schedulers
@@ -44,19 +44,23 @@ class PlayerStateSaver constructor(
     // Ref to the current queue
     private val queueRef = AtomicReference<AudioSourceQueue>(null)
 
-    // Queue callback to save queue changes
-    private val queueCallback = AudioSourceQueue.Callback { queue ->
-        saveQueueAsync(queue)
+    // Queue callback to save queue changes. Invalidations are coalesced,
+    // so there is at most one pending save per burst of changes.
+    private val queueCallback = AudioSourceQueue.VersionedCallback { queue, version, _ ->
+        saveQueueAsync(queue, version)
     }
 
     override fun onQueueChanged(player: Player, queue: AudioSourceQueue) {
         queueRef.getAndSet(queue)?.unregisterCallback(queueCallback)
         queue.registerCallback(queueCallback, workerExecutor)
-        saveQueueAsync(queue)
+        saveQueueAsync(queue, queue.version)
     }
 
-    private fun saveQueueAsync(queue: AudioSourceQueue) {
-        Single.fromCallable { queue.map { source -> source.id } }
+    private fun saveQueueAsync(queue: AudioSourceQueue, version: Long) {
+        Maybe.fromCallable {
+                // If the queue has changed since, then a newer save is pending, so this one is skipped
+                if (queue.version == version) queue.map { source -> source.id } else null
+            }
             .subscribeOn(computationScheduler)
             .flatMapCompletable { preferences.saveLastMediaCollectionItemIds(it) }
             .doOnComplete {
@@ -7,6 +7,7 @@ import io.reactivex.Single
 interface RemoteConfigRepository {
     fun isLyricsViewerEnabled(): Single<Boolean>
     fun isPlayerWakeLockEnabled(): Single<Boolean>
+    fun isPlayerGaplessPlaybackEnabled(): Single<Boolean>
     fun isSnowfallFeatureEnabled(): Single<Boolean>
     fun isDonationFeatureEnabled(): Single<Boolean>
     fun getFirebaseBannerConfig(): Single<FacebookBannerConfig>
@@ -7,16 +7,35 @@ import androidx.core.view.isVisible
 import androidx.recyclerview.widget.RecyclerView
 import com.frolo.muse.R
 import kotlinx.android.synthetic.main.item_player_journal_log_data.view.*
-import kotlin.properties.Delegates
 
 
-class LogDataItemAdapter: RecyclerView.Adapter<LogDataItemAdapter.LogDataItemViewHolder>() {
+class LogDataItemAdapter(
+    private val window: LogDataItemWindow
+): RecyclerView.Adapter<LogDataItemAdapter.LogDataItemViewHolder>() {
 
-    var items: List<LogDataItem> by Delegates.observable(emptyList()) { _, _, _ ->
-        notifyDataSetChanged()
+    // The version of the window that has been notified about
+    private var notifiedVersion = window.version
+
+    /**
+     * Notifies about [change] of the window. If some changes have been missed,
+     * the whole data set is notified as changed.
+     */
+    fun onWindowChanged(change: LogDataItemWindow.Change) {
+        if (change.version <= notifiedVersion) {
+            // Notified already
+            return
+        }
+        if (change.version == notifiedVersion + 1) {
+            val insertedPosition = window.size + change.removedCount - change.insertedCount
+            if (change.insertedCount > 0) notifyItemRangeInserted(insertedPosition, change.insertedCount)
+            if (change.removedCount > 0) notifyItemRangeRemoved(0, change.removedCount)
+        } else {
+            notifyDataSetChanged()
+        }
+        notifiedVersion = window.version
     }
 
-    override fun getItemCount(): Int = items.count()
+    override fun getItemCount(): Int = window.size
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): LogDataItemViewHolder {
         val itemView = LayoutInflater.from(parent.context)
@@ -25,7 +44,7 @@ class LogDataItemAdapter: RecyclerView.Adapter<LogDataItemAdapter.LogDataItemVie
     }
 
     override fun onBindViewHolder(holder: LogDataItemViewHolder, position: Int) {
-        holder.bind(items[position])
+        holder.bind(window[position])
     }
 
     class LogDataItemViewHolder(itemView: View): RecyclerView.ViewHolder(itemView) {
@@ -40,4 +59,4 @@ class LogDataItemAdapter: RecyclerView.Adapter<LogDataItemAdapter.LogDataItemVie
         }
 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.frolo.muse.ui.main.settings.journal
+
+
+/**
+ * The last [capacity] log data items shown on the journal screen.
+ * Items are appended and trimmed in O(1) each, and each change is described by [Change],
+ * so the adapter can notify about the inserted and removed ranges instead of rebinding all the items.
+ *
+ * This class is accessed on the main thread only.
+ */
+class LogDataItemWindow(val capacity: Int) {
+
+    private val items = ArrayDeque<LogDataItem>()
+
+    /**
+     * Incremented by each change.
+     */
+    var version: Int = 0
+        private set
+
+    val size: Int get() = items.size
+
+    operator fun get(index: Int): LogDataItem = items[index]
+
+    fun toList(): List<LogDataItem> = items.toList()
+
+    /**
+     * Appends [newItems] to the end and removes the oldest items beyond [capacity].
+     */
+    fun append(newItems: List<LogDataItem>): Change {
+        items.addAll(newItems)
+        var removedCount = 0
+        while (items.size > capacity) {
+            items.removeFirst()
+            removedCount++
+        }
+        version++
+        return Change(version, newItems.size, removedCount)
+    }
+
+    /**
+     * [insertedCount] items were inserted at the end, then [removedCount] items were removed from the start.
+     */
+    class Change(val version: Int, val insertedCount: Int, val removedCount: Int)
+}
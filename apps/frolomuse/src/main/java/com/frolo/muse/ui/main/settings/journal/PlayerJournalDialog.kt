@@ -38,7 +38,7 @@ class PlayerJournalDialog: BaseDialogFragment() {
 
     private fun loadUI(dialog: Dialog) = with(dialog) {
         rv_logs.layoutManager = LinearLayoutManager(context)
-        rv_logs.adapter = LogDataItemAdapter()
+        rv_logs.adapter = LogDataItemAdapter(viewModel.logDataItemWindow)
 
         btn_copy.setOnClickListener {
             viewModel.onCopyLogsToClipboard()
@@ -54,9 +54,9 @@ class PlayerJournalDialog: BaseDialogFragment() {
     }
 
     private fun observeViewModel(owner: LifecycleOwner) = with(viewModel) {
-        logDataItems.observe(owner) { items ->
+        logDataChange.observeNonNull(owner) { change ->
             dialog?.apply {
-                (rv_logs?.adapter as? LogDataItemAdapter)?.items = items.orEmpty()
+                (rv_logs?.adapter as? LogDataItemAdapter)?.onWindowChanged(change)
             }
         }
 
@@ -7,6 +7,7 @@ import androidx.lifecycle.MutableLiveData
 import com.frolo.muse.FrolomuseApp
 import com.frolo.muse.R
 import com.frolo.muse.ThrowableUtils
+import com.frolo.muse.android.SendFilesIntent
 import com.frolo.muse.android.SendTextFileIntent
 import com.frolo.muse.android.clipboardManager
 import com.frolo.muse.android.startActivitySafely
@@ -14,11 +15,14 @@ import com.frolo.arch.support.SingleLiveEvent
 import com.frolo.arch.support.call
 import com.frolo.player.PlayerJournal
 import com.frolo.muse.player.journals.CompositePlayerJournal
-import com.frolo.muse.player.journals.StoredInMemoryPlayerJournal
+import com.frolo.muse.player.journals.MappedFilePlayerJournal
+import com.frolo.muse.player.journals.PlayerJournalDecoder
+import com.frolo.muse.player.journals.RingBufferPlayerJournal
 import com.frolo.muse.logger.EventLogger
 import com.frolo.muse.rx.SchedulerProvider
 import com.frolo.rx.flowable.doOnNextIndexed
 import com.frolo.muse.ui.base.BaseAndroidViewModel
+import io.reactivex.Flowable
 import io.reactivex.Single
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.Disposable
@@ -39,12 +43,23 @@ class PlayerJournalViewModel @Inject constructor(
 
     private var sendLogsDisposable: Disposable? = null
 
-    private val _logDataItems by lazy {
-        MutableLiveData<List<LogDataItem>>().apply {
+    private val ringBufferJournal = peekPlayerJournal(playerJournal, RingBufferPlayerJournal::class.java)
+    private val mappedFileJournal = peekPlayerJournal(playerJournal, MappedFilePlayerJournal::class.java)
+
+    /**
+     * The items shown on the screen, accessed on the main thread only.
+     * It keeps as many items as the journals it's loaded from.
+     */
+    val logDataItemWindow = LogDataItemWindow(
+        capacity = (ringBufferJournal?.capacity ?: 0) + (mappedFileJournal?.recordCapacity ?: 0)
+    )
+
+    private val _logDataChange by lazy {
+        MutableLiveData<LogDataItemWindow.Change>().apply {
             loadLogDataItems()
         }
     }
-    val logDataItems: LiveData<List<LogDataItem>> get() = _logDataItems
+    val logDataChange: LiveData<LogDataItemWindow.Change> get() = _logDataChange
 
     private val _scrollToPosition = SingleLiveEvent<Int>()
     val scrollToPosition: LiveData<Int> get() = _scrollToPosition
@@ -53,45 +68,98 @@ class PlayerJournalViewModel @Inject constructor(
     val notifyLogsCopied: LiveData<Unit> get() = _notifyLogsCopied
 
     private fun loadLogDataItems() {
-        Single.fromCallable {
-            peekStoredInMemoryPlayerJournal(playerJournal)
-                    ?: throw NullPointerException("No StoredInMemoryPlayerJournal found") }
+        Flowable.defer { observeNewLogDataItems() }
                 .subscribeOn(schedulerProvider.computation())
-                .flatMapPublisher { it.observeSnapshot() }
-                .map { logDataList ->
-                    logDataList.map { logData ->
-                        val time = DATE_FORMAT.format(logData.timestamp)
-                        val message = when (logData) {
-                            is StoredInMemoryPlayerJournal.LogData.Message -> logData.value.orEmpty()
-                            is StoredInMemoryPlayerJournal.LogData.Error -> logData.message.orEmpty()
-                        }
-                        val error = (logData as? StoredInMemoryPlayerJournal.LogData.Error)?.value
-                        val errorStackTrace = error?.let { ThrowableUtils.stackTraceToString(it) }
-                        LogDataItem(
-                            time = time,
-                            message = message,
-                            errorStackTrace = errorStackTrace
-                        )
-                    }
-                }
                 .observeOn(schedulerProvider.main())
-                .doOnNextIndexed { index, snapshot ->
-                    _logDataItems.value = snapshot
+                .doOnNextIndexed { index, newItems ->
+                    _logDataChange.value = logDataItemWindow.append(newItems)
                     if (index == 0) {
-                        _scrollToPosition.value = (snapshot.size - 1).coerceAtLeast(0)
+                        _scrollToPosition.value = (logDataItemWindow.size - 1).coerceAtLeast(0)
                     }
                 }
                 .subscribeFor {  }
     }
 
-    private fun peekStoredInMemoryPlayerJournal(journal: PlayerJournal): StoredInMemoryPlayerJournal? {
-        if (journal is StoredInMemoryPlayerJournal) {
-            return journal
+    /**
+     * Observes the items that are new since the previous emission, so each update costs
+     * as much as the number of new items, not the number of items on the screen.
+     * The in-memory journal, which has full stack traces, is observed if there is one,
+     * and the records of previous processes are taken from the journal file.
+     * Otherwise, the journal file is observed, which has the records of all processes.
+     */
+    private fun observeNewLogDataItems(): Flowable<List<LogDataItem>> {
+        val ringBufferJournal = this.ringBufferJournal
+        val mappedFileJournal = this.mappedFileJournal
+        if (ringBufferJournal != null) {
+            // Each snapshot has only the entries that are new since the previous one
+            val newItems = ringBufferJournal.observeSnapshot(scheduler = schedulerProvider.computation())
+                .map { snapshot -> snapshot.entries.map { toLogDataItem(it) } }
+            if (mappedFileJournal == null) {
+                return newItems
+            }
+            return Flowable.defer {
+                // The previous items go first, in the same emission as the first snapshot
+                var previousItems: List<LogDataItem>? = getPreviousProcessLogDataItems(mappedFileJournal)
+                newItems.map { items ->
+                    val allItems = previousItems?.let { it + items } ?: items
+                    previousItems = null
+                    allItems
+                }
+            }
+        }
+        if (mappedFileJournal != null) {
+            // Each emission has only the records that are new since the previous one
+            return mappedFileJournal.observeRecords(scheduler = schedulerProvider.computation())
+                .map { records -> records.map { toLogDataItem(it) } }
+        }
+        return Flowable.error(NullPointerException("No readable player journal found"))
+    }
+
+    private fun getPreviousProcessLogDataItems(journal: MappedFilePlayerJournal): List<LogDataItem> {
+        val sessionStartSequence = journal.sessionStartSequence
+        return journal.readRecords()
+            .filter { it.sequence < sessionStartSequence }
+            .map { toLogDataItem(it) }
+    }
+
+    private fun toLogDataItem(logData: RingBufferPlayerJournal.LogData): LogDataItem {
+        val time = DATE_FORMAT.format(logData.timestamp)
+        val message = when (logData) {
+            is RingBufferPlayerJournal.LogData.Message -> logData.value.orEmpty()
+            is RingBufferPlayerJournal.LogData.Error -> logData.message.orEmpty()
+        }
+        val error = (logData as? RingBufferPlayerJournal.LogData.Error)?.value
+        val errorStackTrace = error?.let { ThrowableUtils.stackTraceToString(it) }
+        return LogDataItem(
+            time = time,
+            message = message,
+            errorStackTrace = errorStackTrace
+        )
+    }
+
+    private fun toLogDataItem(record: PlayerJournalDecoder.Record): LogDataItem {
+        val errorClass = record.errorClass
+        // The file keeps the class and the message of an error, but not its stack trace
+        val errorStackTrace = if (errorClass != null) {
+            record.errorMessage?.let { "$errorClass: $it" } ?: errorClass
+        } else {
+            null
+        }
+        return LogDataItem(
+            time = DATE_FORMAT.format(record.timestamp),
+            message = record.message,
+            errorStackTrace = errorStackTrace
+        )
+    }
+
+    private fun <T : PlayerJournal> peekPlayerJournal(journal: PlayerJournal, journalClass: Class<T>): T? {
+        if (journalClass.isInstance(journal)) {
+            return journalClass.cast(journal)
         }
         if (journal is CompositePlayerJournal) {
             journal.journals.forEach {
-                if (it is StoredInMemoryPlayerJournal) {
-                    return it
+                if (journalClass.isInstance(it)) {
+                    return journalClass.cast(it)
                 }
             }
         }
@@ -99,7 +167,7 @@ class PlayerJournalViewModel @Inject constructor(
     }
 
     private fun getLogsAsText(): Single<String> {
-        val items = logDataItems.value.orEmpty()
+        val items = logDataItemWindow.toList()
         return Single.fromCallable {
             val strings = items.map { logDataItem ->
                 val stringBuilder = StringBuilder()
@@ -148,12 +216,23 @@ class PlayerJournalViewModel @Inject constructor(
                 file.printWriter().use { writer ->
                     writer.print(text)
                 }
-                return@map file
+                val files = arrayListOf(file)
+                // The journal file is sent as is, so it can be decoded with PlayerJournalDecoder
+                mappedFileJournal?.also { journal ->
+                    val journalFile = File(cacheFolder, JOURNAL_FILENAME)
+                    journal.exportTo(journalFile)
+                    files.add(journalFile)
+                }
+                return@map files
             }
             .observeOn(schedulerProvider.main())
-            .doOnSuccess { file ->
+            .doOnSuccess { files ->
                 //val actionTitle = justApplication.getString(R.string.send_player_logs_title)
-                val intent = SendTextFileIntent(justApplication, file)
+                val intent = if (files.size == 1) {
+                    SendTextFileIntent(justApplication, files.first())
+                } else {
+                    SendFilesIntent(justApplication, files)
+                }
                 justApplication.startActivitySafely(intent)
             }
             .ignoreElement()
@@ -171,6 +250,7 @@ class PlayerJournalViewModel @Inject constructor(
         private val DATE_FORMAT = SimpleDateFormat("hh:mm:ss")
 
         private const val LOGS_FILENAME = "player_logs.text"
+        private const val JOURNAL_FILENAME = "player_journal.bin"
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.frolo.muse.database.entity
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class PlaylistMemberOrderingTest {
+
+    /**
+     * Creates a consistent linked list of members with IDs 1..[count].
+     */
+    private fun createChain(count: Int, playlistId: Long = 1L): List<PlaylistMemberEntity> {
+        return List(count) { index ->
+            val id = index + 1L
+            PlaylistMemberEntity(
+                id = id,
+                prevId = if (index > 0) id - 1 else null,
+                nextId = if (index < count - 1) id + 1 else null,
+                audioId = id * 10,
+                playlistId = playlistId,
+                source = "/Music/Track_$id.mp3"
+            )
+        }
+    }
+
+    @Test
+    fun test_consistentChain() {
+        val chain = createChain(100)
+        assertEquals(chain, orderPlaylistMembers(chain.shuffled()))
+    }
+
+    @Test
+    fun test_cycleEndsChain() {
+        val chain = createChain(5).toMutableList()
+        // 5 -> 3
+        chain[4] = chain[4].copy(nextId = 3L)
+        assertEquals(listOf(1L, 2L, 3L, 4L, 5L), orderPlaylistMembers(chain).map { it.id })
+    }
+
+    @Test
+    fun test_orphansAreAppended() {
+        val chain = createChain(6).toMutableList()
+        // 3 -> null, so 4, 5 and 6 are not reachable from the first item
+        chain[2] = chain[2].copy(nextId = null)
+        val shuffled = chain.shuffled()
+        val ordered = orderPlaylistMembers(shuffled)
+
+        assertEquals(listOf(1L, 2L, 3L), ordered.take(3).map { it.id })
+        // In their original order
+        assertEquals(shuffled.map { it.id }.filter { it > 3L }, ordered.drop(3).map { it.id })
+    }
+
+    @Test
+    fun test_missingFirstItem() {
+        val chain = createChain(4).toMutableList()
+        chain[0] = chain[0].copy(prevId = 100L)
+        assertEquals(listOf(1L, 2L, 3L, 4L), orderPlaylistMembers(chain.shuffled()).map { it.id })
+    }
+
+    @Test
+    fun test_largeChain() {
+        val chain = createChain(10_000).toMutableList()
+        // 5000 -> null, so the second half is orphaned
+        chain[4_999] = chain[4_999].copy(nextId = null)
+        val shuffled = chain.shuffled()
+        val ordered = orderPlaylistMembers(shuffled)
+        assertEquals(chain.take(5_000), ordered.take(5_000))
+        assertEquals(shuffled.filter { it.id > 5_000L }, ordered.drop(5_000))
+    }
+}
@@ -0,0 +1,101 @@
+package com.frolo.muse.database.entity
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import kotlin.random.Random
+
+
+@RunWith(JUnit4::class)
+class PlaylistMemberPositionsTest {
+
+    private fun createEntities(count: Int): List<PlaylistMemberEntity> {
+        return List(count) { index ->
+            PlaylistMemberEntity(
+                id = index + 1L,
+                audioId = index + 1L,
+                playlistId = 1L,
+                source = "/Music/Track_$index.mp3",
+                position = rebalancedPosition(index)
+            )
+        }
+    }
+
+    private fun List<PlaylistMemberEntity>.sortedByPosition(): List<PlaylistMemberEntity> {
+        return sortedWith(compareBy({ it.position }, { it.id }))
+    }
+
+    @Test
+    fun test_positionBetween() {
+        assertEquals(POSITION_GAP, positionBetween(null, null))
+        assertEquals(POSITION_GAP * 3, positionBetween(POSITION_GAP * 2, null))
+        assertEquals(POSITION_GAP, positionBetween(null, POSITION_GAP * 2))
+        assertEquals(POSITION_GAP * 3 / 2, positionBetween(POSITION_GAP, POSITION_GAP * 2))
+        assertEquals(11L, positionBetween(10L, 12L))
+        assertNull(positionBetween(10L, 11L))
+        assertNull(positionBetween(10L, 10L))
+    }
+
+    @Test
+    fun test_gapIsExhaustedAfterRepeatedMoves() {
+        var prevPosition = rebalancedPosition(0)
+        val nextPosition = rebalancedPosition(1)
+        var moveCount = 0
+        while (true) {
+            // Always move to the place right before the next one
+            prevPosition = positionBetween(prevPosition, nextPosition) ?: break
+            moveCount++
+        }
+        assertEquals(16, moveCount)
+    }
+
+    @Test
+    fun test_rebalancePositions() {
+        val entities = createEntities(5).mapIndexed { index, entity ->
+            // Crowded positions, except the first one
+            if (index == 0) entity else entity.copy(position = POSITION_GAP + index)
+        }
+        val updatedEntities = rebalancePositions(entities)
+        assertEquals(listOf(2L, 3L, 4L, 5L), updatedEntities.map { it.id })
+        assertEquals(listOf(2L, 3L, 4L, 5L).map { rebalancedPosition(it.toInt() - 1) },
+            updatedEntities.map { it.position })
+    }
+
+    /**
+     * Simulates random moves with rebalancing, the same way the DAO does it,
+     * and checks that the order by positions matches the expected play order.
+     */
+    @Test
+    fun test_randomMovesKeepPlayOrder() {
+        val random = Random(42)
+        val entityById = createEntities(50).associateByTo(HashMap()) { it.id }
+        val expectedOrder = entityById.values.sortedByPosition().map { it.id }.toMutableList()
+        var rebalanceCount = 0
+        repeat(10_000) {
+            val targetId = expectedOrder.removeAt(random.nextInt(expectedOrder.size))
+            val newIndex = random.nextInt(expectedOrder.size + 1)
+            fun neighbourPositions(): Pair<Long?, Long?> {
+                val prevPosition = expectedOrder.getOrNull(newIndex - 1)?.let { entityById.getValue(it).position }
+                val nextPosition = expectedOrder.getOrNull(newIndex)?.let { entityById.getValue(it).position }
+                return prevPosition to nextPosition
+            }
+            var positions = neighbourPositions()
+            var position = positionBetween(positions.first, positions.second)
+            if (position == null) {
+                val ordered = entityById.values.sortedByPosition()
+                rebalancePositions(ordered).forEach { entityById[it.id] = it }
+                rebalanceCount++
+                positions = neighbourPositions()
+                position = positionBetween(positions.first, positions.second)!!
+            }
+            entityById[targetId] = entityById.getValue(targetId).copy(position = position)
+            expectedOrder.add(newIndex, targetId)
+            assertEquals(expectedOrder, entityById.values.sortedByPosition().map { it.id })
+        }
+        // Rebalancing is rare
+        assertTrue("rebalanceCount=$rebalanceCount", rebalanceCount < 100)
+    }
+}
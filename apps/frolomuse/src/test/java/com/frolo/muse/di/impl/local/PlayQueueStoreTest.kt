@@ -0,0 +1,182 @@
+package com.frolo.muse.di.impl.local
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.concurrent.Executor
+import kotlin.random.Random
+
+
+@RunWith(JUnit4::class)
+class PlayQueueStoreTest {
+
+    @get:Rule
+    val tmpFolder: TemporaryFolder = TemporaryFolder()
+
+    private val directExecutor = Executor { command -> command.run() }
+
+    private fun createQueue(size: Int): MutableList<Long> = MutableList(size) { it * 7L + 1 }
+
+    private fun diff(oldIds: List<Long>, newIds: List<Long>): List<PlayQueueStore.Op> {
+        return PlayQueueStore.diff(PlayQueueStore.IdList(oldIds.toLongArray()), newIds.toLongArray())
+    }
+
+    private fun applyDiff(oldIds: List<Long>, newIds: List<Long>): List<Long> {
+        val result = PlayQueueStore.IdList(oldIds.toLongArray())
+        diff(oldIds, newIds).forEach { op -> op.applyTo(result) }
+        return result.toArray().toList()
+    }
+
+    @Test
+    fun test_diff() {
+        val ids = createQueue(10)
+
+        val moved = ids.toMutableList().apply { add(7, removeAt(2)) }
+        val moveOps = diff(ids, moved)
+        assertEquals(1, moveOps.size)
+        assertEquals(PlayQueueStore.OP_MOVE, moveOps[0].type)
+        assertEquals(moved, applyDiff(ids, moved))
+
+        val movedBack = ids.toMutableList().apply { add(1, removeAt(8)) }
+        assertEquals(PlayQueueStore.OP_MOVE, diff(ids, movedBack).single().type)
+        assertEquals(movedBack, applyDiff(ids, movedBack))
+
+        val inserted = ids.toMutableList().apply { addAll(4, listOf(100L, 200L)) }
+        assertEquals(PlayQueueStore.OP_INSERT, diff(ids, inserted).single().type)
+        assertEquals(inserted, applyDiff(ids, inserted))
+
+        val removed = ids.toMutableList().apply { subList(3, 6).clear() }
+        assertEquals(PlayQueueStore.OP_REMOVE, diff(ids, removed).single().type)
+        assertEquals(removed, applyDiff(ids, removed))
+
+        val shuffled = ids.shuffled(Random(1))
+        assertEquals(shuffled, applyDiff(ids, shuffled))
+
+        assertTrue(diff(ids, ids.toList()).isEmpty())
+    }
+
+    @Test
+    fun test_applyToSize() {
+        val ops = listOf(
+            PlayQueueStore.Op.insert(0, longArrayOf(1L, 2L)),
+            PlayQueueStore.Op.insert(10, longArrayOf(1L)),
+            PlayQueueStore.Op.insert(11, longArrayOf(1L)),
+            PlayQueueStore.Op.insert(-1, longArrayOf(1L)),
+            PlayQueueStore.Op.remove(0, 10),
+            PlayQueueStore.Op.remove(5, 6),
+            PlayQueueStore.Op.remove(-1, 1),
+            PlayQueueStore.Op.move(0, 9),
+            PlayQueueStore.Op.move(9, 10),
+            PlayQueueStore.Op.move(-1, 0)
+        )
+        // The size check used to validate journal records agrees with applying them
+        ops.forEach { op ->
+            val ids = PlayQueueStore.IdList(createQueue(10).toLongArray())
+            val expectedSize = try {
+                op.applyTo(ids)
+                ids.size()
+            } catch (e: IndexOutOfBoundsException) {
+                -1
+            }
+            assertEquals(expectedSize, op.applyToSize(10))
+        }
+    }
+
+    @Test
+    fun test_restoreIsExact() {
+        val directory = tmpFolder.newFolder("play_queue")
+        assertNull(PlayQueueStore(directory, directExecutor).load())
+
+        val random = Random(42)
+        val store = PlayQueueStore(directory, directExecutor)
+        var ids = createQueue(5_000)
+        store.save(ids)
+        repeat(500) { step ->
+            ids = ids.toMutableList().apply {
+                when (step % 4) {
+                    0 -> add(random.nextInt(size), removeAt(random.nextInt(size)))
+                    1 -> add(random.nextInt(size + 1), random.nextLong())
+                    2 -> removeAt(random.nextInt(size))
+                    else -> shuffle(random)
+                }
+            }
+            store.save(ids)
+            // A new instance, the same as after a process restart
+            if (step % 50 == 0) {
+                assertEquals(ids, PlayQueueStore(directory, directExecutor).load())
+            }
+        }
+        assertEquals(ids, PlayQueueStore(directory, directExecutor).load())
+    }
+
+    @Test
+    fun test_dragReorderWritesOnlyTheChange() {
+        val directory = tmpFolder.newFolder("play_queue")
+        val store = PlayQueueStore(directory, directExecutor)
+        val ids = createQueue(5_000)
+        store.save(ids)
+        val journalSizeBefore = store.journalSize
+        ids.add(4_000, ids.removeAt(10))
+        store.save(ids)
+        // Record length, operation, two positions and checksum
+        assertEquals(4L + 9 + 4, store.journalSize - journalSizeBefore)
+        assertEquals(ids, PlayQueueStore(directory, directExecutor).load())
+    }
+
+    @Test
+    fun test_snapshotIsCompact() {
+        val directory = tmpFolder.newFolder("play_queue")
+        val store = PlayQueueStore(directory, directExecutor)
+        // Close IDs, the same as songs that are added from one album or folder
+        val ids = List(10_000) { 100_000L + it * 3 }
+        store.save(ids)
+        // About one byte per ID instead of eight
+        assertTrue("snapshotSize=${store.snapshotSize}", store.snapshotSize < ids.size * 2)
+        assertEquals(ids, PlayQueueStore(directory, directExecutor).load())
+    }
+
+    @Test
+    fun test_journalIsCompacted() {
+        val directory = tmpFolder.newFolder("play_queue")
+        val store = PlayQueueStore(directory, directExecutor)
+        val ids = createQueue(100)
+        store.save(ids)
+        val random = Random(7)
+        repeat(2_000) {
+            ids.add(random.nextInt(ids.size), ids.removeAt(random.nextInt(ids.size)))
+            store.save(ids)
+            assertTrue(store.journalSize <= PlayQueueStore.MIN_COMPACTION_JOURNAL_SIZE + 64)
+        }
+        assertEquals(ids, PlayQueueStore(directory, directExecutor).load())
+    }
+
+    @Test
+    fun test_tornRecordIsDropped() {
+        val directory = tmpFolder.newFolder("play_queue")
+        val store = PlayQueueStore(directory, directExecutor)
+        val ids = createQueue(1_000)
+        store.save(ids)
+        val expected = ids.toMutableList().apply { add(0, 42L) }
+        store.save(expected)
+        store.save(expected.toMutableList().apply { add(0, 43L) })
+
+        // Cut the last record in the middle, as if the process died while writing it
+        RandomAccessFile(File(directory, "queue.journal"), "rw").use { file ->
+            file.setLength(file.length() - 5)
+        }
+        val restoredStore = PlayQueueStore(directory, directExecutor)
+        assertEquals(expected, restoredStore.load())
+
+        // New records are appended after the last valid one
+        val next = expected.toMutableList().apply { removeAt(500) }
+        restoredStore.save(next)
+        assertEquals(next, PlayQueueStore(directory, directExecutor).load())
+    }
+}
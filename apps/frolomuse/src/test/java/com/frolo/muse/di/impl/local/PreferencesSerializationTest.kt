@@ -0,0 +1,97 @@
+package com.frolo.muse.di.impl.local
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+
+@RunWith(JUnit4::class)
+class PreferencesSerializationTest {
+
+    private fun encode(ids: LongArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        PreferencesSerialization.writeItemIds(out, ids, 0, ids.size)
+        return out.toByteArray()
+    }
+
+    private fun decode(bytes: ByteArray): LongArray {
+        return PreferencesSerialization.readItemIds(ByteBuffer.wrap(bytes))
+    }
+
+    @Test
+    fun test_itemIdsRoundTrip() {
+        val random = Random(1)
+        val cases = listOf(
+            LongArray(0),
+            longArrayOf(0L),
+            longArrayOf(Long.MIN_VALUE, Long.MAX_VALUE, -1L, 0L, Long.MAX_VALUE, Long.MIN_VALUE),
+            LongArray(1_000) { 1_000L + it },
+            LongArray(1_000) { 1_000L - it * 31 },
+            LongArray(1_000) { random.nextLong() }
+        )
+        cases.forEach { ids -> assertArrayEquals(ids, decode(encode(ids))) }
+    }
+
+    @Test
+    fun test_itemIdsRange() {
+        val ids = longArrayOf(1L, 2L, 3L, 4L, 5L)
+        val out = ByteArrayOutputStream()
+        PreferencesSerialization.writeItemIds(out, ids, 1, 3)
+        assertArrayEquals(longArrayOf(2L, 3L, 4L), decode(out.toByteArray()))
+    }
+
+    @Test
+    fun test_malformedItemIds() {
+        val bytes = encode(LongArray(100) { it * 1_000L })
+        val malformedCases = listOf(
+            // Truncated
+            bytes.copyOf(bytes.size - 1),
+            // The count is larger than the data
+            byteArrayOf(100),
+            // Varint that never ends
+            ByteArray(12) { 0xFF.toByte() },
+            ByteArray(0)
+        )
+        malformedCases.forEach { malformed ->
+            try {
+                decode(malformed)
+                throw AssertionError("Decoded malformed data: ${malformed.contentToString()}")
+            } catch (expected: IllegalArgumentException) {
+            }
+        }
+    }
+
+    @Test
+    fun test_asList() {
+        val ids = longArrayOf(3L, 1L, 2L)
+        val list = PreferencesSerialization.asList(ids)
+        assertEquals(listOf(3L, 1L, 2L), list)
+        assertEquals(1L, list[1])
+    }
+
+    /**
+     * Compares the legacy text format with the delta-varint format on a large queue of close IDs.
+     * The decoding work is proportional to the encoded size, so the sizes are compared.
+     */
+    @Test
+    fun test_Performance_decodeItemIds() {
+        val random = Random(42)
+        var id = 10_000L
+        val ids = LongArray(50_000) { id += 1 + random.nextInt(20); id }
+
+        val text = PreferencesSerialization.trySerializeItemIds(ids.toList())!!
+        val bytes = encode(ids)
+        assertEquals(ids.toList(), PreferencesSerialization.tryDeserializeItemIds(text))
+        assertArrayEquals(ids, decode(bytes))
+
+        // Each delta is less than 128, so it takes one byte, while the text takes 5 or 6 chars per ID
+        assertTrue(bytes.size <= ids.size + 2 * Long.SIZE_BYTES)
+        assertTrue(bytes.size * 4 < text.length)
+    }
+}
@@ -0,0 +1,140 @@
+package com.frolo.muse.di.impl.local
+
+import com.frolo.music.model.Song
+import com.frolo.music.model.SongFilter
+import com.frolo.music.model.SongType
+import com.frolo.music.model.Songs
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class SongCatalogTest {
+
+    private fun createEntry(
+        id: Long,
+        title: String,
+        source: String = "/Music/$title.mp3",
+        albumId: Long = 0L,
+        artistId: Long = 0L,
+        duration: Int = 0,
+        typeFlags: Int = 1,
+        dateAdded: Long = 0L
+    ): SongCatalog.Entry {
+        val song = Songs.create(id, SongType.MUSIC, source, title,
+            albumId, "Album $albumId", artistId, "Artist $artistId", "", duration, 0, 0)
+        return SongCatalog.Entry(song, typeFlags, dateAdded)
+    }
+
+    private fun List<Song>.ids(): List<Long> = map { it.id }
+
+    @Test
+    fun test_canServe() {
+        assertTrue(SongCatalog.canServe(SongFilter.allEnabled(), SongQuery.Sort.BY_TITLE))
+        assertTrue(SongCatalog.canServe(SongFilter.allEnabled(), SongQuery.Sort.BY_DATE_ADDED))
+        assertTrue(SongCatalog.canServe(SongFilter.allEnabled(), null))
+        // Genres are not indexed
+        assertFalse(SongCatalog.canServe(SongFilter.Builder().setGenreId(1L).build(), SongQuery.Sort.BY_TITLE))
+        // LIKE wildcards
+        assertFalse(SongCatalog.canServe(SongFilter.ofNamePiece("10%"), SongQuery.Sort.BY_TITLE))
+        assertFalse(SongCatalog.canServe(SongFilter.ofNamePiece("my_song"), SongQuery.Sort.BY_TITLE))
+        // Unknown sort orders
+        assertFalse(SongCatalog.canServe(SongFilter.allEnabled(), "date_added DESC"))
+    }
+
+    @Test
+    fun test_filterByNamePiece() {
+        val entries = listOf(
+            createEntry(1L, "Hello World"),
+            createEntry(2L, "Goodbye"),
+            createEntry(3L, "HELLO again")
+        )
+        val songs = SongCatalog.filterAndSort(entries, SongFilter.ofNamePiece("hello"), null)
+        assertEquals(listOf(1L, 3L), songs.ids())
+    }
+
+    @Test
+    fun test_filterByType() {
+        val entries = listOf(
+            createEntry(1L, "Music", typeFlags = 1),
+            createEntry(2L, "Podcast", typeFlags = 1 shl 1),
+            createEntry(3L, "Unknown", typeFlags = 0)
+        )
+        val onlyPodcasts = SongFilter.Builder().setOnlyType(SongType.PODCAST).build()
+        assertEquals(listOf(2L), SongCatalog.filterAndSort(entries, onlyPodcasts, null).ids())
+        val noTypes = SongFilter.Builder().noTypes().build()
+        assertTrue(SongCatalog.filterAndSort(entries, noTypes, null).isEmpty())
+        val allTypes = SongFilter.Builder().allTypes().build()
+        assertEquals(listOf(1L, 2L, 3L), SongCatalog.filterAndSort(entries, allTypes, null).ids())
+    }
+
+    @Test
+    fun test_filterByFolderAndDuration() {
+        val entries = listOf(
+            createEntry(1L, "A", source = "/Music/Rock/A.mp3", duration = 1000),
+            createEntry(2L, "B", source = "/Music/Rock/Live/B.mp3", duration = 5000),
+            createEntry(3L, "C", source = "/Music/Rockabilly/C.mp3", duration = 5000),
+            createEntry(4L, "D", source = "/Music/Pop/D.mp3", duration = 5000)
+        )
+        val inRock = SongFilter.Builder().setFolderPath("/Music/Rock").build()
+        assertEquals(listOf(1L, 2L), SongCatalog.filterAndSort(entries, inRock, null).ids())
+        val longInRock = inRock.newBuilder().setMinDuration(2000).build()
+        assertEquals(listOf(2L), SongCatalog.filterAndSort(entries, longInRock, null).ids())
+
+        val snapshot = SongCatalog.Snapshot(entries)
+        assertEquals(listOf(1L, 2L), snapshot.getFolderEntries("/Music/Rock").map { it.song.id })
+        assertEquals(listOf(4L), snapshot.getFolderEntries("/Music/Pop").map { it.song.id })
+    }
+
+    @Test
+    fun test_sortIsStable() {
+        val entries = listOf(
+            createEntry(1L, "b", dateAdded = 30L),
+            createEntry(2L, "A", dateAdded = 10L),
+            createEntry(3L, "B", dateAdded = 20L),
+            createEntry(4L, "a", dateAdded = 10L)
+        )
+        val byTitle = SongCatalog.filterAndSort(entries, SongFilter.allEnabled(), SongQuery.Sort.BY_TITLE)
+        assertEquals(listOf(2L, 4L, 1L, 3L), byTitle.ids())
+        val byDateAdded = SongCatalog.filterAndSort(entries, SongFilter.allEnabled(), SongQuery.Sort.BY_DATE_ADDED)
+        assertEquals(listOf(2L, 4L, 3L, 1L), byDateAdded.ids())
+    }
+
+    @Test
+    fun test_secondaryIndexes() {
+        val entries = List(100) { index ->
+            createEntry(index.toLong(), "Track $index", albumId = (index % 10).toLong(), artistId = (index % 7).toLong())
+        }
+        val snapshot = SongCatalog.Snapshot(entries)
+        assertEquals(100, snapshot.byId.size)
+        assertEquals(10, snapshot.getAlbumEntries(3L).size)
+        assertTrue(snapshot.getAlbumEntries(3L).all { it.song.albumId == 3L })
+        assertTrue(snapshot.getArtistEntries(6L).all { it.song.artistId == 6L })
+        assertTrue(snapshot.getAlbumEntries(42L).isEmpty())
+        assertEquals("Track 57", snapshot.getSong(57L)?.title)
+    }
+
+    @Test
+    fun test_albumLookup_Performance() {
+        val albumCount = 500
+        val entries = List(50_000) { index ->
+            createEntry(index.toLong(), "Track $index", albumId = (index % albumCount).toLong())
+        }
+
+        val snapshot = SongCatalog.Snapshot(entries)
+        var visitedEntryCount = 0
+        for (albumId in 0 until albumCount) {
+            val albumEntries = snapshot.getAlbumEntries(albumId.toLong())
+            visitedEntryCount += albumEntries.size
+            val albumFilter = SongFilter.Builder().setAlbumId(albumId.toLong()).build()
+            val songs = SongCatalog.filterAndSort(albumEntries, albumFilter, SongQuery.Sort.BY_TITLE)
+            assertEquals(entries.size / albumCount, songs.size)
+        }
+        // Each lookup visits the entries of its album only, not the whole snapshot
+        assertEquals(entries.size, visitedEntryCount)
+    }
+}
@@ -0,0 +1,122 @@
+package com.frolo.muse.di.impl.local
+
+import com.frolo.music.model.Song
+import com.frolo.music.model.SongType
+import com.frolo.music.model.Songs
+import com.frolo.rxcontent.CursorMapper
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.atomic.AtomicInteger
+
+
+@RunWith(JUnit4::class)
+class SongIdLookupTest {
+
+    private val mapper = CursorMapper<Song> { cursor ->
+        Songs.create(
+            cursor.getLong(SyntheticSongCursor.COLUMN_ID),
+            SongType.MUSIC,
+            cursor.getString(SyntheticSongCursor.COLUMN_DATA),
+            cursor.getString(SyntheticSongCursor.COLUMN_TITLE),
+            0L, "", 0L, "", "", 0, 0, 0
+        )
+    }
+
+    private fun createLibrary(size: Int): List<Song> {
+        return List(size) { index ->
+            Songs.create(index.toLong(), SongType.MUSIC, "/Music/Track_$index.mp3", "Track $index",
+                0L, "", 0L, "", "", 0, 0, 0)
+        }
+    }
+
+    /**
+     * The nested linear scan that [SongIdLookup] replaces.
+     * Each ID comparison is counted by [comparisonCount].
+     */
+    private fun lookupWithLinearScan(
+        songs: List<Song>,
+        ids: List<Long>,
+        comparisonCount: AtomicInteger = AtomicInteger()
+    ): List<Song> {
+        val result = ArrayList<Song>(ids.size)
+        for (desiredId in ids) {
+            val desiredSong = songs.firstOrNull { comparisonCount.incrementAndGet(); it.id == desiredId }
+            if (desiredSong != null) {
+                result.add(desiredSong)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Looks up [ids] with the ID index, each mapped row is counted by [mappedRowCount].
+     */
+    private fun lookupWithIndex(
+        songs: List<Song>,
+        ids: List<Long>,
+        mappedRowCount: AtomicInteger = AtomicInteger()
+    ): List<Song> {
+        val index = HashMap<Long, Song>(songs.size * 2)
+        val countingMapper = CursorMapper<Song> { cursor ->
+            mappedRowCount.incrementAndGet()
+            mapper.map(cursor)
+        }
+        SyntheticSongCursor(songs).use { cursor -> SongIdLookup.indexById(cursor, countingMapper, index) }
+        return SongIdLookup.orderByIds(ids, index)
+    }
+
+    @Test
+    fun test_orderByIds() {
+        val songs = createLibrary(100)
+        val ids = listOf(42L, 7L, 1000L, 7L, 0L, 99L)
+        val result = lookupWithIndex(songs, ids)
+        // Requested order is kept, missing IDs are skipped, duplicates are kept
+        assertEquals(listOf(42L, 7L, 7L, 0L, 99L), result.map { it.id })
+        assertEquals(lookupWithLinearScan(songs, ids).map { it.id }, result.map { it.id })
+    }
+
+    @Test
+    fun test_chunk() {
+        val ids = List(2_500) { it.toLong() }
+        val chunks = SongIdLookup.chunk(ids, SongIdLookup.MAX_BIND_ARGS)
+        assertEquals(3, chunks.size)
+        assertTrue(chunks.all { it.size <= SongIdLookup.MAX_BIND_ARGS })
+        assertEquals(ids, chunks.flatten())
+    }
+
+    @Test
+    fun test_buildInSelection() {
+        assertEquals("_id IN (?)", SongIdLookup.buildInSelection("_id", 1))
+        assertEquals("_id IN (?,?,?)", SongIdLookup.buildInSelection("_id", 3))
+    }
+
+    private fun test_Performance_lookup(librarySize: Int, idCount: Int) {
+        val songs = createLibrary(librarySize)
+        val ids = List(idCount) { index -> ((index * 7919L) % librarySize) }
+
+        val comparisonCount = AtomicInteger()
+        val linearResult = lookupWithLinearScan(songs, ids, comparisonCount)
+
+        val mappedRowCount = AtomicInteger()
+        val indexResult = lookupWithIndex(songs, ids, mappedRowCount)
+
+        assertEquals(linearResult.map { it.id }, indexResult.map { it.id })
+        // The index maps each row once, while the linear scan visits a half of the library per ID on average
+        assertEquals(librarySize, mappedRowCount.get())
+        assertTrue(comparisonCount.get() > librarySize.toLong() * idCount / 4)
+    }
+
+    @Test
+    fun test_Performance_lookup_MediumQueue() {
+        test_Performance_lookup(librarySize = 10_000, idCount = 2_000)
+    }
+
+    @Test
+    fun test_Performance_lookup_HugeQueue() {
+        test_Performance_lookup(librarySize = 50_000, idCount = 10_000)
+    }
+
+}
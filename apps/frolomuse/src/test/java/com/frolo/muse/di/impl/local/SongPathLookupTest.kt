@@ -0,0 +1,111 @@
+package com.frolo.muse.di.impl.local
+
+import com.frolo.music.model.Song
+import com.frolo.music.model.SongType
+import com.frolo.music.model.Songs
+import com.frolo.rxcontent.CursorMapper
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+
+@RunWith(JUnit4::class)
+class SongPathLookupTest {
+
+    private val executor = Executors.newCachedThreadPool()
+
+    private val mapper = CursorMapper<Song> { cursor ->
+        Songs.create(
+            cursor.getLong(SyntheticSongCursor.COLUMN_ID),
+            SongType.MUSIC,
+            cursor.getString(SyntheticSongCursor.COLUMN_DATA),
+            cursor.getString(SyntheticSongCursor.COLUMN_TITLE),
+            0L, "", 0L, "", "", 0, 0, 0
+        )
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private fun createLibrary(size: Int): List<Song> {
+        return List(size) { index ->
+            Songs.create(index.toLong(), SongType.MUSIC, "/Music/Track_$index.mp3", "Track $index",
+                0L, "", 0L, "", "", 0, 0, 0)
+        }
+    }
+
+    /**
+     * Looks up the chunk in [library], the same as an IN query would do.
+     */
+    private fun libraryChunkQuery(library: List<Song>): SongPathLookup.ChunkQuery {
+        val songByPath = library.associateBy { it.source!! }
+        return SongPathLookup.ChunkQuery { paths ->
+            paths.mapNotNull { songByPath[it] }.associateBy { it.source!! }
+        }
+    }
+
+    @Test
+    fun test_indexByPath() {
+        val songs = createLibrary(100)
+        val index = HashMap<String, Song>()
+        SyntheticSongCursor(songs).use { cursor -> SongPathLookup.indexByPath(cursor, mapper, index) }
+        assertEquals(100, index.size)
+        assertEquals(42L, index.getValue("/Music/Track_42.mp3").id)
+    }
+
+    @Test
+    fun test_chunksAreMerged() {
+        val library = createLibrary(5_000)
+        // Every third song and some missing paths
+        val paths = library.filterIndexed { index, _ -> index % 3 == 0 }.map { it.source!! } +
+                listOf("/Music/Missing_1.mp3", "/Music/Missing_2.mp3")
+        val chunks = SongIdLookup.chunk(paths, SongIdLookup.MAX_BIND_ARGS)
+        val result = SongPathLookup.queryChunks(chunks, executor, 4, libraryChunkQuery(library))
+        assertEquals(paths.size - 2, result.size)
+        paths.dropLast(2).forEach { path -> assertEquals(path, result.getValue(path).source) }
+    }
+
+    @Test
+    fun test_parallelismIsBounded() {
+        val library = createLibrary(20_000)
+        val chunks = SongIdLookup.chunk(library.map { it.source!! }, SongIdLookup.MAX_BIND_ARGS)
+        val delegate = libraryChunkQuery(library)
+        val runningCount = AtomicInteger()
+        val maxRunningCount = AtomicInteger()
+        val chunkQuery = SongPathLookup.ChunkQuery { paths ->
+            val currRunningCount = runningCount.incrementAndGet()
+            maxRunningCount.accumulateAndGet(currRunningCount) { a, b -> maxOf(a, b) }
+            Thread.sleep(10)
+            runningCount.decrementAndGet()
+            delegate.query(paths)
+        }
+        val result = SongPathLookup.queryChunks(chunks, executor, 3, chunkQuery)
+        assertEquals(library.size, result.size)
+        assertTrue("maxRunningCount=${maxRunningCount.get()}", maxRunningCount.get() in 1..3)
+    }
+
+    @Test
+    fun test_failedChunkIsRethrown() {
+        val library = createLibrary(5_000)
+        val chunks = SongIdLookup.chunk(library.map { it.source!! }, SongIdLookup.MAX_BIND_ARGS)
+        val delegate = libraryChunkQuery(library)
+        val chunkQuery = SongPathLookup.ChunkQuery { paths ->
+            if (paths.contains("/Music/Track_2500.mp3")) throw IllegalArgumentException("Bad chunk")
+            delegate.query(paths)
+        }
+        try {
+            SongPathLookup.queryChunks(chunks, executor, 2, chunkQuery)
+            fail("The error of the failed chunk must be rethrown")
+        } catch (e: IllegalArgumentException) {
+            assertEquals("Bad chunk", e.message)
+        }
+    }
+}
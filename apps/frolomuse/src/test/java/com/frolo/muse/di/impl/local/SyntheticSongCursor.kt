@@ -0,0 +1,135 @@
+@file:Suppress("OverridingDeprecatedMember", "DEPRECATION")
+
+package com.frolo.muse.di.impl.local
+
+import android.content.ContentResolver
+import android.database.CharArrayBuffer
+import android.database.ContentObserver
+import android.database.Cursor
+import android.database.DataSetObserver
+import android.net.Uri
+import android.os.Bundle
+import com.frolo.music.model.Song
+
+
+/**
+ * In-memory cursor over [songs] with the ID, data and title columns.
+ * Only the methods needed to iterate and read the rows are supported.
+ */
+internal class SyntheticSongCursor(private val songs: List<Song>) : Cursor {
+
+    private var position = -1
+    private var isClosed = false
+
+    override fun getCount(): Int = songs.size
+
+    override fun getPosition(): Int = position
+
+    override fun move(offset: Int): Boolean = moveToPosition(position + offset)
+
+    override fun moveToPosition(position: Int): Boolean {
+        this.position = position.coerceIn(-1, songs.size)
+        return this.position in songs.indices
+    }
+
+    override fun moveToFirst(): Boolean = moveToPosition(0)
+
+    override fun moveToLast(): Boolean = moveToPosition(songs.size - 1)
+
+    override fun moveToNext(): Boolean = moveToPosition(position + 1)
+
+    override fun moveToPrevious(): Boolean = moveToPosition(position - 1)
+
+    override fun isFirst(): Boolean = songs.isNotEmpty() && position == 0
+
+    override fun isLast(): Boolean = songs.isNotEmpty() && position == songs.size - 1
+
+    override fun isBeforeFirst(): Boolean = songs.isEmpty() || position == -1
+
+    override fun isAfterLast(): Boolean = songs.isEmpty() || position == songs.size
+
+    override fun getColumnIndex(columnName: String?): Int = COLUMNS.indexOf(columnName)
+
+    override fun getColumnIndexOrThrow(columnName: String?): Int {
+        val index = getColumnIndex(columnName)
+        if (index < 0) throw IllegalArgumentException("No such column: $columnName")
+        return index
+    }
+
+    override fun getColumnName(columnIndex: Int): String = COLUMNS[columnIndex]
+
+    override fun getColumnNames(): Array<String> = COLUMNS.clone()
+
+    override fun getColumnCount(): Int = COLUMNS.size
+
+    override fun getString(columnIndex: Int): String? {
+        val song = songs[position]
+        return when (columnIndex) {
+            COLUMN_ID -> song.id.toString()
+            COLUMN_DATA -> song.source
+            COLUMN_TITLE -> song.title
+            else -> throw IllegalArgumentException("No such column: $columnIndex")
+        }
+    }
+
+    override fun getLong(columnIndex: Int): Long {
+        if (columnIndex != COLUMN_ID) throw IllegalArgumentException("Not a numeric column: $columnIndex")
+        return songs[position].id
+    }
+
+    override fun getInt(columnIndex: Int): Int = getLong(columnIndex).toInt()
+
+    override fun getShort(columnIndex: Int): Short = getLong(columnIndex).toShort()
+
+    override fun getFloat(columnIndex: Int): Float = getLong(columnIndex).toFloat()
+
+    override fun getDouble(columnIndex: Int): Double = getLong(columnIndex).toDouble()
+
+    override fun getType(columnIndex: Int): Int {
+        return if (columnIndex == COLUMN_ID) Cursor.FIELD_TYPE_INTEGER else Cursor.FIELD_TYPE_STRING
+    }
+
+    override fun isNull(columnIndex: Int): Boolean = getString(columnIndex) == null
+
+    override fun getBlob(columnIndex: Int): ByteArray = throw UnsupportedOperationException()
+
+    override fun copyStringToBuffer(columnIndex: Int, buffer: CharArrayBuffer?) = throw UnsupportedOperationException()
+
+    override fun deactivate() = Unit
+
+    override fun requery(): Boolean = !isClosed
+
+    override fun close() {
+        isClosed = true
+    }
+
+    override fun isClosed(): Boolean = isClosed
+
+    override fun registerContentObserver(observer: ContentObserver?) = Unit
+
+    override fun unregisterContentObserver(observer: ContentObserver?) = Unit
+
+    override fun registerDataSetObserver(observer: DataSetObserver?) = Unit
+
+    override fun unregisterDataSetObserver(observer: DataSetObserver?) = Unit
+
+    override fun setNotificationUri(cr: ContentResolver?, uri: Uri?) = Unit
+
+    override fun getNotificationUri(): Uri? = null
+
+    override fun getWantsAllOnMoveCalls(): Boolean = false
+
+    override fun setExtras(extras: Bundle?) = Unit
+
+    override fun getExtras(): Bundle = throw UnsupportedOperationException()
+
+    override fun respond(extras: Bundle?): Bundle = throw UnsupportedOperationException()
+
+    companion object {
+        const val COLUMN_ID = 0
+        const val COLUMN_DATA = 1
+        const val COLUMN_TITLE = 2
+
+        private val COLUMNS = arrayOf("_id", "_data", "title")
+    }
+}
@@ -0,0 +1,117 @@
+package com.frolo.muse.di.impl.sound.bass
+
+import com.frolo.muse.model.sound.SoundWave
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.nio.ShortBuffer
+import kotlin.math.PI
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+
+@RunWith(JUnit4::class)
+class SoundWaveAccumulatorTest {
+
+    /**
+     * Stereo 16-bit PCM fixture: a 440 Hz sine, whose amplitude steps up every second.
+     * The right channel is the inverted left channel at half the amplitude.
+     */
+    private fun createSteppedSineFixture(sampleRate: Int, seconds: Int, amplitudes: IntArray): ShortArray {
+        val frameCount = sampleRate * seconds
+        val pcm = ShortArray(frameCount * 2)
+        for (frame in 0 until frameCount) {
+            val amplitude = amplitudes[frame / sampleRate]
+            val value = amplitude * sin(2 * PI * 440 * frame / sampleRate)
+            pcm[frame * 2] = value.roundToInt().toShort()
+            pcm[frame * 2 + 1] = (-value / 2).roundToInt().toShort()
+        }
+        return pcm
+    }
+
+    private fun accumulate(
+        pcm: ShortArray,
+        levelCount: Int,
+        totalFrames: Long,
+        measure: SoundWaveAccumulator.Measure,
+        chunkSize: Int,
+        onChunk: (SoundWaveAccumulator) -> Unit = { }
+    ): SoundWave {
+        val accumulator = SoundWaveAccumulator(levelCount, totalFrames, 2, measure)
+        var position = 0
+        while (position < pcm.size) {
+            val count = minOf(chunkSize, pcm.size - position)
+            accumulator.accept(ShortBuffer.wrap(pcm, position, count))
+            position += count
+            onChunk(accumulator)
+        }
+        return accumulator.snapshot()
+    }
+
+    private fun SoundWave.levels(): List<Int> = List(length()) { getLevelAt(it) }
+
+    @Test
+    fun test_peakLevels() {
+        val amplitudes = intArrayOf(1000, 9000, 17000, 25000)
+        val pcm = createSteppedSineFixture(sampleRate = 8000, seconds = 4, amplitudes = amplitudes)
+        val soundWave = accumulate(pcm, levelCount = 4, totalFrames = 32000L,
+            measure = SoundWaveAccumulator.Measure.PEAK, chunkSize = 4096)
+        assertEquals(amplitudes.toList(), soundWave.levels())
+        assertEquals(25000, soundWave.maxLevel)
+    }
+
+    @Test
+    fun test_rmsLevels() {
+        val amplitudes = intArrayOf(1000, 9000, 17000, 25000)
+        val pcm = createSteppedSineFixture(sampleRate = 8000, seconds = 4, amplitudes = amplitudes)
+        val soundWave = accumulate(pcm, levelCount = 4, totalFrames = 32000L,
+            measure = SoundWaveAccumulator.Measure.RMS, chunkSize = 4096)
+        // RMS of both channels: sqrt((A^2 / 2 + A^2 / 8) / 2)
+        val expected = amplitudes.map { (it * sqrt(5.0 / 16.0)).roundToInt() }
+        soundWave.levels().forEachIndexed { index, level ->
+            assertTrue("level=$level, expected=${expected[index]}", Math.abs(level - expected[index]) <= 2)
+        }
+    }
+
+    @Test
+    fun test_chunkSizeDoesNotMatter() {
+        val pcm = createSteppedSineFixture(sampleRate = 8000, seconds = 4, amplitudes = intArrayOf(100, 2000, 300, 4000))
+        val expected = accumulate(pcm, 100, 32000L, SoundWaveAccumulator.Measure.PEAK, chunkSize = pcm.size)
+        // Odd chunk sizes split frames between buffers
+        for (chunkSize in intArrayOf(1, 7, 333, 4096)) {
+            val soundWave = accumulate(pcm, 100, 32000L, SoundWaveAccumulator.Measure.PEAK, chunkSize)
+            assertEquals(expected.levels(), soundWave.levels())
+        }
+    }
+
+    @Test
+    fun test_progressiveSnapshots() {
+        val pcm = createSteppedSineFixture(sampleRate = 8000, seconds = 4, amplitudes = intArrayOf(1000, 2000, 3000, 4000))
+        var lastCompletedCount = 0
+        var snapshotCount = 0
+        accumulate(pcm, 4, 32000L, SoundWaveAccumulator.Measure.PEAK, chunkSize = 8000) { accumulator ->
+            val completedCount = accumulator.getCompletedLevelCount()
+            assertTrue(completedCount >= lastCompletedCount)
+            val snapshot = accumulator.snapshot()
+            // Buckets that have not been reached yet are empty
+            for (i in completedCount + 1 until snapshot.length()) {
+                assertEquals(0, snapshot.getLevelAt(i))
+            }
+            lastCompletedCount = completedCount
+            snapshotCount++
+        }
+        assertEquals(4, lastCompletedCount)
+        assertEquals(8, snapshotCount)
+    }
+
+    @Test
+    fun test_framesBeyondEstimateFallIntoLastBucket() {
+        val pcm = createSteppedSineFixture(sampleRate = 8000, seconds = 4, amplitudes = intArrayOf(1000, 2000, 3000, 4000))
+        // The estimate is half of the actual length
+        val soundWave = accumulate(pcm, 2, 16000L, SoundWaveAccumulator.Measure.PEAK, chunkSize = 4096)
+        assertEquals(listOf(1000, 4000), soundWave.levels())
+    }
+}
@@ -0,0 +1,82 @@
+package com.frolo.muse.di.impl.sound.bass
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.File
+
+
+@RunWith(JUnit4::class)
+class SoundWaveDiskCacheTest {
+
+    @get:Rule
+    val tmpFolder: TemporaryFolder = TemporaryFolder()
+
+    private fun createAudioFile(name: String): File {
+        return tmpFolder.newFile(name).apply { writeBytes(ByteArray(16) { it.toByte() }) }
+    }
+
+    private fun createSoundWave(levelCount: Int, seed: Int = 0): SoundWaveImpl {
+        val levels = IntArray(levelCount) { (it * 31 + seed) % 100 }
+        return SoundWaveImpl(levels, levels.maxOrNull() ?: 1)
+    }
+
+    @Test
+    fun test_storedSoundWaveSurvivesNewInstance() {
+        val cacheDir = tmpFolder.newFolder("sound_waves")
+        val audioFile = createAudioFile("track.mp3")
+        val soundWave = createSoundWave(levelCount = 100)
+
+        SoundWaveDiskCache(cacheDir, 64 * 1024).put(audioFile.absolutePath, soundWave)
+
+        // A new instance, the same as after a process restart
+        val stored = SoundWaveDiskCache(cacheDir, 64 * 1024).get(audioFile.absolutePath, 100)
+        assertNotNull(stored)
+        assertEquals(soundWave.length(), stored!!.length())
+        assertEquals(soundWave.maxLevel, stored.maxLevel)
+        for (i in 0 until soundWave.length()) {
+            assertEquals(soundWave.getLevelAt(i), stored.getLevelAt(i))
+        }
+        // Another level count is another sound wave
+        assertNull(SoundWaveDiskCache(cacheDir, 64 * 1024).get(audioFile.absolutePath, 50))
+    }
+
+    @Test
+    fun test_modifiedFileIsNotServed() {
+        val cache = SoundWaveDiskCache(tmpFolder.newFolder("sound_waves"), 64 * 1024)
+        val audioFile = createAudioFile("track.mp3")
+        cache.put(audioFile.absolutePath, createSoundWave(levelCount = 100))
+        assertNotNull(cache.get(audioFile.absolutePath, 100))
+
+        audioFile.appendBytes(ByteArray(16))
+        assertNull(cache.get(audioFile.absolutePath, 100))
+    }
+
+    @Test
+    fun test_leastRecentlyUsedAreEvicted() {
+        val levelCount = 100
+        // Header + levels
+        val entrySize = 16L + levelCount * 4L
+        val cache = SoundWaveDiskCache(tmpFolder.newFolder("sound_waves"), entrySize * 3)
+        val audioFiles = List(4) { createAudioFile("track_$it.mp3") }
+
+        for (i in 0 until 3) {
+            cache.put(audioFiles[i].absolutePath, createSoundWave(levelCount, seed = i))
+        }
+        // Touch the first one, so the second one is the least recently used
+        assertNotNull(cache.get(audioFiles[0].absolutePath, levelCount))
+        cache.put(audioFiles[3].absolutePath, createSoundWave(levelCount, seed = 3))
+
+        assertTrue(cache.totalSize <= entrySize * 3)
+        assertNotNull(cache.get(audioFiles[0].absolutePath, levelCount))
+        assertNull(cache.get(audioFiles[1].absolutePath, levelCount))
+        assertNotNull(cache.get(audioFiles[2].absolutePath, levelCount))
+        assertNotNull(cache.get(audioFiles[3].absolutePath, levelCount))
+    }
+}
@@ -0,0 +1,208 @@
+package com.frolo.muse.player.journals
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import io.reactivex.schedulers.TestScheduler
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+
+@RunWith(JUnit4::class)
+class MappedFilePlayerJournalTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val directExecutor = Executor { command -> command.run() }
+
+    private fun createJournal(
+        recordCapacity: Int = 16,
+        dictionarySize: Int = 1024,
+        openExecutor: Executor = directExecutor
+    ): MappedFilePlayerJournal {
+        val file = temporaryFolder.root.resolve("player_journal.bin")
+        return MappedFilePlayerJournal(recordCapacity, dictionarySize, openExecutor) { file }
+    }
+
+    @Test
+    fun test_messagesAndErrors() {
+        val journal = createJournal()
+        journal.logMessage("Seek to: 1000")
+        journal.logMessage("Start")
+        journal.logError("Failed to seek", IllegalStateException("Not prepared"))
+        journal.logMessage("Skip to: привет 🎵")
+
+        val records = PlayerJournalDecoder.read(journal.file)
+        assertEquals(listOf(0L, 1L, 2L, 3L), records.map { it.sequence })
+        assertEquals(listOf("Seek to: 1000", "Start", "Failed to seek", "Skip to: привет 🎵"),
+            records.map { it.message })
+        assertFalse(records[0].isError)
+        assertNull(records[0].errorClass)
+        assertTrue(records[2].isError)
+        assertEquals(IllegalStateException::class.java.name, records[2].errorClass)
+        assertEquals("Not prepared", records[2].errorMessage)
+    }
+
+    @Test
+    fun test_rollsOver() {
+        val journal = createJournal(recordCapacity = 8)
+        repeat(20) { journal.logMessage("Seek to: $it") }
+
+        val records = journal.readRecords()
+        assertEquals(List(8) { 12L + it }, records.map { it.sequence })
+        assertEquals(List(8) { "Seek to: ${12 + it}" }, records.map { it.message })
+    }
+
+    @Test
+    fun test_survivesReopening() {
+        createJournal().apply {
+            logMessage("Seek to: 1")
+            logError("Failed to start", null)
+        }
+
+        // A new instance, like after the death of the process
+        val journal = createJournal()
+        journal.logMessage("Seek to: 2")
+        val records = journal.readRecords()
+        assertEquals(listOf(0L, 1L, 2L), records.map { it.sequence })
+        assertEquals(listOf("Seek to: 1", "Failed to start", "Seek to: 2"), records.map { it.message })
+    }
+
+    @Test
+    fun test_recordsAreDroppedUntilOpened() {
+        val openTasks = ArrayList<Runnable>()
+        val journal = createJournal(openExecutor = Executor { command -> openTasks.add(command) })
+        journal.logMessage("Seek to: 1")
+        assertTrue(journal.readRecords().isEmpty())
+
+        openTasks.single().run()
+        journal.logMessage("Seek to: 2")
+        assertEquals(listOf("Seek to: 2"), journal.readRecords().map { it.message })
+    }
+
+    @Test
+    fun test_brokenHeaderIsFormattedAgain() {
+        createJournal().apply {
+            repeat(20) { logMessage("Seek to: $it") }
+        }
+        // Break the magic, like a crash in the middle of formatting
+        RandomAccessFile(temporaryFolder.root.resolve("player_journal.bin"), "rw").use { file ->
+            file.writeInt(0)
+        }
+
+        val journal = createJournal()
+        assertTrue(journal.readRecords().isEmpty())
+        journal.logMessage("Start")
+        assertEquals(listOf(0L), journal.readRecords().map { it.sequence })
+    }
+
+    @Test
+    fun test_longDetailIsTruncated() {
+        val journal = createJournal()
+        journal.logMessage("Set data source from path: " + "a".repeat(1_000))
+        val message = journal.readRecords().single().message
+        assertEquals("Set data source from path: " + "a".repeat(PlayerJournalDecoder.MAX_DETAIL_LENGTH), message)
+    }
+
+    @Test
+    fun test_fullDictionary() {
+        // The dictionary has room for one short string only
+        val journal = createJournal(dictionarySize = 8)
+        journal.logMessage("Start")
+        journal.logMessage("Pause")
+        journal.logMessage("Seek to: 5")
+        assertEquals(listOf("Start", "Pause", "Seek to: 5"), journal.readRecords().map { it.message })
+    }
+
+    @Test
+    fun test_readRecordsFromSequence() {
+        val journal = createJournal(recordCapacity = 8)
+        repeat(20) { journal.logMessage("Seek to: $it") }
+
+        assertEquals(listOf(17L, 18L, 19L), journal.readRecords(fromSequence = 17L).map { it.sequence })
+        // The older records have been overwritten already
+        assertEquals(List(8) { 12L + it }, journal.readRecords(fromSequence = 5L).map { it.sequence })
+        assertTrue(journal.readRecords(fromSequence = 20L).isEmpty())
+    }
+
+    @Test
+    fun test_sessionStartSequence() {
+        val openTasks = ArrayList<Runnable>()
+        createJournal(openExecutor = Executor { command -> openTasks.add(command) }).apply {
+            assertEquals(MappedFilePlayerJournal.NO_SEQUENCE, sessionStartSequence)
+            openTasks.single().run()
+            assertEquals(0L, sessionStartSequence)
+            repeat(3) { logMessage("Seek to: $it") }
+        }
+
+        // A new instance, like after the death of the process
+        val journal = createJournal()
+        journal.logMessage("Start")
+        assertEquals(3L, journal.sessionStartSequence)
+        val previousRecords = journal.readRecords().filter { it.sequence < journal.sessionStartSequence }
+        assertEquals(List(3) { "Seek to: $it" }, previousRecords.map { it.message })
+    }
+
+    @Test
+    fun test_observeNewRecords() {
+        val journal = createJournal()
+        journal.logMessage("Seek to: 1")
+        val scheduler = TestScheduler()
+        val observer = journal.observeRecords(periodInMs = 100L, scheduler = scheduler).test()
+
+        scheduler.advanceTimeBy(0L, TimeUnit.MILLISECONDS)
+        journal.logMessage("Seek to: 2")
+        journal.logMessage("Seek to: 3")
+        scheduler.advanceTimeBy(100L, TimeUnit.MILLISECONDS)
+        // Nothing new
+        scheduler.advanceTimeBy(100L, TimeUnit.MILLISECONDS)
+        journal.logMessage("Seek to: 4")
+        scheduler.advanceTimeBy(100L, TimeUnit.MILLISECONDS)
+
+        observer.assertValueCount(3)
+        assertEquals(
+            listOf(listOf("Seek to: 1"), listOf("Seek to: 2", "Seek to: 3"), listOf("Seek to: 4")),
+            observer.values().map { records -> records.map { it.message } }
+        )
+    }
+
+    @Test
+    fun test_exportTo() {
+        val journal = createJournal()
+        journal.logMessage("Seek to: 1")
+        journal.logError("Failed to start", IllegalStateException())
+
+        val exportedFile = temporaryFolder.root.resolve("exported/player_journal.bin")
+        exportedFile.parentFile!!.mkdirs()
+        journal.exportTo(exportedFile)
+        assertEquals(
+            journal.readRecords().map { it.sequence to it.message },
+            PlayerJournalDecoder.read(exportedFile).map { it.sequence to it.message }
+        )
+    }
+
+    @Test
+    fun test_Performance_logging() {
+        val recordCapacity = 8 * 1024
+        val journal = createJournal(recordCapacity = recordCapacity)
+        val messages = List(10_000) { "Seek to: $it" }
+        messages.forEach { journal.logMessage(it) }
+
+        // The last records, in order
+        val records = journal.readRecords()
+        assertEquals(messages.takeLast(recordCapacity), records.map { it.message })
+        assertEquals(List(recordCapacity) { messages.size - recordCapacity + it.toLong() }, records.map { it.sequence })
+        // All the messages share one template, so the dictionary has one string and the file does not grow
+        val buffer = ByteBuffer.wrap(journal.file.readBytes())
+        assertEquals(listOf("Seek to"), PlayerJournalDecoder.readDictionary(buffer, PlayerJournalDecoder.HEADER_SIZE, 1024))
+    }
+}
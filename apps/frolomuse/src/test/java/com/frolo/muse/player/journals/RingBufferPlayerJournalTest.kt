@@ -0,0 +1,125 @@
+package com.frolo.muse.player.journals
+
+import io.reactivex.schedulers.TestScheduler
+import io.reactivex.subscribers.TestSubscriber
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.TimeUnit
+
+
+@RunWith(JUnit4::class)
+class RingBufferPlayerJournalTest {
+
+    private fun messages(snapshot: List<RingBufferPlayerJournal.LogData>): List<String?> {
+        return snapshot.map { (it as RingBufferPlayerJournal.LogData.Message).value }
+    }
+
+    @Test
+    fun test_keepsLastEntries() {
+        val journal = RingBufferPlayerJournal(capacity = 6)
+        assertEquals(8, journal.capacity)
+
+        repeat(5) { journal.logMessage("message $it") }
+        assertEquals(List(5) { "message $it" }, messages(journal.snapshot().entries))
+
+        repeat(20) { journal.logMessage("message ${5 + it}") }
+        val snapshot = journal.snapshot()
+        assertEquals(List(8) { "message ${17 + it}" }, messages(snapshot.entries))
+        assertEquals(25L, snapshot.endSequence)
+    }
+
+    @Test
+    fun test_rangeSnapshots() {
+        val journal = RingBufferPlayerJournal(capacity = 16)
+        repeat(10) { journal.logMessage("message $it") }
+        val first = journal.snapshot()
+
+        journal.logMessage("message 10")
+        journal.logError("error", IllegalStateException())
+        val second = journal.snapshot(first.endSequence)
+        assertEquals(2, second.entries.size)
+        assertEquals("message 10", (second.entries[0] as RingBufferPlayerJournal.LogData.Message).value)
+        assertEquals("error", (second.entries[1] as RingBufferPlayerJournal.LogData.Error).message)
+        assertEquals(0, journal.snapshot(second.endSequence).entries.size)
+    }
+
+    @Test
+    fun test_concurrentProducers() {
+        val journal = RingBufferPlayerJournal(capacity = 1024)
+        val threadCount = 4
+        val messageCount = 50_000
+        val threads = List(threadCount) { thread ->
+            Thread { repeat(messageCount) { journal.logMessage("$thread:$it") } }.apply { start() }
+        }
+
+        // Read incrementally while the producers are logging
+        var readSequence = 0L
+        while (threads.any { it.isAlive }) {
+            readSequence = journal.snapshot(readSequence).endSequence
+        }
+        threads.forEach { it.join() }
+
+        assertEquals(threadCount.toLong() * messageCount, journal.endSequence)
+        val snapshot = messages(journal.snapshot().entries)
+        assertEquals(journal.capacity, snapshot.size)
+        // The entries of each producer must be in order
+        snapshot.groupBy { it!!.substringBefore(':') }.values.forEach { entries ->
+            val indices = entries.map { it!!.substringAfter(':').toInt() }
+            assertEquals(indices.sorted(), indices)
+        }
+    }
+
+    @Test
+    fun test_snapshotIsThrottled() {
+        val journal = RingBufferPlayerJournal(capacity = 16)
+        val scheduler = TestScheduler()
+        val subscriber = TestSubscriber<RingBufferPlayerJournal.Snapshot>()
+        journal.observeSnapshot(periodInMs = 500L, scheduler = scheduler).subscribe(subscriber)
+
+        scheduler.triggerActions()
+        subscriber.assertValueCount(1)
+
+        repeat(100) { journal.logMessage("message $it") }
+        scheduler.advanceTimeBy(500L, TimeUnit.MILLISECONDS)
+        subscriber.assertValueCount(2)
+        assertEquals(List(16) { "message ${84 + it}" }, messages(subscriber.values().last().entries))
+
+        // No new entries, no new snapshot
+        scheduler.advanceTimeBy(2_000L, TimeUnit.MILLISECONDS)
+        subscriber.assertValueCount(2)
+
+        // Only the new entries are emitted
+        repeat(3) { journal.logMessage("message ${100 + it}") }
+        scheduler.advanceTimeBy(500L, TimeUnit.MILLISECONDS)
+        subscriber.assertValueCount(3)
+        assertEquals(List(3) { "message ${100 + it}" }, messages(subscriber.values().last().entries))
+        assertEquals(103L, subscriber.values().last().endSequence)
+        subscriber.dispose()
+    }
+
+    @Test
+    fun test_Performance_throughput() {
+        val capacity = 4 * 1024
+        val batchSize = 1_000
+        val messageCount = 40_000
+        val messages = List(messageCount) { "message $it" }
+
+        val journal = RingBufferPlayerJournal(capacity)
+        // Read incrementally after each batch, as the journal screen does
+        var readSequence = 0L
+        var readEntryCount = 0
+        messages.chunked(batchSize).forEach { batch ->
+            batch.forEach { journal.logMessage(it) }
+            val snapshot = journal.snapshot(readSequence)
+            readEntryCount += snapshot.entries.size
+            readSequence = snapshot.endSequence
+        }
+
+        assertEquals(messageCount.toLong(), journal.endSequence)
+        // Each entry is read once, no matter how many entries the journal keeps
+        assertEquals(messageCount, readEntryCount)
+        assertEquals(messages.takeLast(capacity), messages(journal.snapshot().entries))
+    }
+}
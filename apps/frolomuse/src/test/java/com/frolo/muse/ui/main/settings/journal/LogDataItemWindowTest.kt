@@ -0,0 +1,46 @@
+package com.frolo.muse.ui.main.settings.journal
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class LogDataItemWindowTest {
+
+    private fun items(range: IntRange): List<LogDataItem> {
+        return range.map { LogDataItem(time = "", message = "message $it", errorStackTrace = null) }
+    }
+
+    private fun LogDataItemWindow.messages(): List<String> = toList().map { it.message }
+
+    @Test
+    fun test_appendAndTrim() {
+        val window = LogDataItemWindow(capacity = 5)
+
+        val first = window.append(items(0..2))
+        assertEquals(1, first.version)
+        assertEquals(3, first.insertedCount)
+        assertEquals(0, first.removedCount)
+
+        val second = window.append(items(3..6))
+        assertEquals(2, second.version)
+        assertEquals(4, second.insertedCount)
+        assertEquals(2, second.removedCount)
+        assertEquals(items(2..6).map { it.message }, window.messages())
+        assertEquals("message 2", window[0].message)
+    }
+
+    @Test
+    fun test_appendMoreThanCapacity() {
+        val window = LogDataItemWindow(capacity = 3)
+        window.append(items(0..1))
+
+        val change = window.append(items(2..9))
+        // The items are inserted after the old ones, then the oldest ones are removed
+        assertEquals(8, change.insertedCount)
+        assertEquals(7, change.removedCount)
+        assertEquals(items(7..9).map { it.message }, window.messages())
+    }
+}
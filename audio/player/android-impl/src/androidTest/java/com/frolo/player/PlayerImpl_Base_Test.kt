@@ -28,7 +28,7 @@ abstract class PlayerImpl_Base_Test {
     /**
      * Creates [PlayerImpl] instance for testing.
      */
-    protected fun createPlayerImpl(): PlayerImpl {
+    protected open fun createPlayerImpl(): PlayerImpl {
         val context = InstrumentationRegistry.getTargetContext()
         return PlayerImpl.newBuilder(context)
             .setUseWakeLocks(false)
@@ -0,0 +1,207 @@
+package com.frolo.player
+
+import android.media.MediaPlayer
+import androidx.test.InstrumentationRegistry
+import androidx.test.runner.AndroidJUnit4
+import com.nhaarman.mockitokotlin2.*
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertSame
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+
+/**
+ * Here are methods for testing the gapless mode of [PlayerImpl], see [PlayerImpl.Builder.setUseGaplessPlayback].
+ */
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class PlayerImpl_Gapless_Test : PlayerImpl_Base_Test() {
+
+    private class Transition(
+        val mediaPlayer: MediaPlayer,
+        val isGapless: Boolean,
+        val timeToFirstAudio: Long
+    )
+
+    /**
+     * Hook stub that records the engines it's attached to and the playback transitions.
+     */
+    private class RecordingMediaPlayerHook : MediaPlayerHook {
+        val attachedMediaPlayers: MutableList<MediaPlayer> = CopyOnWriteArrayList()
+        val transitions: BlockingQueue<Transition> = LinkedBlockingQueue()
+
+        override fun attachAudioEffects(mediaPlayer: MediaPlayer) {
+            attachedMediaPlayers.add(mediaPlayer)
+        }
+
+        override fun releaseAudioEffects() {
+        }
+
+        override fun onPlaybackTransition(mediaPlayer: MediaPlayer, isGapless: Boolean, timeToFirstAudio: Long) {
+            transitions.add(Transition(mediaPlayer, isGapless, timeToFirstAudio))
+        }
+    }
+
+    private val hook = RecordingMediaPlayerHook()
+    private var useGaplessPlayback = true
+
+    override fun createPlayerImpl(): PlayerImpl {
+        val context = InstrumentationRegistry.getTargetContext()
+        return PlayerImpl.newBuilder(context)
+            .setUseWakeLocks(false)
+            .setUseGaplessPlayback(useGaplessPlayback)
+            .setMediaPlayerHook(hook)
+            .build()
+    }
+
+    /**
+     * Plays the current audio source to the end and waits for the transition to the next one.
+     */
+    private fun PlayerImpl.playToTheEnd(): Transition {
+        // Giving the next engine some time to prepare
+        waitUntilAllEventsAreOver()
+        Thread.sleep(NEXT_ENGINE_PREPARATION_TIME)
+        simulateCompletePlayback()
+        return hook.transitions.poll(TRANSITION_TIMEOUT, TimeUnit.MILLISECONDS)
+            ?: throw AssertionError("No playback transition")
+    }
+
+    @Test
+    fun test_gaplessTransition() = doOnPlayerImpl { player ->
+
+        // Test case 1: play the first item to the end, the second item must start on the next engine
+
+        val testObserver = mock<TestPlayerObserver>()
+        player.registerObserver(testObserver)
+
+        val queue = createNonEmptyAudioSourceQueue(size = 2)
+
+        player.prepareByTarget(queue, queue.getItemAt(0), true)
+
+        val transition = player.playToTheEnd()
+        println("Gapless transition: time to first audio = ${transition.timeToFirstAudio} ms")
+        assertTrue(transition.isGapless)
+
+        player.doAfterAllEvents {
+            verify(testObserver, times(1)).onAudioSourceChanged(same(player), eq(queue.getItemAt(1)), eq(1))
+            verify(testObserver, times(2)).onPlaybackStarted(same(player))
+        }
+
+        // Each audio source has got its own engine
+        assertEquals(2, hook.attachedMediaPlayers.distinct().size)
+        assertSame(transition.mediaPlayer, hook.attachedMediaPlayers.last())
+
+    }
+
+    @Test
+    fun test_regularTransition() {
+        useGaplessPlayback = false
+        doOnPlayerImpl { player ->
+
+            // Test case 2: the same, but without the gapless mode, the engine is reused
+
+            val testObserver = mock<TestPlayerObserver>()
+            player.registerObserver(testObserver)
+
+            val queue = createNonEmptyAudioSourceQueue(size = 2)
+
+            player.prepareByTarget(queue, queue.getItemAt(0), true)
+
+            val transition = player.playToTheEnd()
+            println("Regular transition: time to first audio = ${transition.timeToFirstAudio} ms")
+            assertFalse(transition.isGapless)
+
+            player.doAfterAllEvents {
+                verify(testObserver, times(1)).onAudioSourceChanged(same(player), eq(queue.getItemAt(1)), eq(1))
+                verify(testObserver, times(2)).onPlaybackStarted(same(player))
+            }
+
+            assertEquals(1, hook.attachedMediaPlayers.distinct().size)
+
+        }
+    }
+
+    @Test
+    fun test_gaplessRepeatOne() = doOnPlayerImpl { player ->
+
+        // Test case 3: repeat the only item, it must start again on the next engine
+
+        val testObserver = mock<TestPlayerObserver>()
+        player.registerObserver(testObserver)
+
+        player.setRepeatMode(Player.REPEAT_ONE)
+
+        val queue = createNonEmptyAudioSourceQueue(size = 1)
+
+        player.prepareByTarget(queue, queue.getItemAt(0), true)
+
+        val transition = player.playToTheEnd()
+        assertTrue(transition.isGapless)
+
+        player.doAfterAllEvents {
+            verify(testObserver, times(2)).onAudioSourceChanged(same(player), eq(queue.getItemAt(0)), eq(0))
+        }
+
+    }
+
+    @Test
+    fun test_gaplessTransitionAfterQueueChange() = doOnPlayerImpl { player ->
+
+        // Test case 4: move the last item right after the current one, the next engine must follow the change
+
+        val testObserver = mock<TestPlayerObserver>()
+        player.registerObserver(testObserver)
+
+        val queue = createNonEmptyAudioSourceQueue(size = 3)
+
+        player.prepareByTarget(queue, queue.getItemAt(0), true)
+        player.waitUntilAllEventsAreOver()
+
+        player.moveItem(2, 1)
+
+        val transition = player.playToTheEnd()
+        assertTrue(transition.isGapless)
+
+        player.doAfterAllEvents {
+            verify(testObserver, times(1)).onAudioSourceChanged(same(player), eq(queue.getItemAt(2)), eq(1))
+        }
+
+    }
+
+    @Test
+    fun test_noTransitionAtTheEndOfQueue() = doOnPlayerImpl { player ->
+
+        // Test case 5: play the last item to the end without repeat, the playback must stop
+
+        val testObserver = mock<TestPlayerObserver>()
+        player.registerObserver(testObserver)
+
+        player.setRepeatMode(Player.REPEAT_OFF)
+
+        val queue = createNonEmptyAudioSourceQueue(size = 2)
+
+        player.prepareByTarget(queue, queue.getItemAt(1), true)
+
+        player.waitUntilAllEventsAreOver()
+        player.simulateCompletePlayback()
+
+        player.doAfterAllEvents {
+            verify(testObserver, times(1)).onAudioSourceChanged(same(player), eq(queue.getItemAt(0)), eq(0))
+            verify(testObserver, times(1)).onPlaybackStarted(same(player))
+        }
+        assertTrue(hook.transitions.isEmpty())
+
+    }
+
+    private companion object {
+        const val NEXT_ENGINE_PREPARATION_TIME = 1000L
+        const val TRANSITION_TIMEOUT = 5000L
+    }
+
+}
@@ -5,4 +5,13 @@ import android.media.MediaPlayer
 interface MediaPlayerHook {
     fun attachAudioEffects(mediaPlayer: MediaPlayer)
     fun releaseAudioEffects()
-}
\ No newline at end of file
+
+    /**
+     * Called when the playback goes over to [mediaPlayer] after the previous audio source has completed.
+     * [isGapless] is true if [mediaPlayer] had been prepared in advance and started right after the completion.
+     * [timeToFirstAudio] is the time, in milliseconds, from the end of the audio of the previous audio source
+     * to the first audio of [mediaPlayer]. It's reported once [mediaPlayer] has played some audio.
+     * Does nothing by default.
+     */
+    fun onPlaybackTransition(mediaPlayer: MediaPlayer, isGapless: Boolean, timeToFirstAudio: Long) = Unit
+}
@@ -0,0 +1,78 @@
+package com.frolo.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+
+/**
+ * Immutable snapshot of the playback: the position at a moment of the monotonic clock, and the speed since then.
+ * It estimates the current position without asking the engine, so the control loop does not need the engine lock.
+ * The snapshot must be synced with the engine every time the playback starts, pauses, seeks or changes the speed.
+ * It also holds the fading envelope of the current audio source.
+ */
+final class PlaybackClock {
+
+    @Nullable
+    private final PlaybackFadingStrategy mStrategy;
+    @NonNull
+    private final PlaybackFadingEnvelope mEnvelope;
+    private final int mDuration;
+    private final int mPosition;
+    private final long mTime;
+    private final float mSpeed;
+
+    /**
+     * @param strategy the strategy the envelope has been created from
+     * @param envelope the fading envelope for the audio source
+     * @param duration the duration of the audio source
+     * @param position the position of the playback at <code>time</code>
+     * @param time the time of the monotonic clock, in milliseconds
+     * @param speed the speed of the playback, zero if it is paused
+     */
+    PlaybackClock(@Nullable PlaybackFadingStrategy strategy, @NonNull PlaybackFadingEnvelope envelope,
+                  int duration, int position, long time, float speed) {
+        mStrategy = strategy;
+        mEnvelope = envelope;
+        mDuration = duration;
+        mPosition = position;
+        mTime = time;
+        mSpeed = speed;
+    }
+
+    /**
+     * Checks if the envelope of this clock has been created from <code>strategy</code> for <code>duration</code>.
+     */
+    boolean hasEnvelopeFor(@Nullable PlaybackFadingStrategy strategy, int duration) {
+        return mStrategy == strategy && mDuration == duration;
+    }
+
+    @NonNull
+    PlaybackFadingEnvelope getEnvelope() {
+        return mEnvelope;
+    }
+
+    boolean isRunning() {
+        return mSpeed > 0f;
+    }
+
+    /**
+     * Estimates the position of the playback at <code>time</code> of the monotonic clock.
+     */
+    int getPosition(long time) {
+        if (!isRunning()) {
+            return mPosition;
+        }
+        final long position = mPosition + (long) ((time - mTime) * mSpeed);
+        if (mDuration > 0 && position > mDuration) {
+            return mDuration;
+        }
+        return (int) position;
+    }
+
+    /**
+     * Converts <code>playbackTime</code>, in milliseconds of the playback, to the time of the monotonic clock.
+     */
+    long toClockTime(long playbackTime) {
+        return isRunning() ? (long) (playbackTime / mSpeed) : playbackTime;
+    }
+}
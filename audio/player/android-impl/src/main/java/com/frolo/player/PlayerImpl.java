@@ -4,6 +4,7 @@ import android.content.Context;
 import android.media.AudioAttributes;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.media.MediaTimestamp;
 import android.media.PlaybackParams;
 import android.net.Uri;
 import android.os.Handler;
@@ -20,12 +21,11 @@ import androidx.annotation.WorkerThread;
 import com.frolo.player.data.AudioSources;
 import com.frolo.player.data.MediaStoreRow;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -57,6 +57,31 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
      */
     private static final long VOLUME_ADJUSTMENT_INTERVAL = 50L;
 
+    /**
+     * Means that the control loop does not need to wake up for a feature.
+     */
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Means that the time cannot be estimated yet.
+     */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * How often, and how many times, the timestamp of the engine is sampled to measure a playback transition.
+     */
+    private static final long TRANSITION_SAMPLING_INTERVAL_MS = 100L;
+    private static final int TRANSITION_SAMPLING_MAX_ATTEMPTS = 20;
+
+    /**
+     * Engine task that does nothing but the work that follows each engine task.
+     */
+    private static final Runnable NO_OP_TASK = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
     private static final MathUtil.Range SPEED_RANGE = new MathUtil.Range(0f, 2f);
     private static final MathUtil.Range PITCH_RANGE = new MathUtil.Range(0f, 2f);
 
@@ -81,6 +106,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         private boolean mDebug = false;
         private PlayerJournal mJournal;
         private boolean mUseWakeLocks;
+        private boolean mUseGaplessPlayback;
         @RepeatMode
         private int mRepeatMode;
         @ShuffleMode
@@ -121,6 +147,15 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             return self();
         }
 
+        /**
+         * If <code>useGaplessPlayback</code> is true, the player prepares the next audio source
+         * in the queue on a second engine in advance, so that the playback goes over to it without a gap.
+         */
+        public Builder setUseGaplessPlayback(boolean useGaplessPlayback) {
+            mUseGaplessPlayback = useGaplessPlayback;
+            return self();
+        }
+
         public Builder setRepeatMode(@RepeatMode int mode) {
             mRepeatMode = mode;
             return self();
@@ -173,6 +208,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             // Finally, executing the task
             try {
                 mTask.run();
+                // The task might have changed the queue, the position or the repeat mode
+                syncNextEngine();
             } catch (Throwable error) {
                 mObserverRegistry.dispatchInternalErrorOccurred(error);
                 // Oops, need to do a hard reset
@@ -184,6 +221,39 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         }
     }
 
+    /**
+     * Engine that is prepared in advance for the audio source following the current one, in gapless mode.
+     * Once prepared, it is linked to the current engine, so it starts as soon as the current engine completes.
+     * If it fails, the engine is released, but the holder stays, so that it's not retried for the same audio source.
+     */
+    private static final class NextEngine {
+
+        @NonNull
+        final AudioSource mItem;
+        final int mPositionInQueue;
+        // Playback params the engine was prepared with
+        final float mSpeed;
+        final float mPitch;
+
+        @Nullable
+        MediaPlayer mEngine;
+        // Whether the engine is prepared and linked to the current engine
+        boolean mIsLinked = false;
+
+        NextEngine(@NonNull AudioSource item, int positionInQueue, float speed, float pitch,
+                   @NonNull MediaPlayer engine) {
+            mItem = item;
+            mPositionInQueue = positionInQueue;
+            mSpeed = speed;
+            mPitch = pitch;
+            mEngine = engine;
+        }
+
+        boolean matches(@Nullable AudioSource item, int positionInQueue) {
+            return mItem.equals(item) && mPositionInQueue == positionInQueue;
+        }
+    }
+
     /**
      * Creates a new handler that will work on a background thread.
      * The method is a little bit blocking, it's better not to call it on the main thread.
@@ -245,10 +315,22 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
     // Handlers
     private final Handler mEngineHandler;
     private final Object mEngineTasksLock = new Object();
+    // Handler for the control loop. It works on the engine thread too,
+    // but the engine tasks cancellation does not affect its callbacks.
+    private final Handler mControlHandler;
+    private final Runnable mControlLoopTask = new Runnable() {
+        @Override
+        public void run() {
+            runControlLoop();
+        }
+    };
 
     // Wake locks
     private final boolean mUseWakeLocks;
 
+    // Gapless playback
+    private final boolean mUseGaplessPlayback;
+
     // Player journal
     @NonNull
     private final PlayerJournal mPlayerJournal;
@@ -272,6 +354,11 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
     @Nullable
     private volatile MediaPlayer mEngine;
 
+    // Engine for the next audio source, in gapless mode only
+    @GuardedBy("mEngineLock")
+    @Nullable
+    private NextEngine mNextEngine;
+
     /**
      * Error handler for {@link MediaPlayer}.
      */
@@ -293,13 +380,26 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
     private final MediaPlayer.OnCompletionListener mOnCompletionListener = new MediaPlayer.OnCompletionListener() {
         @Override
         public void onCompletion(MediaPlayer mp) {
-            processEngineTask(_skipToNext(false));
+            // The completed engine is sampled now, before it's replaced or reset
+            processEngineTask(_handleCompletion(mp, estimateEndOfAudioTime(mp)));
 
             // Notifying all threads that the playback is complete
             notifyPlaybackCompleted();
         }
     };
 
+    /**
+     * Preparation handler for the next engine. The engine is created on the engine thread,
+     * so this is called on the engine thread too. It does not post an engine task,
+     * because pending engine tasks may be cancelled, and the next engine would never be linked then.
+     */
+    private final MediaPlayer.OnPreparedListener mOnNextEnginePreparedListener = new MediaPlayer.OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            linkNextEngine(mp);
+        }
+    };
+
     // Internal state
     @Nullable
     private volatile AudioSourceQueue mOriginQueue = null;
@@ -325,7 +425,9 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
     // Playback Fading
     @Nullable
     private volatile PlaybackFadingStrategy mPlaybackFadingStrategy;
-    private volatile Timer mPlaybackFadingTimer;
+    // Synced with the engine on each start, pause and seek
+    @Nullable
+    private volatile PlaybackClock mPlaybackClock;
 
     // Playback Params
     private volatile boolean mIsPlaybackSpeedPersisted = false;
@@ -339,9 +441,12 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         mDebug = builder.mDebug;
 
         mEngineHandler = createEngineHandler();
+        mControlHandler = new Handler(mEngineHandler.getLooper());
 
         mUseWakeLocks = builder.mUseWakeLocks;
 
+        mUseGaplessPlayback = builder.mUseGaplessPlayback;
+
         mPlayerJournal = builder.mJournal != null ? builder.mJournal : PlayerJournal.EMPTY;
 
         mAudioFocusRequesterFactory = builder.mAudioFocusRequesterFactory != null
@@ -359,7 +464,6 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         mShuffleMode = builder.mShuffleMode;
 
         mPlaybackFadingStrategy = builder.mPlaybackFadingStrategy;
-        startPlaybackFadingTimer();
     }
 
     /**
@@ -573,6 +677,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
             //throw new UnsupportedOperationException("Not implemented yet!");
 
+            releaseNextEngine();
+
             try {
                 MediaPlayer engine = mEngine;
                 if (engine != null) {
@@ -628,6 +734,28 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         return engine;
     }
 
+    /**
+     * Sets the data source of <code>item</code> to <code>engine</code>.
+     * First, it tries the filepath, then the uri if the item is a media store row.
+     */
+    private void setEngineDataSource(@NonNull MediaPlayer engine, @NonNull AudioSource item) throws IOException {
+        try {
+            // First, try to set the data source by the filepath
+            String filepath = item.getSource();
+            mPlayerJournal.logMessage("Set data source from path: " + filepath);
+            engine.setDataSource(filepath);
+        } catch (Throwable error) {
+            // If failed, try to set the data source by the uri
+            if (item instanceof MediaStoreRow) {
+                Uri uri = ((MediaStoreRow) item).getUri();
+                mPlayerJournal.logMessage("Set data source from uri: " + uri.toString());
+                engine.setDataSource(mContext, uri);
+            } else {
+                throw error;
+            }
+        }
+    }
+
     private Runnable _handleEngineError(final MediaPlayer mp, final int what, final int extra) {
         return new Runnable() {
             @Override
@@ -639,7 +767,14 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                     final MediaPlayer currentEngine = mEngine;
                     if (currentEngine != mp) {
-                        // This is not our engine.
+                        final NextEngine nextEngine = mNextEngine;
+                        if (nextEngine != null && nextEngine.mEngine == mp) {
+                            // The next engine is broken. Not reporting this now,
+                            // the error will show up when the playback gets to that audio source.
+                            mPlayerJournal.logMessage("[!] Next engine error");
+                            disposeNextEngine(nextEngine);
+                        }
+                        // Otherwise, this is not our engine.
                         // We don't deal with this.
                         return;
                     }
@@ -653,6 +788,9 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                         mPlayerJournal.logMessage("[!] Critical engine error");
 
+                        // The next engine is linked to the broken one
+                        releaseNextEngine();
+
                         // Resetting internal flags
                         mIsPreparedFlag = false;
                         mDuration = 0;
@@ -742,6 +880,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                     mDuration = 0;
                     mIsPlayingFlag = false;
 
+                    releaseNextEngine();
+
                     final MediaPlayer engine = mEngine;
                     // Trying to reset the engine, if it's not null
                     if (engine != null) {
@@ -817,6 +957,25 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         };
     }
 
+    @NonNull
+    private Runnable _handleCompletion(@NonNull final MediaPlayer mp, final long endOfAudioTime) {
+        return new Runnable() {
+            @Override
+            public void run() {
+
+                if (mp != mEngine) {
+                    // The engine has been replaced since the completion, so it's outdated
+                    return;
+                }
+
+                _skipToNext(false).run();
+
+                reportPlaybackTransition(mp, endOfAudioTime);
+
+            }
+        };
+    }
+
     @NonNull
     private Runnable _handleSource(@Nullable final AudioSource item, final int playbackPosition, final boolean startPlaying) {
         return new Runnable() {
@@ -849,6 +1008,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                         mDuration = 0;
                         mIsPlayingFlag = false;
 
+                        releaseNextEngine();
+
                         final MediaPlayer engine = mEngine;
                         if (engine != null) {
                             try {
@@ -872,6 +1033,14 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                     mDuration = 0;
                     mIsPlayingFlag = startPlaying;
 
+                    if (playbackPosition == 0 && tryHandOverToNextEngine(item, startPlaying)) {
+                        return;
+                    }
+
+                    // The next engine is linked to the current one, so it must go before the current one is reset.
+                    // It will be prepared again for the new position in the queue.
+                    releaseNextEngine();
+
                     MediaPlayer engine = mEngine;
                     if (engine == null) {
                         // Creating a new engine, if the current is null
@@ -880,21 +1049,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                     try {
                         engine.reset();
-                        try {
-                            // First, try to set the data source by the filepath
-                            String filepath = item.getSource();
-                            mPlayerJournal.logMessage("Set data source from path: " + filepath);
-                            engine.setDataSource(filepath);
-                        } catch (Throwable error) {
-                            // If failed, try to set the data source by the uri
-                            if (item instanceof MediaStoreRow) {
-                                Uri uri = ((MediaStoreRow) item).getUri();
-                                mPlayerJournal.logMessage("Set data source from uri: " + uri.toString());
-                                engine.setDataSource(mContext, uri);
-                            } else {
-                                throw error;
-                            }
-                        }
+                        setEngineDataSource(engine, item);
 
                         try {
                             // Setting playback params. Must be done before engine preparation,
@@ -926,10 +1081,11 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                         if (startPlaying && tryRequestAudioFocus()) {
                             mIsPlayingFlag = true;
                             engine.start();
-                            maybeAdjustVolume();
+                            resyncControlLoop();
                             mObserverRegistry.dispatchPlaybackStarted();
                         } else {
                             mIsPlayingFlag = false;
+                            resyncControlLoop();
                             mObserverRegistry.dispatchPlaybackPaused();
                         }
                     } catch (Throwable error) {
@@ -944,6 +1100,350 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         };
     }
 
+    /**
+     * Returns the position in the queue that the playback goes over to when the current audio source completes,
+     * or {@link #NO_POSITION_IN_QUEUE} if the playback stops there. This must agree with {@link #_skipToNext(boolean)}.
+     */
+    private int getPositionAfterCompletion() {
+        final AudioSourceQueue queue = mCurrentQueue;
+        final int currentPositionInQueue = mCurrentPositionInQueue;
+        if (currentPositionInQueue < 0 || currentPositionInQueue >= queue.getLength()) {
+            return NO_POSITION_IN_QUEUE;
+        }
+
+        final @RepeatMode int repeatMode = mRepeatMode;
+        if (repeatMode == Player.REPEAT_ONE) {
+            return currentPositionInQueue;
+        }
+
+        final int nextPositionInQueue = currentPositionInQueue + 1;
+        if (nextPositionInQueue >= queue.getLength()) {
+            // At the end of the queue, the playback only goes on if the playlist is repeated
+            return repeatMode == Player.REPEAT_PLAYLIST ? 0 : NO_POSITION_IN_QUEUE;
+        }
+        return nextPositionInQueue;
+    }
+
+    /**
+     * Makes sure that, in gapless mode, the next engine is prepared for the audio source that follows the current one.
+     * If the queue, the position or the repeat mode have changed since the next engine was created, it is replaced.
+     * The next engine is prepared asynchronously, and then linked to the current one by {@link #linkNextEngine(MediaPlayer)}.
+     * It shares the audio session of the current engine, so the audio effects apply to it from the first audio.
+     * This must be called on the engine thread.
+     */
+    private void syncNextEngine() {
+        if (!mUseGaplessPlayback) return;
+
+        synchronized (mEngineLock) {
+
+            final MediaPlayer engine = mEngine;
+            if (!mIsPreparedFlag || engine == null) {
+                releaseNextEngine();
+                return;
+            }
+
+            final int positionInQueue = getPositionAfterCompletion();
+            final AudioSource item = positionInQueue != NO_POSITION_IN_QUEUE
+                    ? mCurrentQueue.getItemAt(positionInQueue) : null;
+
+            final NextEngine oldNextEngine = mNextEngine;
+            if (oldNextEngine != null && oldNextEngine.matches(item, positionInQueue)) {
+                // Already there
+                return;
+            }
+
+            releaseNextEngine();
+
+            if (item == null) {
+                // The playback stops after the current audio source
+                return;
+            }
+
+            mPlayerJournal.logMessage("Prepare next engine: " + info(item) + ", pos_in_queue=" + positionInQueue);
+
+            // The same params that _handleSource would apply
+            final float speed = mIsPlaybackSpeedPersisted ? mPlaybackSpeed : SPEED_NORMAL;
+            final float pitch = mIsPlaybackPitchPersisted ? mPlaybackPitch : PITCH_NORMAL;
+
+            final MediaPlayer newEngine = createEngine();
+            final NextEngine nextEngine = new NextEngine(item, positionInQueue, speed, pitch, newEngine);
+            mNextEngine = nextEngine;
+
+            try {
+                newEngine.setAudioSessionId(engine.getAudioSessionId());
+                setEngineDataSource(newEngine, item);
+
+                // Must be done before preparation, see _handleSource
+                PlaybackParams playbackParams = newEngine.getPlaybackParams();
+                playbackParams.setSpeed(speed);
+                playbackParams.setPitch(pitch);
+                newEngine.setPlaybackParams(playbackParams);
+
+                newEngine.setOnPreparedListener(mOnNextEnginePreparedListener);
+                newEngine.prepareAsync();
+            } catch (Throwable error) {
+                // Not reporting this now, the error will show up when the playback gets to that audio source
+                mPlayerJournal.logError("Failed to set up the next engine", error);
+                disposeNextEngine(nextEngine);
+            }
+        }
+    }
+
+    /**
+     * Links the prepared next engine to the current one, so that it starts as soon as the current one completes.
+     * It starts at the volume of the fading at the beginning of its audio source.
+     * This must be called on the engine thread.
+     * @param mp the prepared next engine
+     */
+    private void linkNextEngine(@NonNull MediaPlayer mp) {
+        assertEngineThread();
+        if (isShutdown()) return;
+
+        synchronized (mEngineLock) {
+
+            final NextEngine nextEngine = mNextEngine;
+            if (nextEngine == null || nextEngine.mEngine != mp) {
+                // The next engine has been replaced since then
+                return;
+            }
+
+            final MediaPlayer engine = mEngine;
+            if (!mIsPreparedFlag || engine == null) {
+                releaseNextEngine();
+                return;
+            }
+
+            mPlayerJournal.logMessage("Link next engine");
+
+            try {
+                final PlaybackFadingStrategy strategy = mPlaybackFadingStrategy;
+                final float level = strategy != null
+                        ? strategy.calculateLevel(0, mp.getDuration())
+                        : PlaybackFadingStrategy.NORMAL_LEVEL;
+                final float volume = VolumeHelper.computeVolume(level);
+                mp.setVolume(volume, volume);
+
+                engine.setNextMediaPlayer(mp);
+                nextEngine.mIsLinked = true;
+            } catch (Throwable error) {
+                mPlayerJournal.logError("Failed to link the next engine", error);
+                disposeNextEngine(nextEngine);
+            }
+        }
+    }
+
+    /**
+     * Makes the next engine the current one, if it's linked and prepared for <code>item</code>
+     * at the current position in the queue. If the current engine has just completed,
+     * the next one is already playing, so the transition is gapless. Otherwise, for example if the user skips to the next,
+     * this still saves the preparation. The old engine is released. Returns false if there is no such next engine.
+     */
+    @GuardedBy("mEngineLock")
+    private boolean tryHandOverToNextEngine(@NonNull AudioSource item, boolean startPlaying) {
+        final NextEngine nextEngine = mNextEngine;
+        if (nextEngine == null || !nextEngine.mIsLinked || nextEngine.mEngine == null
+                || !nextEngine.matches(item, mCurrentPositionInQueue)) {
+            return false;
+        }
+
+        mPlayerJournal.logMessage("Hand over to next engine");
+
+        final MediaPlayer oldEngine = mEngine;
+        final MediaPlayer engine = nextEngine.mEngine;
+        mNextEngine = null;
+        mEngine = engine;
+
+        if (oldEngine != null) {
+            try {
+                oldEngine.release();
+            } catch (Throwable error) {
+                report(error);
+                mPlayerJournal.logError("Failed to release the old engine", error);
+            }
+        }
+
+        try {
+            final int duration = engine.getDuration();
+            mIsPreparedFlag = true;
+            mDuration = duration;
+
+            if (nextEngine.mSpeed != mPlaybackSpeed || nextEngine.mPitch != mPlaybackPitch) {
+                // The params have changed since the preparation. This may start the engine,
+                // but it's paused below if needed.
+                PlaybackParams playbackParams = engine.getPlaybackParams();
+                playbackParams.setSpeed(mPlaybackSpeed);
+                playbackParams.setPitch(mPlaybackPitch);
+                engine.setPlaybackParams(playbackParams);
+            }
+
+            mMediaPlayerHook.attachAudioEffects(engine);
+
+            mObserverRegistry.dispatchPrepared(duration, engine.getCurrentPosition());
+
+            if (startPlaying && tryRequestAudioFocus()) {
+                mIsPlayingFlag = true;
+                if (!engine.isPlaying()) {
+                    engine.start();
+                }
+                resyncControlLoop();
+                mObserverRegistry.dispatchPlaybackStarted();
+            } else {
+                mIsPlayingFlag = false;
+                if (engine.isPlaying()) {
+                    engine.pause();
+                }
+                resyncControlLoop();
+                mObserverRegistry.dispatchPlaybackPaused();
+            }
+        } catch (Throwable error) {
+            report(error);
+            mPlayerJournal.logError("Failed to hand over to the next engine", error);
+            mIsPlayingFlag = false;
+            mObserverRegistry.dispatchPlaybackPaused();
+        }
+
+        return true;
+    }
+
+    /**
+     * Unlinks and releases the next engine, if any.
+     */
+    @GuardedBy("mEngineLock")
+    private void releaseNextEngine() {
+        final NextEngine nextEngine = mNextEngine;
+        mNextEngine = null;
+        if (nextEngine != null) {
+            disposeNextEngine(nextEngine);
+        }
+    }
+
+    /**
+     * Unlinks and releases the engine of <code>nextEngine</code>, but keeps the holder.
+     */
+    @GuardedBy("mEngineLock")
+    private void disposeNextEngine(@NonNull NextEngine nextEngine) {
+        final MediaPlayer engine = mEngine;
+        if (nextEngine.mIsLinked && engine != null) {
+            try {
+                engine.setNextMediaPlayer(null);
+            } catch (Throwable error) {
+                mPlayerJournal.logError("Failed to unlink the next engine", error);
+            }
+        }
+        nextEngine.mIsLinked = false;
+
+        final MediaPlayer nextMediaPlayer = nextEngine.mEngine;
+        nextEngine.mEngine = null;
+        if (nextMediaPlayer != null) {
+            try {
+                nextMediaPlayer.release();
+            } catch (Throwable error) {
+                mPlayerJournal.logError("Failed to release the next engine", error);
+            }
+        }
+    }
+
+    /**
+     * Reports the time from the end of the audio of the previous audio source to the first audio of the current one
+     * to the journal and to the media player hook. The transition is gapless if the completed engine has been
+     * replaced by the next one. Otherwise, the time includes the preparation of the current engine.
+     * Both kinds of transitions are measured between the same points: the end of audio is estimated
+     * from the last timestamp of the completed engine, and the first audio is estimated from the timestamp
+     * of the current engine, which is sampled asynchronously, once the engine has played some audio.
+     * @param completedEngine the engine that has completed
+     * @param endOfAudioTime the end of the audio of the completed engine, see {@link #estimateEndOfAudioTime}
+     */
+    private void reportPlaybackTransition(@NonNull MediaPlayer completedEngine, long endOfAudioTime) {
+        if (!mIsPlayingFlag) return;
+
+        final MediaPlayer engine = mEngine;
+        if (engine == null) return;
+
+        final boolean isGapless = engine != completedEngine;
+        mControlHandler.postDelayed(new TransitionReport(engine, isGapless, endOfAudioTime),
+                TRANSITION_SAMPLING_INTERVAL_MS);
+    }
+
+    /**
+     * Samples the timestamp of the engine that has taken over the playback, until the engine has one,
+     * and then reports the transition. It runs on the engine thread, via the control handler.
+     */
+    private final class TransitionReport implements Runnable {
+        @NonNull
+        final MediaPlayer mNewEngine;
+        final boolean mIsGapless;
+        final long mEndOfAudioTime;
+        int mAttemptCount = 0;
+
+        TransitionReport(@NonNull MediaPlayer engine, boolean isGapless, long endOfAudioTime) {
+            mNewEngine = engine;
+            mIsGapless = isGapless;
+            mEndOfAudioTime = endOfAudioTime;
+        }
+
+        @Override
+        public void run() {
+            if (isShutdown() || mNewEngine != mEngine) {
+                // The engine has been replaced since the transition, so the measurement is outdated
+                return;
+            }
+            try {
+                mAttemptCount++;
+                long firstAudioTime = estimateFirstAudioTime(mNewEngine);
+                if (firstAudioTime == NO_TIME) {
+                    if (mAttemptCount < TRANSITION_SAMPLING_MAX_ATTEMPTS) {
+                        mControlHandler.postDelayed(this, TRANSITION_SAMPLING_INTERVAL_MS);
+                        return;
+                    }
+                    // No audio yet, at least until now
+                    firstAudioTime = System.nanoTime();
+                }
+                final long timeToFirstAudio = Math.max(0L, firstAudioTime - mEndOfAudioTime) / 1_000_000L;
+                mPlayerJournal.logMessage("Playback transition: gapless=" + mIsGapless
+                        + ", time_to_first_audio=" + timeToFirstAudio);
+                mMediaPlayerHook.onPlaybackTransition(mNewEngine, mIsGapless, timeToFirstAudio);
+            } catch (Throwable error) {
+                // The metrics are not worth a report
+                mPlayerJournal.logError("Failed to report the playback transition", error);
+            }
+        }
+    }
+
+    /**
+     * Estimates when <code>engine</code> played the end of its audio source, in {@link System#nanoTime()},
+     * from its last timestamp. If the engine has no timestamp, the end of audio is considered to be now.
+     * This must be called when the engine completes.
+     */
+    private static long estimateEndOfAudioTime(@NonNull MediaPlayer engine) {
+        final long now = System.nanoTime();
+        try {
+            final MediaTimestamp timestamp = engine.getTimestamp();
+            final int duration = engine.getDuration();
+            if (timestamp == null || timestamp.getMediaClockRate() <= 0f || duration <= 0) {
+                return now;
+            }
+            final long remainingMediaTimeUs = Math.max(0L, duration * 1000L - timestamp.getAnchorMediaTimeUs());
+            final long remainingTime = (long) (remainingMediaTimeUs * 1000d / timestamp.getMediaClockRate());
+            return Math.min(now, timestamp.getAnchorSytemNanoTime() + remainingTime);
+        } catch (Throwable ignored) {
+            // The engine may be in an invalid state already
+            return now;
+        }
+    }
+
+    /**
+     * Estimates when <code>engine</code> played the first audio of the current audio source, in {@link System#nanoTime()},
+     * from its timestamp. Returns {@link #NO_TIME} until the engine has played some audio.
+     */
+    private static long estimateFirstAudioTime(@NonNull MediaPlayer engine) {
+        final MediaTimestamp timestamp = engine.getTimestamp();
+        if (timestamp == null || timestamp.getMediaClockRate() <= 0f || timestamp.getAnchorMediaTimeUs() <= 0L) {
+            return NO_TIME;
+        }
+        final long mediaTime = (long) (timestamp.getAnchorMediaTimeUs() * 1000d / timestamp.getMediaClockRate());
+        return timestamp.getAnchorSytemNanoTime() - mediaTime;
+    }
+
     @Override
     public void registerObserver(@NonNull PlayerObserver observer) {
         if (isShutdown()) return;
@@ -1281,7 +1781,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                     try {
                         engine.seekTo(position);
-                        maybeAdjustVolume();
+                        resyncControlLoop();
                         mObserverRegistry.dispatchSoughtTo(position);
                     } catch (Throwable error) {
                         report(error);
@@ -1321,7 +1821,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                         try {
                             engine.start();
-                            maybeAdjustVolume();
+                            resyncControlLoop();
                             mObserverRegistry.dispatchPlaybackStarted();
                         } catch (Throwable error) {
                             report(error);
@@ -1373,6 +1873,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
                     try {
                         engine.pause();
+                        // Parking the control loop
+                        resyncControlLoop();
                         mObserverRegistry.dispatchPlaybackPaused();
                     } catch (Throwable error) {
                         report(error);
@@ -1413,13 +1915,15 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                             if (tryRequestAudioFocus()) {
                                 mIsPlayingFlag = true;
                                 engine.start();
-                                maybeAdjustVolume();
+                                resyncControlLoop();
                                 mObserverRegistry.dispatchPlaybackStarted();
                             }
 
                         } else {
                             mIsPlayingFlag = false;
                             engine.pause();
+                            // Parking the control loop
+                            resyncControlLoop();
                             mObserverRegistry.dispatchPlaybackPaused();
                         }
 
@@ -1771,78 +2275,121 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
     }
 
     /**
-     * Starts {@link Timer}, which will adjust the volume for smooth playback fading.
-     * This method should be called once during the player's life.
-     * It is better to make the method call lazy.
-     * TODO: consider making the call lazy instead of doing the call in the constructor
+     * Posts the control loop to run on the engine thread as soon as possible.
+     * This can be called from any thread.
+     */
+    private void scheduleControlLoop() {
+        if (isShutdown()) return;
+        mControlHandler.removeCallbacks(mControlLoopTask);
+        mControlHandler.post(mControlLoopTask);
+    }
+
+    /**
+     * Runs the control loop: adjusts the volume for playback fading and keeps the playback between the A-B points.
+     * Then the loop schedules itself to the nearest deadline at which any of these features needs attention.
+     * If none of them does, for example when the playback is paused, the loop parks until it is run again.
+     * So it should be run every time the features change. When the engine starts, pauses or seeks,
+     * the playback clock should be synced too, see {@link #resyncControlLoop()}.
+     * This must be called on the engine thread.
      */
-    private void startPlaybackFadingTimer() {
+    private void runControlLoop() {
+        assertEngineThread();
+        mControlHandler.removeCallbacks(mControlLoopTask);
         if (isShutdown()) return;
 
-        final Timer oldTimer = mPlaybackFadingTimer;
-        if (oldTimer != null) {
-            oldTimer.purge();
-            oldTimer.cancel();
+        final long volumeDeadline = maybeAdjustVolume();
+        final long abDeadline = mABControllerImpl.checkPointsInternal();
+        final long nextDeadline = Math.min(volumeDeadline, abDeadline);
+        if (nextDeadline != NO_DEADLINE) {
+            mControlHandler.postDelayed(mControlLoopTask, nextDeadline);
         }
+    }
 
-        final TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                while (!isShutdown()) {
-                    maybeAdjustVolume();
-                    try {
-                        // Sleeping until the next volume adjustment
-                        Thread.sleep(VOLUME_ADJUSTMENT_INTERVAL);
-                    } catch (InterruptedException error) {
-                        return;
-                    }
-                }
-            }
-        };
-        final Timer newTimer = new Timer("Timer-PlaybackFading");
-        newTimer.schedule(task, 0);
-        mPlaybackFadingTimer = newTimer;
+    /**
+     * Syncs the playback clock with the engine and runs the control loop.
+     * This must be called on the engine thread.
+     */
+    private void resyncControlLoop() {
+        syncPlaybackClock();
+        runControlLoop();
     }
 
     /**
-     * Adjusts the volume level according to the current {@link PlaybackFadingStrategy}.
-     * The method should be called constantly throughout the player's life.
-     * There is also a need to call this method every time the engine is started.
+     * Syncs {@link #mPlaybackClock} with the position, the speed and the state of the engine.
+     * The fading envelope is created only if the strategy or the duration has changed,
+     * which normally happens once per audio source.
      */
-    private void maybeAdjustVolume() {
+    private void syncPlaybackClock() {
         synchronized (mEngineLock) {
 
-            if (!mIsPreparedFlag) return;
-
             final MediaPlayer engine = mEngine;
-            if (engine == null) return;
+            if (!mIsPreparedFlag || engine == null) {
+                mPlaybackClock = null;
+                return;
+            }
 
             try {
-
-                // Do NOT log here, otherwise the journal will overflow
-
                 final PlaybackFadingStrategy strategy = mPlaybackFadingStrategy;
-
-                final float level;
-                if (strategy == null) {
-                    // No strategy - no fading
-                    level = PlaybackFadingStrategy.NORMAL_LEVEL;
+                final int duration = engine.getDuration();
+                final PlaybackClock oldClock = mPlaybackClock;
+                final PlaybackFadingEnvelope envelope;
+                if (oldClock != null && oldClock.hasEnvelopeFor(strategy, duration)) {
+                    envelope = oldClock.getEnvelope();
+                } else if (strategy != null) {
+                    envelope = strategy.createEnvelope(duration);
                 } else {
-                    final int progress = engine.getCurrentPosition();
-                    final int duration = engine.getDuration();
-                    // This is where the strategy works
-                    level = strategy.calculateLevel(progress, duration);
+                    // No strategy - no fading
+                    envelope = PlaybackFadingEnvelope.normal();
                 }
-
-                final float volume = VolumeHelper.computeVolume(level);
-
-                engine.setVolume(volume, volume);
+                final float speed = engine.isPlaying() ? mPlaybackSpeed : 0f;
+                mPlaybackClock = new PlaybackClock(strategy, envelope, duration,
+                        engine.getCurrentPosition(), SystemClock.uptimeMillis(), speed);
             } catch (Throwable error) {
                 report(error);
-                mPlayerJournal.logError("Failed to adjust volume", error);
+                mPlayerJournal.logError("Failed to sync the playback clock", error);
+                mPlaybackClock = null;
             }
         }
+    }
 
+    /**
+     * Adjusts the volume level according to the fading envelope of the current audio source.
+     * This does not lock the engine: the position is estimated by the playback clock.
+     * Returns the delay after which the volume should be adjusted again,
+     * or {@link #NO_DEADLINE} if the level is not going to change.
+     */
+    private long maybeAdjustVolume() {
+        if (!mIsPreparedFlag) return NO_DEADLINE;
+
+        final MediaPlayer engine = mEngine;
+        final PlaybackClock clock = mPlaybackClock;
+        if (engine == null || clock == null) return NO_DEADLINE;
+
+        try {
+
+            // Do NOT log here, otherwise the journal will overflow
+
+            final PlaybackFadingEnvelope envelope = clock.getEnvelope();
+            final int position = clock.getPosition(SystemClock.uptimeMillis());
+
+            final float volume = VolumeHelper.computeVolume(envelope.getLevelAt(position));
+
+            engine.setVolume(volume, volume);
+
+            if (!clock.isRunning()) return NO_DEADLINE;
+
+            final int timeUntilLevelChange = envelope.getTimeUntilLevelChange(position);
+            if (timeUntilLevelChange == PlaybackFadingEnvelope.LEVEL_NEVER_CHANGES) {
+                return NO_DEADLINE;
+            }
+            return Math.max(VOLUME_ADJUSTMENT_INTERVAL, clock.toClockTime(timeUntilLevelChange));
+        } catch (Throwable error) {
+            // The engine may be released by the shutdown at the moment
+            if (isShutdown()) return NO_DEADLINE;
+            report(error);
+            mPlayerJournal.logError("Failed to adjust volume", error);
+            return NO_DEADLINE;
+        }
     }
 
     @Nullable
@@ -1863,7 +2410,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         final Runnable task = new Runnable() {
             @Override
             public void run() {
-                maybeAdjustVolume();
+                resyncControlLoop();
             }
         };
 
@@ -1917,6 +2464,9 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
                     }
                 }
                 mPlaybackSpeed = speed;
+                // The deadlines depend on the speed
+                syncPlaybackClock();
+                scheduleControlLoop();
                 mObserverRegistry.dispatchSpeedChanged(speed);
             } catch (Throwable error) {
                 report(error);
@@ -2025,6 +2575,12 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
 
         mRepeatMode = mode;
         mObserverRegistry.dispatchRepeatModeChanged(mode);
+
+        if (mUseGaplessPlayback) {
+            // The next audio source depends on the repeat mode.
+            // Each engine task syncs the next engine when it's done (see EngineTaskWrapper), so it does not need to do anything.
+            processEngineTask(NO_OP_TASK);
+        }
     }
 
     @Override
@@ -2042,13 +2598,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         // Disposing the audio focus requester
         disposeAudioFocusRequester();
 
-        // Resetting the playback fading timer
-        final Timer oldTimer = mPlaybackFadingTimer;
-        if (oldTimer != null) {
-            oldTimer.purge();
-            oldTimer.cancel();
-        }
-        mPlaybackFadingTimer = null;
+        // Stopping the control loop
+        mControlHandler.removeCallbacksAndMessages(null);
 
         // Releasing the hook
         mMediaPlayerHook.releaseAudioEffects();
@@ -2060,6 +2611,8 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             mDuration = 0;
             mIsPlayingFlag = false;
 
+            releaseNextEngine();
+
             final MediaPlayer engine = mEngine;
             if (engine != null) {
                 try {
@@ -2089,8 +2642,6 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
         final AtomicReference<Integer> mPointARef = new AtomicReference<>();
         final AtomicReference<Integer> mPointBRef = new AtomicReference<>();
 
-        final AtomicReference<Timer> mCurrentTimerRef = new AtomicReference<>();
-
         @Override
         public boolean isPointASet() {
             return mPointARef.get() != null;
@@ -2128,7 +2679,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             }
 
             mPointARef.set(validAPoint);
-            startTimerInternal();
+            runControlLoop();
             mObserverRegistry.dispatchABChanged(true, bPoint != null);
         }
 
@@ -2158,7 +2709,7 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             }
 
             mPointBRef.set(validBPoint);
-            startTimerInternal();
+            runControlLoop();
             mObserverRegistry.dispatchABChanged(aPoint != null, true);
         }
 
@@ -2173,73 +2724,36 @@ public final class PlayerImpl implements Player, AdvancedPlaybackParams {
             }
             mPlayerJournal.logMessage("Reset A-B");
 
+            // The control loop parks itself on the next run, if nothing else needs it
             mPointARef.set(null);
             mPointBRef.set(null);
 
-            final Timer oldTimer = mCurrentTimerRef.getAndSet(null);
-            if (oldTimer != null) {
-                oldTimer.purge();
-                oldTimer.cancel();
-            }
             mObserverRegistry.dispatchABChanged(false, false);
         }
 
-        // TODO: make sure only one timer is running
-        private synchronized void startTimerInternal() {
+        /**
+         * Keeps the playback between the A and B points. This is a part of the control loop.
+         * Returns the delay until the playback reaches the point B, or {@link #NO_DEADLINE}
+         * if the A-B is not enabled or the playback is paused.
+         * The A-B is considered enabled if and only if both A and B points are not null.
+         */
+        private synchronized long checkPointsInternal() {
             assertEngineThread();
-            final TimerTask newTask = new TimerTask() {
-                @Override
-                public void run() {
-                    Integer a;
-                    Integer b;
-                    synchronized (ABControllerImpl.this) {
-                        a = mPointARef.get();
-                        b = mPointBRef.get();
-                    }
-                    // We're going to do this while the A-B is enabled.
-                    // The A-B is considered enabled if and only if both A and B points are not null.
-                    while (a != null && b != null) {
-                        try {
-                            final int pos = getProgress();
-                            if (pos < a - 100) {
-                                // Changing the progress
-                                seekTo(a);
-                                continue;
-                            }
-                            final int sleep = b - pos;
-                            if (sleep > 0) {
-                                // Sleeping to wait for the point B to be reached
-                                Thread.sleep(sleep);
-                            }
-                            synchronized (ABControllerImpl.this) {
-                                a = mPointARef.get();
-                                b = mPointBRef.get();
-                            }
-                            // Additional check just before seeking the position.
-                            // Just to make sure the A-B has not changed after sleeping the thread.
-                            if (a == null || b == null) {
-                                break;
-                            }
-                            // Seeking the position to the point A
-                            seekTo(a);
-                        } catch (InterruptedException error) {
-                            break;
-                        } catch (Throwable error) {
-                            mPlayerJournal.logMessage("Failed to seek for A-B");
-                            throw error;
-                        }
-                    }
-                }
-            };
-            final Timer newTimer = new Timer("Timer-ABController");
-            newTimer.schedule(newTask, 0);
-
-            // Canceling the old timer if any, cause we don't want two timers doing the A-B job
-            final Timer oldTimer = mCurrentTimerRef.getAndSet(newTimer);
-            if (oldTimer != null) {
-                oldTimer.purge();
-                oldTimer.cancel();
+            final Integer a = mPointARef.get();
+            final Integer b = mPointBRef.get();
+            final PlaybackClock clock = mPlaybackClock;
+            if (a == null || b == null || clock == null || !clock.isRunning()) {
+                return NO_DEADLINE;
+            }
+            final int pos = clock.getPosition(SystemClock.uptimeMillis());
+            if (pos < a - 100 || pos >= b) {
+                // Seeking the position to the point A.
+                // The seek runs the control loop again, so there is no deadline for now.
+                seekTo(a);
+                return NO_DEADLINE;
             }
+            // Waiting for the point B to be reached
+            return Math.max(1L, clock.toClockTime(b - pos));
         }
     }
 
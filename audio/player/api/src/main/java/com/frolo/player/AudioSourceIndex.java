@@ -0,0 +1,138 @@
+package com.frolo.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+
+/**
+ * Index of audio source IDs to their positions in one version of the queue items.
+ * It is immutable and is valid only for the items it has been built for (see {@link #isBuiltFor}).
+ * Building takes O(n) time and allocates three arrays, without boxing the IDs.
+ * Then a lookup is a hash lookup of the ID plus an O(log n) read of each item with that ID,
+ * instead of a linear scan.
+ *
+ * Items are matched by ID first, then by {@link Object#equals}, because equal audio sources always have equal IDs.
+ */
+final class AudioSourceIndex {
+
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final int NO_POSITION = -1;
+
+    @NonNull
+    static AudioSourceIndex build(@NonNull PersistentList<AudioSource> items) {
+        final int size = items.size();
+        // Open addressing with linear probing, the load factor is at most 0.5
+        final int capacity = Integer.highestOneBit(Math.max(size, 1)) * 4;
+        final long[] keys = new long[capacity];
+        final int[] firstPositions = new int[capacity];
+        Arrays.fill(firstPositions, NO_POSITION);
+        final int[] nextPositions = new int[size];
+        // Collect the items first, so the chains are built from the end and are in ascending order
+        final Object[] itemArray = items.toArray();
+        for (int position = size - 1; position >= 0; position--) {
+            final AudioSource item = (AudioSource) itemArray[position];
+            nextPositions[position] = NO_POSITION;
+            if (item == null) {
+                continue;
+            }
+            final int slot = findSlot(keys, firstPositions, item.getId());
+            if (firstPositions[slot] == NO_POSITION) {
+                keys[slot] = item.getId();
+            } else {
+                // Several items with the same ID, which is rare
+                nextPositions[position] = firstPositions[slot];
+            }
+            firstPositions[slot] = position;
+        }
+        return new AudioSourceIndex(items, keys, firstPositions, nextPositions);
+    }
+
+    /**
+     * Returns the slot of <code>id</code>, or the empty slot where it would be.
+     */
+    private static int findSlot(@NonNull long[] keys, @NonNull int[] firstPositions, long id) {
+        final int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (firstPositions[slot] != NO_POSITION && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long id) {
+        // Spreads the bits, because IDs are often sequential
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private final PersistentList<AudioSource> mItems;
+    private final long[] mKeys;
+    // The first position of the ID in the same slot of mKeys, or NO_POSITION if the slot is empty
+    private final int[] mFirstPositions;
+    // The next position of the same ID for each position, or NO_POSITION
+    private final int[] mNextPositions;
+
+    private AudioSourceIndex(
+            @NonNull PersistentList<AudioSource> items,
+            @NonNull long[] keys,
+            @NonNull int[] firstPositions,
+            @NonNull int[] nextPositions) {
+        mItems = items;
+        mKeys = keys;
+        mFirstPositions = firstPositions;
+        mNextPositions = nextPositions;
+    }
+
+    boolean isBuiltFor(@NonNull PersistentList<AudioSource> items) {
+        return mItems == items;
+    }
+
+    /**
+     * Returns this index for <code>items</code>, that must have the same IDs at the same positions
+     * as the items this index has been built for.
+     */
+    @NonNull
+    AudioSourceIndex withSamePositions(@NonNull PersistentList<AudioSource> items) {
+        return new AudioSourceIndex(items, mKeys, mFirstPositions, mNextPositions);
+    }
+
+    private int getFirstPosition(long id) {
+        return mFirstPositions[findSlot(mKeys, mFirstPositions, id)];
+    }
+
+    /**
+     * Returns the positions of the items with <code>id</code> in ascending order.
+     */
+    @NonNull
+    int[] getPositions(long id) {
+        final int firstPosition = getFirstPosition(id);
+        if (firstPosition == NO_POSITION) {
+            return NO_POSITIONS;
+        }
+        int count = 0;
+        for (int position = firstPosition; position != NO_POSITION; position = mNextPositions[position]) {
+            count++;
+        }
+        final int[] positions = new int[count];
+        int i = 0;
+        for (int position = firstPosition; position != NO_POSITION; position = mNextPositions[position]) {
+            positions[i++] = position;
+        }
+        return positions;
+    }
+
+    int indexOf(@Nullable AudioSource item) {
+        if (item == null) {
+            return mItems.indexOf(null);
+        }
+        for (int position = getFirstPosition(item.getId()); position != NO_POSITION;
+             position = mNextPositions[position]) {
+            if (item.equals(mItems.get(position))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+}
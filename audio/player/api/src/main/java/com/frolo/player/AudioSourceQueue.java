@@ -1,21 +1,45 @@
 package com.frolo.player;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
 import java.util.WeakHashMap;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
-// Thread-safe
+/**
+ * Thread-safe queue of audio sources.
+ *
+ * Items are stored in a {@link PersistentList}. Each modification publishes a new version of the list,
+ * so reads do not lock, and {@link #getSnapshot()} and {@link #createCopy()} take O(1) time
+ * instead of copying the items. Modifications are serialized by the monitor of the queue.
+ *
+ * Lookups by item ({@link #indexOf}, {@link #contains}, same-ID replacement and removal of duplicates
+ * in unique mode) use an {@link AudioSourceIndex} of the current items. It is built lazily, on the first lookup
+ * after a modification that shifts positions (insertion, removal, move or shuffle), and it is kept
+ * by modifications that do not. Positions cannot be updated incrementally, because a shift changes
+ * the positions of all the following items, so the rebuild takes O(n) time: a workload that interleaves
+ * shifting modifications with lookups pays O(n) per lookup, the same order as a linear scan,
+ * while a run of lookups after a modification pays it once. Removal of a single item does not build the index,
+ * because its modification would make the index stale right away.
+ *
+ * Each modification increments the version of the queue (see {@link #getVersion()}). Invalidations are coalesced:
+ * each callback has at most one pending notification, which carries the latest version
+ * and the union of the ranges changed since the previous notification.
+ */
 public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable {
 
     // By default
@@ -25,48 +49,152 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
         void invalidate(AudioSourceQueue queue);
     }
 
-    private final List<AudioSource> mItems;
+    /**
+     * Callback that is also notified of the version of the queue and the range of the changed positions.
+     * If the version is older than {@link #getVersion()}, then another notification is pending,
+     * and the callback may skip its work.
+     */
+    public interface VersionedCallback {
+        void invalidate(AudioSourceQueue queue, long version, ChangeRange changeRange);
+    }
+
+    /**
+     * Range of positions in the queue that may have changed. If the length of the queue has changed,
+     * then the range extends to the end of the queue.
+     */
+    public static final class ChangeRange {
+        private final int mStart;
+        private final int mEnd;
+
+        ChangeRange(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        /**
+         * Returns the first changed position.
+         */
+        public int getStart() {
+            return mStart;
+        }
+
+        /**
+         * Returns the position after the last changed one.
+         */
+        public int getEnd() {
+            return mEnd;
+        }
+
+        public boolean isEmpty() {
+            return mStart >= mEnd;
+        }
+
+        @Override
+        public String toString() {
+            return "ChangeRange[" + mStart + ", " + mEnd + ")";
+        }
+    }
+
+    // The end of a change range that extends to the end of the queue
+    private static final int END_OF_QUEUE = Integer.MAX_VALUE;
+
+    private volatile PersistentList<AudioSource> mItems;
+    // Index of some version of the items, it is used only if it is built for the current one
+    private volatile AudioSourceIndex mIndex;
     // If this flag is true then the queue has no item collision (i.e. represents a set of audio sources)
     private final boolean mUnique;
-    // Each callback has its own executor on which the invalidation is performed
-    private final Map<Callback, Executor> mCallbacks = new WeakHashMap<>();
+    @GuardedBy("this")
+    private volatile long mVersion;
+    // Each callback has its own registration with the executor on which the invalidation is performed
+    @GuardedBy("mCallbacks")
+    private final Map<Object, Registration> mCallbacks = new WeakHashMap<>();
 
     private final ReadWriteLock mTagsLock = new ReentrantReadWriteLock();
     private final Map<Object, Object> mTags = new HashMap<>();
 
-    private final Shuffler<AudioSource> mShuffler = new DefaultShuffler<>();
+    // Generates seeds for shuffles, the shuffled items are kept instead of the seeds
+    private final Random mShuffleSeedGenerator = new Random();
 
-    private class Invalidator implements Runnable {
-        final Callback mCallback;
+    /**
+     * Registration of a callback. It is posted to the executor only if it is not pending yet,
+     * and then it dispatches the latest version and the changes accumulated until it runs.
+     */
+    private final class Registration implements Runnable {
+        // The callback is a weak key in the map of callbacks, so it is not referenced strongly
+        final WeakReference<Object> mCallbackRef;
+        final Executor mExecutor;
+
+        @GuardedBy("mCallbacks")
+        boolean mPending;
+        @GuardedBy("mCallbacks")
+        long mVersion;
+        @GuardedBy("mCallbacks")
+        int mChangeStart;
+        @GuardedBy("mCallbacks")
+        int mChangeEnd;
+
+        Registration(Object callback, Executor executor) {
+            mCallbackRef = new WeakReference<>(callback);
+            mExecutor = executor;
+        }
 
-        Invalidator(Callback c) {
-            this.mCallback = c;
+        @GuardedBy("mCallbacks")
+        void invalidate(long version, int changeStart, int changeEnd) {
+            mVersion = version;
+            if (mPending) {
+                mChangeStart = Math.min(mChangeStart, changeStart);
+                mChangeEnd = Math.max(mChangeEnd, changeEnd);
+            } else {
+                mPending = true;
+                mChangeStart = changeStart;
+                mChangeEnd = changeEnd;
+                mExecutor.execute(this);
+            }
         }
 
         @Override
         public void run() {
-            mCallback.invalidate(AudioSourceQueue.this);
+            final Object callback = mCallbackRef.get();
+            final long version;
+            final ChangeRange changeRange;
+            synchronized (mCallbacks) {
+                mPending = false;
+                if (callback == null || mCallbacks.get(callback) != this) {
+                    // Unregistered
+                    return;
+                }
+                version = mVersion;
+                final int length = getLength();
+                final int changeEnd = Math.min(mChangeEnd, length);
+                changeRange = new ChangeRange(Math.min(mChangeStart, changeEnd), changeEnd);
+            }
+            if (callback instanceof VersionedCallback) {
+                ((VersionedCallback) callback).invalidate(AudioSourceQueue.this, version, changeRange);
+            } else {
+                ((Callback) callback).invalidate(AudioSourceQueue.this);
+            }
         }
     }
 
     // Factory
     public static AudioSourceQueue empty() {
-        return new AudioSourceQueue(new ArrayList<AudioSource>(), UNIQUE);
+        return new AudioSourceQueue(PersistentList.<AudioSource>empty(), UNIQUE);
     }
 
     // Factory
     public static AudioSourceQueue create(List<AudioSource> items, boolean unique) {
-        return new AudioSourceQueue(items, unique);
+        final PersistentList<AudioSource> persistentItems = unique
+                ? PersistentList.of(new LinkedHashSet<>(items))
+                : PersistentList.of(items);
+        return new AudioSourceQueue(persistentItems, unique);
     }
 
     public static AudioSourceQueue create(List<AudioSource> items) {
         return create(items, UNIQUE);
     }
 
-    private AudioSourceQueue(List<AudioSource> items, boolean unique) {
-        this.mItems = unique
-                ? new ArrayList<>(new LinkedHashSet<>(items))
-                : new ArrayList<>(items);
+    private AudioSourceQueue(PersistentList<AudioSource> items, boolean unique) {
+        this.mItems = items;
         this.mUnique = unique;
     }
 
@@ -119,8 +247,21 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
      * @param executor in which thread the callback will be called
      */
     public void registerCallback(Callback callback, Executor executor) {
+        registerCallbackInternal(callback, executor);
+    }
+
+    /**
+     * Registers new versioned callback observer.
+     * @param callback to register
+     * @param executor in which thread the callback will be called
+     */
+    public void registerCallback(VersionedCallback callback, Executor executor) {
+        registerCallbackInternal(callback, executor);
+    }
+
+    private void registerCallbackInternal(Object callback, Executor executor) {
         synchronized (mCallbacks) {
-            mCallbacks.put(callback, executor);
+            mCallbacks.put(callback, new Registration(callback, executor));
         }
     }
 
@@ -135,67 +276,97 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
         }
     }
 
+    /**
+     * Unregisters previously registered versioned callback.
+     * This method has no effect if there is no such callback.
+     * @param callback to unregister
+     */
+    public void unregisterCallback(VersionedCallback callback) {
+        synchronized (mCallbacks) {
+            mCallbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Returns the version of the queue, which is incremented on each modification that invalidates the queue.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
     public boolean isUnique() {
         return mUnique;
     }
 
-    public synchronized boolean isEmpty() {
+    public boolean isEmpty() {
         return mItems.isEmpty();
     }
 
-    public synchronized int getLength() {
+    public int getLength() {
         return mItems.size();
     }
 
-    public synchronized int indexOf(AudioSource item) {
-        return mItems.indexOf(item);
+    public int indexOf(AudioSource item) {
+        return getIndex(mItems).indexOf(item);
     }
 
-    public synchronized AudioSource getItemAt(int position) {
+    public AudioSource getItemAt(int position) {
         return mItems.get(position);
     }
 
-    public synchronized boolean contains(AudioSource item) {
-        return mItems.contains(item);
+    public boolean contains(AudioSource item) {
+        return indexOf(item) >= 0;
+    }
+
+    @NonNull
+    private AudioSourceIndex getIndex(@NonNull PersistentList<AudioSource> items) {
+        AudioSourceIndex index = mIndex;
+        if (index == null || !index.isBuiltFor(items)) {
+            index = AudioSourceIndex.build(items);
+            if (items == mItems) {
+                mIndex = index;
+            }
+        }
+        return index;
     }
 
     /* package */ synchronized void setItemAt(int position, AudioSource item) {
-        mItems.set(position, item);
+        final PersistentList<AudioSource> items = mItems;
+        final AudioSource prevItem = items.get(position);
+        final PersistentList<AudioSource> newItems = items.replace(position, item);
+        mItems = newItems;
+        final AudioSourceIndex index = mIndex;
+        if (index != null && index.isBuiltFor(items)
+                && prevItem != null && item != null && prevItem.getId() == item.getId()) {
+            mIndex = index.withSamePositions(newItems);
+        }
     }
 
     /* package */ synchronized void copyItemsFrom(AudioSourceQueue src) {
-        mItems.clear();
-        mItems.addAll(src.mItems);
-        invalidateSelf();
+        mItems = src.mItems;
+        invalidateSelf(0, END_OF_QUEUE);
     }
 
     /* package */ synchronized void addAll(Collection<?extends AudioSource> items) {
+        final PersistentList<AudioSource> currItems = mUnique ? removeAll(mItems, items) : mItems;
+        // If some items have been removed, their positions are unknown
+        final int changeStart = currItems == mItems ? currItems.size() : 0;
         if (mUnique) {
-            mItems.removeAll(items);
-            mItems.addAll(new LinkedHashSet<>(items));
+            mItems = currItems.insertAll(currItems.size(), new LinkedHashSet<>(items));
         } else {
-            mItems.addAll(items);
+            mItems = currItems.insertAll(currItems.size(), items);
         }
-        invalidateSelf();
+        invalidateSelf(changeStart, END_OF_QUEUE);
     }
 
     /* package */ synchronized void addAll(int position, Collection<?extends AudioSource> items) {
-        if (mUnique) {
-            mItems.removeAll(items);
-
-            if (position >= 0 && position < mItems.size()) {
-                mItems.addAll(position, items);
-            } else {
-                mItems.addAll(items);
-            }
-        } else {
-            if (position >= 0 && position < mItems.size()) {
-                mItems.addAll(position, items);
-            } else {
-                mItems.addAll(items);
-            }
-        }
-        invalidateSelf();
+        final PersistentList<AudioSource> currItems = mUnique ? removeAll(mItems, items) : mItems;
+        final Collection<? extends AudioSource> itemsToAdd = mUnique ? new LinkedHashSet<>(items) : items;
+        final int insertPosition = position >= 0 && position < currItems.size() ? position : currItems.size();
+        // If some items have been removed, their positions are unknown
+        final int changeStart = currItems == mItems ? insertPosition : 0;
+        mItems = currItems.insertAll(insertPosition, itemsToAdd);
+        invalidateSelf(changeStart, END_OF_QUEUE);
     }
 
     /**
@@ -205,59 +376,63 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
     /* package */ synchronized void replaceAllWithSameId(AudioSource audioSource) {
         if (audioSource == null) return;
 
-        boolean atLeastOneReplaced = false;
-        for (int i = 0; i < mItems.size(); i++) {
-            final AudioSource item = mItems.get(i);
-            if (item.getId() == audioSource.getId()) {
-                // This item has the same ID
-                mItems.set(i, audioSource);
-                atLeastOneReplaced = true;
-            }
-        }
-        if (atLeastOneReplaced) {
-            invalidateSelf();
+        final PersistentList<AudioSource> items = mItems;
+        final AudioSourceIndex index = getIndex(items);
+        final int[] positions = index.getPositions(audioSource.getId());
+        if (positions.length == 0) return;
+
+        PersistentList<AudioSource> newItems = items;
+        for (int position : positions) {
+            newItems = newItems.replace(position, audioSource);
         }
+        mItems = newItems;
+        // The IDs have not changed, so the index is still valid
+        mIndex = index.withSamePositions(newItems);
+        invalidateSelf(positions[0], positions[positions.length - 1] + 1);
     }
 
     /* package */ synchronized void remove(AudioSource item) {
-        mItems.remove(item);
-        invalidateSelf();
+        final PersistentList<AudioSource> items = mItems;
+        final AudioSourceIndex index = mIndex;
+        final int position = index != null && index.isBuiltFor(items) ? index.indexOf(item) : items.indexOf(item);
+        if (position >= 0) {
+            mItems = items.removeAt(position);
+            invalidateSelf(position, END_OF_QUEUE);
+        } else {
+            invalidateSelf(END_OF_QUEUE, 0);
+        }
     }
 
     /* package */ synchronized void removeAt(int position) {
-        mItems.remove(position);
-        invalidateSelf();
+        mItems = mItems.removeAt(position);
+        invalidateSelf(position, END_OF_QUEUE);
     }
 
     /* package */ synchronized void removeAll(Collection<?extends AudioSource> items) {
-        mItems.removeAll(items);
-        invalidateSelf();
+        final PersistentList<AudioSource> newItems = removeAll(mItems, items);
+        if (newItems != mItems) {
+            mItems = newItems;
+            invalidateSelf(0, END_OF_QUEUE);
+        } else {
+            invalidateSelf(END_OF_QUEUE, 0);
+        }
     }
 
     /* package */ synchronized void clear() {
-        mItems.clear();
-        invalidateSelf();
+        mItems = PersistentList.empty();
+        invalidateSelf(0, END_OF_QUEUE);
     }
 
     /* package */ synchronized void moveItem(int fromPosition, int toPosition) {
-        if (fromPosition < toPosition) {
-            for (int i = fromPosition; i < toPosition; i++) {
-                Collections.swap(mItems, i, i + 1);
-            }
-        } else {
-            for (int i = fromPosition; i > toPosition; i--) {
-                Collections.swap(mItems, i, i - 1);
-            }
-        }
-        invalidateSelf();
+        mItems = mItems.move(fromPosition, toPosition);
+        invalidateSelf(Math.min(fromPosition, toPosition), Math.max(fromPosition, toPosition) + 1);
     }
 
     /**
      * Shuffles the queue.
      */
     /* package */ synchronized void shuffle() {
-        mShuffler.shuffle(mItems);
-        invalidateSelf();
+        shuffle(ShuffleOrder.NO_FIRST_POSITION);
     }
 
     /**
@@ -265,44 +440,119 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
      * This puts the given audio source in the front only if the queue contains it.
      */
     /* package */ synchronized void shuffleWithItemInFront(AudioSource putInFront) {
-        mShuffler.shuffle(mItems);
-        if (mItems.remove(putInFront)) {
-            mItems.add(0, putInFront);
+        shuffle(getIndex(mItems).indexOf(putInFront));
+    }
+
+    /**
+     * Reorders the items by a random permutation, which puts the item at <code>firstPosition</code> first,
+     * unless it is {@link ShuffleOrder#NO_FIRST_POSITION}. This takes O(n) time.
+     */
+    @GuardedBy("this")
+    private void shuffle(int firstPosition) {
+        final PersistentList<AudioSource> items = mItems;
+        final int[] order = ShuffleOrder.generate(items.size(), mShuffleSeedGenerator.nextLong(),
+                firstPosition >= 0 ? firstPosition : ShuffleOrder.NO_FIRST_POSITION);
+        final Object[] itemArray = items.toArray();
+        final AudioSource[] shuffledItems = new AudioSource[itemArray.length];
+        for (int i = 0; i < shuffledItems.length; i++) {
+            shuffledItems[i] = (AudioSource) itemArray[order[i]];
+        }
+        mItems = PersistentList.of(Arrays.asList(shuffledItems));
+        invalidateSelf(0, END_OF_QUEUE);
+    }
+
+    /**
+     * Returns <code>items</code> without <code>itemsToRemove</code>.
+     * The items to remove are found by the index, so this takes O(m log n) time for m items to remove,
+     * unless many of them are in the queue.
+     */
+    @NonNull
+    private PersistentList<AudioSource> removeAll(
+            @NonNull PersistentList<AudioSource> items, @NonNull Collection<?> itemsToRemove) {
+        final AudioSourceIndex index = getIndex(items);
+        int[] positions = new int[Math.min(itemsToRemove.size(), 16)];
+        int count = 0;
+        for (Object itemToRemove : itemsToRemove) {
+            if (!(itemToRemove instanceof AudioSource)) {
+                // The index cannot find it
+                return removeAllByScan(items, itemsToRemove);
+            }
+            final AudioSource audioSource = (AudioSource) itemToRemove;
+            for (int position : index.getPositions(audioSource.getId())) {
+                if (audioSource.equals(items.get(position))) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                    }
+                    positions[count++] = position;
+                }
+            }
+        }
+        if (count == 0) {
+            return items;
         }
-        invalidateSelf();
+        Arrays.sort(positions, 0, count);
+        PersistentList<AudioSource> result = items;
+        // From the end, so that the positions that are not removed yet stay valid
+        for (int i = count - 1; i >= 0; i--) {
+            if (i == count - 1 || positions[i] != positions[i + 1]) {
+                result = result.removeAt(positions[i]);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private static PersistentList<AudioSource> removeAllByScan(
+            @NonNull PersistentList<AudioSource> items, @NonNull Collection<?> itemsToRemove) {
+        final List<AudioSource> remainingItems = new ArrayList<>(items.size());
+        for (AudioSource item : items) {
+            if (!itemsToRemove.contains(item)) {
+                remainingItems.add(item);
+            }
+        }
+        return remainingItems.size() < items.size() ? PersistentList.of(remainingItems) : items;
     }
 
-    private void invalidateSelf() {
+    /**
+     * Increments the version and notifies the callbacks that positions from <code>changeStart</code>
+     * to <code>changeEnd</code> (exclusive, or {@link #END_OF_QUEUE}) may have changed.
+     * A range where the start is after the end means no changed positions.
+     * Callbacks that have a pending notification are not posted again.
+     */
+    @GuardedBy("this")
+    private void invalidateSelf(int changeStart, int changeEnd) {
+        final long version = ++mVersion;
         synchronized (mCallbacks) {
-            for (Map.Entry<Callback, Executor> entry : mCallbacks.entrySet()) {
-                Runnable r = new Invalidator(entry.getKey());
-                Executor executor = entry.getValue();
-                executor.execute(r);
+            for (Registration registration : mCallbacks.values()) {
+                registration.invalidate(version, changeStart, changeEnd);
             }
         }
     }
 
     @Override
-    protected synchronized AudioSourceQueue clone() {
+    protected AudioSourceQueue clone() {
         return createCopy();
     }
 
-    public synchronized AudioSourceQueue createCopy() {
-        List<AudioSource> clonedItems = new ArrayList<>(mItems);
+    public AudioSourceQueue createCopy() {
         Map<Object, Object> tagsSnapshot = getTagsSnapshot();
-        AudioSourceQueue clonedQueue = new AudioSourceQueue(clonedItems, mUnique);
+        // The items are immutable, so they are shared with the copy
+        AudioSourceQueue clonedQueue = new AudioSourceQueue(mItems, mUnique);
         for (Map.Entry<Object, Object> tagEntry : tagsSnapshot.entrySet()) {
             clonedQueue.putTag(tagEntry.getKey(), tagEntry.getValue());
         }
         return clonedQueue;
     }
 
-    public synchronized List<AudioSource> getSnapshot() {
-        return new ArrayList<>(mItems);
+    /**
+     * Returns an immutable snapshot of the items. This takes O(1) time.
+     */
+    public List<AudioSource> getSnapshot() {
+        return mItems;
     }
 
     @Deprecated
-    public synchronized boolean deepEquals(AudioSourceQueue other) {
+    public boolean deepEquals(AudioSourceQueue other) {
         if (other == null) {
             return false;
         }
@@ -316,13 +566,8 @@ public final class AudioSourceQueue implements Tagged<Object, Object>, Cloneable
             tagsLock.unlock();
         }
 
-        final boolean areItemsEqual;
-        // Double synchronized block? You wanna trap in a lock?
-        synchronized (this) {
-            synchronized (other) {
-                areItemsEqual = CollectionUtil.areListContentsEqual(this.mItems, other.mItems);
-            }
-        }
+        // Both snapshots are immutable, so no locking is needed
+        final boolean areItemsEqual = CollectionUtil.areListContentsEqual(this.mItems, other.mItems);
 
         return areTagsEqual && areItemsEqual;
     }
@@ -0,0 +1,331 @@
+package com.frolo.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+
+/**
+ * Immutable list, backed by a persistent AVL tree with subtree sizes as implicit indices.
+ * Each modification returns a new list that shares all the nodes, except for O(log n) of them,
+ * with this list. So the list itself is a snapshot, and it can be read from any thread without locking.
+ *
+ * {@link #get}, {@link #replace}, {@link #insert}, {@link #removeAt} and {@link #move} take O(log n) time.
+ * {@link #insertAll} takes O(m + log n) time for m inserted items.
+ * Iteration takes O(n) time.
+ */
+final class PersistentList<E> extends AbstractList<E> {
+
+    private static final PersistentList<?> EMPTY = new PersistentList<>(null);
+
+    private static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final int size;
+        final int height;
+
+        Node(@Nullable Node<E> left, E value, @Nullable Node<E> right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + 1 + size(right);
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    static <E> PersistentList<E> empty() {
+        return (PersistentList<E>) EMPTY;
+    }
+
+    @NonNull
+    static <E> PersistentList<E> of(@NonNull Collection<? extends E> items) {
+        if (items instanceof PersistentList) {
+            @SuppressWarnings("unchecked")
+            final PersistentList<E> list = (PersistentList<E>) items;
+            return list;
+        }
+        return create(build(items.toArray(), 0, items.size()));
+    }
+
+    @Nullable
+    private final Node<E> mRoot;
+
+    private PersistentList(@Nullable Node<E> root) {
+        mRoot = root;
+    }
+
+    @NonNull
+    private static <E> PersistentList<E> create(@Nullable Node<E> root) {
+        return root != null ? new PersistentList<>(root) : PersistentList.<E>empty();
+    }
+
+    @Override
+    public int size() {
+        return size(mRoot);
+    }
+
+    @Override
+    public E get(int index) {
+        checkElementIndex(index);
+        Node<E> node = mRoot;
+        while (true) {
+            final int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        int index = 0;
+        for (E item : this) {
+            if (Objects.equals(o, item)) {
+                return index;
+            }
+            index++;
+        }
+        return -1;
+    }
+
+    @NonNull
+    @Override
+    public Iterator<E> iterator() {
+        return new InOrderIterator<>(mRoot);
+    }
+
+    /**
+     * Returns a list with <code>item</code> at <code>index</code> instead of the current one.
+     */
+    @NonNull
+    PersistentList<E> replace(int index, E item) {
+        checkElementIndex(index);
+        return create(replace(mRoot, index, item));
+    }
+
+    /**
+     * Returns a list with <code>item</code> inserted at <code>index</code>.
+     */
+    @NonNull
+    PersistentList<E> insert(int index, E item) {
+        checkPositionIndex(index);
+        final Node<E>[] parts = split(mRoot, index);
+        return create(join(parts[0], item, parts[1]));
+    }
+
+    /**
+     * Returns a list with <code>items</code> inserted at <code>index</code>.
+     */
+    @NonNull
+    PersistentList<E> insertAll(int index, @NonNull Collection<? extends E> items) {
+        checkPositionIndex(index);
+        if (items.isEmpty()) {
+            return this;
+        }
+        final Node<E> inserted = build(items.toArray(), 0, items.size());
+        final Node<E>[] parts = split(mRoot, index);
+        return create(concat(concat(parts[0], inserted), parts[1]));
+    }
+
+    /**
+     * Returns a list without the item at <code>index</code>.
+     */
+    @NonNull
+    PersistentList<E> removeAt(int index) {
+        checkElementIndex(index);
+        final Node<E>[] parts = split(mRoot, index);
+        return create(concat(parts[0], removeFirst(parts[1])));
+    }
+
+    /**
+     * Returns a list with the item at <code>fromIndex</code> moved to <code>toIndex</code>.
+     */
+    @NonNull
+    PersistentList<E> move(int fromIndex, int toIndex) {
+        checkElementIndex(fromIndex);
+        checkElementIndex(toIndex);
+        if (fromIndex == toIndex) {
+            return this;
+        }
+        final E item = get(fromIndex);
+        return removeAt(fromIndex).insert(toIndex, item);
+    }
+
+    private void checkElementIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    private void checkPositionIndex(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    private static int size(@Nullable Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static int height(@Nullable Node<?> node) {
+        return node != null ? node.height : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private static <E> Node<E> build(@NonNull Object[] items, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        final int mid = (from + to) >>> 1;
+        return new Node<>(build(items, from, mid), (E) items[mid], build(items, mid + 1, to));
+    }
+
+    @NonNull
+    private static <E> Node<E> replace(@NonNull Node<E> node, int index, E item) {
+        final int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node<>(replace(node.left, index, item), node.value, node.right);
+        } else if (index > leftSize) {
+            return new Node<>(node.left, node.value, replace(node.right, index - leftSize - 1, item));
+        } else {
+            return new Node<>(node.left, item, node.right);
+        }
+    }
+
+    /**
+     * Splits <code>node</code> into the first <code>index</code> items and the rest.
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private static <E> Node<E>[] split(@Nullable Node<E> node, int index) {
+        if (node == null) {
+            return (Node<E>[]) new Node[2];
+        }
+        final int leftSize = size(node.left);
+        if (index <= leftSize) {
+            final Node<E>[] parts = split(node.left, index);
+            parts[1] = join(parts[1], node.value, node.right);
+            return parts;
+        } else {
+            final Node<E>[] parts = split(node.right, index - leftSize - 1);
+            parts[0] = join(node.left, node.value, parts[0]);
+            return parts;
+        }
+    }
+
+    /**
+     * Joins <code>left</code>, <code>value</code> and <code>right</code> in this order.
+     * This takes O(|height(left) - height(right)|) time.
+     */
+    @NonNull
+    private static <E> Node<E> join(@Nullable Node<E> left, E value, @Nullable Node<E> right) {
+        final int leftHeight = height(left);
+        final int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            return balance(left.left, left.value, join(left.right, value, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            return balance(join(left, value, right.left), right.value, right.right);
+        }
+        return new Node<>(left, value, right);
+    }
+
+    @Nullable
+    private static <E> Node<E> concat(@Nullable Node<E> left, @Nullable Node<E> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        return join(left, first(right), removeFirst(right));
+    }
+
+    private static <E> E first(@NonNull Node<E> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    @Nullable
+    private static <E> Node<E> removeFirst(@NonNull Node<E> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(removeFirst(node.left), node.value, node.right);
+    }
+
+    /**
+     * Creates a node of <code>left</code>, <code>value</code> and <code>right</code>,
+     * whose heights may differ by 2, and restores the balance with rotations.
+     */
+    @NonNull
+    private static <E> Node<E> balance(@Nullable Node<E> left, E value, @Nullable Node<E> right) {
+        final int leftHeight = height(left);
+        final int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.left, left.value, new Node<>(left.right, value, right));
+            }
+            final Node<E> pivot = left.right;
+            return new Node<>(new Node<>(left.left, left.value, pivot.left), pivot.value,
+                    new Node<>(pivot.right, value, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(new Node<>(left, value, right.left), right.value, right.right);
+            }
+            final Node<E> pivot = right.left;
+            return new Node<>(new Node<>(left, value, pivot.left), pivot.value,
+                    new Node<>(pivot.right, right.value, right.right));
+        }
+        return new Node<>(left, value, right);
+    }
+
+    private static final class InOrderIterator<E> implements Iterator<E> {
+        final Deque<Node<E>> mStack = new ArrayDeque<>();
+
+        InOrderIterator(@Nullable Node<E> root) {
+            pushLeft(root);
+        }
+
+        private void pushLeft(@Nullable Node<E> node) {
+            while (node != null) {
+                mStack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mStack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            final Node<E> node = mStack.poll();
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            pushLeft(node.right);
+            return node.value;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.frolo.player;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+
+/**
+ * Volume level envelope of one audio source, compiled from a {@link PlaybackFadingStrategy}.
+ * It is a small table of breakpoints: positions, in milliseconds, with levels at them.
+ * The level is interpolated linearly between the breakpoints, and it stays the same before the first one and after the last one.
+ * Two breakpoints at the same position make a jump of the level: the level at that position is the level of the second one.
+ *
+ * Envelopes are immutable, so they can be evaluated on any thread without locking.
+ */
+public final class PlaybackFadingEnvelope {
+
+    /**
+     * Means that the level is changing, see {@link #getTimeUntilLevelChange(int)}.
+     */
+    public static final int LEVEL_CHANGES_CONTINUOUSLY = 0;
+    /**
+     * Means that the level does not change anymore, see {@link #getTimeUntilLevelChange(int)}.
+     */
+    public static final int LEVEL_NEVER_CHANGES = Integer.MAX_VALUE;
+
+    private static final PlaybackFadingEnvelope NORMAL =
+            new PlaybackFadingEnvelope(new int[] { 0 }, new float[] { PlaybackFadingStrategy.NORMAL_LEVEL });
+
+    /**
+     * Returns the envelope with the normal level all the time.
+     */
+    @NonNull
+    public static PlaybackFadingEnvelope normal() {
+        return NORMAL;
+    }
+
+    /**
+     * Creates an envelope of breakpoints at <code>positions</code> with <code>levels</code>.
+     * The positions must be in non-descending order. The levels are clamped to the valid range.
+     */
+    @NonNull
+    public static PlaybackFadingEnvelope of(@NonNull int[] positions, @NonNull float[] levels) {
+        if (positions.length == 0 || positions.length != levels.length) {
+            throw new IllegalArgumentException("Invalid breakpoints: positions=" + positions.length
+                    + ", levels=" + levels.length);
+        }
+        for (int i = 1; i < positions.length; i++) {
+            if (positions[i] < positions[i - 1]) {
+                throw new IllegalArgumentException("Positions are not ordered: " + Arrays.toString(positions));
+            }
+        }
+        final float[] clampedLevels = new float[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            clampedLevels[i] = MathUtil.clamp(levels[i],
+                    PlaybackFadingStrategy.MIN_LEVEL, PlaybackFadingStrategy.MAX_LEVEL);
+        }
+        return new PlaybackFadingEnvelope(positions.clone(), clampedLevels);
+    }
+
+    private final int[] mPositions;
+    private final float[] mLevels;
+
+    private PlaybackFadingEnvelope(int[] positions, float[] levels) {
+        mPositions = positions;
+        mLevels = levels;
+    }
+
+    public int getBreakpointCount() {
+        return mPositions.length;
+    }
+
+    /**
+     * Returns the index of the last breakpoint at or before <code>position</code>, or -1 if there is none.
+     */
+    private int findBreakpoint(int position) {
+        int low = 0;
+        int high = mPositions.length - 1;
+        int result = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (mPositions[mid] <= position) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the level at <code>position</code>. This takes O(log n) time, where n is the number of breakpoints.
+     */
+    public float getLevelAt(int position) {
+        final int index = findBreakpoint(position);
+        if (index < 0) {
+            return mLevels[0];
+        }
+        if (index == mPositions.length - 1) {
+            return mLevels[index];
+        }
+        // The next breakpoint is after the position, so the segment is not empty
+        final float fraction = (float) (position - mPositions[index]) / (mPositions[index + 1] - mPositions[index]);
+        return mLevels[index] + (mLevels[index + 1] - mLevels[index]) * fraction;
+    }
+
+    /**
+     * Returns how long, in milliseconds of the playback, the level stays the same starting from <code>position</code>.
+     * Returns {@link #LEVEL_CHANGES_CONTINUOUSLY} if the level is changing at <code>position</code>,
+     * and {@link #LEVEL_NEVER_CHANGES} if it stays the same till the end.
+     */
+    public int getTimeUntilLevelChange(int position) {
+        final int index = findBreakpoint(position);
+        if (index >= 0 && index < mPositions.length - 1 && mLevels[index + 1] != mLevels[index]) {
+            return LEVEL_CHANGES_CONTINUOUSLY;
+        }
+        final float level = mLevels[Math.max(index, 0)];
+        for (int i = Math.max(index, 0) + 1; i < mPositions.length; i++) {
+            if (mLevels[i] != level) {
+                // The level starts to change at the previous breakpoint
+                return mPositions[i - 1] - position;
+            }
+        }
+        return LEVEL_NEVER_CHANGES;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("PlaybackFadingEnvelope[");
+        for (int i = 0; i < mPositions.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(mPositions[i]).append(':').append(mLevels[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
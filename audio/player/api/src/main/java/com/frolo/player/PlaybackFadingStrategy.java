@@ -2,6 +2,8 @@ package com.frolo.player;
 
 import androidx.annotation.NonNull;
 
+import java.util.Arrays;
+
 
 /**
  * PlaybackFadingStrategy describes how the playback should fade in and out.
@@ -14,6 +16,13 @@ public abstract class PlaybackFadingStrategy {
     public static final float MAX_LEVEL = 1f;
     public static final float NORMAL_LEVEL = 1f;
 
+    /**
+     * The step of sampling {@link #calculateLevel(int, int)} when creating an envelope by default.
+     */
+    private static final int ENVELOPE_SAMPLING_STEP = 50;
+    private static final int MAX_ENVELOPE_SAMPLE_COUNT = 4096;
+    private static final float ENVELOPE_LEVEL_TOLERANCE = 1e-4f;
+
     /**
      * Gets fading interval for the given <code>strategy</code>
      * @deprecated only some strategies have actual interval
@@ -62,6 +71,12 @@ public abstract class PlaybackFadingStrategy {
         public float calculateLevel(int progress, int duration) {
             return NORMAL_LEVEL;
         }
+
+        @NonNull
+        @Override
+        public PlaybackFadingEnvelope createEnvelope(int duration) {
+            return PlaybackFadingEnvelope.normal();
+        }
     }
 
     private static abstract class IntervalPlaybackFading extends PlaybackFadingStrategy {
@@ -84,6 +99,33 @@ public abstract class PlaybackFadingStrategy {
 
             return MathUtil.clamp(value, MIN_LEVEL, MAX_LEVEL);
         }
+
+        @NonNull
+        @Override
+        public final PlaybackFadingEnvelope createEnvelope(int duration) {
+            final int interval = getInterval(duration);
+            if (interval <= 0 || duration <= 0) {
+                return PlaybackFadingEnvelope.normal();
+            }
+            final int fadeInEnd = Math.min(interval, duration);
+            final int fadeOutStart = duration - interval;
+            if (fadeOutStart >= fadeInEnd) {
+                return PlaybackFadingEnvelope.of(
+                        new int[] { 0, fadeInEnd, fadeOutStart, duration },
+                        new float[] { 0f, 1f, 1f, 0f });
+            }
+            if (interval >= duration) {
+                // The fade-in takes the whole duration
+                return PlaybackFadingEnvelope.of(
+                        new int[] { 0, duration },
+                        new float[] { 0f, (float) duration / interval });
+            }
+            // The fade-in and the fade-out overlap. The fade-in goes on till its end,
+            // then the level jumps to the fade-out.
+            return PlaybackFadingEnvelope.of(
+                    new int[] { 0, fadeInEnd, fadeInEnd, duration },
+                    new float[] { 0f, (float) fadeInEnd / interval, (float) (duration - fadeInEnd) / interval, 0f });
+        }
     }
 
     /**
@@ -149,4 +191,54 @@ public abstract class PlaybackFadingStrategy {
      */
     public abstract float calculateLevel(int progress, int duration);
 
+    /**
+     * Compiles this strategy into the volume level envelope for an audio source of <code>duration</code>.
+     * The player does this once per audio source, and then it only evaluates the envelope.
+     * The default implementation samples {@link #calculateLevel(int, int)} and drops the samples inside linear runs.
+     * If the duration is unknown, the envelope has the normal level.
+     * Subclasses should override this if they can describe their levels with breakpoints exactly.
+     * @param duration duration of the audio source
+     * @return volume level envelope
+     */
+    @NonNull
+    public PlaybackFadingEnvelope createEnvelope(int duration) {
+        if (duration <= 0) {
+            // The duration is unknown, so there is nothing to fade against
+            return PlaybackFadingEnvelope.normal();
+        }
+        final int step = Math.max(ENVELOPE_SAMPLING_STEP, (duration + MAX_ENVELOPE_SAMPLE_COUNT - 1) / MAX_ENVELOPE_SAMPLE_COUNT);
+        final int sampleCount = (duration + step - 1) / step + 1;
+        final int[] positions = new int[sampleCount];
+        final float[] levels = new float[sampleCount];
+        int count = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            final int position = Math.min(i * step, duration);
+            final float level = calculateLevel(position, duration);
+            // A sample on the line between its neighbours adds nothing, so it is replaced with the new one
+            if (count >= 2 && isOnLine(positions[count - 2], levels[count - 2],
+                    positions[count - 1], levels[count - 1], position, level)) {
+                count--;
+            }
+            positions[count] = position;
+            levels[count] = level;
+            count++;
+        }
+        return PlaybackFadingEnvelope.of(Arrays.copyOf(positions, count), Arrays.copyOf(levels, count));
+    }
+
+    /**
+     * Checks if the middle point is on the line between the first and the last points.
+     */
+    private static boolean isOnLine(int position1, float level1, int position2, float level2, int position3, float level3) {
+        if (level1 == level2 && level2 == level3) {
+            // A flat run, the levels must stay exactly the same
+            return true;
+        }
+        if (level1 == level2 || level2 == level3) {
+            return false;
+        }
+        final float interpolatedLevel = level1 + (level3 - level1) * (position2 - position1) / (position3 - position1);
+        return Math.abs(interpolatedLevel - level2) <= ENVELOPE_LEVEL_TOLERANCE;
+    }
+
 }
@@ -0,0 +1,75 @@
+package com.frolo.player;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * Random permutations of positions from 0 to size (exclusive), determined by a seed.
+ *
+ * The permutation is generated by the Fisher-Yates algorithm in O(size) time. The queue applies it
+ * to its items right away, and the shuffled items are what is persisted, so the seed is not needed after that.
+ * The same seed always gives the same permutation, which makes shuffles reproducible in tests.
+ */
+final class ShuffleOrder {
+
+    /**
+     * Means that the first position is random too.
+     */
+    static final int NO_FIRST_POSITION = -1;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Generates a permutation of <code>size</code> positions from <code>seed</code>.
+     * @param firstPosition the position that goes first, or {@link #NO_FIRST_POSITION}
+     * @return the positions in the shuffled order
+     */
+    @NonNull
+    static int[] generate(int size, long seed, int firstPosition) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        if (firstPosition != NO_FIRST_POSITION && (firstPosition < 0 || firstPosition >= size)) {
+            throw new IllegalArgumentException("Invalid first position: " + firstPosition + ", size=" + size);
+        }
+        final int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        long state = seed;
+        for (int i = 0; i < size - 1; i++) {
+            final int j;
+            if (i == 0 && firstPosition != NO_FIRST_POSITION) {
+                j = firstPosition;
+            } else {
+                state += GOLDEN_GAMMA;
+                j = i + nextInt(state, size - i);
+            }
+            final int position = positions[i];
+            positions[i] = positions[j];
+            positions[j] = position;
+        }
+        return positions;
+    }
+
+    @NonNull
+    static int[] generate(int size, long seed) {
+        return generate(size, seed, NO_FIRST_POSITION);
+    }
+
+    /**
+     * Returns a pseudorandom number from 0 to <code>bound</code> (exclusive) for <code>state</code>
+     * of the SplitMix64 generator.
+     */
+    private static int nextInt(long state, int bound) {
+        long z = state;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        // The high 32 bits scaled to the bound
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    private ShuffleOrder() {
+    }
+}
@@ -0,0 +1,114 @@
+package com.frolo.player
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.random.Random
+
+
+/**
+ * Checks the complexity of the queue operations by counting the work they do, not by timing them.
+ */
+@RunWith(JUnit4::class)
+class AudioSourceQueuePerformanceTest {
+
+    /**
+     * Audio source that counts the calls of its [equals], which is what a linear scan of the queue calls for each item.
+     */
+    private class CountingAudioSource(
+        private val id: Long,
+        private val equalsCount: AtomicInteger
+    ) : AudioSource by testAudioSource(id) {
+
+        override fun equals(other: Any?): Boolean {
+            equalsCount.incrementAndGet()
+            return other is AudioSource && other.id == id
+        }
+
+        override fun hashCode(): Int = id.hashCode()
+    }
+
+    @Test
+    fun test_Performance_snapshotsAndMoves() {
+        val items = testAudioSources(10_000)
+        val queue = AudioSourceQueue.create(items)
+        val random = Random(1)
+
+        // A snapshot after each move, the same as the player does when it dispatches the queue to observers
+        var savedSnapshot = queue.snapshot
+        var savedIds = savedSnapshot.map { it.id }
+        repeat(1_000) { step ->
+            queue.moveItem(random.nextInt(items.size), random.nextInt(items.size))
+            val snapshot = queue.snapshot
+            // The snapshot is the current version of the items, not a copy of them
+            assertSame(snapshot, queue.snapshot)
+            assertSame(snapshot, queue.createCopy().snapshot)
+            if (step % 100 == 0) {
+                // The saved version is not affected by the moves since then
+                assertEquals(savedIds, savedSnapshot.map { it.id })
+                savedSnapshot = snapshot
+                savedIds = snapshot.map { it.id }
+            }
+        }
+    }
+
+    @Test
+    fun test_Performance_lookups() {
+        val items = testAudioSources(10_000)
+        val queue = AudioSourceQueue.create(items, true)
+        val random = Random(3)
+        val equalsCount = AtomicInteger(0)
+        val lookups = List(1_000) { CountingAudioSource(random.nextLong(items.size * 2L), equalsCount) }
+
+        // The player looks up the current item on each skip, update and add-next.
+        // A linear scan compares the item with each item of the queue, and the index compares it
+        // only with the items of the same ID, which is at most one item in a unique queue.
+        lookups.forEach { item ->
+            assertEquals(if (item.id < items.size) item.id.toInt() else -1, queue.indexOf(item))
+        }
+        assertTrue("equalsCount=${equalsCount.get()}", equalsCount.get() <= lookups.size)
+
+        val itemsToAdd = List(100) { testAudioSource(random.nextLong(items.size * 2L)) }
+        val snapshotBeforeAdd = queue.snapshot
+        queue.addAll(queue.length / 2, itemsToAdd)
+        assertNotSame(snapshotBeforeAdd, queue.snapshot)
+        assertEquals(queue.length, queue.snapshot.toSet().size)
+    }
+
+    @Test
+    fun test_snapshotsAreConsistent() {
+        val items = testAudioSources(10_000)
+        val queue = AudioSourceQueue.create(items)
+        val expectedIdSum = items.sumOf { it.id }
+        val error = AtomicReference<Throwable>()
+        val isRunning = AtomicBoolean(true)
+
+        val readers = List(2) {
+            Thread {
+                try {
+                    while (isRunning.get()) {
+                        val snapshot = queue.snapshot
+                        // Moves do not change the set of items, so each snapshot must contain all of them
+                        assertEquals(items.size, snapshot.size)
+                        assertEquals(expectedIdSum, snapshot.sumOf { it.id })
+                    }
+                } catch (e: Throwable) {
+                    error.set(e)
+                }
+            }.apply { start() }
+        }
+
+        val random = Random(2)
+        repeat(5_000) { queue.moveItem(random.nextInt(items.size), random.nextInt(items.size)) }
+        isRunning.set(false)
+        readers.forEach { it.join() }
+        error.get()?.let { throw it }
+    }
+}
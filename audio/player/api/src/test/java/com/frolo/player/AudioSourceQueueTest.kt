@@ -0,0 +1,204 @@
+package com.frolo.player
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.concurrent.Executor
+import kotlin.random.Random
+
+
+@RunWith(JUnit4::class)
+class AudioSourceQueueTest {
+
+    private fun AudioSourceQueue.ids(): List<Long> = snapshot.map { it.id }
+
+    /**
+     * Executor that runs the posted tasks only when [runAll] is called.
+     */
+    private class QueuedExecutor : Executor {
+        val tasks = ArrayList<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runAll() {
+            val tasksToRun = ArrayList(tasks)
+            tasks.clear()
+            tasksToRun.forEach { it.run() }
+        }
+    }
+
+    private class Invalidation(val version: Long, val start: Int, val end: Int)
+
+    @Test
+    fun test_uniqueAddAll() {
+        val queue = AudioSourceQueue.create(testAudioSources(10), true)
+
+        queue.addAll(2, listOf(testAudioSource(5), testAudioSource(100)))
+        assertEquals(listOf<Long>(0, 1, 5, 100, 2, 3, 4, 6, 7, 8, 9), queue.ids())
+
+        queue.addAll(listOf(testAudioSource(0), testAudioSource(0)))
+        assertEquals(listOf<Long>(1, 5, 100, 2, 3, 4, 6, 7, 8, 9, 0), queue.ids())
+
+        queue.removeAll(listOf(testAudioSource(3), testAudioSource(3), testAudioSource(42)))
+        assertEquals(listOf<Long>(1, 5, 100, 2, 4, 6, 7, 8, 9, 0), queue.ids())
+    }
+
+    @Test
+    fun test_replaceAllWithSameId() {
+        val queue = AudioSourceQueue.create(testAudioSources(5) + testAudioSources(5))
+        val replacement = object : AudioSource by testAudioSource(3) {}
+        queue.replaceAllWithSameId(replacement)
+        assertEquals(3, queue.indexOf(replacement))
+        assertEquals(listOf(3, 8), queue.snapshot.indices.filter { queue.getItemAt(it) === replacement })
+        assertEquals(-1, queue.indexOf(testAudioSource(3)))
+    }
+
+    /**
+     * Checks lookups by the index against linear scans after random modifications.
+     */
+    @Test
+    fun test_lookupsMatchLinearScan() {
+        listOf(false, true).forEach { unique ->
+            val random = Random(if (unique) 1 else 2)
+            val queue = AudioSourceQueue.create(List(200) { testAudioSource(random.nextLong(300)) }, unique)
+            repeat(2_000) {
+                val items = List(random.nextInt(1, 5)) { testAudioSource(random.nextLong(300)) }
+                when (random.nextInt(5)) {
+                    0 -> queue.addAll(items)
+                    1 -> queue.addAll(random.nextInt(queue.length + 1), items)
+                    2 -> queue.removeAll(items)
+                    3 -> queue.remove(items.first())
+                    else -> if (!queue.isEmpty) {
+                        queue.moveItem(random.nextInt(queue.length), random.nextInt(queue.length))
+                    }
+                }
+                val snapshot = queue.snapshot
+                if (unique) {
+                    assertEquals(snapshot.size, snapshot.toSet().size)
+                }
+                repeat(5) {
+                    val item = testAudioSource(random.nextLong(300))
+                    assertEquals(snapshot.indexOf(item), queue.indexOf(item))
+                    assertEquals(snapshot.contains(item), queue.contains(item))
+                }
+            }
+        }
+    }
+
+    /**
+     * Interleaves each kind of modification with lookups, so that the index is used right after
+     * the modifications that keep it as well as after the ones that make it stale.
+     */
+    @Test
+    fun test_interleavedModificationsAndLookups() {
+        val random = Random(3)
+        val expected = MutableList(100) { testAudioSource(random.nextLong(150)) }
+        val queue = AudioSourceQueue.create(expected)
+        // Lookups of the items that are in the queue and of the ones that are not
+        fun lookUp() {
+            repeat(3) {
+                val item = if (expected.isNotEmpty() && random.nextBoolean()) {
+                    expected[random.nextInt(expected.size)]
+                } else {
+                    testAudioSource(random.nextLong(150))
+                }
+                assertEquals(expected.indexOf(item), queue.indexOf(item))
+            }
+        }
+        repeat(3_000) {
+            lookUp()
+            when (random.nextInt(6)) {
+                0 -> {
+                    val position = random.nextInt(expected.size + 1)
+                    val items = List(random.nextInt(1, 3)) { testAudioSource(random.nextLong(150)) }
+                    queue.addAll(position, items)
+                    expected.addAll(position, items)
+                }
+                1 -> if (expected.isNotEmpty()) {
+                    val position = random.nextInt(expected.size)
+                    queue.removeAt(position)
+                    expected.removeAt(position)
+                }
+                2 -> {
+                    val item = testAudioSource(random.nextLong(150))
+                    queue.remove(item)
+                    expected.remove(item)
+                }
+                3 -> if (expected.isNotEmpty()) {
+                    val fromPosition = random.nextInt(expected.size)
+                    val toPosition = random.nextInt(expected.size)
+                    queue.moveItem(fromPosition, toPosition)
+                    expected.add(toPosition, expected.removeAt(fromPosition))
+                }
+                4 -> {
+                    // The replacement is equal only to itself, so a lookup by a stale item fails
+                    val replacement = object : AudioSource by testAudioSource(random.nextLong(150)) {}
+                    queue.replaceAllWithSameId(replacement)
+                    expected.indices.forEach { i -> if (expected[i].id == replacement.id) expected[i] = replacement }
+                }
+                else -> if (expected.isNotEmpty()) {
+                    val position = random.nextInt(expected.size)
+                    val replacement = object : AudioSource by expected[position] {}
+                    queue.setItemAt(position, replacement)
+                    expected[position] = replacement
+                }
+            }
+            lookUp()
+            assertEquals(expected, queue.snapshot)
+        }
+    }
+
+    @Test
+    fun test_invalidationsAreCoalesced() {
+        val queue = AudioSourceQueue.create(testAudioSources(100))
+        val executor = QueuedExecutor()
+        val invalidations = ArrayList<Invalidation>()
+        var plainInvalidationCount = 0
+        val versionedCallback = AudioSourceQueue.VersionedCallback { _, version, changeRange ->
+            invalidations.add(Invalidation(version, changeRange.start, changeRange.end))
+        }
+        val plainCallback = AudioSourceQueue.Callback { plainInvalidationCount++ }
+        queue.registerCallback(versionedCallback, executor)
+        queue.registerCallback(plainCallback, executor)
+
+        // A bulk edit made of many small operations
+        repeat(50) { queue.moveItem(10 + it, 20 + it) }
+        queue.replaceAllWithSameId(testAudioSource(5))
+        assertEquals(2, executor.tasks.size)
+        executor.runAll()
+
+        assertEquals(1, plainInvalidationCount)
+        val invalidation = invalidations.single()
+        assertEquals(queue.version, invalidation.version)
+        assertEquals(5, invalidation.start)
+        assertEquals(70, invalidation.end)
+
+        // Changes of the length extend to the end of the queue
+        queue.removeAt(50)
+        executor.runAll()
+        assertEquals(50, invalidations.last().start)
+        assertEquals(99, invalidations.last().end)
+
+        // Removing nothing changes nothing
+        queue.remove(testAudioSource(1_000))
+        executor.runAll()
+        assertTrue(invalidations.last().start >= invalidations.last().end)
+    }
+
+    @Test
+    fun test_unregisteredCallbackIsNotNotified() {
+        val queue = AudioSourceQueue.create(testAudioSources(10))
+        val executor = QueuedExecutor()
+        var invalidationCount = 0
+        val callback = AudioSourceQueue.Callback { invalidationCount++ }
+        queue.registerCallback(callback, executor)
+        queue.moveItem(0, 5)
+        queue.unregisterCallback(callback)
+        executor.runAll()
+        assertEquals(0, invalidationCount)
+    }
+}
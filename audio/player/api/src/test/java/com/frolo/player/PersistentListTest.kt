@@ -0,0 +1,93 @@
+package com.frolo.player
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import kotlin.random.Random
+
+
+@RunWith(JUnit4::class)
+class PersistentListTest {
+
+    @Test
+    fun test_randomOperations() {
+        val random = Random(42)
+        val expected = ArrayList<Int>()
+        var list = PersistentList.empty<Int>()
+        var nextItem = 0
+        repeat(20_000) { step ->
+            when (random.nextInt(6)) {
+                0, 1 -> {
+                    val index = random.nextInt(expected.size + 1)
+                    expected.add(index, nextItem)
+                    list = list.insert(index, nextItem)
+                    nextItem++
+                }
+                2 -> {
+                    val index = random.nextInt(expected.size + 1)
+                    val items = List(random.nextInt(20)) { nextItem++ }
+                    expected.addAll(index, items)
+                    list = list.insertAll(index, items)
+                }
+                3 -> if (expected.isNotEmpty()) {
+                    val index = random.nextInt(expected.size)
+                    expected.removeAt(index)
+                    list = list.removeAt(index)
+                }
+                4 -> if (expected.isNotEmpty()) {
+                    val fromIndex = random.nextInt(expected.size)
+                    val toIndex = random.nextInt(expected.size)
+                    expected.add(toIndex, expected.removeAt(fromIndex))
+                    list = list.move(fromIndex, toIndex)
+                }
+                else -> if (expected.isNotEmpty()) {
+                    val index = random.nextInt(expected.size)
+                    expected[index] = nextItem
+                    list = list.replace(index, nextItem)
+                    nextItem++
+                }
+            }
+            assertEquals(expected.size, list.size)
+            if (step % 500 == 0) {
+                assertEquals(expected, list)
+                assertEquals(expected, List(list.size) { list[it] })
+            }
+        }
+        assertEquals(expected, list)
+    }
+
+    @Test
+    fun test_versionsAreImmutable() {
+        val original = PersistentList.of(List(1_000) { it })
+        val moved = original.move(10, 900)
+        val removed = moved.removeAt(0)
+        val inserted = removed.insertAll(500, listOf(-1, -2))
+
+        assertEquals(List(1_000) { it }, original)
+        assertEquals(List(1_000) { it }.toMutableList().apply { add(900, removeAt(10)) }, moved)
+        assertEquals(moved.drop(1), removed)
+        assertEquals(removed.toMutableList().apply { addAll(500, listOf(-1, -2)) }, inserted)
+    }
+
+    @Test
+    fun test_indexOf() {
+        val list = PersistentList.of(listOf(3, 1, 4, 1, 5))
+        assertEquals(1, list.indexOf(1))
+        assertEquals(4, list.indexOf(5))
+        assertEquals(-1, list.indexOf(9))
+    }
+
+    @Test
+    fun test_ofPersistentListIsTheSame() {
+        val list = PersistentList.of(listOf(1, 2, 3))
+        assertSame(list, PersistentList.of(list))
+    }
+
+    @Test(expected = UnsupportedOperationException::class)
+    fun test_isReadOnly() {
+        @Suppress("UNCHECKED_CAST")
+        (PersistentList.of(listOf(1, 2, 3)) as MutableList<Int>).add(4)
+    }
+}
@@ -0,0 +1,93 @@
+package com.frolo.player
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class PlaybackFadingStrategyTest {
+
+    private val strategies = listOf(
+        PlaybackFadingStrategy.none(),
+        PlaybackFadingStrategy.withStaticInterval(3_000),
+        PlaybackFadingStrategy.withStaticInterval(10_000),
+        PlaybackFadingStrategy.withPercentInterval(0.1f),
+        PlaybackFadingStrategy.withPercentInterval(0.7f),
+        PlaybackFadingStrategy.withSmartStaticInterval(5_000),
+        // Uses the default envelope
+        object : PlaybackFadingStrategy() {
+            override fun calculateLevel(progress: Int, duration: Int): Float {
+                return if (progress < 1_000) progress / 1_000f else 1f
+            }
+        }
+    )
+
+    private val durations = listOf(4_000, 15_000, 60_000, 200_000)
+
+    @Test
+    fun test_envelopeMatchesLevels() {
+        durations.forEach { duration ->
+            strategies.forEach { strategy ->
+                val envelope = strategy.createEnvelope(duration)
+                assertTrue(envelope.breakpointCount <= 8)
+                // The default envelope is sampled, so it may cut the corners a little
+                for (progress in 0..duration step 50) {
+                    assertEquals("$envelope at $progress",
+                        strategy.calculateLevel(progress, duration), envelope.getLevelAt(progress), 1e-2f)
+                }
+            }
+        }
+    }
+
+    /**
+     * The level must stay the same for the time returned by getTimeUntilLevelChange.
+     */
+    @Test
+    fun test_levelIsStableUntilChange() {
+        durations.forEach { duration ->
+            strategies.forEach { strategy ->
+                val envelope = strategy.createEnvelope(duration)
+                for (progress in 0..duration step 250) {
+                    val time = envelope.getTimeUntilLevelChange(progress)
+                    assertTrue(time >= 0)
+                    if (time == PlaybackFadingEnvelope.LEVEL_CHANGES_CONTINUOUSLY) {
+                        continue
+                    }
+                    val level = envelope.getLevelAt(progress)
+                    val end = minOf(duration.toLong(), progress.toLong() + time).toInt()
+                    for (laterProgress in progress until end step 50) {
+                        assertEquals(level, envelope.getLevelAt(laterProgress), 0f)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun test_timeUntilLevelChange() {
+        val envelope = PlaybackFadingStrategy.withStaticInterval(3_000).createEnvelope(60_000)
+        assertEquals(PlaybackFadingEnvelope.LEVEL_CHANGES_CONTINUOUSLY, envelope.getTimeUntilLevelChange(1_000))
+        assertEquals(57_000 - 10_000, envelope.getTimeUntilLevelChange(10_000))
+        assertEquals(PlaybackFadingEnvelope.LEVEL_CHANGES_CONTINUOUSLY, envelope.getTimeUntilLevelChange(58_000))
+        assertEquals(PlaybackFadingEnvelope.LEVEL_NEVER_CHANGES, envelope.getTimeUntilLevelChange(60_000))
+        assertEquals(PlaybackFadingEnvelope.LEVEL_NEVER_CHANGES,
+            PlaybackFadingStrategy.none().createEnvelope(60_000).getTimeUntilLevelChange(10_000))
+    }
+
+    @Test
+    fun test_unknownDuration() {
+        strategies.forEach { strategy ->
+            val envelope = strategy.createEnvelope(-1)
+            assertEquals(PlaybackFadingStrategy.NORMAL_LEVEL, envelope.getLevelAt(1_000), 0f)
+            assertEquals(PlaybackFadingEnvelope.LEVEL_NEVER_CHANGES, envelope.getTimeUntilLevelChange(1_000))
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun test_unorderedBreakpoints() {
+        PlaybackFadingEnvelope.of(intArrayOf(0, 100, 50), floatArrayOf(0f, 1f, 0f))
+    }
+}
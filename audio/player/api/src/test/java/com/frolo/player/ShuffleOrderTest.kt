@@ -0,0 +1,60 @@
+package com.frolo.player
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class ShuffleOrderTest {
+
+    @Test
+    fun test_isPermutation() {
+        listOf(0, 1, 2, 10, 1_000).forEach { size ->
+            val positions = ShuffleOrder.generate(size, 42L)
+            assertEquals(List(size) { it }, positions.sorted())
+        }
+    }
+
+    @Test
+    fun test_sameSeedGivesSameOrder() {
+        val first = ShuffleOrder.generate(1_000, 7L)
+        val second = ShuffleOrder.generate(1_000, 7L)
+        val other = ShuffleOrder.generate(1_000, 8L)
+        assertEquals(first.toList(), second.toList())
+        assertNotEquals(first.toList(), other.toList())
+    }
+
+    @Test
+    fun test_firstPosition() {
+        repeat(20) { firstPosition ->
+            val order = ShuffleOrder.generate(20, firstPosition.toLong(), firstPosition)
+            assertEquals(firstPosition, order[0])
+            assertEquals(List(20) { it }, order.sorted())
+        }
+    }
+
+    @Test
+    fun test_isUniform() {
+        // Each position must be first in about 1/size of the orders
+        val size = 4
+        val counts = IntArray(size)
+        val orderCount = 40_000
+        repeat(orderCount) { seed -> counts[ShuffleOrder.generate(size, seed.toLong())[0]]++ }
+        counts.forEach { count ->
+            assertTrue("count=$count", count in (orderCount / size * 9 / 10)..(orderCount / size * 11 / 10))
+        }
+    }
+
+    @Test
+    fun test_queueShuffleWithItemInFront() {
+        val items = testAudioSources(1_000)
+        val queue = AudioSourceQueue.create(items)
+        queue.shuffleWithItemInFront(items[500])
+        assertEquals(items[500], queue.getItemAt(0))
+        assertEquals(items.toSet(), queue.snapshot.toSet())
+    }
+}
@@ -0,0 +1,20 @@
+package com.frolo.player
+
+
+private class TestAudioSource(private val id: Long) : AudioSource {
+    override fun getId(): Long = id
+
+    override fun getSource(): String = "/Music/Track_$id.mp3"
+
+    override fun getMetadata(): AudioMetadata = throw UnsupportedOperationException()
+
+    override fun equals(other: Any?): Boolean = other is TestAudioSource && other.id == id
+
+    override fun hashCode(): Int = id.hashCode()
+
+    override fun toString(): String = "TestAudioSource($id)"
+}
+
+internal fun testAudioSource(id: Long): AudioSource = TestAudioSource(id)
+
+internal fun testAudioSources(count: Int): List<AudioSource> = List(count) { index -> testAudioSource(index.toLong()) }
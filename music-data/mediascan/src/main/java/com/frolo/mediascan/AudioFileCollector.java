@@ -14,8 +14,6 @@ import androidx.annotation.WorkerThread;
 import com.frolo.debug.DebugUtils;
 import com.frolo.threads.ThreadStrictMode;
 
-import java.io.File;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -31,13 +29,25 @@ final class AudioFileCollector {
     }
 
     static AudioFileCollector get(@NonNull Context context) {
-        return new AudioFileCollector(context);
+        return new AudioFileCollector(context, AudioFileWalker.sequential(), 1);
+    }
+
+    /**
+     * Creates a collector that walks the file hierarchy in parallel, which is faster for full rescans.
+     * This applies to {@link #collectChanged(DirectoryIndex)} as well.
+     */
+    static AudioFileCollector getParallel(@NonNull Context context) {
+        return new AudioFileCollector(context, AudioFileWalker.parallel(), AudioFileWalker.getParallelism());
     }
 
     private final Context mContext;
+    private final AudioFileWalker mWalker;
+    private final int mParallelism;
 
-    private AudioFileCollector(Context context) {
+    private AudioFileCollector(Context context, AudioFileWalker walker, int parallelism) {
         this.mContext = context;
+        this.mWalker = walker;
+        this.mParallelism = parallelism;
     }
 
     private void logError(Throwable err) {
@@ -62,9 +72,41 @@ final class AudioFileCollector {
         collectAudioFiles(absolutePath, list);
         collectAudioFiles(absolutePath + "/", list);
 
-        distinctByMediaStore(null, list);
+        final PathReconciler reconciler = new PathReconciler(list.size());
+        reconciler.addAll(list);
+        distinctByMediaStore(null, reconciler);
 
-        return list;
+        return reconciler.toList();
+    }
+
+    /**
+     * Collects audio files on the device that need to be scanned,
+     * visiting only the directories that have changed since <code>oldIndex</code> was taken.
+     * If <code>oldIndex</code> is empty, then this collects all the files,
+     * walking the hierarchy with the same parallelism as {@link #collectAll()}.
+     * The returned index should be persisted only when the files are scanned successfully.
+     * NOTE: this should be called on a worker thread.
+     * @param oldIndex the index of the last completed rescan
+     * @return audio files to scan and the new index.
+     */
+    @WorkerThread
+    IncrementalResult collectChanged(@NonNull DirectoryIndex oldIndex) {
+        ThreadStrictMode.assertBackground();
+        final IncrementalAudioFileWalker walker =
+                new IncrementalAudioFileWalker(oldIndex, mParallelism);
+        final String absolutePath = Environment.getExternalStorageDirectory().getAbsolutePath();
+        if (isEmpty(absolutePath)) {
+            return new IncrementalResult(Collections.<String>emptyList(), walker.getNewIndex());
+        }
+
+        final List<String> list = new ArrayList<>();
+        walker.walk(absolutePath, list);
+
+        final PathReconciler reconciler = new PathReconciler(list.size());
+        reconciler.addAll(list);
+        distinctByMediaStore(null, reconciler, walker);
+
+        return new IncrementalResult(reconciler.toList(), walker.getNewIndex());
     }
 
     /**
@@ -76,44 +118,24 @@ final class AudioFileCollector {
     @WorkerThread
     List<String> collectFrom(@NonNull List<String> targetFiles) {
         ThreadStrictMode.assertBackground();
+        final PathReconciler reconciler = new PathReconciler();
         final List<String> list = new ArrayList<>();
         for (String filepath : targetFiles) {
             collectAudioFiles(filepath, list);
-            distinctByMediaStore(filepath, list);
+            reconciler.addAll(list);
+            list.clear();
+            distinctByMediaStore(filepath, reconciler);
         }
-        return list;
+        return reconciler.toList();
     }
 
     /**
-     * Collects all audio files in the <code>parent</code> hierarchy.
-     * This also verifies that <code>parent</code> is not hidden, is a directory and cannot be skipped for scanning.
-     * NOTE: the search is recursive.
+     * Collects all audio files in the <code>parent</code> hierarchy using the walker of this collector.
      * @param dst to collect files to it
      * @param parent from which the search starts
      */
     private void collectAudioFiles(String parent, List<String> dst) {
-        if (isEmpty(parent)) {
-            return;
-        }
-        File file = new File(parent);
-        if (!file.isHidden() && file.isDirectory() && !canSkipScanning(file)) {
-            File[] listFiles = file.listFiles();
-            if (listFiles != null && listFiles.length > 0) {
-                for (File childFile : listFiles) {
-                    String childPath = childFile.getAbsolutePath();
-                    if (isEmpty(childPath)) {
-                        continue;
-                    }
-                    if (childFile.isDirectory()) {
-                        // recursively searching for audio files in child file
-                        collectAudioFiles(childPath, dst);
-                    } else if (isAudioFile(childPath)) {
-                        // it's an audio file, let's add it
-                        dst.add(childPath);
-                    }
-                }
-            }
-        }
+        mWalker.walk(parent, dst);
     }
 
     /**
@@ -124,10 +146,25 @@ final class AudioFileCollector {
      * to narrow down the selection of files from the MediaStore that need to be checked.
      * If <code>parent</code> is null, then all the files on the device will be checked.
      *
+     * The cursor is streamed row by row into the <code>reconciler</code>,
+     * so this takes linear time in the number of rows.
+     *
      * @param parent to narrow down the selection of files from the MediaStore, or null if all files in the MediaStore should be checked.
-     * @param audioFiles to verify
+     * @param reconciler holding audio files to verify
+     */
+    private void distinctByMediaStore(@Nullable String parent, PathReconciler reconciler) {
+        distinctByMediaStore(parent, reconciler, null);
+    }
+
+    /**
+     * The same as {@link #distinctByMediaStore(String, PathReconciler)},
+     * but files from the MediaStore that are in unchanged directories
+     * according to <code>incrementalWalker</code> are skipped.
      */
-    private void distinctByMediaStore(@Nullable String parent, List<String> audioFiles) {
+    private void distinctByMediaStore(
+            @Nullable String parent,
+            PathReconciler reconciler,
+            @Nullable IncrementalAudioFileWalker incrementalWalker) {
         final ContentResolver cr = mContext.getContentResolver();
         final String[] projection = new String[] { MediaStore.Audio.Media.DATA };
 
@@ -147,17 +184,18 @@ final class AudioFileCollector {
 
         if (cursor != null) {
             try {
-                if (cursor.moveToFirst()) {
+                final int columnIndex = cursor.getColumnIndex(projection[0]);
+                if (columnIndex >= 0 && cursor.moveToFirst()) {
                     do {
                         try {
-                            String string = cursor.getString(cursor.getColumnIndex(projection[0]));
-                            if (audioFiles.contains(string)) {
-                                // this files is identified by MediaStore already, no need to scan it again. Remove it from the collection!
-                                audioFiles.remove(string);
-                            } else if (!isEmpty(string)) {
-                                // this files is not in the collection, it may be deleted already, so need to scan it. Add it to the collection!
-                                audioFiles.add(string);
+                            // If this file is identified by MediaStore already, there is no need to scan it again, it is removed from the collection.
+                            // Otherwise, the file may be deleted already, so need to scan it, it is added to the collection.
+                            String filepath = cursor.getString(columnIndex);
+                            if (incrementalWalker != null && !isEmpty(filepath)
+                                    && !incrementalWalker.needsReconciliation(filepath)) {
+                                continue;
                             }
+                            reconciler.reconcile(filepath);
                         } catch (Throwable e) {
                             logError(e);
                         }
@@ -169,32 +207,15 @@ final class AudioFileCollector {
         }
     }
 
-    /**
-     * Checks if we can skip scanning the given <code>file</code>.
-     * @param file to test
-     * @return true if there is no need to scan the file, false - otherwise
-     */
-    private boolean canSkipScanning(@Nullable File file) {
-        return new File(file, ".nomedia").exists();
-    }
+    static final class IncrementalResult {
+        @NonNull
+        final List<String> files;
+        @NonNull
+        final DirectoryIndex index;
 
-    /**
-     * Checks if <code>filepath</code> is an audio file.
-     * @param filepath to test
-     * @return true if the file is an audio file, false - otherwise
-     */
-    private boolean isAudioFile(@Nullable String filepath) {
-        if (filepath == null || filepath.isEmpty()) {
-            return false;
-        }
-        String type = null;
-        // Not sure why we do this
-        String replaceAll = filepath.replaceAll("[#]", "");
-        try {
-            type = URLConnection.guessContentTypeFromName(replaceAll);
-        } catch (Throwable err) {
-            logError(err);
+        IncrementalResult(@NonNull List<String> files, @NonNull DirectoryIndex index) {
+            this.files = files;
+            this.index = index;
         }
-        return type != null && type.indexOf("audio") == 0;
     }
 }
@@ -0,0 +1,77 @@
+package com.frolo.mediascan;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.frolo.debug.DebugUtils;
+
+import java.net.URLConnection;
+import java.util.List;
+
+
+/**
+ * Walks the file hierarchy and collects audio files in it.
+ * A directory is skipped if it is hidden or contains a {@link #NO_MEDIA_FILENAME} file.
+ */
+abstract class AudioFileWalker {
+
+    static final String NO_MEDIA_FILENAME = ".nomedia";
+
+    @NonNull
+    static AudioFileWalker sequential() {
+        return new SequentialAudioFileWalker();
+    }
+
+    @NonNull
+    static AudioFileWalker parallel() {
+        return new ParallelAudioFileWalker(getParallelism());
+    }
+
+    /**
+     * Returns the parallelism of the parallel walks, that is the number of the available cores.
+     */
+    static int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    static boolean isEmpty(@Nullable String value) {
+        return value == null || value.isEmpty();
+    }
+
+    static void logError(Throwable err) {
+        if (DebugUtils.isDebug()) Log.e("AudioFileWalker", "", err);
+    }
+
+    /**
+     * Collects all audio files in the <code>parent</code> hierarchy.
+     * This also verifies that <code>parent</code> is not hidden, is a directory and cannot be skipped for scanning.
+     * NOTE: the search is recursive.
+     * @param parent from which the search starts
+     * @param dst to collect files to it
+     */
+    @WorkerThread
+    abstract void walk(@Nullable String parent, @NonNull List<String> dst);
+
+    /**
+     * Checks if <code>filepath</code> is an audio file.
+     * @param filepath to test
+     * @return true if the file is an audio file, false - otherwise
+     */
+    static boolean isAudioFile(@Nullable String filepath) {
+        if (filepath == null || filepath.isEmpty()) {
+            return false;
+        }
+        String type = null;
+        // Not sure why we do this
+        String replaceAll = filepath.replaceAll("[#]", "");
+        try {
+            type = URLConnection.guessContentTypeFromName(replaceAll);
+        } catch (Throwable err) {
+            logError(err);
+        }
+        return type != null && type.indexOf("audio") == 0;
+    }
+}
@@ -0,0 +1,183 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Compact per-directory index of last-modified times and entry counts.
+ * A directory whose last-modified time has not changed since the index was taken
+ * has the same direct entries, so its audio files do not need to be collected again,
+ * and its child directories can be visited without listing it.
+ *
+ * Some file systems have coarse last-modified times (e.g. 2 seconds for FAT),
+ * so a directory could be modified right after it was indexed without changing its last-modified time.
+ * Such "racy" entries, that were modified within {@link #RACY_WINDOW_MILLIS} of the snapshot time,
+ * must be verified by the entry count, see {@link #isRacy(Entry)}.
+ *
+ * This class is thread-safe.
+ */
+final class DirectoryIndex {
+
+    private static final int MAGIC = 0x46444958; // FDIX
+    private static final int VERSION = 1;
+
+    static final long RACY_WINDOW_MILLIS = 2000L;
+
+    private static final String[] NO_CHILDREN = new String[0];
+
+    @NonNull
+    static DirectoryIndex empty() {
+        return new DirectoryIndex(0L, Collections.<String, Entry>emptyMap());
+    }
+
+    @NonNull
+    static DirectoryIndex create(long snapshotTime) {
+        return new DirectoryIndex(snapshotTime, new ConcurrentHashMap<String, Entry>());
+    }
+
+    private final long mSnapshotTime;
+    private final Map<String, Entry> mEntries;
+
+    private DirectoryIndex(long snapshotTime, Map<String, Entry> entries) {
+        mSnapshotTime = snapshotTime;
+        mEntries = entries;
+    }
+
+    long getSnapshotTime() {
+        return mSnapshotTime;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    @Nullable
+    Entry get(@NonNull String directory) {
+        return mEntries.get(directory);
+    }
+
+    void put(@NonNull String directory, @NonNull Entry entry) {
+        mEntries.put(directory, entry);
+    }
+
+    /**
+     * Removes the entry of <code>directory</code>, so the directory is listed again
+     * and its audio files are collected by the next incremental rescan.
+     * Its child directories keep their entries.
+     * @param directory to remove
+     */
+    void remove(@NonNull String directory) {
+        mEntries.remove(directory);
+    }
+
+    /**
+     * Checks if the last-modified time of <code>entry</code> is too close to the snapshot time
+     * to trust it, in which case the entry count of the directory must be verified.
+     * @param entry to check
+     * @return true if the entry is racy
+     */
+    boolean isRacy(@NonNull Entry entry) {
+        return entry.lastModified >= mSnapshotTime - RACY_WINDOW_MILLIS;
+    }
+
+    /**
+     * Writes this index to <code>out</code> in a compact binary form.
+     * Child directories are stored by their names relative to the parent.
+     * @param out to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(@NonNull OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(mSnapshotTime);
+        // Take a copy to have a consistent size and entries
+        final Map<String, Entry> entries = new HashMap<>(mEntries);
+        data.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            final Entry entry = e.getValue();
+            data.writeUTF(e.getKey());
+            data.writeLong(entry.lastModified);
+            data.writeInt(entry.entryCount);
+            data.writeInt(entry.childDirectories.length);
+            for (String child : entry.childDirectories) {
+                data.writeUTF(child);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(OutputStream)}.
+     * @param in to read from
+     * @return the index read
+     * @throws IOException if an I/O error occurs or the data is malformed
+     */
+    @NonNull
+    static DirectoryIndex readFrom(@NonNull InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a directory index");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported directory index version: " + version);
+        }
+        final long snapshotTime = data.readLong();
+        final int size = data.readInt();
+        if (size < 0) {
+            throw new IOException("Malformed directory index: size=" + size);
+        }
+        final Map<String, Entry> entries = new ConcurrentHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            final String directory = data.readUTF();
+            final long lastModified = data.readLong();
+            final int entryCount = data.readInt();
+            final int childCount = data.readInt();
+            if (childCount < 0) {
+                throw new IOException("Malformed directory index: childCount=" + childCount);
+            }
+            final String[] childDirectories = childCount > 0 ? new String[childCount] : NO_CHILDREN;
+            for (int j = 0; j < childCount; j++) {
+                childDirectories[j] = data.readUTF();
+            }
+            entries.put(directory, new Entry(lastModified, entryCount, childDirectories));
+        }
+        return new DirectoryIndex(snapshotTime, entries);
+    }
+
+    static final class Entry {
+        final long lastModified;
+        /**
+         * The number of direct entries in the directory, including files and directories.
+         */
+        final int entryCount;
+        /**
+         * Names of the child directories that should be visited, i.e. non-hidden ones.
+         * This is empty for directories that are skipped for scanning.
+         */
+        @NonNull
+        final String[] childDirectories;
+
+        Entry(long lastModified, int entryCount, @Nullable String[] childDirectories) {
+            this.lastModified = lastModified;
+            this.entryCount = entryCount;
+            this.childDirectories = childDirectories != null ? childDirectories : NO_CHILDREN;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.frolo.mediascan;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.AtomicFile;
+
+import com.frolo.debug.DebugUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+
+/**
+ * Persists the {@link DirectoryIndex} of the last completed full rescan in the no-backup files directory.
+ * Writes are atomic, so a process death during a write does not corrupt the stored index.
+ */
+final class DirectoryIndexStore {
+
+    private static final String FILENAME = "mediascan_directory_index";
+
+    static DirectoryIndexStore get(@NonNull Context context) {
+        return new DirectoryIndexStore(context);
+    }
+
+    private final AtomicFile mFile;
+
+    private DirectoryIndexStore(Context context) {
+        mFile = new AtomicFile(new File(context.getNoBackupFilesDir(), FILENAME));
+    }
+
+    private void logError(Throwable err) {
+        if (DebugUtils.isDebug()) Log.e("DirectoryIndexStore", "", err);
+    }
+
+    /**
+     * Loads the stored index.
+     * @return the stored index, or an empty index if there is no one or it cannot be read
+     */
+    @WorkerThread
+    @NonNull
+    DirectoryIndex load() {
+        try (BufferedInputStream in = new BufferedInputStream(mFile.openRead())) {
+            return DirectoryIndex.readFrom(in);
+        } catch (FileNotFoundException ignored) {
+            return DirectoryIndex.empty();
+        } catch (Throwable e) {
+            logError(e);
+            return DirectoryIndex.empty();
+        }
+    }
+
+    /**
+     * Stores <code>index</code> replacing the previous one.
+     * @param index to store
+     */
+    @WorkerThread
+    void save(@NonNull DirectoryIndex index) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+            index.writeTo(bufferedOut);
+            bufferedOut.flush();
+            mFile.finishWrite(out);
+        } catch (Throwable e) {
+            logError(e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Deletes the stored index, so the next incremental rescan walks the whole hierarchy.
+     */
+    @WorkerThread
+    void clear() {
+        mFile.delete();
+    }
+}
@@ -0,0 +1,174 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Walks the file hierarchy on a work-stealing {@link ForkJoinPool} and collects audio files
+ * only from directories that have changed since the given {@link DirectoryIndex} was taken.
+ * Unchanged directories are not listed at all: their child directories are taken from the index,
+ * so a walk over an unchanged hierarchy costs one last-modified check per directory.
+ * While walking, this builds a new index, that can be obtained with {@link #getNewIndex()}.
+ * The skip rules are the same as for {@link ParallelAudioFileWalker}.
+ */
+final class IncrementalAudioFileWalker extends AudioFileWalker {
+
+    private final DirectoryIndex mOldIndex;
+    private final DirectoryIndex mNewIndex;
+    private final Set<String> mChangedDirectories =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final int mParallelism;
+
+    IncrementalAudioFileWalker(@NonNull DirectoryIndex oldIndex, int parallelism) {
+        mOldIndex = oldIndex;
+        mNewIndex = DirectoryIndex.create(System.currentTimeMillis());
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    @NonNull
+    DirectoryIndex getNewIndex() {
+        return mNewIndex;
+    }
+
+    /**
+     * Checks if <code>filepath</code> found in the MediaStore needs to be reconciled with the collected files.
+     * Files in directories that have not changed since the last walk are known by the MediaStore already.
+     * @param filepath to check
+     * @return true if the file needs to be reconciled
+     */
+    boolean needsReconciliation(@NonNull String filepath) {
+        final int separatorIndex = filepath.lastIndexOf(File.separatorChar);
+        if (separatorIndex <= 0) {
+            return true;
+        }
+        final String directory = filepath.substring(0, separatorIndex);
+        return mNewIndex.get(directory) == null || mChangedDirectories.contains(directory);
+    }
+
+    @Override
+    void walk(@Nullable String parent, @NonNull List<String> dst) {
+        if (isEmpty(parent)) {
+            return;
+        }
+        final File root = new File(parent);
+        if (root.isHidden() || !root.isDirectory()) {
+            return;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            dst.addAll(pool.invoke(new DirectoryTask(root)));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects audio files in a directory that is known to be a non-hidden directory.
+     */
+    private final class DirectoryTask extends RecursiveTask<List<String>> {
+
+        final File mDirectory;
+
+        DirectoryTask(File directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        protected List<String> compute() {
+            final String path = mDirectory.getAbsolutePath();
+            final long lastModified = mDirectory.lastModified();
+            if (lastModified == 0L) {
+                // The directory does not exist anymore or cannot be accessed
+                return Collections.emptyList();
+            }
+
+            final DirectoryIndex.Entry oldEntry = mOldIndex.get(path);
+            if (oldEntry != null && oldEntry.lastModified == lastModified && isVerified(oldEntry)) {
+                // The directory has the same entries, only its child directories need to be visited
+                mNewIndex.put(path, oldEntry);
+                return visitChildDirectories(oldEntry.childDirectories);
+            }
+
+            final File[] listFiles = mDirectory.listFiles();
+            if (listFiles == null) {
+                return Collections.emptyList();
+            }
+            mChangedDirectories.add(path);
+
+            for (File childFile : listFiles) {
+                if (NO_MEDIA_FILENAME.equals(childFile.getName())) {
+                    // There is no need to scan this directory
+                    mNewIndex.put(path, new DirectoryIndex.Entry(lastModified, listFiles.length, null));
+                    return Collections.emptyList();
+                }
+            }
+
+            final List<String> result = new ArrayList<>();
+            final List<String> childDirectories = new ArrayList<>();
+            for (File childFile : listFiles) {
+                String childPath = childFile.getAbsolutePath();
+                if (isEmpty(childPath)) {
+                    continue;
+                }
+                if (childFile.isDirectory()) {
+                    if (!isHidden(childFile)) {
+                        childDirectories.add(childFile.getName());
+                    }
+                } else if (isAudioFile(childPath)) {
+                    // it's an audio file, let's add it
+                    result.add(childPath);
+                }
+            }
+
+            final String[] childNames = childDirectories.toArray(new String[0]);
+            mNewIndex.put(path, new DirectoryIndex.Entry(lastModified, listFiles.length, childNames));
+            result.addAll(visitChildDirectories(childNames));
+            return result;
+        }
+
+        /**
+         * Racy entries are verified by the entry count, which only requires reading the names.
+         */
+        private boolean isVerified(DirectoryIndex.Entry oldEntry) {
+            if (!mOldIndex.isRacy(oldEntry)) {
+                return true;
+            }
+            final String[] names = mDirectory.list();
+            return names != null && names.length == oldEntry.entryCount;
+        }
+
+        private List<String> visitChildDirectories(String[] childNames) {
+            if (childNames.length == 0) {
+                return Collections.emptyList();
+            }
+            final List<DirectoryTask> subtasks = new ArrayList<>(childNames.length);
+            for (String childName : childNames) {
+                DirectoryTask subtask = new DirectoryTask(new File(mDirectory, childName));
+                subtask.fork();
+                subtasks.add(subtask);
+            }
+            final List<String> result = new ArrayList<>();
+            for (DirectoryTask subtask : subtasks) {
+                result.addAll(subtask.join());
+            }
+            return result;
+        }
+
+        /**
+         * The same as {@link File#isHidden()} on Unix-like systems, but without touching the file system.
+         */
+        private boolean isHidden(File file) {
+            return file.getName().startsWith(".");
+        }
+    }
+}
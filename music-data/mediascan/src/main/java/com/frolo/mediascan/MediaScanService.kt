@@ -16,6 +16,7 @@ import androidx.core.util.forEach
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import com.frolo.debug.DebugUtils
 import com.frolo.threads.ThreadStrictMode
+import java.io.File
 import java.lang.Exception
 import java.util.ArrayList
 
@@ -26,6 +27,9 @@ class MediaScanService : Service() {
     private var notificationManager: NotificationManager? = null
     private var engineThread: Thread? = null
     private var engineHandler: Handler? = null
+    // For writes that must outlive the scan, the thread is quit safely when the service is destroyed
+    private var ioThread: HandlerThread? = null
+    private var ioHandler: Handler? = null
     private var mainHandler: Handler? = null
     @GuardedBy("scanners")
     private val scanners = SparseArray<ScannerInfo>()
@@ -45,6 +49,10 @@ class MediaScanService : Service() {
         thread.start()
         engineThread = thread
         engineHandler = Handler(thread.looper)
+        val ioThread = HandlerThread("MediaScannerIO", Process.THREAD_PRIORITY_BACKGROUND)
+        ioThread.start()
+        this.ioThread = ioThread
+        ioHandler = Handler(ioThread.looper)
         mainHandler = Handler(Looper.getMainLooper())
         isAlive = true
 
@@ -72,6 +80,8 @@ class MediaScanService : Service() {
         if (DEBUG) Log.d(LOG_TAG, "Handle intent: $action")
         if (ACTION_CANCEL_SCAN_MEDIA == action) {
             cancelAllScanners()
+            // Cancelled by the user, so the scan should not be resumed
+            clearScanCheckpoint()
             stopForeground(true)
             stopSelf()
             return START_NOT_STICKY
@@ -106,6 +116,10 @@ class MediaScanService : Service() {
         engineHandler = null
         engineThread?.interrupt()
         engineThread = null
+        // Pending writes are completed before the thread quits
+        ioThread?.quitSafely()
+        ioThread = null
+        ioHandler = null
         mainHandler?.removeCallbacksAndMessages(null)
         mainHandler = null
         if (DEBUG) Log.d(LOG_TAG, "Service destroyed")
@@ -132,6 +146,9 @@ class MediaScanService : Service() {
      *
      * Note that collection is performed on the engine thread,
      * and then the async scanning is started on the main thread.
+     * A full rescan resumes the checkpoint of the previous one, if it was not completed,
+     * for example because the process was killed. The checkpoint is loaded on the IO thread,
+     * after the pending checkpoint writes.
      * @param startId id of the command
      * @param fullRescan true if this should collect all the files on the device
      * @param targetFiles from which to collect files for scanning, ignored if [fullRescan] is true
@@ -141,14 +158,56 @@ class MediaScanService : Service() {
         fullRescan: Boolean,
         targetFiles: List<String>?
     ) {
-        val task = Runnable {
+        if (fullRescan) {
+            val appContext = this.applicationContext
+            val loadCheckpointTask = Runnable {
+                val checkpoint = ScanCheckpointStore.get(appContext).load()
+                if (checkpoint != null && !checkpoint.isComplete) {
+                    if (DEBUG) Log.d(LOG_TAG, "Resume scanning: totalCount=${checkpoint.files.size}, " +
+                            "completedCount=${checkpoint.completed.cardinality()}")
+                    mainHandler?.post { scanAsync(startId, fullRescan, checkpoint.files, null, checkpoint) }
+                } else {
+                    engineHandler?.post(createCollectTask(startId, fullRescan, targetFiles))
+                }
+            }
+            ioHandler?.post(loadCheckpointTask)
+        } else {
+            engineHandler?.post(createCollectTask(startId, fullRescan, targetFiles))
+        }
+    }
+
+    private fun createCollectTask(
+        startId: Int,
+        fullRescan: Boolean,
+        targetFiles: List<String>?
+    ): Runnable {
+        return Runnable {
             ThreadStrictMode.assertBackground()
             if (DEBUG) Log.d(LOG_TAG, "Collect files to scan...")
+            var newDirectoryIndex: DirectoryIndex? = null
             val files: List<String> = try {
-                val collector = AudioFileCollector.get(this@MediaScanService)
                 when {
-                    fullRescan -> collector.collectAll()
-                    targetFiles != null -> collector.collectFrom(targetFiles)
+                    fullRescan -> {
+                        // Full rescans may walk the whole storage, so it's worth it to fan out across the cores
+                        val collector = if (PARALLEL_FULL_RESCAN) {
+                            AudioFileCollector.getParallel(this@MediaScanService)
+                        } else {
+                            AudioFileCollector.get(this@MediaScanService)
+                        }
+                        if (INCREMENTAL_FULL_RESCAN) {
+                            // Only directories that have changed since the last completed rescan are visited.
+                            // Without a stored index, this walks the whole storage like collectAll.
+                            val oldDirectoryIndex = DirectoryIndexStore.get(this@MediaScanService).load()
+                            val result = collector.collectChanged(oldDirectoryIndex)
+                            newDirectoryIndex = result.index
+                            result.files
+                        } else {
+                            collector.collectAll()
+                        }
+                    }
+                    targetFiles != null -> {
+                        AudioFileCollector.get(this@MediaScanService).collectFrom(targetFiles)
+                    }
                     else -> emptyList()
                 }
             } catch (e: Exception) {
@@ -160,9 +219,14 @@ class MediaScanService : Service() {
                 // Thread interrupted => cancel scanning
                 return@Runnable
             }
-            mainHandler?.post { scanAsync(startId, fullRescan, files) }
+            val directoryIndex = newDirectoryIndex
+            val checkpoint = if (fullRescan) ScanCheckpoint.start(files) else null
+            if (checkpoint != null) {
+                val appContext = this.applicationContext
+                ioHandler?.post { ScanCheckpointStore.get(appContext).saveFiles(checkpoint) }
+            }
+            mainHandler?.post { scanAsync(startId, fullRescan, files, directoryIndex, checkpoint) }
         }
-        engineHandler?.post(task)
     }
 
     /**
@@ -171,9 +235,17 @@ class MediaScanService : Service() {
      * @param startId id of the command
      * @param fullRescan full rescan?
      * @param files to scan
+     * @param directoryIndex to persist when the scan is completed, if not null
+     * @param checkpoint to resume the scan from and to report the progress to, if not null
      */
     @MainThread
-    private fun scanAsync(startId: Int, fullRescan: Boolean, files: List<String>) {
+    private fun scanAsync(
+        startId: Int,
+        fullRescan: Boolean,
+        files: List<String>,
+        directoryIndex: DirectoryIndex?,
+        checkpoint: ScanCheckpoint?
+    ) {
         ThreadStrictMode.assertMain()
         if (!isAlive) {
             // Service is not created yet or destroyed already
@@ -193,8 +265,13 @@ class MediaScanService : Service() {
 
             override fun onScanCancelled() = onScanCancelled(startId)
         }
-        val newScanner = Scanners.createGradualScanner(appContext, files, SCAN_TIMEOUT_MILLIS, callback)
-        val newScannerInfo = ScannerInfo(startId, fullRescan, newScanner)
+        val newScanner = if (checkpoint != null) {
+            Scanners.createCheckpointedScanner(appContext, checkpoint, SCAN_TIMEOUT_MILLIS, callback,
+                ::saveScanCheckpoint)
+        } else {
+            Scanners.createPipelinedScanner(appContext, files, SCAN_TIMEOUT_MILLIS, callback)
+        }
+        val newScannerInfo = ScannerInfo(startId, fullRescan, newScanner, directoryIndex, checkpoint != null)
         synchronized(scanners) {
             scanners[startId]?.also { oldScannerInfo ->
                 oldScannerInfo.scanner.cancel()
@@ -244,10 +321,57 @@ class MediaScanService : Service() {
                 .putExtra(EXTRA_MEDIA_SCANNING_COMPLETED, true)
             LocalBroadcastManager.getInstance(this).sendBroadcast(statusIntent)
         }
-        synchronized(scanners) { scanners.remove(startId) }
+        val scannerInfo = synchronized(scanners) {
+            scanners[startId].also { scanners.remove(startId) }
+        }
+        scannerInfo?.directoryIndex?.also { directoryIndex ->
+            // The files are scanned, so the next incremental rescan can skip unchanged directories,
+            // except the ones with files that timed out, which must be collected and scanned again
+            val timedOutFiles = scannerInfo.scanner.getTimedOutFiles()
+            if (timedOutFiles.isNotEmpty()) {
+                if (DEBUG) Log.w(LOG_TAG, "Scan timed out for ${timedOutFiles.size} file(s)")
+                timedOutFiles.forEach { path ->
+                    File(path).parent?.also { directory -> directoryIndex.remove(directory) }
+                }
+            }
+            saveDirectoryIndex(directoryIndex)
+        }
+        if (scannerInfo?.isCheckpointed == true) {
+            clearScanCheckpoint()
+        }
         stopSelf(startId)
     }
 
+    /**
+     * Saves [directoryIndex] on the IO thread, because the engine thread
+     * is interrupted as soon as the service is stopped, while the IO thread completes pending writes.
+     */
+    private fun saveDirectoryIndex(directoryIndex: DirectoryIndex) {
+        val appContext = this.applicationContext
+        val task = Runnable {
+            DirectoryIndexStore.get(appContext).save(directoryIndex)
+            if (DEBUG) Log.d(LOG_TAG, "Directory index saved: size=${directoryIndex.size()}")
+        }
+        ioHandler?.post(task)
+    }
+
+    /**
+     * Saves the progress of [checkpoint] on the IO thread, so the scan can be resumed if the process dies.
+     * This is called periodically while scanning and when the scanner is cancelled.
+     */
+    private fun saveScanCheckpoint(checkpoint: ScanCheckpoint) {
+        val appContext = this.applicationContext
+        ioHandler?.post { ScanCheckpointStore.get(appContext).saveProgress(checkpoint) }
+    }
+
+    /**
+     * Clears the scan checkpoint on the IO thread, after the pending checkpoint writes.
+     */
+    private fun clearScanCheckpoint() {
+        val appContext = this.applicationContext
+        ioHandler?.post { ScanCheckpointStore.get(appContext).clear() }
+    }
+
     @MainThread
     private fun onScanCancelled(startId: Int) {
         ThreadStrictMode.assertMain()
@@ -296,7 +420,9 @@ class MediaScanService : Service() {
     private class ScannerInfo(
         val startId: Int,
         val fullRescan: Boolean,
-        val scanner: Scanner
+        val scanner: Scanner,
+        val directoryIndex: DirectoryIndex?,
+        val isCheckpointed: Boolean
     )
 
     companion object {
@@ -305,6 +431,10 @@ class MediaScanService : Service() {
 
         // Timeout for one-file-scan
         private const val SCAN_TIMEOUT_MILLIS = 5000L
+        // Whether to walk the file hierarchy in parallel for full rescans
+        private const val PARALLEL_FULL_RESCAN = true
+        // Whether full rescans should visit only the directories changed since the last completed rescan
+        private const val INCREMENTAL_FULL_RESCAN = true
         private const val RC_CANCEL = 3731
 
         // Used for broadcasting
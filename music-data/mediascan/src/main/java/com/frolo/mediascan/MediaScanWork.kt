@@ -7,6 +7,7 @@ import androidx.work.*
 import com.frolo.threads.ThreadStrictMode
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 
 private const val LOG_TAG = "MediaScanWork"
 
@@ -40,18 +41,26 @@ internal class MediaScanWorker(context: Context, params: WorkerParameters): Work
         val data = this.inputData
         val fileCollector = AudioFileCollector.get(applicationContext)
         return if (data.getBoolean(ARG_SCAN_ALL_PATHS, false)) {
-            doScan(fileCollector.collectAll())
+            // Only directories that have changed since the last completed rescan are visited
+            val directoryIndexStore = DirectoryIndexStore.get(applicationContext)
+            val collected = fileCollector.collectChanged(directoryIndexStore.load())
+            val result = doScan(collected.files)
+            if (result.isCompleted) {
+                directoryIndexStore.save(collected.index)
+            }
+            result.workResult
         } else {
             val targetFiles = data.getStringArray(ARG_TARGET_PATHS).orEmpty().toList()
-            doScan(fileCollector.collectFrom(targetFiles))
+            doScan(fileCollector.collectFrom(targetFiles)).workResult
         }
     }
 
     @WorkerThread
-    private fun doScan(files: List<String>): Result {
+    private fun doScan(files: List<String>): ScanResult {
         ThreadStrictMode.assertBackground()
         val fileTimeoutMillis = FILE_SCAN_TIMEOUT_MS
         val waiter = CountDownLatch(1)
+        val isCompleted = AtomicBoolean(false)
         val callback = object : Scanner.Callback {
             override fun onScanStarted() {
                 Log.d(LOG_TAG, "Scan started")
@@ -62,6 +71,7 @@ internal class MediaScanWorker(context: Context, params: WorkerParameters): Work
 
             override fun onScanCompleted() {
                 Log.d(LOG_TAG, "Scan completed")
+                isCompleted.set(true)
                 waiter.countDown()
             }
 
@@ -73,6 +83,8 @@ internal class MediaScanWorker(context: Context, params: WorkerParameters): Work
         val timedScanner = Scanners.createGradualScanner(applicationContext, files, fileTimeoutMillis, callback)
         timedScanner.start()
         waiter.await(files.size * fileTimeoutMillis, TimeUnit.MILLISECONDS)
-        return Result.success()
+        return ScanResult(Result.success(), isCompleted.get())
     }
+
+    private class ScanResult(val workResult: Result, val isCompleted: Boolean)
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Walks the file hierarchy on a work-stealing {@link ForkJoinPool}, one task per directory.
+ * Each child is queried for its attributes only once: hidden files are detected by the name,
+ * and {@link #NO_MEDIA_FILENAME} is detected while listing the directory rather than with an extra existence check.
+ * The skip rules are the same as for {@link SequentialAudioFileWalker}.
+ * NOTE: the order of the collected files may differ from the sequential walk.
+ */
+final class ParallelAudioFileWalker extends AudioFileWalker {
+
+    private final int mParallelism;
+
+    ParallelAudioFileWalker(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    @Override
+    void walk(@Nullable String parent, @NonNull List<String> dst) {
+        if (isEmpty(parent)) {
+            return;
+        }
+        final File root = new File(parent);
+        if (root.isHidden() || !root.isDirectory()) {
+            return;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            dst.addAll(pool.invoke(new DirectoryTask(root)));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects audio files in a directory that is known to be a non-hidden directory.
+     */
+    private static final class DirectoryTask extends RecursiveTask<List<String>> {
+
+        final File mDirectory;
+
+        DirectoryTask(File directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        protected List<String> compute() {
+            final File[] listFiles = mDirectory.listFiles();
+            if (listFiles == null || listFiles.length == 0) {
+                return Collections.emptyList();
+            }
+
+            for (File childFile : listFiles) {
+                if (NO_MEDIA_FILENAME.equals(childFile.getName())) {
+                    // There is no need to scan this directory
+                    return Collections.emptyList();
+                }
+            }
+
+            final List<String> result = new ArrayList<>();
+            List<DirectoryTask> subtasks = null;
+            for (File childFile : listFiles) {
+                String childPath = childFile.getAbsolutePath();
+                if (isEmpty(childPath)) {
+                    continue;
+                }
+                if (childFile.isDirectory()) {
+                    if (isHidden(childFile)) {
+                        continue;
+                    }
+                    if (subtasks == null) {
+                        subtasks = new ArrayList<>();
+                    }
+                    DirectoryTask subtask = new DirectoryTask(childFile);
+                    subtask.fork();
+                    subtasks.add(subtask);
+                } else if (isAudioFile(childPath)) {
+                    // it's an audio file, let's add it
+                    result.add(childPath);
+                }
+            }
+
+            if (subtasks != null) {
+                for (DirectoryTask subtask : subtasks) {
+                    result.addAll(subtask.join());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * The same as {@link File#isHidden()} on Unix-like systems, but without touching the file system.
+         */
+        private static boolean isHidden(File file) {
+            return file.getName().startsWith(".");
+        }
+    }
+}
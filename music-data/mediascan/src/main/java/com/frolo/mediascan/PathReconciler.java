@@ -0,0 +1,127 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reconciles collected audio files against the paths known by the MediaStore.
+ * This is a hash-indexed replacement for calling {@link List#contains(Object)}
+ * and {@link List#remove(Object)} on the collected list for each MediaStore row,
+ * which is quadratic in the number of files.
+ *
+ * The semantics are the same as for the list-based approach:
+ * a reconciled path that is in the collection is removed from it (one occurrence),
+ * and a reconciled path that is not in the collection is added to it.
+ * Each operation takes constant time, so reconciling n rows takes linear time.
+ *
+ * NOTE: this class is not thread-safe.
+ */
+final class PathReconciler {
+
+    private static boolean isEmpty(@Nullable String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Distinct paths in the order they were first added. It may contain paths
+     * whose count has dropped to zero, they are skipped in {@link #toList()}.
+     */
+    private final List<String> mOrder;
+    /**
+     * The number of occurrences of each path in the collection.
+     */
+    private final Map<String, Counter> mCounts;
+    private int mSize = 0;
+
+    PathReconciler() {
+        this(16);
+    }
+
+    PathReconciler(int expectedSize) {
+        mOrder = new ArrayList<>(expectedSize);
+        mCounts = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /**
+     * Adds <code>path</code> to the collection.
+     * @param path to add
+     */
+    void add(@NonNull String path) {
+        Counter counter = mCounts.get(path);
+        if (counter == null) {
+            counter = new Counter();
+            mCounts.put(path, counter);
+            mOrder.add(path);
+        }
+        counter.value++;
+        mSize++;
+    }
+
+    /**
+     * Adds all <code>paths</code> to the collection.
+     * @param paths to add
+     */
+    void addAll(@NonNull Collection<String> paths) {
+        for (String path : paths) {
+            add(path);
+        }
+    }
+
+    /**
+     * Reconciles <code>path</code> found in the MediaStore with the collection.
+     * If the collection contains the path, then one occurrence of it is removed,
+     * because the MediaStore identifies this file already, there is no need to scan it again.
+     * Otherwise, the path is added, because the file may be deleted already, so it needs to be scanned.
+     * Empty paths are ignored.
+     * @param path found in the MediaStore
+     */
+    void reconcile(@Nullable String path) {
+        if (isEmpty(path)) {
+            return;
+        }
+        Counter counter = mCounts.get(path);
+        if (counter != null && counter.value > 0) {
+            counter.value--;
+            mSize--;
+        } else {
+            add(path);
+        }
+    }
+
+    /**
+     * @return the number of paths in the collection, including duplicates
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the reconciled paths in the order they were first added.
+     * @return the reconciled paths
+     */
+    @NonNull
+    List<String> toList() {
+        final List<String> result = new ArrayList<>(mSize);
+        for (String path : mOrder) {
+            Counter counter = mCounts.get(path);
+            if (counter == null || counter.value <= 0) {
+                continue;
+            }
+            for (int i = 0; i < counter.value; i++) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    private static final class Counter {
+        int value;
+    }
+}
@@ -0,0 +1,208 @@
+package com.frolo.mediascan
+
+import android.content.Context
+import android.media.MediaScannerConnection
+import android.net.Uri
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+import com.frolo.debug.DebugUtils
+import java.util.BitSet
+import java.util.concurrent.atomic.AtomicBoolean
+
+
+/**
+ * Scanner that keeps at most [maxInFlight] scan requests submitted to the MediaScanner at a time.
+ * The next file is submitted as soon as one of the in-flight files is scanned,
+ * or its scan times out [timeoutMillis] after its submission.
+ * Progress updates are coalesced and dispatched to the main thread
+ * at most once per [PROGRESS_INTERVAL_MILLIS], so the main thread pressure
+ * does not depend on the number of files.
+ *
+ * The files flagged in [initiallyCompleted] are not scanned again, which allows resuming a scan.
+ * The completion flags are reported to [checkpointListener] at most once per [CHECKPOINT_INTERVAL_MILLIS]
+ * and when the scanner is cancelled, see [ScanCheckpoint].
+ */
+internal class PipelinedScannerImpl(
+    context: Context,
+    files: List<String>,
+    private val maxInFlight: Int,
+    timeoutMillis: Long,
+    private val callback: Scanner.Callback,
+    initiallyCompleted: BitSet? = null,
+    private val checkpointListener: CheckpointListener? = null
+): Scanner {
+
+    fun interface CheckpointListener {
+        fun onCheckpoint(completed: BitSet)
+    }
+
+    private val isStarted = AtomicBoolean(false)
+    private val isCancelled = AtomicBoolean(false)
+
+    private val pipeline = ScanPipeline(files, maxInFlight, timeoutMillis, initiallyCompleted)
+    private val totalCount = pipeline.totalCount
+
+    private val isProgressUpdatePending = AtomicBoolean(false)
+    private val isTimeoutCheckScheduled = AtomicBoolean(false)
+    // Accessed on the main thread only
+    private var lastCheckpointTime = SystemClock.uptimeMillis()
+
+    private val handler = Handler(context.mainLooper)
+
+    private val clientProxy: MediaScannerConnection.MediaScannerConnectionClient =
+        object : MediaScannerConnection.MediaScannerConnectionClient {
+            override fun onMediaScannerConnected() {
+                if (isCancelled.get()) {
+                    return
+                }
+                if (DEBUG) Log.d(LOG_TAG, "Connected to MediaScanner")
+                handler.post(dispatchScanStartedTask)
+                submitPendingFiles()
+            }
+
+            override fun onScanCompleted(path: String?, uri: Uri?) {
+                if (isCancelled.get() || path == null) {
+                    return
+                }
+                if (pipeline.onScanned(path)) {
+                    onFilesCompleted()
+                    submitPendingFiles()
+                }
+            }
+        }
+    private val connection: MediaScannerConnection = MediaScannerConnection(context, clientProxy)
+
+    // Scan started msg
+    private val dispatchScanStartedTask = Runnable { callback.onScanStarted() }
+    // Progress changed msg
+    private val dispatchProgressChangedToken = Any()
+    private val dispatchProgressChangedTask = Runnable {
+        isProgressUpdatePending.set(false)
+        val progress = pipeline.completedCount
+        if (!isCancelled.get() && progress < totalCount) {
+            callback.onScanProgressChanged(total = totalCount, progress = progress)
+            val now = SystemClock.uptimeMillis()
+            if (now - lastCheckpointTime >= CHECKPOINT_INTERVAL_MILLIS) {
+                lastCheckpointTime = now
+                dispatchCheckpoint()
+            }
+        }
+    }
+    // Check timeout msg, posted at the earliest deadline of the in-flight files
+    private val checkTimeoutTask = Runnable {
+        isTimeoutCheckScheduled.set(false)
+        if (isCancelled.get()) {
+            return@Runnable
+        }
+        val expiredCount = pipeline.expire(SystemClock.uptimeMillis())
+        if (expiredCount > 0) {
+            if (DEBUG) Log.w(LOG_TAG, "Timeout for $expiredCount file(s). Keep on scanning")
+            onFilesCompleted()
+        }
+        submitPendingFiles()
+    }
+
+    override fun start() {
+        if (isCancelled.get()) {
+            return
+        }
+        if (isStarted.getAndSet(true)) {
+            return
+        }
+        connection.connect()
+        if (DEBUG) Log.d(LOG_TAG, "Started scanning: totalCount=$totalCount, " +
+                "completedCount=${pipeline.completedCount}, maxInFlight=$maxInFlight")
+    }
+
+    override fun cancel() {
+        if (isCancelled.getAndSet(true)) {
+            return
+        }
+        connection.disconnect()
+        handler.removeCallbacks(checkTimeoutTask)
+        handler.removeCallbacksAndMessages(dispatchProgressChangedToken)
+        dispatchCheckpoint()
+        handler.post { callback.onScanCancelled() }
+        if (DEBUG) Log.d(LOG_TAG, "Canceled scanning")
+    }
+
+    override fun getTimedOutFiles(): List<String> = pipeline.getExpiredPaths()
+
+    private fun dispatchCheckpoint() {
+        checkpointListener?.onCheckpoint(pipeline.copyCompleted())
+    }
+
+    private fun onFilesCompleted() {
+        if (pipeline.isComplete) {
+            onAllFilesScanned()
+        } else if (isProgressUpdatePending.compareAndSet(false, true)) {
+            // Coalesce progress updates, there is at most one pending update at a time
+            handler.postAtTime(dispatchProgressChangedTask, dispatchProgressChangedToken,
+                SystemClock.uptimeMillis() + PROGRESS_INTERVAL_MILLIS)
+        }
+    }
+
+    /**
+     * Submits pending files, while the number of in-flight files is less than [maxInFlight],
+     * and schedules the timeout check for the in-flight files.
+     */
+    private fun submitPendingFiles() {
+        if (isCancelled.get()) {
+            return
+        }
+        if (pipeline.isComplete) {
+            // Nothing to scan or everything has been scanned before resuming
+            onAllFilesScanned()
+            return
+        }
+        while (true) {
+            val path = pipeline.poll(SystemClock.uptimeMillis()) ?: break
+            try {
+                connection.scanFile(path, null)
+            } catch (e: Throwable) {
+                // The connection may be lost already
+                if (DEBUG) Log.e(LOG_TAG, "Failed to submit $path", e)
+                break
+            }
+        }
+        scheduleTimeoutCheck()
+    }
+
+    /**
+     * Schedules the timeout check at the earliest deadline of the in-flight files, unless it's scheduled already.
+     * The deadlines are in the order of submission, so a check scheduled earlier is never late:
+     * at worst, it runs before the earliest deadline, because that file has been scanned, and reschedules itself.
+     */
+    private fun scheduleTimeoutCheck() {
+        if (isCancelled.get()) {
+            return
+        }
+        val deadline = pipeline.nextDeadline()
+        if (deadline == ScanPipeline.NO_DEADLINE) {
+            return
+        }
+        if (isTimeoutCheckScheduled.compareAndSet(false, true)) {
+            handler.postAtTime(checkTimeoutTask, deadline)
+        }
+    }
+
+    private fun onAllFilesScanned() {
+        if (isCancelled.getAndSet(true)) {
+            return
+        }
+        if (DEBUG) Log.d(LOG_TAG, "Completed scanning")
+        connection.disconnect()
+        handler.removeCallbacks(checkTimeoutTask)
+        handler.removeCallbacksAndMessages(dispatchProgressChangedToken)
+        handler.post { callback.onScanCompleted() }
+    }
+
+    companion object {
+        private val DEBUG = DebugUtils.isDebug()
+        private val LOG_TAG = PipelinedScannerImpl::class.java.simpleName
+
+        private const val PROGRESS_INTERVAL_MILLIS = 250L
+        private const val CHECKPOINT_INTERVAL_MILLIS = 2000L
+    }
+}
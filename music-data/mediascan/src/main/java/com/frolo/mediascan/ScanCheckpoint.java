@@ -0,0 +1,144 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Progress of a full rescan: the files to scan and the flags of the ones that are completed already.
+ * It's persisted in two parts: the files are written once, when the scan starts,
+ * and the flags are written repeatedly while scanning, see {@link ScanCheckpointStore}.
+ * Both parts have the ID of the scan, so that the flags of one scan are never applied to the files of another.
+ */
+public final class ScanCheckpoint {
+
+    private static final int FILES_MAGIC = 0x46534346; // FSCF
+    private static final int PROGRESS_MAGIC = 0x46534350; // FSCP
+    private static final int VERSION = 1;
+
+    private static final Random sIdGenerator = new Random();
+
+    /**
+     * Creates a checkpoint for a new scan of <code>files</code>, with no completed files.
+     */
+    @NonNull
+    static ScanCheckpoint start(@NonNull List<String> files) {
+        final long id;
+        synchronized (sIdGenerator) {
+            id = sIdGenerator.nextLong();
+        }
+        return new ScanCheckpoint(id, files, new BitSet(files.size()));
+    }
+
+    final long id;
+    @NonNull
+    final List<String> files;
+    @NonNull
+    final BitSet completed;
+
+    ScanCheckpoint(long id, @NonNull List<String> files, @NonNull BitSet completed) {
+        this.id = id;
+        this.files = files;
+        this.completed = completed;
+    }
+
+    /**
+     * Returns the same scan with <code>completed</code> flags.
+     */
+    @NonNull
+    ScanCheckpoint withCompleted(@NonNull BitSet completed) {
+        return new ScanCheckpoint(id, files, completed);
+    }
+
+    boolean isComplete() {
+        return completed.nextClearBit(0) >= files.size();
+    }
+
+    void writeFilesTo(@NonNull OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(FILES_MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(id);
+        data.writeInt(files.size());
+        for (String file : files) {
+            data.writeUTF(file);
+        }
+        data.flush();
+    }
+
+    void writeProgressTo(@NonNull OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(PROGRESS_MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(id);
+        data.writeInt(files.size());
+        final long[] words = completed.toLongArray();
+        data.writeInt(words.length);
+        for (long word : words) {
+            data.writeLong(word);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #writeFilesTo(OutputStream)} and {@link #writeProgressTo(OutputStream)}.
+     * If there is no progress, or it belongs to another scan, then no files are completed.
+     * @param filesIn to read the files from
+     * @param progressIn to read the progress from, may be null
+     * @return the checkpoint read
+     * @throws IOException if an I/O error occurs or the files are malformed
+     */
+    @NonNull
+    static ScanCheckpoint readFrom(@NonNull InputStream filesIn, @Nullable InputStream progressIn) throws IOException {
+        final DataInputStream filesData = new DataInputStream(filesIn);
+        if (filesData.readInt() != FILES_MAGIC || filesData.readInt() != VERSION) {
+            throw new IOException("Not a scan checkpoint");
+        }
+        final long id = filesData.readLong();
+        final int size = filesData.readInt();
+        if (size < 0) {
+            throw new IOException("Malformed scan checkpoint: size=" + size);
+        }
+        final List<String> files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            files.add(filesData.readUTF());
+        }
+
+        BitSet completed = new BitSet(size);
+        if (progressIn != null) {
+            try {
+                completed = readProgress(new DataInputStream(progressIn), id, size);
+            } catch (IOException ignored) {
+                // The progress is optional: the scan is resumed from the beginning
+            }
+        }
+        return new ScanCheckpoint(id, Collections.unmodifiableList(files), completed);
+    }
+
+    private static BitSet readProgress(DataInputStream data, long id, int size) throws IOException {
+        if (data.readInt() != PROGRESS_MAGIC || data.readInt() != VERSION
+                || data.readLong() != id || data.readInt() != size) {
+            throw new IOException("The progress does not match the files");
+        }
+        final int wordCount = data.readInt();
+        if (wordCount < 0 || wordCount > (size + 63) / 64) {
+            throw new IOException("Malformed scan progress: wordCount=" + wordCount);
+        }
+        final long[] words = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = data.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+}
@@ -0,0 +1,134 @@
+package com.frolo.mediascan;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.AtomicFile;
+
+import com.frolo.debug.DebugUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Persists the {@link ScanCheckpoint} of the current full rescan in the no-backup files directory,
+ * so that the rescan can be resumed if the process dies before it is completed.
+ * Writes are atomic, so a process death during a write does not corrupt the stored checkpoint.
+ */
+final class ScanCheckpointStore {
+
+    private static final String FILES_FILENAME = "mediascan_checkpoint_files";
+    private static final String PROGRESS_FILENAME = "mediascan_checkpoint_progress";
+
+    static ScanCheckpointStore get(@NonNull Context context) {
+        return new ScanCheckpointStore(context);
+    }
+
+    private interface Writer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final AtomicFile mFilesFile;
+    private final AtomicFile mProgressFile;
+
+    private ScanCheckpointStore(Context context) {
+        mFilesFile = new AtomicFile(new File(context.getNoBackupFilesDir(), FILES_FILENAME));
+        mProgressFile = new AtomicFile(new File(context.getNoBackupFilesDir(), PROGRESS_FILENAME));
+    }
+
+    private void logError(Throwable err) {
+        if (DebugUtils.isDebug()) Log.e("ScanCheckpointStore", "", err);
+    }
+
+    /**
+     * Loads the stored checkpoint.
+     * @return the stored checkpoint, or null if there is no one or it cannot be read
+     */
+    @WorkerThread
+    @Nullable
+    ScanCheckpoint load() {
+        try (BufferedInputStream filesIn = new BufferedInputStream(mFilesFile.openRead())) {
+            InputStream progressIn = null;
+            try {
+                progressIn = new BufferedInputStream(mProgressFile.openRead());
+            } catch (FileNotFoundException ignored) {
+                // No progress yet
+            }
+            try {
+                return ScanCheckpoint.readFrom(filesIn, progressIn);
+            } finally {
+                if (progressIn != null) {
+                    progressIn.close();
+                }
+            }
+        } catch (FileNotFoundException ignored) {
+            return null;
+        } catch (Throwable e) {
+            logError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the files of <code>checkpoint</code> and drops the progress of the previous scan.
+     * This should be called once, when the scan starts.
+     */
+    @WorkerThread
+    void saveFiles(@NonNull final ScanCheckpoint checkpoint) {
+        mProgressFile.delete();
+        write(mFilesFile, new Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                checkpoint.writeFilesTo(out);
+            }
+        });
+    }
+
+    /**
+     * Stores the completion flags of <code>checkpoint</code>.
+     */
+    @WorkerThread
+    void saveProgress(@NonNull final ScanCheckpoint checkpoint) {
+        write(mProgressFile, new Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                checkpoint.writeProgressTo(out);
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored checkpoint, when the scan is completed or cancelled by the user.
+     */
+    @WorkerThread
+    void clear() {
+        mFilesFile.delete();
+        mProgressFile.delete();
+    }
+
+    private void write(AtomicFile file, Writer writer) {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+            writer.writeTo(bufferedOut);
+            bufferedOut.flush();
+            file.finishWrite(out);
+        } catch (Throwable e) {
+            logError(e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.frolo.mediascan
+
+import androidx.annotation.GuardedBy
+import java.util.ArrayDeque
+import java.util.BitSet
+
+
+/**
+ * Bookkeeping of [PipelinedScannerImpl] without the Android parts.
+ * Files are submitted in the order of [files], skipping the ones that are [completed] already,
+ * and at most [maxInFlight] of them are in flight at a time.
+ * Each in-flight file has an absolute deadline, [timeoutMillis] after its submission,
+ * and it's considered completed when it's scanned or its deadline is over.
+ * All the times are of the same monotonic clock, passed by the caller.
+ *
+ * This class is thread-safe.
+ */
+internal class ScanPipeline(
+    private val files: List<String>,
+    private val maxInFlight: Int,
+    private val timeoutMillis: Long,
+    completed: BitSet? = null
+) {
+
+    val totalCount: Int = files.size
+
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val completed: BitSet = completed?.clone() as? BitSet ?: BitSet(totalCount)
+    @GuardedBy("lock")
+    private var completedCount = this.completed.cardinality()
+    // Files whose deadlines were over before they were scanned
+    @GuardedBy("lock")
+    private val expired = BitSet()
+    // Index of the next file to submit
+    @GuardedBy("lock")
+    private var nextIndex = this.completed.nextClearBit(0)
+    // In-flight files in the order of submission, which is the order of their deadlines.
+    // The files that are scanned before their deadlines are removed when they get to the head.
+    @GuardedBy("lock")
+    private val inFlightQueue = ArrayDeque<InFlightFile>(maxInFlight)
+    // In-flight files by path, the same path may be submitted several times
+    @GuardedBy("lock")
+    private val inFlightByPath = HashMap<String, ArrayDeque<InFlightFile>>(maxInFlight * 2)
+    @GuardedBy("lock")
+    private var inFlightCount = 0
+
+    val completedCount: Int
+        get() = synchronized(lock) { completedCount }
+
+    val isComplete: Boolean
+        get() = synchronized(lock) { completedCount >= totalCount }
+
+    /**
+     * Takes the next file to submit at [now], or returns null if there are [maxInFlight] files
+     * in flight already or there are no more files to submit.
+     */
+    fun poll(now: Long): String? {
+        synchronized(lock) {
+            if (inFlightCount >= maxInFlight || nextIndex >= totalCount) {
+                return null
+            }
+            val index = nextIndex
+            nextIndex = completed.nextClearBit(index + 1)
+            val path = files[index]
+            val inFlightFile = InFlightFile(index, now + timeoutMillis)
+            inFlightQueue.addLast(inFlightFile)
+            inFlightByPath.getOrPut(path) { ArrayDeque(1) }.addLast(inFlightFile)
+            inFlightCount++
+            return path
+        }
+    }
+
+    /**
+     * Marks the earliest in-flight file with [path] as scanned.
+     * Returns false if there is no such file, for example if its deadline is over already.
+     */
+    fun onScanned(path: String): Boolean {
+        synchronized(lock) {
+            val queue = inFlightByPath[path] ?: return false
+            val inFlightFile = queue.pollFirst() ?: return false
+            if (queue.isEmpty()) {
+                inFlightByPath.remove(path)
+            }
+            inFlightFile.isDone = true
+            inFlightCount--
+            markCompleted(inFlightFile.index)
+            return true
+        }
+    }
+
+    /**
+     * Marks the in-flight files whose deadlines are over at [now] as completed.
+     * Returns the number of such files.
+     */
+    fun expire(now: Long): Int {
+        synchronized(lock) {
+            var expiredCount = 0
+            while (true) {
+                val inFlightFile = inFlightQueue.peekFirst() ?: break
+                if (inFlightFile.isDone) {
+                    inFlightQueue.pollFirst()
+                    continue
+                }
+                if (inFlightFile.deadline > now) {
+                    break
+                }
+                inFlightQueue.pollFirst()
+                val path = files[inFlightFile.index]
+                inFlightByPath[path]?.also { queue ->
+                    queue.remove(inFlightFile)
+                    if (queue.isEmpty()) {
+                        inFlightByPath.remove(path)
+                    }
+                }
+                inFlightFile.isDone = true
+                inFlightCount--
+                markCompleted(inFlightFile.index)
+                expired.set(inFlightFile.index)
+                expiredCount++
+            }
+            return expiredCount
+        }
+    }
+
+    /**
+     * Returns the earliest deadline of the in-flight files, or [NO_DEADLINE] if there are no files in flight.
+     */
+    fun nextDeadline(): Long {
+        synchronized(lock) {
+            while (true) {
+                val inFlightFile = inFlightQueue.peekFirst() ?: return NO_DEADLINE
+                if (!inFlightFile.isDone) {
+                    return inFlightFile.deadline
+                }
+                inFlightQueue.pollFirst()
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the completion flags, indexed as [files].
+     */
+    fun copyCompleted(): BitSet {
+        synchronized(lock) {
+            return completed.clone() as BitSet
+        }
+    }
+
+    /**
+     * Returns the paths of the files that were completed by [expire] rather than scanned.
+     * The same path may be returned twice if it was submitted twice.
+     */
+    fun getExpiredPaths(): List<String> {
+        synchronized(lock) {
+            val paths = ArrayList<String>(expired.cardinality())
+            var index = expired.nextSetBit(0)
+            while (index >= 0) {
+                paths.add(files[index])
+                index = expired.nextSetBit(index + 1)
+            }
+            return paths
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun markCompleted(index: Int) {
+        if (!completed[index]) {
+            completed.set(index)
+            completedCount++
+        }
+    }
+
+    private class InFlightFile(val index: Int, val deadline: Long) {
+        var isDone = false
+    }
+
+    companion object {
+        const val NO_DEADLINE = Long.MAX_VALUE
+    }
+}
@@ -4,6 +4,12 @@ interface Scanner {
     fun start()
     fun cancel()
 
+    /**
+     * Returns the files whose scan timed out, so they may not be in the media store.
+     * This makes sense once the scan is completed.
+     */
+    fun getTimedOutFiles(): List<String> = emptyList()
+
     interface Callback {
         fun onScanStarted()
         fun onScanProgressChanged(total: Int, progress: Int)
@@ -26,4 +26,44 @@ object Scanners {
     ): Scanner {
         return ParallelScannerImpl(context, files, callback)
     }
+
+    /**
+     * Creates a scanner that keeps at most [maxInFlight] scan requests in flight
+     * and dispatches coalesced progress updates.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun createPipelinedScanner(
+        context: Context,
+        files: List<String>,
+        timeoutMillis: Long,
+        callback: Scanner.Callback,
+        maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT
+    ): Scanner {
+        return PipelinedScannerImpl(context, files, maxInFlight, timeoutMillis, callback)
+    }
+
+    /**
+     * Creates a pipelined scanner for the files of [checkpoint] that are not completed yet.
+     * The progress is reported to [checkpointListener] periodically and when the scanner is cancelled,
+     * so that the scan can be resumed later from the reported checkpoint.
+     */
+    internal fun createCheckpointedScanner(
+        context: Context,
+        checkpoint: ScanCheckpoint,
+        timeoutMillis: Long,
+        callback: Scanner.Callback,
+        checkpointListener: CheckpointListener
+    ): Scanner {
+        return PipelinedScannerImpl(context, checkpoint.files, DEFAULT_MAX_IN_FLIGHT, timeoutMillis,
+            callback, checkpoint.completed) { completed ->
+            checkpointListener.onCheckpoint(checkpoint.withCompleted(completed))
+        }
+    }
+
+    internal fun interface CheckpointListener {
+        fun onCheckpoint(checkpoint: ScanCheckpoint)
+    }
+
+    private const val DEFAULT_MAX_IN_FLIGHT = 16
 }
\ No newline at end of file
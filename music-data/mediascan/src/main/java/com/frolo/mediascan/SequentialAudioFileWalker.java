@@ -0,0 +1,49 @@
+package com.frolo.mediascan;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.List;
+
+
+/**
+ * Single-threaded recursive {@link File#listFiles()} walk.
+ */
+final class SequentialAudioFileWalker extends AudioFileWalker {
+
+    @Override
+    void walk(@Nullable String parent, @NonNull List<String> dst) {
+        if (isEmpty(parent)) {
+            return;
+        }
+        File file = new File(parent);
+        if (!file.isHidden() && file.isDirectory() && !canSkipScanning(file)) {
+            File[] listFiles = file.listFiles();
+            if (listFiles != null && listFiles.length > 0) {
+                for (File childFile : listFiles) {
+                    String childPath = childFile.getAbsolutePath();
+                    if (isEmpty(childPath)) {
+                        continue;
+                    }
+                    if (childFile.isDirectory()) {
+                        // recursively searching for audio files in child file
+                        walk(childPath, dst);
+                    } else if (isAudioFile(childPath)) {
+                        // it's an audio file, let's add it
+                        dst.add(childPath);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if we can skip scanning the given <code>file</code>.
+     * @param file to test
+     * @return true if there is no need to scan the file, false - otherwise
+     */
+    private boolean canSkipScanning(@Nullable File file) {
+        return new File(file, NO_MEDIA_FILENAME).exists();
+    }
+}
@@ -0,0 +1,92 @@
+package com.frolo.mediascan
+
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.File
+
+
+@RunWith(JUnit4::class)
+class AudioFileWalkerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private fun File.createFiles(count: Int) {
+        repeat(count) { index ->
+            File(this, "Track_$index.mp3").createNewFile()
+            File(this, "Cover_$index.jpg").createNewFile()
+        }
+    }
+
+    /**
+     * Creates a tree with [depth] levels, each directory has [width] subdirectories.
+     */
+    private fun createTree(root: File, depth: Int, width: Int, filesPerDirectory: Int) {
+        root.mkdirs()
+        root.createFiles(filesPerDirectory)
+        if (depth > 0) {
+            repeat(width) { index ->
+                createTree(File(root, "Dir_$index"), depth - 1, width, filesPerDirectory)
+            }
+        }
+    }
+
+    private fun walk(walker: AudioFileWalker, root: File): List<String> {
+        val result = ArrayList<String>()
+        walker.walk(root.absolutePath, result)
+        return result
+    }
+
+    @Test
+    fun test_skipRules() {
+        val root = tempFolder.newFolder("root")
+        root.createFiles(2)
+        File(root, ".hidden").apply { mkdirs() }.createFiles(2)
+        File(root, "nomedia").apply { mkdirs() }.also { dir ->
+            dir.createFiles(2)
+            File(dir, AudioFileWalker.NO_MEDIA_FILENAME).createNewFile()
+        }
+        File(root, "visible").apply { mkdirs() }.createFiles(3)
+
+        val sequential = walk(AudioFileWalker.sequential(), root)
+        val parallel = walk(AudioFileWalker.parallel(), root)
+        assertEquals(5, sequential.size)
+        assertEquals(sequential.sorted(), parallel.sorted())
+    }
+
+    private fun test_Performance_walk(name: String, depth: Int, width: Int, filesPerDirectory: Int) {
+        val root = tempFolder.newFolder(name)
+        createTree(root, depth, width, filesPerDirectory)
+        var directoryCount = 0
+        var levelSize = 1
+        repeat(depth + 1) {
+            directoryCount += levelSize
+            levelSize *= width
+        }
+
+        val sequential = walk(AudioFileWalker.sequential(), root)
+        val parallel = walk(AudioFileWalker.parallel(), root)
+
+        // Each audio file is collected exactly once, by both walkers
+        assertEquals(directoryCount * filesPerDirectory, sequential.size)
+        assertEquals(sequential.size, sequential.toSet().size)
+        assertEquals(sequential.sorted(), parallel.sorted())
+    }
+
+    @Test
+    fun test_Performance_walk_DeepTree() {
+        // 2^10 leaf directories at depth 10
+        test_Performance_walk("deep", depth = 10, width = 2, filesPerDirectory = 2)
+    }
+
+    @Test
+    fun test_Performance_walk_WideTree() {
+        // 1 root directory with 2000 child directories
+        test_Performance_walk("wide", depth = 1, width = 2_000, filesPerDirectory = 5)
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.frolo.mediascan
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+
+@RunWith(JUnit4::class)
+class IncrementalAudioFileWalkerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private fun walk(
+        root: File,
+        oldIndex: DirectoryIndex,
+        parallelism: Int = 4
+    ): Pair<List<String>, IncrementalAudioFileWalker> {
+        val walker = IncrementalAudioFileWalker(oldIndex, parallelism)
+        val result = ArrayList<String>()
+        walker.walk(root.absolutePath, result)
+        return result to walker
+    }
+
+    private fun DirectoryIndex.copy(): DirectoryIndex {
+        val out = ByteArrayOutputStream()
+        writeTo(out)
+        return DirectoryIndex.readFrom(ByteArrayInputStream(out.toByteArray()))
+    }
+
+    private fun createTree(): File {
+        val root = tempFolder.newFolder("root")
+        File(root, "Track_0.mp3").createNewFile()
+        File(root, "Artist/Album").mkdirs()
+        File(root, "Artist/Album/Track_1.mp3").createNewFile()
+        File(root, "Artist/Album/Track_2.mp3").createNewFile()
+        File(root, "Artist/Album/Cover.jpg").createNewFile()
+        File(root, ".hidden").mkdirs()
+        File(root, ".hidden/Track_3.mp3").createNewFile()
+        File(root, "nomedia").mkdirs()
+        File(root, "nomedia/Track_4.mp3").createNewFile()
+        File(root, "nomedia/${AudioFileWalker.NO_MEDIA_FILENAME}").createNewFile()
+        return root
+    }
+
+    @Test
+    fun test_firstWalkCollectsAll() {
+        val root = createTree()
+        val (files, _) = walk(root, DirectoryIndex.empty())
+        val expected = ArrayList<String>()
+        AudioFileWalker.sequential().walk(root.absolutePath, expected)
+        assertEquals(expected.sorted(), files.sorted())
+    }
+
+    @Test
+    fun test_parallelismDoesNotAffectResult() {
+        val root = createTree()
+        val (sequentialFiles, sequentialWalker) = walk(root, DirectoryIndex.empty(), parallelism = 1)
+        val (parallelFiles, parallelWalker) = walk(root, DirectoryIndex.empty(), parallelism = 4)
+        assertEquals(sequentialFiles.sorted(), parallelFiles.sorted())
+        assertEquals(sequentialWalker.newIndex.size(), parallelWalker.newIndex.size())
+    }
+
+    @Test
+    fun test_indexSerialization() {
+        val root = createTree()
+        val (_, walker) = walk(root, DirectoryIndex.empty())
+        val index = walker.newIndex
+        val copy = index.copy()
+        assertEquals(index.snapshotTime, copy.snapshotTime)
+        assertEquals(index.size(), copy.size())
+        val album = File(root, "Artist/Album").absolutePath
+        assertEquals(index.get(album)!!.lastModified, copy.get(album)!!.lastModified)
+        assertEquals(index.get(album)!!.entryCount, copy.get(album)!!.entryCount)
+    }
+
+    @Test
+    fun test_unchangedWalkCollectsNothing() {
+        val root = createTree()
+        val (_, firstWalker) = walk(root, DirectoryIndex.empty())
+        val (files, walker) = walk(root, firstWalker.newIndex.copy())
+        assertTrue(files.isEmpty())
+        assertFalse(walker.needsReconciliation(File(root, "Artist/Album/Track_1.mp3").absolutePath))
+    }
+
+    @Test
+    fun test_changedDirectoryIsCollected() {
+        val root = createTree()
+        val (_, firstWalker) = walk(root, DirectoryIndex.empty())
+        val newFile = File(root, "Artist/Album/Track_5.mp3").apply { createNewFile() }
+        val (files, walker) = walk(root, firstWalker.newIndex.copy())
+        assertEquals(
+            listOf("Track_1.mp3", "Track_2.mp3", "Track_5.mp3"),
+            files.map { File(it).name }.sorted()
+        )
+        assertTrue(walker.needsReconciliation(newFile.absolutePath))
+        assertFalse(walker.needsReconciliation(File(root, "Track_0.mp3").absolutePath))
+    }
+
+    @Test
+    fun test_removedDirectoryIsCollectedAgain() {
+        // This is how the directories of the files whose scan timed out are collected by the next rescan
+        val root = createTree()
+        val (_, firstWalker) = walk(root, DirectoryIndex.empty())
+        val timedOutFile = File(root, "Artist/Album/Track_1.mp3")
+        val index = firstWalker.newIndex
+        index.remove(timedOutFile.parent)
+        val (files, _) = walk(root, index.copy())
+        assertEquals(listOf("Track_1.mp3", "Track_2.mp3"), files.map { File(it).name }.sorted())
+    }
+
+}
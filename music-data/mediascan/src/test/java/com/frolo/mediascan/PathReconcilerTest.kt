@@ -0,0 +1,98 @@
+package com.frolo.mediascan
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+
+@RunWith(JUnit4::class)
+class PathReconcilerTest {
+
+    /**
+     * The list-based reconciliation that [PathReconciler] replaces.
+     */
+    private fun reconcileWithList(collected: List<String>, mediaStorePaths: List<String>): List<String> {
+        val list = ArrayList(collected)
+        mediaStorePaths.forEach { path ->
+            if (list.contains(path)) {
+                list.remove(path)
+            } else if (path.isNotEmpty()) {
+                list.add(path)
+            }
+        }
+        return list
+    }
+
+    private fun reconcileWithReconciler(collected: List<String>, mediaStorePaths: List<String>): List<String> {
+        val reconciler = PathReconciler(collected.size)
+        reconciler.addAll(collected)
+        mediaStorePaths.forEach { path -> reconciler.reconcile(path) }
+        return reconciler.toList()
+    }
+
+    private fun generatePaths(count: Int): List<String> {
+        return List(count) { index -> "/storage/emulated/0/Music/Artist${index % 97}/Track_$index.mp3" }
+    }
+
+    @Test
+    fun test_reconcile() {
+        val collected = listOf("/a.mp3", "/b.mp3", "/c.mp3")
+        val mediaStorePaths = listOf("/b.mp3", "/d.mp3", "", "/a.mp3")
+        val result = reconcileWithReconciler(collected, mediaStorePaths)
+        assertEquals(listOf("/c.mp3", "/d.mp3"), result)
+        assertEquals(reconcileWithList(collected, mediaStorePaths).sorted(), result.sorted())
+    }
+
+    @Test
+    fun test_reconcileDuplicates() {
+        // Each path is collected twice, just like AudioFileCollector.collectAll does
+        val collected = listOf("/a.mp3", "/b.mp3", "/a.mp3", "/b.mp3")
+        val mediaStorePaths = listOf("/a.mp3", "/c.mp3", "/c.mp3", "/a.mp3", "/a.mp3")
+        val result = reconcileWithReconciler(collected, mediaStorePaths)
+        assertEquals(reconcileWithList(collected, mediaStorePaths).sorted(), result.sorted())
+    }
+
+    @Test
+    fun test_reconcileMatchesList() {
+        val paths = generatePaths(2_000)
+        val collected = paths.filterIndexed { index, _ -> index % 3 != 0 }
+        val mediaStorePaths = paths.filterIndexed { index, _ -> index % 2 == 0 }
+        val result = reconcileWithReconciler(collected, mediaStorePaths)
+        val expected = reconcileWithList(collected, mediaStorePaths)
+        assertEquals(expected.size, result.size)
+        assertEquals(expected.sorted(), result.sorted())
+    }
+
+    private fun test_Performance_reconcile(count: Int) {
+        val paths = generatePaths(count)
+        // Half of the files are known by the MediaStore, a few are deleted already
+        val collected = paths.filterIndexed { index, _ -> index % 100 != 0 }
+        val mediaStorePaths = paths.filterIndexed { index, _ -> index % 2 == 0 }
+        val reconciler = PathReconciler(collected.size)
+        reconciler.addAll(collected)
+        mediaStorePaths.forEach { path -> reconciler.reconcile(path) }
+
+        // The files unknown by the MediaStore and the deleted ones are left to scan.
+        // The list-based reconciliation is quadratic, so the result is checked against the expected paths instead.
+        val expected = paths.filterIndexed { index, _ -> index % 2 != 0 || index % 100 == 0 }
+        assertEquals(expected.size, reconciler.size())
+        assertEquals(expected.sorted(), reconciler.toList().sorted())
+    }
+
+    @Test
+    fun test_Performance_reconcile_SmallCount() {
+        test_Performance_reconcile(1_000)
+    }
+
+    @Test
+    fun test_Performance_reconcile_MediumCount() {
+        test_Performance_reconcile(10_000)
+    }
+
+    @Test
+    fun test_Performance_reconcile_HugeCount() {
+        test_Performance_reconcile(100_000)
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.frolo.mediascan
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.BitSet
+
+
+@RunWith(JUnit4::class)
+class ScanCheckpointTest {
+
+    private fun ScanCheckpoint.filesBytes(): ByteArray {
+        return ByteArrayOutputStream().also { out -> writeFilesTo(out) }.toByteArray()
+    }
+
+    private fun ScanCheckpoint.progressBytes(): ByteArray {
+        return ByteArrayOutputStream().also { out -> writeProgressTo(out) }.toByteArray()
+    }
+
+    private fun read(filesBytes: ByteArray, progressBytes: ByteArray?): ScanCheckpoint {
+        return ScanCheckpoint.readFrom(
+            ByteArrayInputStream(filesBytes),
+            progressBytes?.let { ByteArrayInputStream(it) }
+        )
+    }
+
+    @Test
+    fun test_roundTrip() {
+        val files = List(200) { index -> "/storage/emulated/0/Music/Трек_$index.mp3" }
+        val checkpoint = ScanCheckpoint.start(files)
+        val completed = BitSet()
+        completed.set(0, 70)
+        completed.set(130)
+        val progress = checkpoint.withCompleted(completed)
+
+        val restored = read(checkpoint.filesBytes(), progress.progressBytes())
+        assertEquals(files, restored.files)
+        assertEquals(completed, restored.completed)
+        assertFalse(restored.isComplete)
+    }
+
+    @Test
+    fun test_noProgress() {
+        val checkpoint = ScanCheckpoint.start(listOf("/a.mp3", "/b.mp3"))
+        val restored = read(checkpoint.filesBytes(), null)
+        assertEquals(checkpoint.files, restored.files)
+        assertTrue(restored.completed.isEmpty)
+    }
+
+    @Test
+    fun test_progressOfAnotherScanIsIgnored() {
+        val files = listOf("/a.mp3", "/b.mp3")
+        val checkpoint = ScanCheckpoint.start(files)
+        val anotherCompleted = BitSet()
+        anotherCompleted.set(0)
+        val anotherProgress = ScanCheckpoint.start(files).withCompleted(anotherCompleted)
+
+        val restored = read(checkpoint.filesBytes(), anotherProgress.progressBytes())
+        assertEquals(files, restored.files)
+        assertTrue(restored.completed.isEmpty)
+    }
+
+    @Test
+    fun test_isComplete() {
+        val completed = BitSet()
+        completed.set(0, 2)
+        assertTrue(ScanCheckpoint.start(listOf("/a.mp3", "/b.mp3")).withCompleted(completed).isComplete)
+        assertTrue(ScanCheckpoint.start(emptyList()).isComplete)
+    }
+
+    @Test(expected = IOException::class)
+    fun test_malformedFiles() {
+        read(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8), null)
+    }
+}
@@ -0,0 +1,176 @@
+package com.frolo.mediascan
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.util.BitSet
+
+
+@RunWith(JUnit4::class)
+class ScanPipelineTest {
+
+    private fun generatePaths(count: Int): List<String> {
+        return List(count) { index -> "/storage/emulated/0/Music/Track_$index.mp3" }
+    }
+
+    private fun ScanPipeline.pollAll(now: Long): List<String> {
+        val polled = ArrayList<String>()
+        while (true) {
+            polled.add(poll(now) ?: return polled)
+        }
+    }
+
+    @Test
+    fun test_submitsInOrderWithinLimit() {
+        val files = generatePaths(10)
+        val pipeline = ScanPipeline(files, maxInFlight = 3, timeoutMillis = 1000L)
+
+        assertEquals(files.subList(0, 3), pipeline.pollAll(now = 0L))
+
+        // Scanning one file frees one slot only
+        assertTrue(pipeline.onScanned(files[1]))
+        assertEquals(listOf(files[3]), pipeline.pollAll(now = 0L))
+
+        // Scanning the same file twice does not free another slot
+        assertFalse(pipeline.onScanned(files[1]))
+        assertNull(pipeline.poll(now = 0L))
+
+        val scanned = files.subList(0, 4).filter { it != files[1] }
+        scanned.forEach { path -> assertTrue(pipeline.onScanned(path)) }
+        assertEquals(files.subList(4, 7), pipeline.pollAll(now = 0L))
+        assertEquals(4, pipeline.completedCount)
+        assertFalse(pipeline.isComplete)
+    }
+
+    @Test
+    fun test_completesAllFiles() {
+        val files = generatePaths(100)
+        val pipeline = ScanPipeline(files, maxInFlight = 16, timeoutMillis = 1000L)
+        val submitted = ArrayList<String>()
+        while (!pipeline.isComplete) {
+            val polled = pipeline.pollAll(now = 0L)
+            assertTrue(polled.size <= 16)
+            submitted.addAll(polled)
+            // Scanned in the reverse order
+            polled.asReversed().forEach { path -> assertTrue(pipeline.onScanned(path)) }
+        }
+        assertEquals(files, submitted)
+        assertEquals(files.size, pipeline.completedCount)
+        assertEquals(ScanPipeline.NO_DEADLINE, pipeline.nextDeadline())
+    }
+
+    @Test
+    fun test_emptyFiles() {
+        val pipeline = ScanPipeline(emptyList(), maxInFlight = 16, timeoutMillis = 1000L)
+        assertTrue(pipeline.isComplete)
+        assertNull(pipeline.poll(now = 0L))
+        assertEquals(ScanPipeline.NO_DEADLINE, pipeline.nextDeadline())
+    }
+
+    @Test
+    fun test_duplicatePaths() {
+        // The same path may be collected twice, each submission is completed separately
+        val files = listOf("/a.mp3", "/b.mp3", "/a.mp3")
+        val pipeline = ScanPipeline(files, maxInFlight = 3, timeoutMillis = 1000L)
+        assertEquals(files, pipeline.pollAll(now = 0L))
+
+        assertTrue(pipeline.onScanned("/a.mp3"))
+        assertEquals(1, pipeline.completedCount)
+        assertTrue(pipeline.onScanned("/a.mp3"))
+        assertEquals(2, pipeline.completedCount)
+        assertFalse(pipeline.onScanned("/a.mp3"))
+
+        val completed = pipeline.copyCompleted()
+        assertTrue(completed[0])
+        assertFalse(completed[1])
+        assertTrue(completed[2])
+    }
+
+    @Test
+    fun test_timeoutIsAbsoluteDeadline() {
+        val files = generatePaths(4)
+        val timeoutMillis = 1000L
+        val pipeline = ScanPipeline(files, maxInFlight = 2, timeoutMillis = timeoutMillis)
+
+        assertEquals(files[0], pipeline.poll(now = 0L))
+        assertEquals(files[1], pipeline.poll(now = 400L))
+        assertEquals(timeoutMillis, pipeline.nextDeadline())
+
+        // Nothing expires before the deadline
+        assertEquals(0, pipeline.expire(now = 999L))
+        // The first file expires exactly at its deadline, not one more timeout period later
+        assertEquals(1, pipeline.expire(now = 1000L))
+        assertEquals(400L + timeoutMillis, pipeline.nextDeadline())
+
+        // The expired file is completed, and its late scan result is ignored
+        assertEquals(1, pipeline.completedCount)
+        assertFalse(pipeline.onScanned(files[0]))
+
+        // The freed slot gets its own deadline
+        assertEquals(files[2], pipeline.poll(now = 1000L))
+        assertEquals(1, pipeline.expire(now = 1400L))
+        assertEquals(1000L + timeoutMillis, pipeline.nextDeadline())
+    }
+
+    @Test
+    fun test_expiredPaths() {
+        val files = generatePaths(4)
+        val pipeline = ScanPipeline(files, maxInFlight = 4, timeoutMillis = 1000L)
+        pipeline.pollAll(now = 0L)
+        assertTrue(pipeline.onScanned(files[0]))
+        assertTrue(pipeline.onScanned(files[2]))
+        assertEquals(2, pipeline.expire(now = 1000L))
+        assertTrue(pipeline.isComplete)
+        // Only the files that were not scanned are reported
+        assertEquals(listOf(files[1], files[3]), pipeline.getExpiredPaths())
+    }
+
+    @Test
+    fun test_scannedFilesDoNotExpire() {
+        val files = generatePaths(3)
+        val pipeline = ScanPipeline(files, maxInFlight = 3, timeoutMillis = 1000L)
+        pipeline.poll(now = 0L)
+        pipeline.poll(now = 100L)
+        pipeline.poll(now = 200L)
+
+        assertTrue(pipeline.onScanned(files[0]))
+        assertTrue(pipeline.onScanned(files[1]))
+        // The deadline of the earliest file that is still in flight
+        assertEquals(1200L, pipeline.nextDeadline())
+        assertEquals(1, pipeline.expire(now = Long.MAX_VALUE - 1))
+        assertTrue(pipeline.isComplete)
+    }
+
+    @Test
+    fun test_resumeSkipsCompletedFiles() {
+        val files = generatePaths(10)
+        val original = ScanPipeline(files, maxInFlight = 4, timeoutMillis = 1000L)
+        original.pollAll(now = 0L)
+        assertTrue(original.onScanned(files[0]))
+        assertTrue(original.onScanned(files[2]))
+        // The files 1 and 3 are in flight when the scan is interrupted
+        val completed = original.copyCompleted()
+
+        val resumed = ScanPipeline(files, maxInFlight = 4, timeoutMillis = 1000L, completed = completed)
+        assertEquals(2, resumed.completedCount)
+        assertEquals(listOf(files[1], files[3], files[4], files[5]), resumed.pollAll(now = 0L))
+
+        // The resumed pipeline does not modify the flags it was created with
+        assertTrue(resumed.onScanned(files[1]))
+        assertFalse(completed[1])
+    }
+
+    @Test
+    fun test_resumeFullyCompleted() {
+        val files = generatePaths(5)
+        val completed = BitSet()
+        completed.set(0, files.size)
+        val pipeline = ScanPipeline(files, maxInFlight = 4, timeoutMillis = 1000L, completed = completed)
+        assertTrue(pipeline.isComplete)
+        assertNull(pipeline.poll(now = 0L))
+    }
+}
@@ -0,0 +1,509 @@
+package com.frolo.music.model;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+
+/**
+ * Compact column-oriented table of songs.
+ * Numeric fields are stored in primitive arrays, and repeated strings (album, artist, genre)
+ * are stored once in string pools and referenced by index.
+ * This takes much less heap than a list of separate {@link Song} objects,
+ * so it suits large libraries.
+ *
+ * Songs are exposed as lightweight views, see {@link #get(int)} and {@link #asList()}.
+ * A view reads the fields from the table, and it is replaced with a regular song when serialized.
+ *
+ * The table is immutable, use {@link Builder} to create it.
+ */
+public final class SongTable {
+
+    private static final SongType[] SONG_TYPES = SongType.values();
+
+    private static final SongTable EMPTY = new Builder(0).build();
+
+    public static SongTable empty() {
+        return EMPTY;
+    }
+
+    private final int size;
+
+    private final long[] ids;
+    private final byte[] songTypes;
+    private final String[] sources;
+    private final String[] titles;
+    private final long[] albumIds;
+    private final int[] albumRefs;
+    private final long[] artistIds;
+    private final int[] artistRefs;
+    private final int[] genreRefs;
+    private final int[] durations;
+    private final int[] years;
+    private final int[] trackNumbers;
+
+    // Pool of album, artist and genre names
+    private final String[] stringPool;
+
+    // Built lazily, see indexOfId
+    private volatile IdIndex idIndex;
+
+    private SongTable(Builder builder) {
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.songTypes = Arrays.copyOf(builder.songTypes, size);
+        this.sources = Arrays.copyOf(builder.sources, size);
+        this.titles = Arrays.copyOf(builder.titles, size);
+        this.albumIds = Arrays.copyOf(builder.albumIds, size);
+        this.albumRefs = Arrays.copyOf(builder.albumRefs, size);
+        this.artistIds = Arrays.copyOf(builder.artistIds, size);
+        this.artistRefs = Arrays.copyOf(builder.artistRefs, size);
+        this.genreRefs = Arrays.copyOf(builder.genreRefs, size);
+        this.durations = Arrays.copyOf(builder.durations, size);
+        this.years = Arrays.copyOf(builder.years, size);
+        this.trackNumbers = Arrays.copyOf(builder.trackNumbers, size);
+        this.stringPool = builder.stringPool.toArray(new String[0]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of distinct album, artist and genre names in this table.
+     */
+    public int getPooledStringCount() {
+        return stringPool.length;
+    }
+
+    public long getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public SongType getSongType(int index) {
+        checkIndex(index);
+        return SONG_TYPES[songTypes[index]];
+    }
+
+    public String getSource(int index) {
+        checkIndex(index);
+        return sources[index];
+    }
+
+    public String getTitle(int index) {
+        checkIndex(index);
+        return titles[index];
+    }
+
+    public long getAlbumId(int index) {
+        checkIndex(index);
+        return albumIds[index];
+    }
+
+    public String getAlbum(int index) {
+        checkIndex(index);
+        return stringPool[albumRefs[index]];
+    }
+
+    public long getArtistId(int index) {
+        checkIndex(index);
+        return artistIds[index];
+    }
+
+    public String getArtist(int index) {
+        checkIndex(index);
+        return stringPool[artistRefs[index]];
+    }
+
+    public String getGenre(int index) {
+        checkIndex(index);
+        return stringPool[genreRefs[index]];
+    }
+
+    public int getDuration(int index) {
+        checkIndex(index);
+        return durations[index];
+    }
+
+    public int getYear(int index) {
+        checkIndex(index);
+        return years[index];
+    }
+
+    public int getTrackNumber(int index) {
+        checkIndex(index);
+        return trackNumbers[index];
+    }
+
+    /**
+     * Returns the index of the first song with the given <code>id</code>, or -1 if there is no such song.
+     * The lookup is O(1), the ID index is built on the first call.
+     */
+    public int indexOfId(long id) {
+        IdIndex index = idIndex;
+        if (index == null) {
+            // Racy but safe: the index is immutable, so concurrent callers may only build it twice
+            index = new IdIndex(ids, size);
+            idIndex = index;
+        }
+        return index.get(id);
+    }
+
+    /**
+     * Returns a lightweight view of the song at <code>index</code>.
+     */
+    public Song get(int index) {
+        checkIndex(index);
+        return new SongView(this, index);
+    }
+
+    /**
+     * Returns a regular song, that does not reference this table, copied from the song at <code>index</code>.
+     */
+    public Song copy(int index) {
+        checkIndex(index);
+        return Songs.create(
+            ids[index],
+            SONG_TYPES[songTypes[index]],
+            sources[index],
+            titles[index],
+            albumIds[index],
+            stringPool[albumRefs[index]],
+            artistIds[index],
+            stringPool[artistRefs[index]],
+            stringPool[genreRefs[index]],
+            durations[index],
+            years[index],
+            trackNumbers[index]
+        );
+    }
+
+    /**
+     * Returns an unmodifiable list backed by this table.
+     * Its elements are views created on demand, see {@link #get(int)}.
+     */
+    public List<Song> asList() {
+        return new SongListView(this);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+    }
+
+    /**
+     * Open-addressing hash map from song IDs to the indexes of their first occurrences.
+     * It's two primitive arrays, so it keeps the table compact, unlike a map of boxed keys.
+     */
+    private static final class IdIndex {
+
+        final long[] keys;
+        // Index + 1, zero marks a free slot
+        final int[] values;
+        final int mask;
+
+        IdIndex(long[] ids, int size) {
+            // The load factor is at most 0.5
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = slot(ids[i]);
+                while (values[slot] != 0 && keys[slot] != ids[i]) {
+                    slot = (slot + 1) & mask;
+                }
+                if (values[slot] == 0) {
+                    // Only the first occurrence is kept
+                    keys[slot] = ids[i];
+                    values[slot] = i + 1;
+                }
+            }
+        }
+
+        int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        int get(long key) {
+            int slot = slot(key);
+            while (values[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    private static final class SongListView extends AbstractList<Song> implements RandomAccess {
+
+        final SongTable table;
+
+        SongListView(SongTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public Song get(int index) {
+            return table.get(index);
+        }
+
+        @Override
+        public int size() {
+            return table.size;
+        }
+    }
+
+    private static final class SongView implements Song, Serializable {
+
+        final SongTable table;
+        final int index;
+
+        SongView(SongTable table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+
+        @Override
+        public long getId() {
+            return table.ids[index];
+        }
+
+        @Override
+        public int getKind() {
+            return Media.SONG;
+        }
+
+        @Override
+        public SongType getSongType() {
+            return SONG_TYPES[table.songTypes[index]];
+        }
+
+        @Override
+        public String getSource() {
+            return table.sources[index];
+        }
+
+        @Override
+        public String getTitle() {
+            return table.titles[index];
+        }
+
+        @Override
+        public long getArtistId() {
+            return table.artistIds[index];
+        }
+
+        @Override
+        public String getArtist() {
+            return table.stringPool[table.artistRefs[index]];
+        }
+
+        @Override
+        public long getAlbumId() {
+            return table.albumIds[index];
+        }
+
+        @Override
+        public String getAlbum() {
+            return table.stringPool[table.albumRefs[index]];
+        }
+
+        @Override
+        public String getGenre() {
+            return table.stringPool[table.genreRefs[index]];
+        }
+
+        @Override
+        public int getDuration() {
+            return table.durations[index];
+        }
+
+        @Override
+        public int getYear() {
+            return table.years[index];
+        }
+
+        @Override
+        public int getTrackNumber() {
+            return table.trackNumbers[index];
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (obj instanceof SongView) {
+                SongView another = (SongView) obj;
+                if (another.table == table && another.index == index) return true;
+            }
+            return Songs.equalSongs(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) getId();
+        }
+
+        @Override
+        public String toString() {
+            return getSource();
+        }
+
+        /**
+         * A view must not drag the whole table along, so a regular song is serialized instead.
+         */
+        private Object writeReplace() throws ObjectStreamException {
+            return table.copy(index);
+        }
+    }
+
+    public static final class Builder {
+
+        private int size;
+
+        private long[] ids;
+        private byte[] songTypes;
+        private String[] sources;
+        private String[] titles;
+        private long[] albumIds;
+        private int[] albumRefs;
+        private long[] artistIds;
+        private int[] artistRefs;
+        private int[] genreRefs;
+        private int[] durations;
+        private int[] years;
+        private int[] trackNumbers;
+
+        private final List<String> stringPool = new ArrayList<>();
+        private final Map<String, Integer> stringPoolIndex = new HashMap<>();
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int initialCapacity) {
+            allocate(Math.max(initialCapacity, 0));
+        }
+
+        private void allocate(int capacity) {
+            ids = new long[capacity];
+            songTypes = new byte[capacity];
+            sources = new String[capacity];
+            titles = new String[capacity];
+            albumIds = new long[capacity];
+            albumRefs = new int[capacity];
+            artistIds = new long[capacity];
+            artistRefs = new int[capacity];
+            genreRefs = new int[capacity];
+            durations = new int[capacity];
+            years = new int[capacity];
+            trackNumbers = new int[capacity];
+        }
+
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity <= ids.length) {
+                return;
+            }
+            final int capacity = Math.max(minCapacity, ids.length + (ids.length >> 1) + 1);
+            ids = Arrays.copyOf(ids, capacity);
+            songTypes = Arrays.copyOf(songTypes, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            albumIds = Arrays.copyOf(albumIds, capacity);
+            albumRefs = Arrays.copyOf(albumRefs, capacity);
+            artistIds = Arrays.copyOf(artistIds, capacity);
+            artistRefs = Arrays.copyOf(artistRefs, capacity);
+            genreRefs = Arrays.copyOf(genreRefs, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            years = Arrays.copyOf(years, capacity);
+            trackNumbers = Arrays.copyOf(trackNumbers, capacity);
+        }
+
+        private int pool(String value) {
+            final String key = value != null ? value : "";
+            Integer ref = stringPoolIndex.get(key);
+            if (ref == null) {
+                ref = stringPool.size();
+                stringPool.add(key);
+                stringPoolIndex.put(key, ref);
+            }
+            return ref;
+        }
+
+        /**
+         * Appends a song. Null title, album, artist and genre are replaced with empty strings,
+         * the same as in {@link Songs#create(long, SongType, String, String, long, String, long, String, String, int, int, int)}.
+         */
+        public Builder add(
+            long id,
+            SongType songType,
+            String source,
+            String title,
+            long albumId,
+            String album,
+            long artistId,
+            String artist,
+            String genre,
+            int duration,
+            int year,
+            int trackNumber
+        ) {
+            ensureCapacity(size + 1);
+            final int index = size;
+            ids[index] = id;
+            songTypes[index] = (byte) songType.ordinal();
+            sources[index] = source;
+            titles[index] = title != null ? title : "";
+            albumIds[index] = albumId;
+            albumRefs[index] = pool(album);
+            artistIds[index] = artistId;
+            artistRefs[index] = pool(artist);
+            genreRefs[index] = pool(genre);
+            durations[index] = duration;
+            years[index] = year;
+            trackNumbers[index] = trackNumber;
+            size++;
+            return this;
+        }
+
+        public Builder add(Song song) {
+            return add(
+                song.getId(),
+                song.getSongType(),
+                song.getSource(),
+                song.getTitle(),
+                song.getAlbumId(),
+                song.getAlbum(),
+                song.getArtistId(),
+                song.getArtist(),
+                song.getGenre(),
+                song.getDuration(),
+                song.getYear(),
+                song.getTrackNumber()
+            );
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public SongTable build() {
+            return new SongTable(this);
+        }
+    }
+}
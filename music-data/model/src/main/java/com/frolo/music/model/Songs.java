@@ -60,23 +60,7 @@ public final class Songs {
 
         @Override
         public boolean equals(Object obj) {
-            if (obj == null) return false;
-            if (obj == this) return true;
-            if (obj != null && obj instanceof SimpleSong) {
-                SimpleSong another = (SimpleSong) obj;
-                return id == another.id
-                        && Objects.equals(source, another.source)
-                        && songType == another.songType
-                        && Objects.equals(title, another.title)
-                        && albumId == another.albumId
-                        && Objects.equals(album, another.album)
-                        && artistId == another.artistId
-                        && Objects.equals(artist, another.artist)
-                        && Objects.equals(genre, another.genre)
-                        && duration == another.duration
-                        && year == another.year
-                        && trackNumber == another.trackNumber;
-            } else return false;
+            return obj == this || equalSongs(this, obj);
         }
 
         @Override
@@ -137,6 +121,29 @@ public final class Songs {
         }
     }
 
+    /**
+     * Checks if <code>obj</code> is a song with the same fields as <code>song</code>.
+     * Any plain {@link Song} can be equal to another, regardless of its class,
+     * so that a song and a {@link SongTable} view of it are equal in both directions.
+     * Songs that carry extra state, like {@link SongWithPlayCount}, are never equal to plain songs.
+     */
+    static boolean equalSongs(Song song, Object obj) {
+        if (!(obj instanceof Song) || obj instanceof SongWithPlayCount) return false;
+        Song another = (Song) obj;
+        return song.getId() == another.getId()
+                && Objects.equals(song.getSource(), another.getSource())
+                && song.getSongType() == another.getSongType()
+                && Objects.equals(song.getTitle(), another.getTitle())
+                && song.getAlbumId() == another.getAlbumId()
+                && Objects.equals(song.getAlbum(), another.getAlbum())
+                && song.getArtistId() == another.getArtistId()
+                && Objects.equals(song.getArtist(), another.getArtist())
+                && Objects.equals(song.getGenre(), another.getGenre())
+                && song.getDuration() == another.getDuration()
+                && song.getYear() == another.getYear()
+                && song.getTrackNumber() == another.getTrackNumber();
+    }
+
     /**
      * Creates an instance of type Song.
      * @param id song ID
@@ -0,0 +1,153 @@
+package com.frolo.music.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+
+@RunWith(JUnit4::class)
+class SongTableTest {
+
+    private fun createSong(index: Int): Song {
+        // Strings are created for each song, the same as they are read from a cursor
+        return Songs.create(
+            index.toLong(),
+            SongType.values()[index % SongType.values().size],
+            "/storage/emulated/0/Music/Artist ${index % 300}/Album ${index % 3000}/Track $index.mp3",
+            "Track $index",
+            (index % 3000).toLong(),
+            "Album ${index % 3000}",
+            (index % 300).toLong(),
+            "Artist ${index % 300}",
+            "Genre ${index % 20}",
+            180_000 + index,
+            1990 + index % 30,
+            index % 20
+        )
+    }
+
+    private fun createTable(songCount: Int): SongTable {
+        val builder = SongTable.Builder(songCount)
+        for (index in 0 until songCount) {
+            builder.add(createSong(index))
+        }
+        return builder.build()
+    }
+
+    @Test
+    fun test_viewsEqualToSongs() {
+        val songs = List(1_000) { createSong(it) }
+        val builder = SongTable.Builder()
+        songs.forEach { builder.add(it) }
+        val table = builder.build()
+
+        assertEquals(songs.size, table.size())
+        // Artists, albums and genres are pooled
+        assertEquals(300 + 1000 + 20, table.getPooledStringCount())
+        songs.forEachIndexed { index, song ->
+            val view = table.get(index)
+            assertEquals(song, table.copy(index))
+            assertEquals(view, table.copy(index))
+            assertEquals(song.id, view.id)
+            assertEquals(song.source, view.source)
+            assertEquals(song.album, view.album)
+            assertEquals(song.trackNumber, view.trackNumber)
+        }
+        assertEquals(songs.map { it.id }, table.asList().map { it.id })
+        assertEquals(500, table.indexOfId(500L))
+        assertEquals(-1, table.indexOfId(-1L))
+    }
+
+    @Test
+    fun test_equalsIsSymmetric() {
+        val song = createSong(42)
+        val table = SongTable.Builder().add(song).add(createSong(43)).build()
+        val view = table.get(0)
+
+        // A song and its view are equal in both directions
+        assertTrue(view == song)
+        assertTrue(song == view)
+        assertEquals(song.hashCode(), view.hashCode())
+        assertTrue(table.copy(0) == view)
+        assertTrue(view == table.copy(0))
+
+        // The same for different songs
+        val other = table.get(1)
+        assertFalse(view == other)
+        assertFalse(other == song)
+        assertFalse(song == other)
+        assertNotEquals(view, createSong(43))
+        assertNotEquals(createSong(43), view)
+
+        // A song with a play count is not a plain song in any direction
+        val withPlayCount = SongWithPlayCount(song, 1, null)
+        assertFalse(view == withPlayCount)
+        assertFalse(withPlayCount == view)
+        assertFalse(song == withPlayCount)
+        assertFalse(withPlayCount == song)
+    }
+
+    @Test
+    fun test_indexOfId() {
+        val builder = SongTable.Builder()
+        val ids = longArrayOf(5L, -3L, Long.MAX_VALUE, Long.MIN_VALUE, 0L, 5L, 1L shl 32)
+        ids.forEach { id ->
+            val song = createSong(0)
+            builder.add(id, song.songType, song.source, song.title, song.albumId, song.album,
+                song.artistId, song.artist, song.genre, song.duration, song.year, song.trackNumber)
+        }
+        val table = builder.build()
+
+        // The first occurrence of a duplicated ID
+        assertEquals(0, table.indexOfId(5L))
+        assertEquals(1, table.indexOfId(-3L))
+        assertEquals(2, table.indexOfId(Long.MAX_VALUE))
+        assertEquals(3, table.indexOfId(Long.MIN_VALUE))
+        assertEquals(4, table.indexOfId(0L))
+        assertEquals(6, table.indexOfId(1L shl 32))
+        assertEquals(-1, table.indexOfId(1L))
+        assertEquals(-1, SongTable.empty().indexOfId(0L))
+
+        val largeTable = createTable(10_000)
+        for (index in 0 until largeTable.size()) {
+            assertEquals(index, largeTable.indexOfId(largeTable.getId(index)))
+        }
+        assertEquals(-1, largeTable.indexOfId(10_000L))
+    }
+
+    @Test
+    fun test_viewSerialization() {
+        val table = SongTable.Builder().add(createSong(7)).build()
+        val view = table.get(0)
+
+        val bytes = ByteArrayOutputStream()
+        ObjectOutputStream(bytes).use { it.writeObject(view) }
+        val deserialized = ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())).use { it.readObject() }
+
+        // The view is replaced with a regular song, that does not reference the table
+        assertTrue(deserialized is Song)
+        assertEquals(table.copy(0), deserialized)
+    }
+
+    @Test
+    fun test_heapFootprint() {
+        val songCount = 50_000
+        val table = createTable(songCount)
+        assertEquals(songCount, table.size())
+
+        // A list of songs holds 3 strings per song for albums, artists and genres,
+        // while the table holds each distinct string once
+        assertEquals(3000 + 300 + 20, table.getPooledStringCount())
+        assertTrue(table.get(0).album === table.get(3000).album)
+        assertTrue(table.get(0).artist === table.get(300).artist)
+        assertTrue(table.get(0).genre === table.get(20).genre)
+    }
+}